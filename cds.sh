@@ -0,0 +1,49 @@
+#!/usr/bin/env bash
+#
+# Builds an AppCDS archive of the classes the application loads, so later
+# starts map them in rather than loading them one by one.  The classes are
+# recorded during a training run: a bulk export of the last hour (or of the
+# number of seconds given as the first argument) into a throwaway database,
+# under the lean profile.  ./run.sh uses the archive until the jar is
+# rebuilt.
+
+set -e
+
+if [ ! -e "application.properties" ]
+then
+    2>&1 echo "No application.properties file found."
+    2>&1 echo "Please create from the template and try again."
+    exit 1
+fi
+
+TRAINING_SEC=${1:-3600}
+JAR=$(ls target/query-api-data-extract-*.jar | head -n 1)
+CDS=target/cds
+
+rm -rf "${CDS}"
+mkdir -p "${CDS}/app"
+
+# AppCDS only archives classes loaded from plain jar files, so the
+# application is unpacked, with its own classes in a jar of their own
+unzip -q "${JAR}" -d "${CDS}/app"
+jar cf "${CDS}/application.jar" -C "${CDS}/app/BOOT-INF/classes" .
+echo "${CDS}/application.jar:$(ls ${CDS}/app/BOOT-INF/lib/*.jar | tr '\n' ':')" > "${CDS}/classpath"
+
+java \
+    -XX:DumpLoadedClassList="${CDS}/app.classlist" \
+    -cp "$(cat ${CDS}/classpath)" \
+    com.medallia.references.feedbackdatasync.Application \
+    export \
+    --spring.profiles.active=lean \
+    --spring.datasource.url="jdbc:sqlite:${CDS}/training.db" \
+    --medallia.recordstream.file="${CDS}/training-stream.log" \
+    --medallia.export.start=$(( $(date +%s) - TRAINING_SEC )) \
+    --medallia.export.output="${CDS}/training.ndjson"
+
+java \
+    -Xshare:dump \
+    -XX:SharedClassListFile="${CDS}/app.classlist" \
+    -XX:SharedArchiveFile="${CDS}/app.jsa" \
+    -cp "$(cat ${CDS}/classpath)"
+
+rm -f "${CDS}"/training*
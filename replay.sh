@@ -0,0 +1,19 @@
+#!/usr/bin/env bash
+
+if [ ! -e "application.properties" ]
+then
+    2>&1 echo "No application.properties file found."
+    2>&1 echo "Please create from the template and try again."
+    exit 1
+fi
+
+if [ $# -eq 0 ]
+then
+    2>&1 echo "Usage: $0 --medallia.replay.start=<start> [--medallia.replay.end=<end>] [--name=value ...]"
+    exit 1
+fi
+
+java \
+    -Duser.timezone="America/Chicago" \
+    -jar target/query-api-data-extract-*.jar \
+    replay "$@"
@@ -7,7 +7,21 @@ then
     exit 1
 fi
 
+# Start from the AppCDS archive built by ./cds.sh, unless the jar is newer
+if [ target/cds/app.jsa -nt "$(ls target/query-api-data-extract-*.jar | head -n 1)" ]
+then
+    java \
+        -Duser.timezone="America/Chicago" \
+        -XX:SharedArchiveFile=target/cds/app.jsa \
+        -cp "$(cat target/cds/classpath)" \
+        com.medallia.references.feedbackdatasync.Application \
+        --debug \
+        "$@"
+    exit $?
+fi
+
 java \
     -Duser.timezone="America/Chicago" \
     -jar target/query-api-data-extract-*.jar \
-    --debug
+    --debug \
+    "$@"
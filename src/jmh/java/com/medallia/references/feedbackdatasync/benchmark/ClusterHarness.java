@@ -0,0 +1,188 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.medallia.references.feedbackdatasync.Application;
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.service.CheckpointStore;
+
+/**
+ * Runs several instances of the application in one JVM, sharing one
+ * database, against a {@link MockQueryApiServer} until they have extracted
+ * the whole synthetic dataset together, then reports throughput and the
+ * records each instance persisted.  That a stopped instance's shards are
+ * taken over without a record persisted or streamed twice is checked by
+ * {@code ClusterExtractionTest}.
+ *
+ * <p>{@code --instances} lists the instance counts to run, one fresh
+ * dataset each (default {@code 1,2,4}).  {@code --timeout-sec}
+ * bounds each run, and the mock server's arguments (e.g.
+ * {@code --records}, {@code --latency-msec}) configure the dataset; every
+ * other {@code --name=value} argument is passed to every instance, e.g.
+ * {@code --medallia.cluster.lease.sec=10}.</p>
+ *
+ * <p>Each instance extracts one shard at a time, so with a request latency
+ * the throughput grows with the number of instances.</p>
+ */
+public final class ClusterHarness {
+
+    private static final String INSTANCES_OPTION = "--instances=";
+    private static final String TIMEOUT_OPTION = "--timeout-sec=";
+
+    private ClusterHarness() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        String instances = "1,2,4";
+        long timeoutSeconds = 600;
+        final List<String> applicationArgs = new ArrayList<>();
+
+        for (final String arg : args) {
+            if (arg.startsWith(INSTANCES_OPTION)) {
+                instances = arg.substring(INSTANCES_OPTION.length());
+            } else if (arg.startsWith(TIMEOUT_OPTION)) {
+                timeoutSeconds = Long.parseLong(arg.substring(TIMEOUT_OPTION.length()));
+            } else if (!MockQueryApiServer.Options.isOption(arg)) {
+                applicationArgs.add(arg);
+            }
+        }
+
+        for (final String count : instances.split(",")) {
+            // Each run gets a dataset that ends now
+            final MockQueryApiServer.Options options = MockQueryApiServer.Options.parse(args);
+            run(options, Integer.parseInt(count.trim()), timeoutSeconds, applicationArgs);
+        }
+    }
+
+    private static void run(
+            final MockQueryApiServer.Options options,
+            final int instanceCount,
+            final long timeoutSeconds,
+            final List<String> applicationArgs
+    ) throws IOException, InterruptedException {
+        final Path directory = Files.createTempDirectory("cluster-harness");
+        final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+        final double[] persisted = new double[instanceCount];
+
+        try (MockQueryApiServer server = new MockQueryApiServer(options)) {
+            final long start = System.nanoTime();
+
+            for (int instance = 0; instance < instanceCount; instance++) {
+                final Map<String, String> properties = EndToEndHarness.properties(server, directory);
+                properties.put("medallia.cluster.enabled", "true");
+                properties.put("medallia.cluster.instance.id", "node-" + instance);
+                properties.put("medallia.cluster.lease.sec", "5");
+                properties.put("medallia.queryapi.shards", "16");
+                properties.put("medallia.queryapi.shards.min.range.sec", "60");
+                properties.put("medallia.queryapi.max.concurrency", "1");
+                properties.put("medallia.recordstream.file", directory.resolve("record-stream-" + instance + ".log").toString());
+                properties.put("logging.level.com.medallia.references.feedbackdatasync.service.ShardLeases", "WARN");
+                // Instances in one JVM share Reactor Netty's global event
+                // loops, which a stopped instance would otherwise shut down
+                // under the others
+                properties.put(
+                    "spring.autoconfigure.exclude",
+                    "org.springframework.boot.autoconfigure.web.reactive.function.client.ClientHttpConnectorAutoConfiguration"
+                );
+
+                contexts.add(new SpringApplication(Application.class)
+                    .run(EndToEndHarness.toArgs(properties, applicationArgs)));
+            }
+
+            final CheckpointStore checkpointStore = contexts.get(0).getBean(CheckpointStore.class);
+            final long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+
+            // The checkpoint may also stop at the start of a later shard
+            // that turned out empty
+            final ProcessedRecord lastRecord = new ProcessedRecord(
+                BigInteger.valueOf(options.getRecords()),
+                ZonedDateTime.ofInstant(
+                    Instant.ofEpochSecond(options.getBaseEpochSecond() + (options.getRecords() - 1) / options.getRecordsPerSecond()),
+                    ZoneOffset.UTC
+                )
+            );
+
+            boolean completed = false;
+
+            while (!completed && System.nanoTime() < deadline) {
+                final Optional<ProcessedRecord> checkpoint = checkpointStore.find("default");
+                completed = checkpoint.isPresent() && checkpoint.get().compareTo(lastRecord) >= 0;
+                if (!completed) {
+                    Thread.sleep(50);
+                }
+            }
+
+            final long end = System.nanoTime();
+
+            for (int instance = 0; instance < instanceCount; instance++) {
+                final ConfigurableApplicationContext context = contexts.get(instance);
+                persisted[instance] = count(context.getBean(MeterRegistry.class), "queryapi.records");
+                context.close();
+            }
+
+            report(
+                server,
+                instanceCount,
+                completed,
+                end - Math.max(start, server.getFirstPageNanos()),
+                persisted
+            );
+        } finally {
+            for (final ConfigurableApplicationContext context : contexts) {
+                if (context.isActive()) {
+                    context.close();
+                }
+            }
+            EndToEndHarness.deleteRecursively(directory);
+        }
+    }
+
+    private static double count(final MeterRegistry registry, final String name) {
+        return registry.find(name).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private static void report(
+            final MockQueryApiServer server,
+            final int instanceCount,
+            final boolean completed,
+            final long extractionNanos,
+            final double[] persisted
+    ) {
+        final MockQueryApiServer.Options options = server.getOptions();
+        final double seconds = extractionNanos / 1e9;
+
+        final List<String> perInstance = new ArrayList<>();
+        for (int instance = 0; instance < persisted.length; instance++) {
+            perInstance.add(String.format("node-%d %.0f", instance, persisted[instance]));
+        }
+
+        System.out.println();
+        System.out.println(
+            "Cluster results, " + instanceCount + " instances" +
+            (completed ? "" : " (TIMED OUT before the dataset was extracted)")
+        );
+        System.out.printf("  Records:       %d (latency %d ms)%n", options.getRecords(), options.getLatencyMsec());
+        System.out.printf("  Extraction:    %.2f s%n", seconds);
+        System.out.printf("  Throughput:    %.0f records/s%n", options.getRecords() / seconds);
+        System.out.printf("  Pages:         %d%n", server.getPagesServed());
+        System.out.printf("  Per instance:  %s%n", String.join(", ", perInstance));
+    }
+
+}
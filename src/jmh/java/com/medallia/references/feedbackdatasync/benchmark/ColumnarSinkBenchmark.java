@@ -0,0 +1,123 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.sink.ColumnarCodec;
+import com.medallia.references.feedbackdatasync.sink.ColumnarFileReader;
+import com.medallia.references.feedbackdatasync.sink.ColumnarFileWriter;
+
+/**
+ * Writes a 1000-record page as a row group of a {@link ColumnarFileWriter}
+ * up to its flush, and reads it back with a {@link ColumnarFileReader}.
+ * Compare {@code writePage} with {@link RecordStreamBenchmark}'s.  That
+ * pages read back intact is checked by {@code ColumnarFileWriterTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnarSinkBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param({ "5", "20", "50" })
+    private int width;
+
+    @Param({ "DEFLATE", "NONE" })
+    private ColumnarCodec codec;
+
+    private FeedbackPage page;
+
+    private Path directory;
+    private Path file;
+    private Path readFile;
+    private ColumnarFileWriter writer;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("columnar-sink-benchmark");
+
+        page = SyntheticPages.page(new ObjectMapper(), RECORDS, width, 1_000_000L, 1_600_000_000L);
+
+        // Rotate often enough that the rotated files can be removed after
+        // every iteration
+        file = directory.resolve("records.col");
+        writer = new ColumnarFileWriter(file, fields(width), codec, 4096, 64L << 20, Duration.ZERO, false);
+
+        readFile = directory.resolve("read.col");
+        try (ColumnarFileWriter readWriter =
+                new ColumnarFileWriter(readFile, fields(width), codec, 4096, 0, Duration.ZERO, false)) {
+            writeAll(readWriter, page);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeRotatedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(rotated -> !rotated.equals(file) && !rotated.equals(readFile))
+                .forEach(rotated -> rotated.toFile().delete());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.close();
+        removeRotatedFiles();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(readFile);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void writePage() throws IOException {
+        writeAll(writer, page);
+    }
+
+    @Benchmark
+    public int readPage() throws IOException {
+        try (ColumnarFileReader reader = new ColumnarFileReader(readFile)) {
+            return reader.read().size();
+        }
+    }
+
+    private static void writeAll(final ColumnarFileWriter writer, final FeedbackPage page) throws IOException {
+        for (int row = 0; row < page.size(); row++) {
+            writer.write(page.row(row));
+        }
+        writer.flush();
+    }
+
+    private static List<String> fields(final int width) {
+        final List<String> fields = new ArrayList<>(width);
+        for (int field = 0; field < width; field++) {
+            fields.add(SyntheticPages.fieldName(field));
+        }
+        return fields;
+    }
+
+}
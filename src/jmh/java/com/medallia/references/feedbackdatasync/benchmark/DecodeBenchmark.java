@@ -0,0 +1,86 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.service.QueryApiStreamDecoder;
+
+/**
+ * Decodes a 1000-record Query API response, both into the compact
+ * {@code FeedbackPage} the pipeline uses and into the original
+ * {@link QueryApiResponse} map model for comparison.  The typed variant
+ * declares every custom field, so their values are decoded into their
+ * types as they are read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param({ "5", "20", "50" })
+    private int width;
+
+    private ObjectMapper objectMapper;
+    private FieldSchema schema;
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        schema = SyntheticPages.fieldSchema(width);
+        body = SyntheticPages.responseBody(objectMapper, RECORDS, width, 1_000_000L, 1_600_000_000L, RECORDS);
+    }
+
+    @Benchmark
+    public QueryApiResponse decodeFeedbackPage(final Blackhole blackhole) throws IOException {
+        final QueryApiStreamDecoder decoder = new QueryApiStreamDecoder(objectMapper, blackhole::consume, Integer.MAX_VALUE);
+        decoder.feed(body, 0, body.length);
+        return decoder.finish();
+    }
+
+    @Benchmark
+    public QueryApiResponse decodeTypedFeedbackPage(final Blackhole blackhole) throws IOException {
+        final QueryApiStreamDecoder decoder =
+            new QueryApiStreamDecoder(objectMapper, schema, blackhole::consume, Integer.MAX_VALUE);
+        decoder.feed(body, 0, body.length);
+        return decoder.finish();
+    }
+
+    @Benchmark
+    public QueryApiResponse decodeStreamedChunks(final Blackhole blackhole) throws IOException {
+        final QueryApiStreamDecoder decoder = new QueryApiStreamDecoder(objectMapper, blackhole::consume, 100);
+
+        // Feed the body in network-sized chunks
+        for (int offset = 0; offset < body.length; offset += 8192) {
+            decoder.feed(body, offset, Math.min(8192, body.length - offset));
+        }
+        return decoder.finish();
+    }
+
+    @Benchmark
+    public QueryApiResponse bindQueryApiResponse() throws IOException {
+        return objectMapper.readValue(body, QueryApiResponse.class);
+    }
+
+}
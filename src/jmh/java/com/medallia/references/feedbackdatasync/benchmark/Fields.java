@@ -0,0 +1,27 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Sets the injected fields of a component and calls its lifecycle methods,
+ * so a single component can be benchmarked without an application context.
+ */
+final class Fields {
+
+    private Fields() {
+    }
+
+    static void set(final Object target, final String name, final Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    static void invoke(final Object target, final String name) throws ReflectiveOperationException {
+        final Method method = target.getClass().getDeclaredMethod(name);
+        method.setAccessible(true);
+        method.invoke(target);
+    }
+
+}
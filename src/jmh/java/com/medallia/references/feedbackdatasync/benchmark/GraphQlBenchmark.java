@@ -0,0 +1,204 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.service.GraphQlRequestTemplate;
+import com.medallia.references.feedbackdatasync.service.SyncService;
+
+/**
+ * Builds the GraphQL request body for the next page, as
+ * {@code SyncService} does before every request.  {@code mapRequest} is
+ * the original path, which serializes the query and a map of variables
+ * for every page; {@code templateRequest} writes the precompiled
+ * {@link GraphQlRequestTemplate} into a pooled Netty buffer, and
+ * {@code persistedRequest} does the same for a registered persisted query.
+ *
+ * <p>The setup first checks that both paths produce the same request.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphQlBenchmark {
+
+    private static final String INITIAL_FINISH_DATE_FIELD = "k_initialfinishdate_epoch_int";
+    private static final String SURVEY_ID_FIELD = "a_surveyid";
+    private static final int RECORDS_PER_REQUEST = 1000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    private String query;
+    private GraphQlRequestTemplate template;
+    private GraphQlRequestTemplate persistedTemplate;
+
+    private String surveyId;
+    private long startTimestamp;
+    private long endTimestamp;
+
+    @Setup
+    public void setup() throws Exception {
+        final StringBuilder nodes = new StringBuilder();
+        for (int field = 0; field < 20; field++) {
+            nodes.append(SyntheticPages.fieldName(field))
+                .append(": fieldData(fieldId: \"q_field_").append(field).append("\") { values }\n");
+        }
+
+        final ZonedDateTime end = ZonedDateTime.now();
+
+        // The record stream is never touched when building requests
+        final SyncJob job = new SyncJob(
+            "default",
+            "{ fieldIds: [\"e_status\"], in: [\"0\", \"1\"] }",
+            nodes.toString(),
+            FieldSchema.empty(),
+            "-1",
+            end.minusDays(30),
+            1,
+            1,
+            null
+        );
+
+        final Method buildQuery = SyncService.class.getDeclaredMethod("buildQuery", SyncJob.class);
+        buildQuery.setAccessible(true);
+        query = (String) buildQuery.invoke(new SyncService(), job);
+
+        final Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("initialFinishDateField", INITIAL_FINISH_DATE_FIELD);
+        variables.put("numRecordsPerRequest", RECORDS_PER_REQUEST);
+        variables.put("surveyIdField", SURVEY_ID_FIELD);
+
+        template = new GraphQlRequestTemplate(objectMapper, query, variables, false);
+        persistedTemplate = new GraphQlRequestTemplate(objectMapper, query, variables, true);
+
+        surveyId = "123456789";
+        startTimestamp = end.minusDays(1).toEpochSecond();
+        endTimestamp = end.toEpochSecond();
+
+        check();
+    }
+
+    @Benchmark
+    public String mapRequest() throws Exception {
+        final Map<String, Object> variables = new HashMap<>();
+        variables.put("initialFinishDateField", INITIAL_FINISH_DATE_FIELD);
+        variables.put("numRecordsPerRequest", RECORDS_PER_REQUEST);
+        variables.put("surveyIdField", SURVEY_ID_FIELD);
+        variables.put("startSurveyId", surveyId);
+        variables.put("startTimestamp", startTimestamp);
+        variables.put("endTimestamp", endTimestamp);
+
+        final Map<String, Object> graphQl = new HashMap<>();
+        graphQl.put("query", query);
+        graphQl.put("variables", variables);
+
+        return objectMapper.writeValueAsString(graphQl);
+    }
+
+    @Benchmark
+    public int templateRequest() {
+        return writeAndRelease(template);
+    }
+
+    @Benchmark
+    public int persistedRequest() {
+        return writeAndRelease(persistedTemplate);
+    }
+
+    /**
+     * Writes a request as it is sent: into a pooled buffer, which the
+     * connection releases once written.
+     */
+    private int writeAndRelease(final GraphQlRequestTemplate requestTemplate) {
+        final DataBuffer buffer = requestTemplate.write(bufferFactory, surveyId, startTimestamp, endTimestamp);
+        final int length = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return length;
+    }
+
+    private void check() throws Exception {
+        final String expected = mapRequest();
+        checkSame(expected, template.render(surveyId, startTimestamp, endTimestamp));
+
+        // A persisted query carries its text until the Query API has
+        // answered, and only its hash after that
+        final String registration = persistedTemplate.render(surveyId, startTimestamp, endTimestamp);
+        persistedTemplate.answered();
+        final String persisted = persistedTemplate.render(surveyId, startTimestamp, endTimestamp);
+
+        final Map<?, ?> registrationBody = objectMapper.readValue(registration, Map.class);
+        final Map<?, ?> persistedBody = objectMapper.readValue(persisted, Map.class);
+        check(query.equals(registrationBody.get("query")), "registration lacks the query");
+        check(!persistedBody.containsKey("query"), "persisted request carries the query");
+        check(
+            registrationBody.get("variables").equals(objectMapper.readValue(expected, Map.class).get("variables"))
+                && persistedBody.get("variables").equals(registrationBody.get("variables")),
+            "persisted request variables differ"
+        );
+        check(
+            persistedBody.get("extensions").equals(registrationBody.get("extensions")),
+            "persisted request extensions differ"
+        );
+
+        // Written lengths must match the Content-Length the template sends
+        for (final GraphQlRequestTemplate requestTemplate : new GraphQlRequestTemplate[] { template, persistedTemplate }) {
+            final String rendered = requestTemplate.render(surveyId, startTimestamp, endTimestamp);
+            check(
+                writeAndRelease(requestTemplate) == rendered.getBytes(StandardCharsets.UTF_8).length,
+                "written length differs"
+            );
+        }
+
+        // Survey ids that need escaping, and timestamps of every width
+        for (final String otherSurveyId : new String[] { "-1", "a\"b\\cé", "" }) {
+            for (final long timestamp : new long[] { 0, 9, 10, 1_600_000_000L, -5, Long.MAX_VALUE }) {
+                final Map<?, ?> body = objectMapper.readValue(template.render(otherSurveyId, timestamp, timestamp), Map.class);
+                final Map<?, ?> variables = (Map<?, ?>) body.get("variables");
+                check(otherSurveyId.equals(variables.get("startSurveyId")), "survey id " + otherSurveyId);
+                check(timestamp == ((Number) variables.get("startTimestamp")).longValue(), "timestamp " + timestamp);
+                check(timestamp == ((Number) variables.get("endTimestamp")).longValue(), "timestamp " + timestamp);
+            }
+        }
+    }
+
+    private void checkSame(final String expected, final String actual) throws Exception {
+        check(
+            objectMapper.readTree(expected).equals(objectMapper.readTree(actual)),
+            "template request differs:\n" + actual + "\nexpected:\n" + expected
+        );
+    }
+
+    private static void check(final boolean condition, final String message) {
+        if (!condition) {
+            throw new IllegalStateException("GraphQL request check failed: " + message);
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import ch.qos.logback.classic.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.service.RecordProcessingService;
+
+/**
+ * Persists records through {@link RecordProcessingService} into a SQLite
+ * database and record stream in a temporary directory: a 1000-record page
+ * at a time through {@code processPage}, and a single record at a time
+ * through {@code processRecord}.  Each invocation gets fresh survey ids, as
+ * the records table does not accept duplicates.  {@code processReplayedPage}
+ * pulls a page that was already persisted again, which the duplicate filter
+ * skips record by record.  The per-record INFO log is turned off so that
+ * the console does not dominate the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    private static final long FIRST_FINISH_DATE = 1_600_000_000L;
+
+    @State(Scope.Benchmark)
+    public static class Persistence {
+
+        @Param({ "20" })
+        private int width;
+
+        @Param({ "true", "false" })
+        private boolean fsync;
+
+        private Path directory;
+        private AnnotationConfigApplicationContext context;
+        private RecordProcessingService recordProcessingService;
+        private ObjectMapper objectMapper;
+        private long nextSurveyId = 1;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("persistence-benchmark");
+
+            System.setProperty("spring.datasource.url", "jdbc:sqlite:" + directory.resolve("benchmark.db"));
+            System.setProperty("medallia.recordstream.file", directory.resolve("record-stream.log").toString());
+            System.setProperty("medallia.recordstream.fsync", Boolean.toString(fsync));
+            System.setProperty("medallia.queryapi.poll.initialdelay.msec", "0");
+            System.setProperty("medallia.queryapi.poll.interval.msec", "600000");
+
+            ((Logger) LoggerFactory.getLogger(RecordProcessingService.class)).setLevel(ch.qos.logback.classic.Level.WARN);
+
+            context = new AnnotationConfigApplicationContext(PersistenceContext.class);
+            recordProcessingService = context.getBean(RecordProcessingService.class);
+            objectMapper = context.getBean(ObjectMapper.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            context.close();
+
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+
+        long takeSurveyIds(final int count) {
+            final long first = nextSurveyId;
+            nextSurveyId += count;
+            return first;
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class NextPage {
+
+        private FeedbackPage page;
+
+        @Setup(Level.Invocation)
+        public void setup(final Persistence persistence) {
+            final long firstSurveyId = persistence.takeSurveyIds(RECORDS);
+            page = SyntheticPages.page(
+                persistence.objectMapper,
+                RECORDS,
+                persistence.width,
+                firstSurveyId,
+                FIRST_FINISH_DATE + firstSurveyId
+            );
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class ReplayedPage {
+
+        private FeedbackPage page;
+
+        @Setup(Level.Iteration)
+        public void setup(final Persistence persistence) {
+            final long firstSurveyId = persistence.takeSurveyIds(RECORDS);
+            page = SyntheticPages.page(
+                persistence.objectMapper,
+                RECORDS,
+                persistence.width,
+                firstSurveyId,
+                FIRST_FINISH_DATE + firstSurveyId
+            );
+            persistence.recordProcessingService.processPage(page);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class NextRecord {
+
+        private Map<String, QueryApiResponse.NodeValuesWrapper> node;
+
+        @Setup(Level.Invocation)
+        public void setup(final Persistence persistence) {
+            final long surveyId = persistence.takeSurveyIds(1);
+            node = SyntheticPages.nodes(1, persistence.width, surveyId, FIRST_FINISH_DATE + surveyId).get(0);
+        }
+
+    }
+
+    @Benchmark
+    public void processPage(final Persistence persistence, final NextPage next) {
+        persistence.recordProcessingService.processPage(next.page);
+    }
+
+    @Benchmark
+    public void processReplayedPage(final Persistence persistence, final ReplayedPage replayed) {
+        persistence.recordProcessingService.processPage(replayed.page);
+    }
+
+    @Benchmark
+    public void processRecord(final Persistence persistence, final NextRecord next) {
+        persistence.recordProcessingService.processRecord(next.node);
+    }
+
+}
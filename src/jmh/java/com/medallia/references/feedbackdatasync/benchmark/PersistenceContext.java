@@ -0,0 +1,76 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import javax.sql.DataSource;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.configuration.JobConfig;
+import com.medallia.references.feedbackdatasync.metrics.SyncMetrics;
+import com.medallia.references.feedbackdatasync.service.AdaptivePollTrigger;
+import com.medallia.references.feedbackdatasync.service.CheckpointStore;
+import com.medallia.references.feedbackdatasync.service.DuplicateFilter;
+import com.medallia.references.feedbackdatasync.service.RecordLanes;
+import com.medallia.references.feedbackdatasync.service.RecordProcessingService;
+import com.medallia.references.feedbackdatasync.service.ShardStore;
+import com.medallia.references.feedbackdatasync.sqlite.DbConfig;
+import com.medallia.references.feedbackdatasync.sqlite.DbInitializeConfig;
+
+/**
+ * The persistence side of the application, without the scheduler, the
+ * Query API client or Spring Boot's auto-configuration.  The database and
+ * record stream locations come from the {@code spring.datasource.url} and
+ * {@code medallia.recordstream.file} system properties.
+ *
+ * <p>This is deliberately not a {@code @Configuration}, as it sits below
+ * the application's package and would be picked up by its component scan;
+ * it is registered with the context directly instead.</p>
+ */
+@Import({
+    JobConfig.class,
+    DbConfig.class,
+    DbInitializeConfig.class,
+    ShardStore.class,
+    CheckpointStore.class,
+    DuplicateFilter.class,
+    AdaptivePollTrigger.class,
+    SyncMetrics.class,
+    RecordLanes.class,
+    RecordProcessingService.class
+})
+public class PersistenceContext {
+
+    @Bean
+    public ObjectMapper objectMapper() {
+        return new ObjectMapper();
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate(final DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager(final DataSource dataSource) {
+        return new DataSourceTransactionManager(dataSource);
+    }
+
+    @Bean
+    public TransactionTemplate transactionTemplate(final PlatformTransactionManager transactionManager) {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    @Bean
+    public MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.service.RecordLanes;
+
+/**
+ * Persists a 1000-record page through {@link RecordLanes} with a CPU-bound
+ * record writer, standing in for a {@code persistRecord} override that
+ * enriches each record: it serializes the record and hashes it a few
+ * times.  Compare the lane counts on a machine with at least that many
+ * cores; on fewer, the extra lanes only show their overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordLanesBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    private static final int HASH_ROUNDS = 8;
+
+    @Param({ "1", "2", "4" })
+    private int lanes;
+
+    @Param({ "false", "true" })
+    private boolean bySurveyId;
+
+    private AnnotationConfigApplicationContext context;
+    private RecordLanes recordLanes;
+    private ObjectWriter objectWriter;
+    private FeedbackPage page;
+    private long[] digests;
+
+    private final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    @Setup
+    public void setup() {
+        System.setProperty("medallia.persistence.record.lanes", Integer.toString(lanes));
+        System.setProperty("medallia.persistence.record.lanes.by.surveyid", Boolean.toString(bySurveyId));
+
+        context = new AnnotationConfigApplicationContext(RecordLanes.class);
+        recordLanes = context.getBean(RecordLanes.class);
+
+        final ObjectMapper objectMapper = new ObjectMapper();
+        objectWriter = objectMapper.writer();
+        page = SyntheticPages.page(objectMapper, RECORDS, 20, 1, 1_600_000_000L);
+        digests = new long[RECORDS];
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void persistPage(final Blackhole blackhole) {
+        recordLanes.persist(page, this::enrich, () -> { }, () -> { });
+        blackhole.consume(digests);
+    }
+
+    private void enrich(final int row) {
+        try {
+            byte[] bytes = objectWriter.writeValueAsBytes(page.row(row));
+            final MessageDigest digest = sha256.get();
+
+            for (int round = 0; round < HASH_ROUNDS; round++) {
+                bytes = digest.digest(bytes);
+            }
+            digests[row] = bytes[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.sink.RecordStreamWriter;
+
+/**
+ * Serializes a 1000-record page for the record stream: row views of a
+ * {@link FeedbackPage} and the original node maps, each into a reused
+ * buffer the way the writer thread does, and the whole page through a
+ * {@link RecordStreamWriter} up to its flush.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordStreamBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param({ "5", "20", "50" })
+    private int width;
+
+    private ObjectWriter objectWriter;
+    private FeedbackPage page;
+    private List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+    private Path directory;
+    private Path file;
+    private RecordStreamWriter recordStreamWriter;
+
+    @Setup
+    public void setup() throws IOException {
+        final ObjectMapper objectMapper = new ObjectMapper();
+        objectWriter = objectMapper.writer();
+        page = SyntheticPages.page(objectMapper, RECORDS, width, 1_000_000L, 1_600_000_000L);
+        nodes = SyntheticPages.nodes(RECORDS, width, 1_000_000L, 1_600_000_000L);
+
+        // Rotate often enough that the rotated files can be removed after
+        // every iteration
+        directory = Files.createTempDirectory("record-stream-benchmark");
+        file = directory.resolve("record-stream.log");
+        recordStreamWriter = new RecordStreamWriter(objectMapper, file, 8192, 64L << 20, Duration.ZERO, false, false);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeRotatedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(rotated -> !rotated.equals(file)).forEach(rotated -> rotated.toFile().delete());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        recordStreamWriter.close();
+        removeRotatedFiles();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public int serializeRows() throws IOException {
+        buffer.reset();
+        for (int row = 0; row < page.size(); row++) {
+            objectWriter.writeValue(buffer, page.row(row));
+            buffer.write('\n');
+        }
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int serializeMaps() throws IOException {
+        buffer.reset();
+        for (final Map<String, QueryApiResponse.NodeValuesWrapper> node : nodes) {
+            objectWriter.writeValue(buffer, node);
+            buffer.write('\n');
+        }
+        return buffer.size();
+    }
+
+    @Benchmark
+    public void writePage() throws IOException {
+        for (int row = 0; row < page.size(); row++) {
+            recordStreamWriter.write(page.row(row));
+        }
+        recordStreamWriter.flush();
+    }
+
+}
@@ -0,0 +1,309 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.medallia.references.feedbackdatasync.Application;
+import com.medallia.references.feedbackdatasync.BulkExport;
+
+/**
+ * Measures cold starts: launches the application in a fresh JVM against a
+ * {@link MockQueryApiServer} and reports the time from launching the JVM to
+ * its first Query API request, over several runs of each variant:
+ *
+ * <ul>
+ *   <li>{@code default}: the application as configured, with its web
+ *   server</li>
+ *   <li>{@code lean}: the {@code lean} profile</li>
+ *   <li>{@code cds}: the {@code lean} profile with an AppCDS archive, dumped
+ *   from the classes a training run (a short bulk export) loaded</li>
+ * </ul>
+ *
+ * <p>{@code --runs} sets the runs per variant, {@code --variants} picks
+ * them (e.g. {@code --variants=lean,cds}), and {@code --timeout-sec} bounds
+ * each run.  Arguments understood by the mock server configure the dataset;
+ * every other {@code --name=value} argument is passed to the
+ * application.</p>
+ *
+ * <p>AppCDS only archives classes loaded from jar files, so the compiled
+ * classes are packed into a jar first and every variant runs from it.</p>
+ */
+public final class StartupHarness {
+
+    private static final String RUNS_OPTION = "--runs=";
+    private static final String VARIANTS_OPTION = "--variants=";
+    private static final String TIMEOUT_OPTION = "--timeout-sec=";
+
+    private StartupHarness() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final MockQueryApiServer.Options options = MockQueryApiServer.Options.parse(args);
+
+        int runs = 5;
+        long timeoutSeconds = 120;
+        List<String> variants = Arrays.asList("default", "lean", "cds");
+        final List<String> applicationArgs = new ArrayList<>();
+
+        for (final String arg : args) {
+            if (arg.startsWith(RUNS_OPTION)) {
+                runs = Integer.parseInt(arg.substring(RUNS_OPTION.length()));
+            } else if (arg.startsWith(VARIANTS_OPTION)) {
+                variants = Arrays.asList(arg.substring(VARIANTS_OPTION.length()).split(","));
+            } else if (arg.startsWith(TIMEOUT_OPTION)) {
+                timeoutSeconds = Long.parseLong(arg.substring(TIMEOUT_OPTION.length()));
+            } else if (!MockQueryApiServer.Options.isOption(arg)) {
+                applicationArgs.add(arg);
+            }
+        }
+
+        final Path directory = Files.createTempDirectory("startup-harness");
+
+        try (MockQueryApiServer server = new MockQueryApiServer(options)) {
+            final String classpath = jarClasspath(directory);
+            final List<String> results = new ArrayList<>();
+
+            for (final String variant : variants) {
+                final List<String> jvmOptions = new ArrayList<>();
+                final Map<String, String> properties = EndToEndHarness.properties(server, directory.resolve("run"));
+
+                if ("default".equals(variant)) {
+                    properties.remove("spring.main.web-application-type");
+                    properties.put("server.port", "0");
+                } else if ("lean".equals(variant) || "cds".equals(variant)) {
+                    properties.remove("spring.main.web-application-type");
+                    properties.put("spring.profiles.active", "lean");
+                } else {
+                    throw new IllegalArgumentException("Unknown variant " + variant);
+                }
+
+                if ("cds".equals(variant)) {
+                    final Path archive = dumpArchive(server, directory, classpath, properties, applicationArgs);
+                    jvmOptions.add("-XX:SharedArchiveFile=" + archive);
+                    jvmOptions.add("-Xshare:on");
+                }
+
+                final long[] millis = new long[runs];
+                for (int run = 0; run < runs; run++) {
+                    millis[run] = timeToFirstRequest(
+                        server,
+                        directory,
+                        classpath,
+                        jvmOptions,
+                        properties,
+                        applicationArgs,
+                        timeoutSeconds
+                    );
+                    System.out.printf("%s run %d: %d ms to first request%n", variant, run + 1, millis[run]);
+                }
+
+                final long first = millis[0];
+                Arrays.sort(millis);
+                results.add(String.format(
+                    "  %-8s median %5d ms, min %5d ms, max %5d ms (first run %d ms)",
+                    variant,
+                    millis[millis.length / 2],
+                    millis[0],
+                    millis[millis.length - 1],
+                    first
+                ));
+            }
+
+            System.out.println();
+            System.out.println("Time to first request, " + runs + " runs each");
+            results.forEach(System.out::println);
+        } finally {
+            EndToEndHarness.deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Launches the application and returns the milliseconds until the mock
+     * server saw its first query request.
+     */
+    private static long timeToFirstRequest(
+            final MockQueryApiServer server,
+            final Path directory,
+            final String classpath,
+            final List<String> jvmOptions,
+            final Map<String, String> properties,
+            final List<String> applicationArgs,
+            final long timeoutSeconds
+    ) throws IOException, InterruptedException {
+        final Path runDirectory = directory.resolve("run");
+        if (Files.exists(runDirectory)) {
+            EndToEndHarness.deleteRecursively(runDirectory);
+        }
+        Files.createDirectories(runDirectory);
+
+        final List<String> command = javaCommand(classpath, jvmOptions, Application.class.getName());
+        command.addAll(Arrays.asList(EndToEndHarness.toArgs(properties, applicationArgs)));
+
+        server.resetFirstRequest();
+        final long start = System.nanoTime();
+        final Process process = launch(command, runDirectory);
+
+        try {
+            final long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            while (server.getFirstRequestNanos() == 0) {
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    throw new IllegalStateException(
+                        "Application made no request"
+                            + (process.isAlive() ? "" : " and exited with status " + process.exitValue())
+                            + "; see its output:\n" + output(runDirectory)
+                    );
+                }
+                Thread.sleep(1);
+            }
+
+            return TimeUnit.NANOSECONDS.toMillis(server.getFirstRequestNanos() - start);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Records the classes a short bulk export loads, and dumps them into an
+     * AppCDS archive.
+     */
+    private static Path dumpArchive(
+            final MockQueryApiServer server,
+            final Path directory,
+            final String classpath,
+            final Map<String, String> properties,
+            final List<String> applicationArgs
+    ) throws IOException, InterruptedException {
+        final Path runDirectory = directory.resolve("training");
+        Files.createDirectories(runDirectory);
+
+        final Path classList = directory.resolve("app.classlist");
+        final Path archive = directory.resolve("app.jsa");
+        final long start = server.getOptions().getBaseEpochSecond() - 1;
+
+        final List<String> training = javaCommand(
+            classpath,
+            Collections.singletonList("-XX:DumpLoadedClassList=" + classList),
+            Application.class.getName()
+        );
+        training.add(BulkExport.COMMAND);
+        training.addAll(Arrays.asList(EndToEndHarness.toArgs(
+            EndToEndHarness.properties(server, runDirectory),
+            applicationArgs
+        )));
+        training.add("--spring.profiles.active=" + properties.getOrDefault("spring.profiles.active", ""));
+        training.add("--medallia.export.start=" + start);
+        training.add("--medallia.export.end=" + (start + 60));
+        training.add("--medallia.export.output=" + runDirectory.resolve("training.ndjson"));
+        run(training, runDirectory, "Training run");
+
+        final List<String> dump = javaCommand(
+            classpath,
+            Arrays.asList(
+                "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classList,
+                "-XX:SharedArchiveFile=" + archive
+            ),
+            null
+        );
+        run(dump, runDirectory, "Archive dump");
+
+        try (Stream<String> classes = Files.lines(classList)) {
+            System.out.printf("AppCDS archive of %d classes: %.1f MB%n", classes.count(), Files.size(archive) / 1e6);
+        }
+        return archive;
+    }
+
+    private static void run(final List<String> command, final Path runDirectory, final String name)
+            throws IOException, InterruptedException {
+        final int status = launch(command, runDirectory).waitFor();
+        if (status != 0) {
+            throw new IllegalStateException(name + " failed with status " + status + ":\n" + output(runDirectory));
+        }
+    }
+
+    private static List<String> javaCommand(final String classpath, final List<String> jvmOptions, final String main) {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(classpath);
+        if (main != null) {
+            command.add(main);
+        }
+        return command;
+    }
+
+    private static Process launch(final List<String> command, final Path runDirectory) throws IOException {
+        // The application logs into logs/ under its working directory
+        return new ProcessBuilder(command)
+            .directory(runDirectory.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(runDirectory.resolve("output.log").toFile())
+            .start();
+    }
+
+    private static String output(final Path runDirectory) throws IOException {
+        final List<String> lines = Files.readAllLines(runDirectory.resolve("output.log"));
+        return String.join("\n", lines.subList(Math.max(0, lines.size() - 40), lines.size()));
+    }
+
+    /**
+     * Returns this JVM's classpath with its class directories packed into
+     * jars.
+     */
+    private static String jarClasspath(final Path directory) throws IOException {
+        final List<String> entries = new ArrayList<>();
+
+        for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            final Path path = Paths.get(entry);
+            if (Files.isDirectory(path)) {
+                final Path jar = directory.resolve("classes-" + entries.size() + ".jar");
+                pack(path, jar);
+                entries.add(jar.toString());
+            } else if (Files.exists(path)) {
+                entries.add(entry);
+            }
+        }
+
+        return entries.stream().collect(Collectors.joining(File.pathSeparator));
+    }
+
+    private static void pack(final Path classes, final Path jar) throws IOException {
+        try (
+            OutputStream out = Files.newOutputStream(jar);
+            JarOutputStream jarOut = new JarOutputStream(out);
+            Stream<Path> files = Files.walk(classes)
+        ) {
+            // Component scanning finds packages through their directory
+            // entries
+            for (final Path file : (Iterable<Path>) files.filter(file -> !file.equals(classes)).sorted()::iterator) {
+                final String name = classes.relativize(file).toString().replace(File.separatorChar, '/');
+                if (Files.isDirectory(file)) {
+                    jarOut.putNextEntry(new JarEntry(name + "/"));
+                } else {
+                    jarOut.putNextEntry(new JarEntry(name));
+                    Files.copy(file, jarOut);
+                }
+                jarOut.closeEntry();
+            }
+        }
+    }
+
+}
@@ -1,24 +1,32 @@
 package com.medallia.references.feedbackdatasync;
 
+import java.util.Arrays;
+
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.retry.annotation.EnableRetry;
-import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Starts the Spring Boot application.
  */
-@EnableRetry
-@EnableScheduling
 @SpringBootApplication
 public class Application {
 
     /**
-     * Starts the Spring Boot application via the Java VM.
+     * Starts the Spring Boot application via the Java VM.  With
+     * {@code export} as the first argument, runs a one-shot
+     * {@link BulkExport} instead, and with {@code replay}, a
+     * {@link PageLogReplay}.
      *
      * @param args the command line arguments
      */
     public static void main(final String[] args) {
+        if (args.length > 0 && BulkExport.COMMAND.equals(args[0])) {
+            System.exit(BulkExport.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && PageLogReplay.COMMAND.equals(args[0])) {
+            System.exit(PageLogReplay.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         SpringApplication.run(Application.class, args);
     }
 
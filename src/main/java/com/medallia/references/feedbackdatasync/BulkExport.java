@@ -0,0 +1,73 @@
+package com.medallia.references.feedbackdatasync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.medallia.references.feedbackdatasync.service.BulkExporter;
+
+/**
+ * Runs a one-shot bulk export, e.g. for the initial historical load, in
+ * place of the scheduled polls:
+ *
+ * <pre>
+ * java -jar query-api-data-extract.jar export --medallia.export.start=2020-01-01
+ * </pre>
+ *
+ * <p>The export uses the application's configuration, without the
+ * scheduled polls or a web server, and exits once the range has been
+ * exported.  See {@link BulkExporter}.</p>
+ */
+public class BulkExport {
+
+    /**
+     * The first argument that runs an export from {@link Application}.
+     */
+    public static final String COMMAND = "export";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkExport.class);
+
+    /**
+     * Runs an export via the Java VM.
+     *
+     * @param args the command line arguments, e.g.
+     *             {@code --medallia.export.start=...}
+     */
+    public static void main(final String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs an export.
+     *
+     * @param args the command line arguments
+     * @return the exit status: 0 once the export has completed, 1 if it
+     *         failed
+     */
+    public static int run(final String[] args) {
+        final Map<String, Object> defaults = new HashMap<>();
+        defaults.put("medallia.scheduling.enabled", "false");
+        // Per-page logging would drown out the export's progress
+        defaults.put("logging.level.com.medallia.references.feedbackdatasync.service.SyncService", "WARN");
+        defaults.put("logging.level.com.medallia.references.feedbackdatasync.service.RecordProcessingService", "WARN");
+
+        final SpringApplication application = new SpringApplication(Application.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setDefaultProperties(defaults);
+
+        try (ConfigurableApplicationContext context = application.run(args)) {
+            final BulkExporter exporter = context.getAutowireCapableBeanFactory().createBean(BulkExporter.class);
+            exporter.export();
+            return 0;
+        } catch (Exception e) {
+            LOGGER.error("Bulk export failed", e);
+            return 1;
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.medallia.references.feedbackdatasync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.medallia.references.feedbackdatasync.service.PageLogReplayer;
+
+/**
+ * Replays logged pages into a job's record sink, in place of the scheduled
+ * polls:
+ *
+ * <pre>
+ * java -jar query-api-data-extract.jar replay --medallia.replay.start=2021-03-01
+ * </pre>
+ *
+ * <p>The replay uses the application's configuration, without the
+ * scheduled polls or a web server, reads only the page log and exits once
+ * the range has been replayed.  See {@link PageLogReplayer}.</p>
+ */
+public class PageLogReplay {
+
+    /**
+     * The first argument that runs a replay from {@link Application}.
+     */
+    public static final String COMMAND = "replay";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageLogReplay.class);
+
+    /**
+     * Runs a replay via the Java VM.
+     *
+     * @param args the command line arguments, e.g.
+     *             {@code --medallia.replay.start=...}
+     */
+    public static void main(final String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs a replay.
+     *
+     * @param args the command line arguments
+     * @return the exit status: 0 once the range has been replayed, 1 if
+     *         the replay failed
+     */
+    public static int run(final String[] args) {
+        final Map<String, Object> defaults = new HashMap<>();
+        defaults.put("medallia.scheduling.enabled", "false");
+        defaults.put("logging.level.com.medallia.references.feedbackdatasync.service.RecordProcessingService", "WARN");
+
+        final SpringApplication application = new SpringApplication(Application.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setDefaultProperties(defaults);
+
+        try (ConfigurableApplicationContext context = application.run(args)) {
+            final PageLogReplayer replayer = context.getAutowireCapableBeanFactory().createBean(PageLogReplayer.class);
+            replayer.replay();
+            return 0;
+        } catch (Exception e) {
+            LOGGER.error("Page log replay failed", e);
+            return 1;
+        }
+    }
+
+}
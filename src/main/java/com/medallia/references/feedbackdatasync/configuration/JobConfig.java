@@ -0,0 +1,247 @@
+package com.medallia.references.feedbackdatasync.configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+import com.medallia.references.feedbackdatasync.sink.ColumnarCodec;
+import com.medallia.references.feedbackdatasync.sink.ColumnarFileWriter;
+import com.medallia.references.feedbackdatasync.sink.RecordSink;
+import com.medallia.references.feedbackdatasync.sink.RecordStreamWriter;
+
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.DEFAULT_CHECKPOINT;
+
+/**
+ * Configures the extraction jobs and the record sink each job writes its
+ * records to.
+ *
+ * <p>Without {@code medallia.jobs}, a single job named {@code default} is
+ * built from the {@code medallia.queryapi.*} and
+ * {@code medallia.recordstream.file} properties.  Otherwise every name in
+ * {@code medallia.jobs} is a job whose settings are read from
+ * {@code medallia.jobs.<name>.*}, falling back to those same properties;
+ * a job's record stream defaults to the record stream file with the job
+ * name appended.</p>
+ *
+ * <p>A job writes newline-delimited JSON ({@code ndjson}) or, with
+ * {@code recordstream.format} set to {@code columnar}, a columnar file
+ * whose columns are the fields of the job's node projection.</p>
+ *
+ * <p>Fields declared in {@code graphql.fields} (see {@link FieldSchema})
+ * are added to the job's node projection, and their values are decoded into
+ * their declared types as pages are parsed.</p>
+ */
+@Configuration
+public class JobConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobConfig.class);
+
+    private static final Pattern JOB_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private static final String FORMAT_NDJSON = "ndjson";
+    private static final String FORMAT_COLUMNAR = "columnar";
+
+    /**
+     * Creates the extraction jobs based on the configured parameters.
+     *
+     * @param environment the properties the per-job settings are read from
+     * @param objectMapper the mapper used to serialize records
+     * @param jobNames the names of the jobs, or empty for the default job
+     * @param file the record stream file
+     * @param bufferSize the number of records that may be queued for each
+     *                   record stream's background writer
+     * @param rotateBytes the uncompressed size at which a record stream is
+     *                    rotated, or 0 to never rotate on size
+     * @param rotateIntervalSeconds the age at which a record stream is
+     *                              rotated, or 0 to never rotate on age
+     * @param gzip whether to gzip the record streams
+     * @param fsync whether each page is forced to the storage device before
+     *              it is checkpointed
+     * @param format the record sink format, {@code ndjson} or
+     *               {@code columnar}
+     * @param columnarCodec how each column of a columnar file is compressed
+     * @param columnarDictionarySize the most distinct values a column of a
+     *                               row group may have to be dictionary-encoded
+     * @return the jobs
+     * @throws IOException if a record stream file cannot be opened
+     */
+    @Bean(destroyMethod = "close")
+    public SyncJobs syncJobs(
+            final Environment environment,
+            final ObjectMapper objectMapper,
+            @Value("${medallia.jobs:}") final String[] jobNames,
+            @Value("${medallia.recordstream.file:record-stream.log}") final String file,
+            @Value("${medallia.recordstream.buffer.size:8192}") final Integer bufferSize,
+            @Value("${medallia.recordstream.rotate.size.bytes:0}") final Long rotateBytes,
+            @Value("${medallia.recordstream.rotate.interval.sec:0}") final Long rotateIntervalSeconds,
+            @Value("${medallia.recordstream.gzip:false}") final boolean gzip,
+            @Value("${medallia.recordstream.fsync:true}") final boolean fsync,
+            @Value("${medallia.recordstream.format:ndjson}") final String format,
+            @Value("${medallia.recordstream.columnar.codec:deflate}") final String columnarCodec,
+            @Value("${medallia.recordstream.columnar.dictionary.max.size:4096}") final Integer columnarDictionarySize
+    ) throws IOException {
+        final ColumnarCodec codec = ColumnarCodec.valueOf(columnarCodec.trim().toUpperCase(Locale.ROOT));
+
+        final List<String> names = new ArrayList<>();
+        for (final String jobName : jobNames) {
+            if (!jobName.trim().isEmpty()) {
+                names.add(jobName.trim());
+            }
+        }
+
+        final boolean defaultOnly = names.isEmpty();
+        if (defaultOnly) {
+            names.add(DEFAULT_CHECKPOINT);
+        }
+
+        final List<SyncJob> jobs = new ArrayList<>(names.size());
+
+        try {
+            for (final String name : names) {
+                if (!JOB_NAME.matcher(name).matches()) {
+                    throw new IllegalArgumentException("Invalid job name: " + name);
+                }
+
+                final String prefix = defaultOnly ? "medallia.queryapi." : "medallia.jobs." + name + ".";
+                final int shardCount = Math.max(1, getProperty(environment, prefix, "shards", Integer.class, 1));
+
+                final Path recordStreamFile = defaultOnly || DEFAULT_CHECKPOINT.equals(name)
+                    ? Paths.get(file)
+                    : Paths.get(environment.getProperty(prefix + "recordstream.file", withJobName(file, name)));
+
+                final FieldSchema fieldSchema =
+                    FieldSchema.parse(getProperty(environment, prefix, "graphql.fields", String.class, ""));
+                final String graphQlNodes = withDeclaredFields(
+                    getProperty(environment, prefix, "graphql.nodes", String.class, ""),
+                    fieldSchema
+                );
+                final String jobFormat = environment.getProperty(prefix + "recordstream.format", format).trim();
+
+                final RecordSink sink;
+                if (FORMAT_COLUMNAR.equalsIgnoreCase(jobFormat)) {
+                    sink = new ColumnarFileWriter(
+                        recordStreamFile,
+                        ColumnarFileWriter.fieldsOf(graphQlNodes),
+                        codec,
+                        columnarDictionarySize,
+                        rotateBytes,
+                        Duration.ofSeconds(rotateIntervalSeconds),
+                        fsync
+                    );
+                } else if (FORMAT_NDJSON.equalsIgnoreCase(jobFormat)) {
+                    sink = new RecordStreamWriter(
+                        objectMapper,
+                        recordStreamFile,
+                        bufferSize,
+                        rotateBytes,
+                        Duration.ofSeconds(rotateIntervalSeconds),
+                        gzip,
+                        fsync
+                    );
+                } else {
+                    throw new IllegalArgumentException("Unknown record stream format for job " + name + ": " + jobFormat);
+                }
+
+                try {
+                    jobs.add(new SyncJob(
+                        name,
+                        getProperty(environment, prefix, "graphql.filter", String.class, ""),
+                        graphQlNodes,
+                        fieldSchema,
+                        getProperty(environment, prefix, "default.start.surveyid", String.class, "-1"),
+                        toStartTimestamp(getProperty(environment, prefix, "default.start.timestamp.epoch", String.class, "")),
+                        shardCount,
+                        Math.max(1, environment.getProperty(prefix + "max.concurrency", Integer.class, shardCount)),
+                        sink
+                    ));
+                } catch (RuntimeException e) {
+                    sink.close();
+                    throw e;
+                }
+
+                LOGGER.info("Configured job {} writing {} to {}", name, jobFormat.toLowerCase(Locale.ROOT), recordStreamFile);
+                if (!fieldSchema.isEmpty()) {
+                    LOGGER.info("Job {} decodes the declared fields {}", name, fieldSchema);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (final SyncJob job : jobs) {
+                job.getSink().close();
+            }
+            throw e;
+        }
+
+        return new SyncJobs(jobs);
+    }
+
+    /**
+     * Reads a job setting, falling back to the matching
+     * {@code medallia.queryapi.*} property.
+     */
+    private static <T> T getProperty(
+            final Environment environment,
+            final String prefix,
+            final String key,
+            final Class<T> type,
+            final T defaultValue
+    ) {
+        final T fallback = environment.getProperty("medallia.queryapi." + key, type, defaultValue);
+        return environment.getProperty(prefix + key, type, fallback);
+    }
+
+    /**
+     * Appends the declared fields' projection to the job's own node
+     * projection.
+     */
+    private static String withDeclaredFields(final String graphQlNodes, final FieldSchema fieldSchema) {
+        if (fieldSchema.isEmpty()) {
+            return graphQlNodes;
+        }
+
+        return graphQlNodes.trim().isEmpty()
+            ? fieldSchema.toGraphQlNodes()
+            : graphQlNodes.trim() + "\n" + fieldSchema.toGraphQlNodes();
+    }
+
+    private static ZonedDateTime toStartTimestamp(final String epochSecond) {
+        return epochSecond != null && epochSecond.length() > 0
+            ? ZonedDateTime.ofInstant(Instant.ofEpochSecond(Long.valueOf(epochSecond)), ZoneOffset.UTC)
+            : ZonedDateTime.now();
+    }
+
+    /**
+     * Inserts the job name before the file's extension, e.g.
+     * {@code record-stream-segmentA.log}.
+     */
+    private static String withJobName(final String file, final String jobName) {
+        final Path path = Paths.get(file);
+        final String fileName = path.getFileName().toString();
+        final int extension = fileName.indexOf('.');
+
+        final String named = extension > 0
+            ? fileName.substring(0, extension) + "-" + jobName + fileName.substring(extension)
+            : fileName + "-" + jobName;
+
+        return path.resolveSibling(named).toString();
+    }
+
+}
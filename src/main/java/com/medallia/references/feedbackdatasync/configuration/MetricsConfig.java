@@ -0,0 +1,60 @@
+package com.medallia.references.feedbackdatasync.configuration;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.logging.LoggingMeterRegistry;
+import io.micrometer.core.instrument.logging.LoggingRegistryConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Configures the registry the sync pipeline's metrics are recorded in.
+ */
+@Configuration
+public class MetricsConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsConfig.class);
+
+    /**
+     * Creates the meter registry.  With a report interval the registry logs
+     * every meter at that interval; otherwise the metrics are only kept in
+     * memory.
+     *
+     * @param reportIntervalSeconds the number of seconds between reports, or
+     *                              0 to never report
+     * @return the meter registry
+     */
+    @Bean(destroyMethod = "close")
+    public MeterRegistry meterRegistry(
+            @Value("${medallia.metrics.log.interval.sec:60}") final Long reportIntervalSeconds
+    ) {
+        if (reportIntervalSeconds <= 0) {
+            return new SimpleMeterRegistry();
+        }
+
+        final LoggingRegistryConfig config = new LoggingRegistryConfig() {
+            @Override
+            public String get(final String key) {
+                return null;
+            }
+
+            @Override
+            public Duration step() {
+                return Duration.ofSeconds(reportIntervalSeconds);
+            }
+        };
+
+        return LoggingMeterRegistry.builder(config)
+            .clock(Clock.SYSTEM)
+            .loggingSink(LOGGER::info)
+            .build();
+    }
+
+}
@@ -3,13 +3,10 @@ package com.medallia.references.feedbackdatasync.configuration;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.retry.backoff.FixedBackOffPolicy;
-import org.springframework.retry.policy.SimpleRetryPolicy;
-import org.springframework.retry.support.RetryTemplate;
-import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
-import org.springframework.security.oauth2.client.web.reactive.function.client.ServerOAuth2AuthorizedClientExchangeFilterFunction;
-import org.springframework.security.oauth2.client.web.server.UnAuthenticatedServerOAuth2AuthorizedClientRepository;
-import org.springframework.web.reactive.function.client.WebClient;
+
+import com.medallia.references.feedbackdatasync.metrics.SyncMetrics;
+import com.medallia.references.feedbackdatasync.service.QueryApiGovernor;
+import com.medallia.references.feedbackdatasync.service.QueryApiRetry;
 
 /**
  * Configure the retry parameters.
@@ -19,29 +16,42 @@ public class RetryConfig {
 
     /**
      * Configure the retry mechanism based on the configured parameters.  This
-     * retry is used to reattempt any failed Query API requests, typically due
-     * to network failures.
+     * retry is used to reattempt failed Query API requests that may succeed
+     * on another attempt: throttling, server errors and network failures.
+     * Throttled requests wait out the response's {@code Retry-After}; other
+     * failures back off exponentially, with jitter.  Requests are retried
+     * reactively, so backing off holds no thread.
      *
-     * @param maxAttempts the maximum number of retry attempts to make
-     * @param backOffPeriod the number of milliseconds to wait between attempts
-     * @return the retry policy as an execution wrapper
+     * @param maxAttempts the maximum number of attempts to make on errors
+     * @param maxThrottledAttempts the maximum number of throttled attempts
+     * @param backOffPeriod the number of milliseconds to wait before the
+     *                      first retry
+     * @param backOffMultiplier the factor the wait grows by with each retry
+     * @param maxBackOffPeriod the longest wait between attempts, in
+     *                         milliseconds
+     * @param governor classifies failures and reads {@code Retry-After}
+     * @param syncMetrics counts every failed attempt
+     * @return the retry, for {@code retryWhen}
      */
     @Bean
-    public RetryTemplate retryTemplate(
+    public QueryApiRetry queryApiRetry(
             @Value("${medallia.queryapi.retry.max:2}") final Integer maxAttempts,
-            @Value("${medallia.queryapi.retry.back.off.period.msec:2000}") final Long backOffPeriod
+            @Value("${medallia.queryapi.retry.throttled.max:10}") final Integer maxThrottledAttempts,
+            @Value("${medallia.queryapi.retry.back.off.period.msec:2000}") final Long backOffPeriod,
+            @Value("${medallia.queryapi.retry.back.off.multiplier:2.0}") final Double backOffMultiplier,
+            @Value("${medallia.queryapi.retry.back.off.max.msec:60000}") final Long maxBackOffPeriod,
+            final QueryApiGovernor governor,
+            final SyncMetrics syncMetrics
     ) {
-        final RetryTemplate retryTemplate = new RetryTemplate();
-
-        final FixedBackOffPolicy fixedBackOffPolicy = new FixedBackOffPolicy();
-        fixedBackOffPolicy.setBackOffPeriod(backOffPeriod);
-        retryTemplate.setBackOffPolicy(fixedBackOffPolicy);
-
-        final SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy();
-        retryPolicy.setMaxAttempts(maxAttempts);
-        retryTemplate.setRetryPolicy(retryPolicy);
-
-        return retryTemplate;
+        return new QueryApiRetry(
+            governor,
+            syncMetrics,
+            maxAttempts,
+            maxThrottledAttempts,
+            backOffPeriod,
+            backOffMultiplier,
+            maxBackOffPeriod
+        );
     }
 
 }
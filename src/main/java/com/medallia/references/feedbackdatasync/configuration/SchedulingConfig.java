@@ -0,0 +1,16 @@
+package com.medallia.references.feedbackdatasync.configuration;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables the scheduled polls, unless the application runs a one-shot task
+ * such as a bulk export ({@code medallia.scheduling.enabled = false}).
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "medallia.scheduling.enabled", havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+
+}
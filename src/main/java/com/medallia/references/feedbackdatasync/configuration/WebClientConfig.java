@@ -1,44 +1,185 @@
 package com.medallia.references.feedbackdatasync.configuration;
 
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.security.oauth2.client.AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.ClientCredentialsReactiveOAuth2AuthorizedClientProvider;
 import org.springframework.security.oauth2.client.InMemoryReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.endpoint.OAuth2ClientCredentialsGrantRequest;
+import org.springframework.security.oauth2.client.endpoint.ReactiveOAuth2AccessTokenResponseClient;
+import org.springframework.security.oauth2.client.endpoint.WebClientReactiveClientCredentialsTokenResponseClient;
 import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
 import org.springframework.security.oauth2.client.web.reactive.function.client.ServerOAuth2AuthorizedClientExchangeFilterFunction;
-import org.springframework.security.oauth2.client.web.server.UnAuthenticatedServerOAuth2AuthorizedClientRepository;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import io.netty.channel.ChannelOption;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
 /**
  * Configures the web client used to make the Query API request.
  */
 @Configuration
 public class WebClientConfig {
 
+    /**
+     * Creates the pool of connections to the Query API and its token
+     * endpoint.  Connections are kept alive between requests, so pages
+     * after the first do not pay for TCP and TLS handshakes, and are evicted
+     * in the background once idle.
+     *
+     * @param maxConnections the most connections open at once
+     * @param maxIdleTime the number of milliseconds an idle connection is
+     *                    kept open
+     * @param maxLifeTime the number of milliseconds after which a connection
+     *                    is no longer reused; 0 reuses it indefinitely
+     * @param pendingAcquireTimeout the number of milliseconds a request waits
+     *                              for a free connection
+     * @return the connection pool
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider queryApiConnectionProvider(
+            @Value("${medallia.queryapi.http.max.connections:16}") final Integer maxConnections,
+            @Value("${medallia.queryapi.http.max.idle.msec:60000}") final Long maxIdleTime,
+            @Value("${medallia.queryapi.http.max.life.msec:0}") final Long maxLifeTime,
+            @Value("${medallia.queryapi.http.pending.acquire.timeout.msec:45000}") final Long pendingAcquireTimeout
+    ) {
+        final ConnectionProvider.Builder builder = ConnectionProvider.builder("queryapi")
+            .maxConnections(maxConnections)
+            .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeout))
+            .maxIdleTime(Duration.ofMillis(maxIdleTime))
+            .evictInBackground(Duration.ofMillis(Math.max(1000, maxIdleTime / 2)))
+            // Reuse the most recently released connection, so that spare
+            // connections go idle and are evicted
+            .lifo();
+
+        if (maxLifeTime > 0) {
+            builder.maxLifeTime(Duration.ofMillis(maxLifeTime));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates the HTTP client behind every Query API and token request.
+     *
+     * @param connectionProvider the pool of connections
+     * @param connectTimeout the number of milliseconds to wait for a
+     *                       connection to be established
+     * @param readTimeout the most milliseconds to wait for the next bytes of
+     *                    a response, once the request is sent
+     * @param compression whether to ask for gzip-compressed responses, which
+     *                    are decompressed as they stream in
+     * @return the HTTP client
+     */
+    @Bean
+    public HttpClient queryApiHttpClient(
+            final ConnectionProvider connectionProvider,
+            @Value("${medallia.queryapi.http.connect.timeout.msec:10000}") final Integer connectTimeout,
+            @Value("${medallia.queryapi.http.read.timeout.msec:60000}") final Long readTimeout,
+            @Value("${medallia.queryapi.http.compression:true}") final Boolean compression
+    ) {
+        final HttpClient httpClient = HttpClient.create(connectionProvider)
+            .keepAlive(true)
+            .compress(compression)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+            .option(ChannelOption.SO_KEEPALIVE, true)
+            .responseTimeout(Duration.ofMillis(readTimeout));
+
+        // Load the event loops and DNS resolver now rather than on the first
+        // request
+        httpClient.warmup().block();
+
+        return httpClient;
+    }
+
+    /**
+     * Creates the store of OAuth2 access tokens, shared by the web client
+     * and the background token refresh.
+     *
+     * @param clientRegistrations the set of OAuth2-enabled client registrations
+     * @return the access token store
+     */
+    @Bean
+    public ReactiveOAuth2AuthorizedClientService authorizedClientService(
+            final ReactiveClientRegistrationRepository clientRegistrations
+    ) {
+        return new InMemoryReactiveOAuth2AuthorizedClientService(clientRegistrations);
+    }
+
+    /**
+     * Creates the client that requests client-credentials access tokens,
+     * over the same connection pool and timeouts as the Query API.
+     *
+     * @param httpClient the HTTP client
+     * @return the access token client
+     */
+    @Bean
+    public ReactiveOAuth2AccessTokenResponseClient<OAuth2ClientCredentialsGrantRequest> accessTokenResponseClient(
+            final HttpClient httpClient
+    ) {
+        final WebClientReactiveClientCredentialsTokenResponseClient accessTokenResponseClient =
+            new WebClientReactiveClientCredentialsTokenResponseClient();
+
+        accessTokenResponseClient.setWebClient(
+            WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build()
+        );
+
+        return accessTokenResponseClient;
+    }
+
     /**
      * Creates the web client used to make the Query API request.
      *
      * @param clientRegistrations the set of OAuth2-enabled client registrations
+     * @param authorizedClientService the store of access tokens
+     * @param accessTokenResponseClient requests an access token when the
+     *                                  stored one has expired
+     * @param httpClient the HTTP client
+     * @param maxResponseBytes the largest response that may be read into
+     *                         memory as a whole
      * @return the web client instance
      */
     @Bean
-    public WebClient webClient(final ReactiveClientRegistrationRepository clientRegistrations) {
+    public WebClient webClient(
+            final ReactiveClientRegistrationRepository clientRegistrations,
+            final ReactiveOAuth2AuthorizedClientService authorizedClientService,
+            final ReactiveOAuth2AccessTokenResponseClient<OAuth2ClientCredentialsGrantRequest> accessTokenResponseClient,
+            final HttpClient httpClient,
+            @Value("${medallia.queryapi.max.response.bytes:16777216}") final Integer maxResponseBytes
+    ) {
 
-        final InMemoryReactiveOAuth2AuthorizedClientService authorizedClientService =
-            new InMemoryReactiveOAuth2AuthorizedClientService(clientRegistrations);
+        final ClientCredentialsReactiveOAuth2AuthorizedClientProvider authorizedClientProvider =
+            new ClientCredentialsReactiveOAuth2AuthorizedClientProvider();
+        authorizedClientProvider.setAccessTokenResponseClient(accessTokenResponseClient);
+        // Tokens are renewed in the background well before they expire; a
+        // request only waits for a new one if that renewal is overdue
+        authorizedClientProvider.setClockSkew(Duration.ofSeconds(10));
 
-        final ServerOAuth2AuthorizedClientExchangeFilterFunction oauth =
-            new ServerOAuth2AuthorizedClientExchangeFilterFunction(
-                new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(
-                    clientRegistrations,
-                    authorizedClientService
-                )
+        final AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager authorizedClientManager =
+            new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(
+                clientRegistrations,
+                authorizedClientService
             );
+        authorizedClientManager.setAuthorizedClientProvider(authorizedClientProvider);
+
+        final ServerOAuth2AuthorizedClientExchangeFilterFunction oauth =
+            new ServerOAuth2AuthorizedClientExchangeFilterFunction(authorizedClientManager);
 
         oauth.setDefaultClientRegistrationId("medallia");
 
+        // A page of 1000 records easily exceeds the codecs' 256 KB default
         return WebClient.builder()
+            .clientConnector(new ReactorClientHttpConnector(httpClient))
             .filter(oauth)
+            .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxResponseBytes))
             .build();
     }
 
@@ -6,8 +6,25 @@ package com.medallia.references.feedbackdatasync.constants;
 public final class DbConstants {
 
     public static final String TABLE_RECORDS = "records";
+    public static final String TABLE_RECORDS_ARCHIVE = "records_archive";
+    public static final String INDEX_RECORDS_INITIAL_FINISH_DATE = "records_initialFinishDate";
     public static final String COL_SURVEYID = "surveyId";
     public static final String COL_INITIAL_FINISH_DATE = "initialFinishDate";
+    public static final String COL_JOB = "job";
+    public static final String INDEX_RECORDS_JOB_INITIAL_FINISH_DATE = "records_job_initialFinishDate";
+
+    public static final String TABLE_CHECKPOINTS = "checkpoints";
+    public static final String COL_CHECKPOINT_NAME = "name";
+    public static final String COL_UPDATED_AT = "updatedAt";
+    public static final String DEFAULT_CHECKPOINT = "default";
+
+    public static final String TABLE_SHARDS = "shards";
+    public static final String COL_SHARD_ID = "shardId";
+    public static final String COL_RANGE_START = "rangeStart";
+    public static final String COL_RANGE_END = "rangeEnd";
+    public static final String COL_COMPLETED = "completed";
+    public static final String COL_OWNER = "owner";
+    public static final String COL_LEASE_EXPIRES_AT = "leaseExpiresAt";
 
     /**
      * Hidden constructor to prevent instantiation.
@@ -0,0 +1,238 @@
+package com.medallia.references.feedbackdatasync.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+import com.medallia.references.feedbackdatasync.service.AdaptivePollTrigger;
+import com.medallia.references.feedbackdatasync.service.DuplicateFilter;
+
+/**
+ * The sync pipeline's metrics: per-page timers for each stage, counters for
+ * records, skipped duplicates, bytes, retries, failed requests and
+ * throttled requests, and gauges, tagged with the job, for how far each
+ * extraction is behind.  Counters tagged with the job and field track how many values of each
+ * declared field were decoded into its type or failed to, and how many
+ * values of undeclared fields were kept raw.
+ */
+@Component
+public class SyncMetrics {
+
+    private static final long UNKNOWN = -1;
+
+    private static final String FIELDS_DECODED = "queryapi.fields.decoded";
+    private static final String FIELDS_TYPE_ERRORS = "queryapi.fields.type.errors";
+    private static final String FIELDS_RAW = "queryapi.fields.raw";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private AdaptivePollTrigger pollTrigger;
+
+    @Autowired
+    private SyncJobs syncJobs;
+
+    @Autowired
+    private DuplicateFilter duplicateFilter;
+
+    private Timer httpTimer;
+    private Timer decodeTimer;
+    private Timer persistTimer;
+    private Timer checkpointTimer;
+
+    private Counter recordsCounter;
+    private Counter duplicatesCounter;
+    private Counter bytesCounter;
+    private Counter retriesCounter;
+    private Counter failuresCounter;
+    private Counter throttledCounter;
+
+    private final Map<String, Counter> fieldCounters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void postConstruct() {
+        httpTimer = Timer.builder("queryapi.page.http")
+            .description("Time spent waiting on the Query API for a page")
+            .register(meterRegistry);
+        decodeTimer = Timer.builder("queryapi.page.decode")
+            .description("Time spent decoding a page")
+            .register(meterRegistry);
+        persistTimer = Timer.builder("queryapi.page.persist")
+            .description("Time spent persisting a page and flushing the record stream")
+            .register(meterRegistry);
+        checkpointTimer = Timer.builder("queryapi.page.checkpoint")
+            .description("Time spent storing a page's checkpoint and committing")
+            .register(meterRegistry);
+
+        recordsCounter = Counter.builder("queryapi.records")
+            .description("Records persisted")
+            .register(meterRegistry);
+        duplicatesCounter = Counter.builder("queryapi.records.duplicates")
+            .description("Records pulled again that had already been persisted, and were skipped")
+            .register(meterRegistry);
+        bytesCounter = Counter.builder("queryapi.bytes")
+            .description("Response bytes received from the Query API")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        retriesCounter = Counter.builder("queryapi.retries")
+            .description("Failed Query API attempts that were retried")
+            .register(meterRegistry);
+        failuresCounter = Counter.builder("queryapi.failures")
+            .description("Failed Query API attempts that were not retried, or used up their retries")
+            .register(meterRegistry);
+        throttledCounter = Counter.builder("queryapi.throttled")
+            .description("Query API requests rejected with 429 Too Many Requests")
+            .register(meterRegistry);
+
+        for (final SyncJob job : syncJobs.getJobs()) {
+            Gauge.builder("queryapi.lag", job, SyncMetrics::lagSeconds)
+                .description("Seconds between now and the last processed initial finish date")
+                .baseUnit("seconds")
+                .tag("job", job.getName())
+                .register(meterRegistry);
+            Gauge.builder("queryapi.backlog", job, j -> j.getBacklog().get() == UNKNOWN ? Double.NaN : j.getBacklog().get())
+                .description("Records still to pull, estimated from the last page's totalCount")
+                .baseUnit("records")
+                .tag("job", job.getName())
+                .register(meterRegistry);
+
+            // Registered up front so fields without errors report zero
+            for (final FieldSchema.Field field : job.getFieldSchema().getFields()) {
+                fieldCounter(FIELDS_DECODED, job, field.getAlias());
+                fieldCounter(FIELDS_TYPE_ERRORS, job, field.getAlias());
+            }
+            fieldCounter(FIELDS_RAW, job, null);
+        }
+
+        Gauge.builder("queryapi.dedup.bytes", duplicateFilter, DuplicateFilter::getSizeInBytes)
+            .description("Off-heap memory holding the survey ids of the duplicate filter's windows")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+
+        Gauge.builder("queryapi.poll.catchup", pollTrigger, t -> t.getMode() == AdaptivePollTrigger.Mode.CATCH_UP ? 1 : 0)
+            .description("1 while polls run back to back to catch up, 0 in steady mode")
+            .register(meterRegistry);
+        Gauge.builder("queryapi.poll.delay", pollTrigger, t -> t.getNextDelay())
+            .description("Delay before the next poll")
+            .baseUnit("milliseconds")
+            .register(meterRegistry);
+        Gauge.builder("queryapi.poll.delay.max", pollTrigger, t -> t.getMaxInterval())
+            .description("Ceiling of the steady-mode poll delay")
+            .baseUnit("milliseconds")
+            .register(meterRegistry);
+    }
+
+    public void recordHttp(final long nanos) {
+        httpTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDecode(final long nanos) {
+        decodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordPersist(final long nanos) {
+        persistTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCheckpoint(final long nanos) {
+        checkpointTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void countRecords(final int records) {
+        recordsCounter.increment(records);
+    }
+
+    public void countDuplicates(final int records) {
+        duplicatesCounter.increment(records);
+    }
+
+    public void countBytes(final long bytes) {
+        bytesCounter.increment(bytes);
+    }
+
+    public void countRetry() {
+        retriesCounter.increment();
+    }
+
+    public void countFailure() {
+        failuresCounter.increment();
+    }
+
+    public void countThrottle() {
+        throttledCounter.increment();
+    }
+
+    /**
+     * Counts a page's decoded values and type errors per declared field, and
+     * its raw values.
+     *
+     * @param job the job the page was pulled for
+     * @param page the page
+     */
+    public void countFieldValues(final SyncJob job, final FeedbackPage page) {
+        for (int column = 0; column < page.getColumnCount(); column++) {
+            final FieldSchema.Field field = page.getField(column);
+
+            if (field != null) {
+                fieldCounter(FIELDS_DECODED, job, field.getAlias()).increment(page.getDecodedCount(column));
+                if (page.getTypeErrorCount(column) > 0) {
+                    fieldCounter(FIELDS_TYPE_ERRORS, job, field.getAlias()).increment(page.getTypeErrorCount(column));
+                }
+            }
+        }
+
+        fieldCounter(FIELDS_RAW, job, null).increment(page.getRawValueCount());
+    }
+
+    private Counter fieldCounter(final String name, final SyncJob job, final String field) {
+        return fieldCounters.computeIfAbsent(name + '/' + job.getName() + '/' + field, key -> {
+            final Counter.Builder builder = Counter.builder(name).tag("job", job.getName());
+            if (field == null) {
+                builder.description("Values of fields outside the job's field schema, kept raw");
+            } else if (FIELDS_DECODED.equals(name)) {
+                builder.description("Values decoded into their field's declared type").tag("field", field);
+            } else {
+                builder.description("Values that did not decode into their field's declared type").tag("field", field);
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+
+    /**
+     * Updates the backlog estimate from a page's {@code totalCount}, the
+     * number of records matching the query from the page's cursor onwards.
+     * With several shards in flight this reflects whichever page was
+     * fetched last.
+     *
+     * @param job the job the page was pulled for
+     * @param totalCount the page's total count, or null if unknown
+     * @param pageSize the maximum number of records on a page
+     */
+    public void updateBacklog(final SyncJob job, final Long totalCount, final int pageSize) {
+        job.getBacklog().set(totalCount == null ? UNKNOWN : Math.max(0, totalCount - pageSize));
+    }
+
+    private static double lagSeconds(final SyncJob job) {
+        final ProcessedRecord record = job.getLastProcessedRecord();
+        return record == null
+            ? Double.NaN
+            : System.currentTimeMillis() / 1000.0 - record.getInitialFinishDate().toEpochSecond();
+    }
+
+}
@@ -0,0 +1,892 @@
+package com.medallia.references.feedbackdatasync.model;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+
+/**
+ * A compact, columnar page of Query API records.  Field names are mapped to
+ * column indexes once per page, every value of the page lives in one shared
+ * array, and each record's survey id and initial finish date are decoded
+ * once into primitives.
+ *
+ * <p>Values of the fields declared in the job's {@link FieldSchema} are
+ * also decoded once, as the page is built, into a primitive column that
+ * parallels the raw values: numbers and epoch dates as {@code long}s,
+ * doubles as their bits and enum values as codes of a per-field
+ * dictionary.  A value that does not decode into its field's type is kept
+ * raw and counted as a type error of the field.</p>
+ *
+ * <p>{@link #row(int)} exposes a record through the original
+ * {@code Map<String, NodeValuesWrapper>} shape for code that expects it.</p>
+ */
+public final class FeedbackPage {
+
+    private static final int ABSENT = -1;
+    private static final int NULL_VALUES = -2;
+
+    private static final FeedbackPage EMPTY = new Builder().build();
+
+    private final String[] columns;
+    private final Map<String, Integer> columnIndexes;
+    private final int rowCount;
+    private final long[] surveyIds;
+    private final long[] initialFinishDates;
+    private final int[] cellStarts;
+    private final int[] cellEnds;
+    private final String[] values;
+
+    private final FieldSchema.Field[] fields;
+    private final long[] typedValues;
+    private final boolean[] decoded;
+    private final String[][] enumValues;
+    private final int[] decodedCounts;
+    private final int[] typeErrorCounts;
+    private final String[] firstTypeErrors;
+    private final int rawValueCount;
+
+    private FeedbackPage(
+            final String[] columns,
+            final Map<String, Integer> columnIndexes,
+            final int rowCount,
+            final long[] surveyIds,
+            final long[] initialFinishDates,
+            final int[] cellStarts,
+            final int[] cellEnds,
+            final String[] values,
+            final FieldSchema.Field[] fields,
+            final long[] typedValues,
+            final boolean[] decoded,
+            final String[][] enumValues,
+            final int[] decodedCounts,
+            final int[] typeErrorCounts,
+            final String[] firstTypeErrors,
+            final int rawValueCount
+    ) {
+        this.columns = columns;
+        this.columnIndexes = columnIndexes;
+        this.rowCount = rowCount;
+        this.surveyIds = surveyIds;
+        this.initialFinishDates = initialFinishDates;
+        this.cellStarts = cellStarts;
+        this.cellEnds = cellEnds;
+        this.values = values;
+        this.fields = fields;
+        this.typedValues = typedValues;
+        this.decoded = decoded;
+        this.enumValues = enumValues;
+        this.decodedCounts = decodedCounts;
+        this.typeErrorCounts = typeErrorCounts;
+        this.firstTypeErrors = firstTypeErrors;
+        this.rawValueCount = rawValueCount;
+    }
+
+    /**
+     * Returns a page without records.
+     *
+     * @return the empty page
+     */
+    public static FeedbackPage empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a page from records in the original map shape.
+     *
+     * @param nodes the records, in Query API order
+     * @return the page
+     */
+    public static FeedbackPage fromNodes(final List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes) {
+        final Builder builder = new Builder();
+
+        if (nodes != null) {
+            for (final Map<String, QueryApiResponse.NodeValuesWrapper> node : nodes) {
+                builder.startRow();
+
+                for (final Map.Entry<String, QueryApiResponse.NodeValuesWrapper> field : node.entrySet()) {
+                    builder.startCell(builder.column(field.getKey()));
+
+                    final List<String> fieldValues = field.getValue() == null
+                        ? null
+                        : field.getValue().getValues();
+
+                    if (fieldValues == null) {
+                        builder.nullCell();
+                    } else {
+                        fieldValues.forEach(builder::addValue);
+                    }
+
+                    builder.endCell();
+                }
+
+                builder.endRow();
+            }
+        }
+
+        return builder.build();
+    }
+
+    public int size() {
+        return this.rowCount;
+    }
+
+    public boolean isEmpty() {
+        return this.rowCount == 0;
+    }
+
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    public String getColumnName(final int column) {
+        return this.columns[column];
+    }
+
+    /**
+     * Returns the column index of a field.
+     *
+     * @param name the field name
+     * @return the column index, or -1 if no record of the page has the field
+     */
+    public int getColumnIndex(final String name) {
+        final Integer column = this.columnIndexes.get(name);
+        return column == null ? ABSENT : column;
+    }
+
+    public long getSurveyId(final int row) {
+        return this.surveyIds[row];
+    }
+
+    public long getInitialFinishDate(final int row) {
+        return this.initialFinishDates[row];
+    }
+
+    /**
+     * Returns whether a record has a field.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @return whether the record has the field
+     */
+    public boolean hasField(final int row, final int column) {
+        return this.cellStarts[row * this.columns.length + column] != ABSENT;
+    }
+
+    /**
+     * Returns whether a record's field has a null value list.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @return whether the field's values are null
+     */
+    public boolean isNull(final int row, final int column) {
+        return this.cellStarts[row * this.columns.length + column] == NULL_VALUES;
+    }
+
+    /**
+     * Returns the number of values a record has for a field.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @return the number of values, 0 if the field is absent or null
+     */
+    public int getValueCount(final int row, final int column) {
+        final int cell = row * this.columns.length + column;
+        return this.cellStarts[cell] < 0 ? 0 : this.cellEnds[cell] - this.cellStarts[cell];
+    }
+
+    /**
+     * Returns one of a record's values for a field.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @param index the value index, below {@link #getValueCount(int, int)}
+     * @return the value
+     */
+    public String getValue(final int row, final int column, final int index) {
+        return this.values[this.cellStarts[row * this.columns.length + column] + index];
+    }
+
+    /**
+     * Returns the declared field a column holds.
+     *
+     * @param column the column index
+     * @return the field, or null if the column's field is not in the schema
+     */
+    public FieldSchema.Field getField(final int column) {
+        return this.fields[column];
+    }
+
+    /**
+     * Returns whether one of a record's values was decoded into its field's
+     * declared type.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @param index the value index, below {@link #getValueCount(int, int)}
+     * @return whether the value was decoded, false for a value of an
+     *         undeclared field, a null value or a type error
+     */
+    public boolean isDecoded(final int row, final int column, final int index) {
+        return this.fields[column] != null && this.decoded[this.cellStarts[row * this.columns.length + column] + index];
+    }
+
+    /**
+     * Returns a decoded value of a {@link FieldType#LONG} or
+     * {@link FieldType#EPOCH} field.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @param index the value index, for which
+     *              {@link #isDecoded(int, int, int)} holds
+     * @return the value, in epoch seconds for an epoch field
+     */
+    public long getLong(final int row, final int column, final int index) {
+        return this.typedValues[this.cellStarts[row * this.columns.length + column] + index];
+    }
+
+    /**
+     * Returns a decoded value of a {@link FieldType#DOUBLE} field.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @param index the value index, for which
+     *              {@link #isDecoded(int, int, int)} holds
+     * @return the value
+     */
+    public double getDouble(final int row, final int column, final int index) {
+        return Double.longBitsToDouble(getLong(row, column, index));
+    }
+
+    /**
+     * Returns the code of a decoded value of a {@link FieldType#ENUM} field.
+     *
+     * @param row the record index
+     * @param column the column index
+     * @param index the value index, for which
+     *              {@link #isDecoded(int, int, int)} holds
+     * @return the code, an index into {@link #getEnumValue(int, int)}
+     */
+    public int getEnumCode(final int row, final int column, final int index) {
+        return (int) getLong(row, column, index);
+    }
+
+    /**
+     * Returns the value an enum code stands for.  Codes are shared by the
+     * pages decoded from the same response.
+     *
+     * @param column the column index of a {@link FieldType#ENUM} field
+     * @param code the code
+     * @return the value
+     */
+    public String getEnumValue(final int column, final int code) {
+        return this.enumValues[column][code];
+    }
+
+    /**
+     * Returns the number of values of a column that were decoded into the
+     * column's declared type.
+     *
+     * @param column the column index
+     * @return the number of decoded values
+     */
+    public int getDecodedCount(final int column) {
+        return this.decodedCounts[column];
+    }
+
+    /**
+     * Returns the number of non-null values of a declared column that did
+     * not decode into its type, including every value after the first of a
+     * single-valued field.
+     *
+     * @param column the column index
+     * @return the number of type errors
+     */
+    public int getTypeErrorCount(final int column) {
+        return this.typeErrorCounts[column];
+    }
+
+    /**
+     * Describes the first type error of a column.
+     *
+     * @param column the column index
+     * @return the description, or null if the column has no type errors
+     */
+    public String getFirstTypeError(final int column) {
+        return this.firstTypeErrors[column];
+    }
+
+    /**
+     * Returns the number of values of custom fields outside the schema, which
+     * are only available raw.
+     *
+     * @return the number of raw values
+     */
+    public int getRawValueCount() {
+        return this.rawValueCount;
+    }
+
+    /**
+     * Returns a record's position in the Query API ordering.
+     *
+     * @param row the record index
+     * @return the record's survey id and initial finish date
+     */
+    public ProcessedRecord getProcessedRecord(final int row) {
+        return new ProcessedRecord(
+            BigInteger.valueOf(this.surveyIds[row]),
+            ZonedDateTime.ofInstant(Instant.ofEpochSecond(this.initialFinishDates[row]), ZoneOffset.UTC)
+        );
+    }
+
+    /**
+     * Returns a page of the records that are not dropped.  The new page
+     * shares this page's values; its decoded and raw value counts are this
+     * page's.
+     *
+     * @param dropped flags the records to leave out, by record index
+     * @return the page of the remaining records, in the same order
+     */
+    public FeedbackPage withoutRows(final boolean[] dropped) {
+        int remaining = 0;
+        for (int row = 0; row < this.rowCount; row++) {
+            if (!dropped[row]) {
+                remaining++;
+            }
+        }
+
+        final int columnCount = this.columns.length;
+        final long[] keptSurveyIds = new long[remaining];
+        final long[] keptInitialFinishDates = new long[remaining];
+        final int[] keptCellStarts = new int[remaining * columnCount];
+        final int[] keptCellEnds = new int[remaining * columnCount];
+
+        int kept = 0;
+        for (int row = 0; row < this.rowCount; row++) {
+            if (dropped[row]) {
+                continue;
+            }
+
+            keptSurveyIds[kept] = this.surveyIds[row];
+            keptInitialFinishDates[kept] = this.initialFinishDates[row];
+            System.arraycopy(this.cellStarts, row * columnCount, keptCellStarts, kept * columnCount, columnCount);
+            System.arraycopy(this.cellEnds, row * columnCount, keptCellEnds, kept * columnCount, columnCount);
+            kept++;
+        }
+
+        return new FeedbackPage(
+            this.columns,
+            this.columnIndexes,
+            remaining,
+            keptSurveyIds,
+            keptInitialFinishDates,
+            keptCellStarts,
+            keptCellEnds,
+            this.values,
+            this.fields,
+            this.typedValues,
+            this.decoded,
+            this.enumValues,
+            this.decodedCounts,
+            this.typeErrorCounts,
+            this.firstTypeErrors,
+            this.rawValueCount
+        );
+    }
+
+    /**
+     * Returns a record as a map view over the page.
+     *
+     * @param row the record index
+     * @return the record in the original map shape
+     */
+    public Row row(final int row) {
+        if (row < 0 || row >= this.rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + this.rowCount);
+        }
+        return new Row(this, row);
+    }
+
+    private QueryApiResponse.NodeValuesWrapper getNodeValues(final int row, final int column) {
+        final int cell = row * this.columns.length + column;
+        final int start = this.cellStarts[cell];
+
+        final QueryApiResponse.NodeValuesWrapper wrapper = new QueryApiResponse.NodeValuesWrapper();
+        wrapper.setValues(start == NULL_VALUES
+            ? null
+            : Collections.unmodifiableList(Arrays.asList(this.values).subList(start, this.cellEnds[cell])));
+        return wrapper;
+    }
+
+    /**
+     * A record of a page, viewed as the original map of field name to
+     * values.  Entries are created lazily; serializing a row writes straight
+     * from the page's arrays.
+     */
+    @JsonSerialize(using = RowSerializer.class)
+    public static final class Row extends AbstractMap<String, QueryApiResponse.NodeValuesWrapper> {
+
+        private final FeedbackPage page;
+        private final int row;
+
+        private Row(final FeedbackPage page, final int row) {
+            this.page = page;
+            this.row = row;
+        }
+
+        public FeedbackPage getPage() {
+            return this.page;
+        }
+
+        public int getRow() {
+            return this.row;
+        }
+
+        @Override
+        public QueryApiResponse.NodeValuesWrapper get(final Object key) {
+            final Integer column = key instanceof String ? page.columnIndexes.get(key) : null;
+
+            return column == null || !page.hasField(row, column)
+                ? null
+                : page.getNodeValues(row, column);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            final Integer column = key instanceof String ? page.columnIndexes.get(key) : null;
+            return column != null && page.hasField(row, column);
+        }
+
+        @Override
+        public Set<Map.Entry<String, QueryApiResponse.NodeValuesWrapper>> entrySet() {
+            return new AbstractSet<Map.Entry<String, QueryApiResponse.NodeValuesWrapper>>() {
+                @Override
+                public Iterator<Map.Entry<String, QueryApiResponse.NodeValuesWrapper>> iterator() {
+                    return new Iterator<Map.Entry<String, QueryApiResponse.NodeValuesWrapper>>() {
+                        private int column = advance(0);
+
+                        private int advance(final int from) {
+                            int next = from;
+                            while (next < page.columns.length && !page.hasField(row, next)) {
+                                next++;
+                            }
+                            return next;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return column < page.columns.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, QueryApiResponse.NodeValuesWrapper> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+
+                            final Map.Entry<String, QueryApiResponse.NodeValuesWrapper> entry =
+                                new SimpleImmutableEntry<>(page.columns[column], page.getNodeValues(row, column));
+                            column = advance(column + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (int column = 0; column < page.columns.length; column++) {
+                        if (page.hasField(row, column)) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+
+    }
+
+    /**
+     * Serializes a row in the Query API node shape directly from the page's
+     * arrays.
+     */
+    public static final class RowSerializer extends StdSerializer<Row> {
+
+        private static final long serialVersionUID = 1L;
+
+        public RowSerializer() {
+            super(Row.class);
+        }
+
+        @Override
+        public void serialize(
+                final Row value,
+                final JsonGenerator generator,
+                final SerializerProvider provider
+        ) throws IOException {
+            final FeedbackPage page = value.page;
+            final int row = value.row;
+
+            generator.writeStartObject();
+
+            for (int column = 0; column < page.columns.length; column++) {
+                if (!page.hasField(row, column)) {
+                    continue;
+                }
+
+                generator.writeFieldName(page.columns[column]);
+                generator.writeStartObject();
+                generator.writeFieldName("values");
+
+                if (page.isNull(row, column)) {
+                    generator.writeNull();
+                } else {
+                    generator.writeStartArray();
+                    final int count = page.getValueCount(row, column);
+                    for (int index = 0; index < count; index++) {
+                        writeValue(generator, page, row, column, index);
+                    }
+                    generator.writeEndArray();
+                }
+
+                generator.writeEndObject();
+            }
+
+            generator.writeEndObject();
+        }
+
+        /**
+         * Writes a value, as a JSON number if it was decoded from a numeric
+         * field and as a string otherwise.
+         */
+        private static void writeValue(
+                final JsonGenerator generator,
+                final FeedbackPage page,
+                final int row,
+                final int column,
+                final int index
+        ) throws IOException {
+            final FieldSchema.Field field = page.fields[column];
+
+            if (field == null || !field.getType().isNumeric() || !page.isDecoded(row, column, index)) {
+                generator.writeString(page.getValue(row, column, index));
+            } else if (field.getType() == FieldType.DOUBLE) {
+                generator.writeNumber(page.getDouble(row, column, index));
+            } else {
+                generator.writeNumber(page.getLong(row, column, index));
+            }
+        }
+
+    }
+
+    /**
+     * Builds pages one record and one field at a time, as a decoder reads
+     * them, decoding the values of declared fields as they are added.
+     * Column indexes and enum dictionaries are kept across {@link #build()}
+     * calls, so consecutive chunks of the same response share them.
+     */
+    public static final class Builder {
+
+        private final FieldSchema schema;
+        private final Map<String, Integer> columnIndexes = new HashMap<>();
+        private final List<String> columns = new ArrayList<>();
+        private final List<FieldSchema.Field> columnFields = new ArrayList<>();
+        private final List<Map<String, Integer>> enumCodes = new ArrayList<>();
+        private final List<List<String>> enumValues = new ArrayList<>();
+        private final int surveyIdColumn;
+        private final int finishDateColumn;
+
+        private String[] values = new String[1024];
+        private int valueCount;
+
+        // Parallel to the values, only with a schema
+        private long[] typedValues;
+        private boolean[] decoded;
+
+        private int[] decodedCounts = new int[16];
+        private int[] typeErrorCounts = new int[16];
+        private String[] firstTypeErrors = new String[16];
+        private int rawValueCount;
+
+        private int[] cellRows = new int[256];
+        private int[] cellColumns = new int[256];
+        private int[] cellStarts = new int[256];
+        private int[] cellEnds = new int[256];
+        private int cellCount;
+
+        private long[] surveyIds = new long[64];
+        private long[] initialFinishDates = new long[64];
+        private int rowCount;
+
+        private int rowFirstCell;
+        private boolean inCell;
+        private int cellColumn;
+        private FieldSchema.Field cellField;
+
+        /**
+         * Creates a builder that keeps every value raw.
+         */
+        public Builder() {
+            this(FieldSchema.empty());
+        }
+
+        /**
+         * Creates a builder that decodes the values of the schema's fields.
+         *
+         * @param schema the declared fields
+         */
+        public Builder(final FieldSchema schema) {
+            this.schema = schema;
+            if (!schema.isEmpty()) {
+                typedValues = new long[values.length];
+                decoded = new boolean[values.length];
+            }
+
+            this.surveyIdColumn = column(SURVEY_ID);
+            this.finishDateColumn = column(FINISH_DATE);
+        }
+
+        /**
+         * Returns the column index of a field, assigning one the first time
+         * the field is seen.
+         *
+         * @param name the field name
+         * @return the column index
+         */
+        public int column(final String name) {
+            final Integer column = columnIndexes.get(name);
+            if (column != null) {
+                return column;
+            }
+
+            final FieldSchema.Field field = schema.getField(name);
+            final boolean isEnum = field != null && field.getType() == FieldType.ENUM;
+
+            columns.add(name);
+            columnFields.add(field);
+            enumCodes.add(isEnum ? new HashMap<>() : null);
+            enumValues.add(isEnum ? new ArrayList<>() : null);
+            columnIndexes.put(name, columns.size() - 1);
+
+            if (columns.size() > decodedCounts.length) {
+                decodedCounts = Arrays.copyOf(decodedCounts, columns.size() * 2);
+                typeErrorCounts = Arrays.copyOf(typeErrorCounts, columns.size() * 2);
+                firstTypeErrors = Arrays.copyOf(firstTypeErrors, columns.size() * 2);
+            }
+            return columns.size() - 1;
+        }
+
+        public int size() {
+            return rowCount;
+        }
+
+        public void startRow() {
+            rowFirstCell = cellCount;
+        }
+
+        public void startCell(final int column) {
+            if (cellCount == cellStarts.length) {
+                final int capacity = cellCount * 2;
+                cellRows = Arrays.copyOf(cellRows, capacity);
+                cellColumns = Arrays.copyOf(cellColumns, capacity);
+                cellStarts = Arrays.copyOf(cellStarts, capacity);
+                cellEnds = Arrays.copyOf(cellEnds, capacity);
+            }
+
+            cellRows[cellCount] = rowCount;
+            cellColumns[cellCount] = column;
+            cellStarts[cellCount] = valueCount;
+            inCell = true;
+            cellColumn = column;
+            cellField = columnFields.get(column);
+        }
+
+        public void addValue(final String value) {
+            if (valueCount == values.length) {
+                values = Arrays.copyOf(values, valueCount * 2);
+                if (typedValues != null) {
+                    typedValues = Arrays.copyOf(typedValues, valueCount * 2);
+                    decoded = Arrays.copyOf(decoded, valueCount * 2);
+                }
+            }
+            values[valueCount] = value;
+
+            if (cellField != null) {
+                decode(value);
+            } else if (cellColumn != surveyIdColumn && cellColumn != finishDateColumn) {
+                rawValueCount++;
+            }
+            valueCount++;
+        }
+
+        /**
+         * Decodes the value being added into the current field's type.
+         */
+        private void decode(final String value) {
+            decoded[valueCount] = false;
+            if (value == null) {
+                return;
+            }
+
+            if (!cellField.isMultiValued() && valueCount > cellStarts[cellCount]) {
+                typeError("more than one value");
+                return;
+            }
+
+            switch (cellField.getType()) {
+                case STRING:
+                    break;
+
+                case ENUM:
+                    final Map<String, Integer> codes = enumCodes.get(cellColumn);
+                    Integer code = codes.get(value);
+                    if (code == null) {
+                        code = codes.size();
+                        codes.put(value, code);
+                        enumValues.get(cellColumn).add(value);
+                    }
+                    typedValues[valueCount] = code;
+                    break;
+
+                default:
+                    try {
+                        typedValues[valueCount] = cellField.getType().decode(value);
+                    } catch (IllegalArgumentException e) {
+                        typeError("'" + value + "' is not " + cellField.getType().name().toLowerCase(Locale.ROOT));
+                        return;
+                    }
+                    break;
+            }
+
+            decoded[valueCount] = true;
+            decodedCounts[cellColumn]++;
+        }
+
+        private void typeError(final String description) {
+            if (typeErrorCounts[cellColumn]++ == 0) {
+                firstTypeErrors[cellColumn] = description;
+            }
+        }
+
+        /**
+         * Marks the current field's value list as null.
+         */
+        public void nullCell() {
+            cellStarts[cellCount] = NULL_VALUES;
+        }
+
+        public void endCell() {
+            if (inCell) {
+                cellEnds[cellCount] = valueCount;
+                cellCount++;
+                inCell = false;
+            }
+        }
+
+        /**
+         * Completes the current record and decodes its survey id and initial
+         * finish date.
+         *
+         * @throws IllegalArgumentException if the record lacks either value
+         */
+        public void endRow() {
+            if (rowCount == surveyIds.length) {
+                surveyIds = Arrays.copyOf(surveyIds, rowCount * 2);
+                initialFinishDates = Arrays.copyOf(initialFinishDates, rowCount * 2);
+            }
+
+            surveyIds[rowCount] = Long.parseLong(firstValue(surveyIdColumn, SURVEY_ID));
+            initialFinishDates[rowCount] = Long.parseLong(firstValue(finishDateColumn, FINISH_DATE));
+            rowCount++;
+        }
+
+        private String firstValue(final int column, final String name) {
+            for (int cell = rowFirstCell; cell < cellCount; cell++) {
+                if (cellColumns[cell] == column && cellStarts[cell] >= 0 && cellEnds[cell] > cellStarts[cell]) {
+                    return values[cellStarts[cell]];
+                }
+            }
+            throw new IllegalArgumentException("Record has no value for " + name);
+        }
+
+        /**
+         * Builds a page of the records added since the last build.
+         *
+         * @return the page
+         */
+        public FeedbackPage build() {
+            final int columnCount = columns.size();
+
+            final String[][] pageEnumValues = new String[columnCount][];
+            for (int column = 0; column < columnCount; column++) {
+                if (enumValues.get(column) != null) {
+                    pageEnumValues[column] = enumValues.get(column).toArray(new String[0]);
+                }
+            }
+
+            final int[] pageCellStarts = new int[rowCount * columnCount];
+            final int[] pageCellEnds = new int[rowCount * columnCount];
+            Arrays.fill(pageCellStarts, ABSENT);
+
+            for (int cell = 0; cell < cellCount; cell++) {
+                final int index = cellRows[cell] * columnCount + cellColumns[cell];
+                pageCellStarts[index] = cellStarts[cell];
+                pageCellEnds[index] = cellEnds[cell];
+            }
+
+            final FeedbackPage page = new FeedbackPage(
+                columns.toArray(new String[columnCount]),
+                new HashMap<>(columnIndexes),
+                rowCount,
+                Arrays.copyOf(surveyIds, rowCount),
+                Arrays.copyOf(initialFinishDates, rowCount),
+                pageCellStarts,
+                pageCellEnds,
+                Arrays.copyOf(values, valueCount),
+                columnFields.toArray(new FieldSchema.Field[columnCount]),
+                typedValues == null ? null : Arrays.copyOf(typedValues, valueCount),
+                decoded == null ? null : Arrays.copyOf(decoded, valueCount),
+                pageEnumValues,
+                Arrays.copyOf(decodedCounts, columnCount),
+                Arrays.copyOf(typeErrorCounts, columnCount),
+                Arrays.copyOf(firstTypeErrors, columnCount),
+                rawValueCount
+            );
+
+            valueCount = 0;
+            cellCount = 0;
+            rowCount = 0;
+            rawValueCount = 0;
+            Arrays.fill(decodedCounts, 0);
+            Arrays.fill(typeErrorCounts, 0);
+            Arrays.fill(firstTypeErrors, null);
+
+            return page;
+        }
+
+    }
+
+}
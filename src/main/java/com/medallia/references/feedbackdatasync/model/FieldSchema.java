@@ -0,0 +1,179 @@
+package com.medallia.references.feedbackdatasync.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+
+/**
+ * The declared custom fields of a job: each field's Medallia field id, the
+ * alias it is requested under, its {@link FieldType} and whether it holds
+ * one value or several.  The schema generates the fields' part of the node
+ * projection, and pages decode the fields' values once, as they are
+ * parsed (see {@link FeedbackPage.Builder}).
+ *
+ * <p>A schema is written as comma-separated {@code alias=fieldId:type}
+ * entries, with {@code []} after the type for multi-valued fields, e.g.
+ * {@code ltr=q_ltr:long, visited=e_visit_date:epoch, tags=q_tags:enum[]}.
+ * The type defaults to {@code string}.</p>
+ */
+public final class FieldSchema {
+
+    private static final Pattern ENTRY = Pattern.compile(
+        "([A-Za-z_][A-Za-z0-9_]*)\\s*=\\s*([A-Za-z0-9_.]+)\\s*(?::\\s*([A-Za-z]+))?\\s*(\\[\\s*])?"
+    );
+
+    private static final FieldSchema EMPTY = new FieldSchema(Collections.emptyList());
+
+    private final List<Field> fields;
+    private final Map<String, Field> fieldsByAlias = new HashMap<>();
+
+    private FieldSchema(final List<Field> fields) {
+        this.fields = Collections.unmodifiableList(fields);
+        fields.forEach(field -> fieldsByAlias.put(field.getAlias(), field));
+    }
+
+    /**
+     * Returns a schema without fields.
+     *
+     * @return the empty schema
+     */
+    public static FieldSchema empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Parses a schema.
+     *
+     * @param schema the comma-separated field declarations, or empty
+     * @return the schema
+     * @throws IllegalArgumentException if a declaration is malformed, or an
+     *                                  alias is declared twice or clashes
+     *                                  with the survey id or initial finish
+     *                                  date
+     */
+    public static FieldSchema parse(final String schema) {
+        if (schema == null || schema.trim().isEmpty()) {
+            return EMPTY;
+        }
+
+        final List<Field> fields = new ArrayList<>();
+        final Map<String, Field> aliases = new HashMap<>();
+
+        for (final String entry : schema.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+
+            final Matcher matcher = ENTRY.matcher(entry.trim());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Invalid field declaration: " + entry.trim());
+            }
+
+            final Field field = new Field(
+                matcher.group(1),
+                matcher.group(2),
+                matcher.group(3) == null ? FieldType.STRING : FieldType.of(matcher.group(3)),
+                matcher.group(4) != null
+            );
+
+            if (SURVEY_ID.equals(field.getAlias()) || FINISH_DATE.equals(field.getAlias())) {
+                throw new IllegalArgumentException("Field alias " + field.getAlias() + " is reserved");
+            }
+            if (aliases.put(field.getAlias(), field) != null) {
+                throw new IllegalArgumentException("Field alias " + field.getAlias() + " is declared twice");
+            }
+
+            fields.add(field);
+        }
+
+        return new FieldSchema(fields);
+    }
+
+    public List<Field> getFields() {
+        return this.fields;
+    }
+
+    public boolean isEmpty() {
+        return this.fields.isEmpty();
+    }
+
+    /**
+     * Returns the field requested under an alias.
+     *
+     * @param alias the alias
+     * @return the field, or null if the alias is not declared
+     */
+    public Field getField(final String alias) {
+        return this.fieldsByAlias.get(alias);
+    }
+
+    /**
+     * Returns the node projection that requests the declared fields, one
+     * {@code alias: fieldData(fieldId: "...") { values }} line per field.
+     *
+     * @return the projection, empty for an empty schema
+     */
+    public String toGraphQlNodes() {
+        final StringBuilder nodes = new StringBuilder();
+
+        for (final Field field : this.fields) {
+            nodes.append(field.getAlias())
+                .append(": fieldData(fieldId: \"").append(field.getFieldId()).append("\") { values }\n");
+        }
+        return nodes.toString();
+    }
+
+    @Override
+    public String toString() {
+        return this.fields.toString();
+    }
+
+    /**
+     * A declared field.
+     */
+    public static final class Field {
+
+        private final String alias;
+        private final String fieldId;
+        private final FieldType type;
+        private final boolean multiValued;
+
+        public Field(final String alias, final String fieldId, final FieldType type, final boolean multiValued) {
+            this.alias = alias;
+            this.fieldId = fieldId;
+            this.type = type;
+            this.multiValued = multiValued;
+        }
+
+        public String getAlias() {
+            return this.alias;
+        }
+
+        public String getFieldId() {
+            return this.fieldId;
+        }
+
+        public FieldType getType() {
+            return this.type;
+        }
+
+        public boolean isMultiValued() {
+            return this.multiValued;
+        }
+
+        @Override
+        public String toString() {
+            return this.alias + "=" + this.fieldId + ":" + this.type.name().toLowerCase(Locale.ROOT) + (this.multiValued ? "[]" : "");
+        }
+
+    }
+
+}
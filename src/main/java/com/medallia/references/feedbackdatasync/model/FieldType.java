@@ -0,0 +1,105 @@
+package com.medallia.references.feedbackdatasync.model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * The type a custom field's values are decoded into.  Numbers and epoch
+ * dates are decoded into a {@code long} (doubles as their raw bits), enum
+ * values into a code of the page's dictionary for the field, and strings
+ * are kept as they are.
+ */
+public enum FieldType {
+
+    LONG,
+    DOUBLE,
+    EPOCH,
+    ENUM,
+    STRING;
+
+    /**
+     * Returns the type with the given name, e.g. {@code long}.
+     *
+     * @param name the type name, in any case
+     * @return the type
+     * @throws IllegalArgumentException if there is no such type
+     */
+    public static FieldType of(final String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown field type: " + name);
+        }
+    }
+
+    /**
+     * Returns whether values of this type are decoded into a {@code long}.
+     *
+     * @return whether this is {@link #LONG}, {@link #DOUBLE} or
+     *         {@link #EPOCH}
+     */
+    public boolean isNumeric() {
+        return this == LONG || this == DOUBLE || this == EPOCH;
+    }
+
+    /**
+     * Decodes a value of a numeric type.
+     *
+     * @param value the value as the Query API returned it
+     * @return the value, the raw bits of a double, or the epoch second of a
+     *         date
+     * @throws IllegalArgumentException if the value is not of this type
+     */
+    public long decode(final String value) {
+        switch (this) {
+            case LONG:
+                return Long.parseLong(value);
+            case DOUBLE:
+                return Double.doubleToRawLongBits(Double.parseDouble(value));
+            case EPOCH:
+                return parseEpochSecond(value);
+            default:
+                throw new IllegalArgumentException(this + " values are not numeric");
+        }
+    }
+
+    /**
+     * Parses a date as epoch seconds: either the epoch second itself, or an
+     * ISO-8601 date, date-time or offset date-time (with a space or a
+     * {@code T} between date and time), taken as UTC without an offset.
+     */
+    private static long parseEpochSecond(final String value) {
+        final String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("Empty date");
+        }
+
+        final char first = trimmed.charAt(0);
+        if (trimmed.length() < 10 || trimmed.charAt(4) != '-' || !(first == '-' || Character.isDigit(first))) {
+            return Long.parseLong(trimmed);
+        }
+
+        try {
+            if (trimmed.length() == 10) {
+                return LocalDate.parse(trimmed).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+            }
+
+            final String isoDateTime = trimmed.charAt(10) == ' '
+                ? trimmed.substring(0, 10) + 'T' + trimmed.substring(11)
+                : trimmed;
+            final char last = isoDateTime.charAt(isoDateTime.length() - 1);
+            final boolean hasOffset = last == 'Z' || isoDateTime.lastIndexOf('+') > 10 || isoDateTime.lastIndexOf('-') > 10;
+
+            return hasOffset
+                ? OffsetDateTime.parse(isoDateTime).toEpochSecond()
+                : LocalDateTime.parse(isoDateTime).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a date: " + value, e);
+        }
+    }
+
+}
@@ -2,14 +2,16 @@ package com.medallia.references.feedbackdatasync.model;
 
 import java.math.BigInteger;
 import java.time.ZonedDateTime;
+import java.util.Objects;
 
 /**
- * A processed record.
+ * A processed record.  Records are ordered the way the Query API returns
+ * them: by initial finish date, then by survey id.
  */
-public class ProcessedRecord {
+public class ProcessedRecord implements Comparable<ProcessedRecord> {
 
-    private BigInteger surveyId;
-    private ZonedDateTime initialFinishDate;
+    private final BigInteger surveyId;
+    private final ZonedDateTime initialFinishDate;
 
     public ProcessedRecord(final BigInteger surveyId, final ZonedDateTime initialFinishDate) {
         this.surveyId = surveyId;
@@ -24,4 +26,32 @@ public class ProcessedRecord {
         return this.initialFinishDate;
     }
 
+    @Override
+    public int compareTo(final ProcessedRecord other) {
+        final int byFinishDate = Long.compare(
+            initialFinishDate.toEpochSecond(),
+            other.initialFinishDate.toEpochSecond()
+        );
+
+        return byFinishDate != 0
+            ? byFinishDate
+            : surveyId.compareTo(other.surveyId);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ProcessedRecord)) {
+            return false;
+        }
+        return compareTo((ProcessedRecord) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(surveyId, initialFinishDate.toEpochSecond());
+    }
+
 }
@@ -0,0 +1,77 @@
+package com.medallia.references.feedbackdatasync.model;
+
+import java.time.ZonedDateTime;
+
+/**
+ * A slice of the pending extraction range, on the initial finish date, that
+ * is extracted independently of the other slices.  The cursor is the last
+ * record the shard has persisted and only moves forward.  When instances
+ * share the extraction, the shard is a work unit that the instance holding
+ * its lease, its owner, extracts.
+ */
+public class Shard {
+
+    private final int shardId;
+    private final ZonedDateTime rangeStart;
+    private final ZonedDateTime rangeEnd;
+
+    private volatile ProcessedRecord cursor;
+    private volatile boolean completed;
+    private volatile String owner;
+
+    public Shard(
+            final int shardId,
+            final ZonedDateTime rangeStart,
+            final ZonedDateTime rangeEnd,
+            final ProcessedRecord cursor,
+            final boolean completed
+    ) {
+        this.shardId = shardId;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.cursor = cursor;
+        this.completed = completed;
+    }
+
+    public int getShardId() {
+        return this.shardId;
+    }
+
+    public ZonedDateTime getRangeStart() {
+        return this.rangeStart;
+    }
+
+    public ZonedDateTime getRangeEnd() {
+        return this.rangeEnd;
+    }
+
+    public ProcessedRecord getCursor() {
+        return this.cursor;
+    }
+
+    public void setCursor(final ProcessedRecord cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isCompleted() {
+        return this.completed;
+    }
+
+    public void setCompleted(final boolean completed) {
+        this.completed = completed;
+    }
+
+    /**
+     * The instance whose lease on the shard this process holds.
+     *
+     * @return the owner, or null if the shard is not leased
+     */
+    public String getOwner() {
+        return this.owner;
+    }
+
+    public void setOwner(final String owner) {
+        this.owner = owner;
+    }
+
+}
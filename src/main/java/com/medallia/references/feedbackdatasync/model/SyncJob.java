@@ -0,0 +1,142 @@
+package com.medallia.references.feedbackdatasync.model;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.medallia.references.feedbackdatasync.sink.RecordSink;
+
+/**
+ * A named extraction job: a Query API filter and node projection (with the
+ * schema of its declared fields), with its own checkpoint, shards and
+ * record sink.  The job also carries its progress: the last record whose
+ * page has been committed, and the backlog estimated from the last page.
+ */
+public class SyncJob {
+
+    private final String name;
+    private final String graphQlFilter;
+    private final String graphQlNodes;
+    private final FieldSchema fieldSchema;
+    private final String defaultStartSurveyId;
+    private final ZonedDateTime defaultStartTimestamp;
+    private final int shardCount;
+    private final int maxConcurrency;
+    private final RecordSink sink;
+
+    private final AtomicReference<ProcessedRecord> lastProcessedRecord = new AtomicReference<>();
+    private final AtomicLong backlog = new AtomicLong(-1);
+
+    public SyncJob(
+            final String name,
+            final String graphQlFilter,
+            final String graphQlNodes,
+            final FieldSchema fieldSchema,
+            final String defaultStartSurveyId,
+            final ZonedDateTime defaultStartTimestamp,
+            final int shardCount,
+            final int maxConcurrency,
+            final RecordSink sink
+    ) {
+        this.name = name;
+        this.graphQlFilter = graphQlFilter;
+        this.graphQlNodes = graphQlNodes;
+        this.fieldSchema = fieldSchema;
+        this.defaultStartSurveyId = defaultStartSurveyId;
+        this.defaultStartTimestamp = defaultStartTimestamp;
+        this.shardCount = shardCount;
+        this.maxConcurrency = maxConcurrency;
+        this.sink = sink;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getGraphQlFilter() {
+        return this.graphQlFilter;
+    }
+
+    public String getGraphQlNodes() {
+        return this.graphQlNodes;
+    }
+
+    /**
+     * The job's declared fields.  Their projection is already part of
+     * {@link #getGraphQlNodes()}.
+     *
+     * @return the field schema, empty if no fields are declared
+     */
+    public FieldSchema getFieldSchema() {
+        return this.fieldSchema;
+    }
+
+    public String getDefaultStartSurveyId() {
+        return this.defaultStartSurveyId;
+    }
+
+    public ZonedDateTime getDefaultStartTimestamp() {
+        return this.defaultStartTimestamp;
+    }
+
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    public int getMaxConcurrency() {
+        return this.maxConcurrency;
+    }
+
+    public RecordSink getSink() {
+        return this.sink;
+    }
+
+    /**
+     * The high-water mark: the last record whose page has been committed.
+     * It is published once per page and only ever moves forward, so readers
+     * never need a lock.
+     *
+     * @return the job's last processed record, or null if none is known yet
+     */
+    public ProcessedRecord getLastProcessedRecord() {
+        return this.lastProcessedRecord.get();
+    }
+
+    /**
+     * Moves the high-water mark forward to the given record.  This is a
+     * monotonic compare-and-set: if another thread has already published a
+     * later record, the given one is dropped.
+     *
+     * @param record the record that has been durably processed
+     * @return whether the high-water mark moved
+     */
+    public boolean advanceLastProcessedRecord(final ProcessedRecord record) {
+        ProcessedRecord current;
+
+        do {
+            current = this.lastProcessedRecord.get();
+
+            if (current != null && current.compareTo(record) >= 0) {
+                return false;
+            }
+        } while (!this.lastProcessedRecord.compareAndSet(current, record));
+
+        return true;
+    }
+
+    /**
+     * The records still to pull, estimated from the last page's
+     * {@code totalCount}, or -1 if unknown.
+     *
+     * @return the job's backlog holder
+     */
+    public AtomicLong getBacklog() {
+        return this.backlog;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.medallia.references.feedbackdatasync.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.medallia.references.feedbackdatasync.sink.RecordSink;
+
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.DEFAULT_CHECKPOINT;
+
+/**
+ * The extraction jobs run by this process.  Closing them closes every job's
+ * record sink.
+ */
+public class SyncJobs implements Closeable {
+
+    private final List<SyncJob> jobs;
+
+    public SyncJobs(final List<SyncJob> jobs) {
+        if (jobs.isEmpty()) {
+            throw new IllegalArgumentException("At least one job is required");
+        }
+
+        this.jobs = Collections.unmodifiableList(jobs);
+    }
+
+    /**
+     * Returns every job, in configuration order.
+     *
+     * @return the jobs
+     */
+    public List<SyncJob> getJobs() {
+        return this.jobs;
+    }
+
+    /**
+     * Returns the job used where no job is named: the one named
+     * {@code default}, or else the first job.
+     *
+     * @return the default job
+     */
+    public SyncJob getDefaultJob() {
+        return jobs.stream()
+            .filter(job -> DEFAULT_CHECKPOINT.equals(job.getName()))
+            .findFirst()
+            .orElse(jobs.get(0));
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+
+        for (final SyncJob job : jobs) {
+            final RecordSink sink = job.getSink();
+
+            try {
+                sink.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
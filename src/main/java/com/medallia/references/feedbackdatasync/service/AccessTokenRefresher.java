@@ -0,0 +1,147 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.endpoint.OAuth2ClientCredentialsGrantRequest;
+import org.springframework.security.oauth2.client.endpoint.ReactiveOAuth2AccessTokenResponseClient;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.stereotype.Component;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Requests a new client-credentials access token in the background ahead
+ * of the current one's expiry, and stores it where the web client's OAuth
+ * filter looks for it.  The filter then always finds a valid token, so a
+ * page request never waits for the token endpoint; it still requests one
+ * itself should the refresh fail.
+ *
+ * <p>Nothing depends on it, so it is never lazily initialized.</p>
+ */
+@Component
+@Lazy(false)
+public class AccessTokenRefresher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenRefresher.class);
+
+    private static final String CLIENT_REGISTRATION_ID = "medallia";
+
+    /**
+     * The principal the OAuth filter stores tokens under outside of a
+     * security context, as the Query API requests are.
+     */
+    private static final Authentication PRINCIPAL = new AnonymousAuthenticationToken(
+        "anonymous",
+        "anonymousUser",
+        AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS")
+    );
+
+    private static final Duration MIN_REFRESH_DELAY = Duration.ofSeconds(10);
+    private static final Duration FAILED_REFRESH_DELAY = Duration.ofSeconds(30);
+
+    @Value("${medallia.queryapi.token.refresh.ahead.sec:300}")
+    private Long refreshAhead;
+
+    @Autowired
+    private ReactiveClientRegistrationRepository clientRegistrations;
+
+    @Autowired
+    private ReactiveOAuth2AuthorizedClientService authorizedClientService;
+
+    @Autowired
+    private ReactiveOAuth2AccessTokenResponseClient<OAuth2ClientCredentialsGrantRequest> accessTokenResponseClient;
+
+    private volatile Disposable nextRefresh;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    private void postConstruct() {
+        if (refreshAhead > 0) {
+            // The first token is requested right away, so it is at hand by
+            // the first poll
+            schedule(Duration.ZERO);
+        }
+    }
+
+    @PreDestroy
+    private void preDestroy() {
+        stopped = true;
+
+        final Disposable refresh = nextRefresh;
+        if (refresh != null) {
+            refresh.dispose();
+        }
+    }
+
+    private void schedule(final Duration delay) {
+        if (stopped) {
+            return;
+        }
+
+        nextRefresh = Mono.delay(delay)
+            .then(refresh())
+            .subscribe(
+                this::refreshed,
+                e -> {
+                    LOGGER.warn("Could not refresh the Query API access token; retrying in {}", FAILED_REFRESH_DELAY, e);
+                    schedule(FAILED_REFRESH_DELAY);
+                }
+            );
+    }
+
+    private Mono<OAuth2AccessToken> refresh() {
+        return clientRegistrations.findByRegistrationId(CLIENT_REGISTRATION_ID)
+            .switchIfEmpty(Mono.error(() -> new IllegalStateException(
+                "No client registration " + CLIENT_REGISTRATION_ID
+            )))
+            .flatMap(registration -> accessTokenResponseClient
+                .getTokenResponse(new OAuth2ClientCredentialsGrantRequest(registration))
+                .flatMap(response -> authorizedClientService
+                    .saveAuthorizedClient(
+                        new OAuth2AuthorizedClient(registration, PRINCIPAL.getName(), response.getAccessToken()),
+                        PRINCIPAL
+                    )
+                    .thenReturn(response.getAccessToken())
+                )
+            );
+    }
+
+    /**
+     * Schedules the next refresh the configured time ahead of the token's
+     * expiry, or halfway through the lifetime of a token that expires
+     * sooner than that.
+     */
+    private void refreshed(final OAuth2AccessToken token) {
+        if (token.getExpiresAt() == null) {
+            LOGGER.info("Query API access token does not expire; not refreshing it");
+            return;
+        }
+
+        final Duration lifetime = Duration.between(Instant.now(), token.getExpiresAt());
+        final Duration ahead = Duration.ofSeconds(refreshAhead);
+        final Duration delay = lifetime.compareTo(ahead.multipliedBy(2)) > 0
+            ? lifetime.minus(ahead)
+            : lifetime.dividedBy(2);
+
+        LOGGER.debug("Query API access token expires at {}; refreshing it in {}", token.getExpiresAt(), delay);
+
+        schedule(delay.compareTo(MIN_REFRESH_DELAY) < 0 ? MIN_REFRESH_DELAY : delay);
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.TriggerContext;
+import org.springframework.stereotype.Component;
+
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+
+/**
+ * Decides when the next poll runs, based on what the last one found.  The
+ * backlog is the number of records the Query API still reported past the
+ * last page a poll pulled ({@code totalCount}), for the job with the
+ * largest one.  A poll that left at least the catch-up backlog, or left a
+ * backlog with the extraction still lagging by at least the catch-up lag,
+ * puts the trigger in catch-up mode and the next poll runs right away, for
+ * as long as that holds.  Otherwise the trigger is in steady mode: a poll
+ * that extracted records is followed by the base interval, and each poll
+ * that extracted nothing stretches the interval by the back-off
+ * multiplier, up to the ceiling.  Steady delays are jittered so that
+ * several instances drift apart.
+ */
+@Component
+public class AdaptivePollTrigger implements Trigger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptivePollTrigger.class);
+
+    /**
+     * The trigger's modes.
+     */
+    public enum Mode {
+        CATCH_UP,
+        STEADY
+    }
+
+    @Value("${medallia.queryapi.poll.initialdelay.msec}")
+    private Long initialDelay;
+
+    @Value("${medallia.queryapi.poll.interval.msec}")
+    private Long baseInterval;
+
+    @Value("${medallia.queryapi.poll.interval.max.msec:${medallia.queryapi.poll.interval.msec}}")
+    private Long maxInterval;
+
+    @Value("${medallia.queryapi.poll.backoff.multiplier:2.0}")
+    private Double backOffMultiplier;
+
+    @Value("${medallia.queryapi.poll.jitter:0.1}")
+    private Double jitter;
+
+    @Value("${medallia.queryapi.poll.catchup.backlog:10000}")
+    private Long catchUpBacklog;
+
+    @Value("${medallia.queryapi.poll.catchup.lag.sec:0}")
+    private Long catchUpLagSeconds;
+
+    @Value("${medallia.queryapi.poll.catchup.delay.msec:0}")
+    private Long catchUpDelay;
+
+    private volatile Mode mode = Mode.STEADY;
+    private volatile long steadyInterval;
+    private volatile long nextDelay;
+    private volatile long lastBacklog = -1;
+    private volatile long lastLagSeconds = -1;
+
+    @PostConstruct
+    private void postConstruct() {
+        maxInterval = Math.max(maxInterval, baseInterval);
+        steadyInterval = baseInterval;
+        nextDelay = baseInterval;
+
+        LOGGER.info(
+            "Adaptive polling: base interval {} ms, ceiling {} ms, catch-up above {} records{}",
+            baseInterval,
+            maxInterval,
+            catchUpBacklog,
+            catchUpLagSeconds > 0 ? " or " + catchUpLagSeconds + " s of lag" : ""
+        );
+    }
+
+    @Override
+    public Date nextExecutionTime(final TriggerContext triggerContext) {
+        final Date lastCompletion = triggerContext.lastCompletionTime();
+
+        if (lastCompletion == null) {
+            return new Date(System.currentTimeMillis() + initialDelay);
+        }
+
+        return new Date(lastCompletion.getTime() + nextDelay);
+    }
+
+    /**
+     * Records the outcome of a successful poll and picks the delay before
+     * the next one.
+     *
+     * @param backlog the largest number of records a job still has to pull
+     *                after the poll, or -1 if unknown
+     * @param lastProcessedRecord the last processed record of the job that
+     *                            lags the most after the poll
+     * @param extracted the number of records the poll extracted, which
+     *                  only decides whether a steady poll backs off
+     */
+    public void pollCompleted(
+            final long backlog,
+            final Optional<ProcessedRecord> lastProcessedRecord,
+            final long extracted
+    ) {
+        final long lagSeconds = lastProcessedRecord
+            .map(r -> Math.max(0, Instant.now().getEpochSecond() - r.getInitialFinishDate().toEpochSecond()))
+            .orElse(-1L);
+
+        lastBacklog = backlog;
+        lastLagSeconds = lagSeconds;
+
+        if (backlog >= catchUpBacklog || (catchUpLagSeconds > 0 && backlog > 0 && lagSeconds >= catchUpLagSeconds)) {
+            mode = Mode.CATCH_UP;
+            steadyInterval = baseInterval;
+            nextDelay = catchUpDelay;
+        } else {
+            mode = Mode.STEADY;
+            steadyInterval = extracted > 0
+                ? baseInterval
+                : Math.min(maxInterval, (long) (steadyInterval * backOffMultiplier));
+            nextDelay = jittered(steadyInterval);
+        }
+
+        LOGGER.info(
+            "Next poll in {} ms ({} mode, {} records extracted, backlog {}, lag {} s)",
+            nextDelay,
+            mode,
+            extracted,
+            backlog,
+            lagSeconds
+        );
+    }
+
+    /**
+     * Records a failed poll.  The next poll waits for the base interval, so
+     * that a failing API is not retried in a tight loop.
+     */
+    public void pollFailed() {
+        mode = Mode.STEADY;
+        steadyInterval = baseInterval;
+        nextDelay = jittered(baseInterval);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getNextDelay() {
+        return nextDelay;
+    }
+
+    public long getBaseInterval() {
+        return baseInterval;
+    }
+
+    public long getMaxInterval() {
+        return maxInterval;
+    }
+
+    public long getLastBacklog() {
+        return lastBacklog;
+    }
+
+    public long getLastLagSeconds() {
+        return lastLagSeconds;
+    }
+
+    private long jittered(final long interval) {
+        if (jitter <= 0 || interval <= 0) {
+            return interval;
+        }
+
+        final double factor = 1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+        return Math.max(0, Math.round(interval * factor));
+    }
+
+}
@@ -0,0 +1,523 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+import com.medallia.references.feedbackdatasync.sink.ColumnarCodec;
+import com.medallia.references.feedbackdatasync.sink.ColumnarFileWriter;
+import com.medallia.references.feedbackdatasync.sink.RecordSink;
+import com.medallia.references.feedbackdatasync.sink.RecordStreamWriter;
+
+/**
+ * Exports a job's records in a range of initial finish dates in one go,
+ * e.g. for the initial historical load, and then seeds the job's
+ * checkpoint at the end of the range so the scheduled polls carry on from
+ * there.
+ *
+ * <p>Pages are fetched ahead while earlier ones are written, and are
+ * persisted many at a time: each batch of pages is one transaction and one
+ * flush of a compressed output file (gzipped newline-delimited JSON, or a
+ * deflated columnar file if the job writes columnar files).  The export
+ * keeps its own checkpoint in the batch's transaction, and a local
+ * progress file with its range, output, output length and counts, so an
+ * interrupted export resumes after its last committed batch when run again
+ * with the same range, and cuts off what it wrote of the batch after.</p>
+ *
+ * <p>Created by {@code BulkExport}, outside of the scheduled application.</p>
+ */
+public class BulkExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkExporter.class);
+
+    private static final String PROGRESS_JOB = "job";
+    private static final String PROGRESS_START = "start";
+    private static final String PROGRESS_END = "end";
+    private static final String PROGRESS_OUTPUT = "output";
+    private static final String PROGRESS_OUTPUT_BYTES = "output.bytes";
+    private static final String PROGRESS_RECORDS = "records";
+    private static final String PROGRESS_SURVEY_ID = "cursor.surveyid";
+    private static final String PROGRESS_INITIAL_FINISH_DATE = "cursor.initialfinishdate";
+    private static final String PROGRESS_COMPLETED = "completed";
+
+    @Value("${medallia.export.job:}")
+    private String jobName;
+
+    @Value("${medallia.export.start}")
+    private String start;
+
+    @Value("${medallia.export.end:}")
+    private String end;
+
+    @Value("${medallia.export.output:}")
+    private String output;
+
+    @Value("${medallia.export.progress.file:}")
+    private String progressFile;
+
+    @Value("${medallia.export.pages.per.batch:20}")
+    private Integer pagesPerBatch;
+
+    @Value("${medallia.export.progress.interval.sec:10}")
+    private Long progressIntervalSeconds;
+
+    @Value("${medallia.recordstream.columnar.dictionary.max.size:4096}")
+    private Integer columnarDictionarySize;
+
+    @Autowired
+    private SyncJobs syncJobs;
+
+    @Autowired
+    private SyncService syncService;
+
+    @Autowired
+    private RecordProcessingService recordProcessingService;
+
+    @Autowired
+    private CheckpointStore checkpointStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private SyncJob exportJob;
+    private Properties progress;
+    private Path progressPath;
+    private Path outputFile;
+
+    private long rangeStart;
+    private long rangeEnd;
+    private long records;
+    private long runRecords;
+    private long runStartNanos;
+    private long lastReportNanos;
+
+    /**
+     * Runs the export to completion.
+     *
+     * @throws IOException if the output or progress file cannot be written
+     */
+    public void export() throws IOException {
+        final SyncJob job = findJob();
+        final boolean columnar = job.getSink() instanceof ColumnarFileWriter;
+
+        rangeStart = parseTimestamp(start);
+        final Path outputPath = Paths.get(output == null || output.trim().isEmpty()
+            ? "export-" + job.getName() + "-" + rangeStart + (columnar ? ".col" : ".ndjson")
+            : output.trim());
+        outputFile = columnar ? outputPath : outputPath.resolveSibling(outputPath.getFileName() + ".gz");
+
+        progressPath = Paths.get(progressFile == null || progressFile.trim().isEmpty()
+            ? outputPath + ".progress"
+            : progressFile.trim());
+        progress = loadProgress(job);
+
+        if (Boolean.parseBoolean(progress.getProperty(PROGRESS_COMPLETED))) {
+            LOGGER.info(
+                "Export of job {} from {} to {} has already completed",
+                job.getName(),
+                toZonedDateTime(rangeStart),
+                toZonedDateTime(rangeEnd)
+            );
+            return;
+        }
+
+        final ProcessedRecord cursor = findCursor(job);
+        records = Long.parseLong(progress.getProperty(PROGRESS_RECORDS));
+
+        LOGGER.info(
+            "Exporting job {} from {} to {} into {}{}",
+            job.getName(),
+            toZonedDateTime(rangeStart),
+            toZonedDateTime(rangeEnd),
+            outputFile,
+            records > 0 ? ", resuming after " + records + " records at " + cursor.getInitialFinishDate() : ""
+        );
+
+        try (RecordSink sink = openSink(job, outputPath, columnar)) {
+            exportJob = new SyncJob(
+                job.getName(),
+                job.getGraphQlFilter(),
+                job.getGraphQlNodes(),
+                job.getFieldSchema(),
+                job.getDefaultStartSurveyId(),
+                job.getDefaultStartTimestamp(),
+                1,
+                1,
+                sink
+            );
+
+            runStartNanos = System.nanoTime();
+            lastReportNanos = runStartNanos;
+
+            // One batch is persisted while the next one is fetched
+            syncService.fetchRange(exportJob, cursor, toZonedDateTime(rangeEnd))
+                .buffer(pagesPerBatch)
+                .concatMap(pages -> Mono.fromRunnable(() -> persist(pages)).subscribeOn(Schedulers.boundedElastic()), 1)
+                .then()
+                .block();
+        }
+
+        complete(job);
+    }
+
+    private SyncJob findJob() {
+        if (jobName == null || jobName.trim().isEmpty()) {
+            return syncJobs.getDefaultJob();
+        }
+
+        return syncJobs.getJobs().stream()
+            .filter(job -> job.getName().equals(jobName.trim()))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Unknown job " + jobName));
+    }
+
+    /**
+     * Reads the progress file of an earlier run of this export, or starts a
+     * new one.  An export resumed without an end keeps the end it was
+     * started with.
+     *
+     * @throws IllegalStateException if the progress file belongs to another
+     *                               export, or a new export would overwrite
+     *                               an existing output file
+     */
+    private Properties loadProgress(final SyncJob job) throws IOException {
+        final boolean endGiven = end != null && !end.trim().isEmpty();
+        final Properties properties = new Properties();
+
+        if (Files.exists(progressPath)) {
+            try (InputStream in = Files.newInputStream(progressPath)) {
+                properties.load(in);
+            }
+
+            rangeEnd = endGiven ? parseTimestamp(end) : Long.parseLong(properties.getProperty(PROGRESS_END));
+            if (!job.getName().equals(properties.getProperty(PROGRESS_JOB))
+                    || !Long.toString(rangeStart).equals(properties.getProperty(PROGRESS_START))
+                    || !Long.toString(rangeEnd).equals(properties.getProperty(PROGRESS_END))
+                    || !outputFile.toString().equals(properties.getProperty(PROGRESS_OUTPUT))) {
+                throw new IllegalStateException(
+                    "Progress file " + progressPath + " belongs to another export (job "
+                        + properties.getProperty(PROGRESS_JOB) + " from " + properties.getProperty(PROGRESS_START)
+                        + " to " + properties.getProperty(PROGRESS_END) + " into "
+                        + properties.getProperty(PROGRESS_OUTPUT) + "); remove it to start over"
+                );
+            }
+
+            return properties;
+        }
+
+        rangeEnd = endGiven ? parseTimestamp(end) : Instant.now().getEpochSecond();
+        if (rangeStart >= rangeEnd) {
+            throw new IllegalArgumentException("Export start " + start + " is not before its end " + end);
+        }
+        if (Files.exists(outputFile)) {
+            throw new IllegalStateException("Export output " + outputFile + " already exists");
+        }
+
+        // A leftover export checkpoint belongs to an export whose progress
+        // file is gone, so it is started over
+        checkpointStore.delete(exportCheckpointName(job));
+
+        properties.setProperty(PROGRESS_JOB, job.getName());
+        properties.setProperty(PROGRESS_START, Long.toString(rangeStart));
+        properties.setProperty(PROGRESS_END, Long.toString(rangeEnd));
+        properties.setProperty(PROGRESS_OUTPUT, outputFile.toString());
+        properties.setProperty(PROGRESS_OUTPUT_BYTES, "0");
+        properties.setProperty(PROGRESS_RECORDS, "0");
+        saveProgress(properties);
+
+        return properties;
+    }
+
+    /**
+     * Returns the record to start after: the export's own checkpoint if a
+     * batch has been committed, or the start of the range.  Output written
+     * after the last committed batch is cut off first, so that no record is
+     * exported twice.
+     *
+     * @throws IllegalStateException if the progress file records batches the
+     *                               database does not
+     */
+    private ProcessedRecord findCursor(final SyncJob job) throws IOException {
+        final Optional<ProcessedRecord> checkpoint = checkpointStore.find(exportCheckpointName(job));
+        final String surveyId = progress.getProperty(PROGRESS_SURVEY_ID);
+
+        if (checkpoint.isPresent() && !checkpoint.get().getSurveyId().toString().equals(surveyId)) {
+            // Stopped between a batch's commit and its progress update; the
+            // output ends with that batch, but the count is missing it
+            LOGGER.warn("Progress file {} is one batch behind; its record count is low", progressPath);
+        } else if (!checkpoint.isPresent() && surveyId != null) {
+            throw new IllegalStateException(
+                "Export checkpoint " + exportCheckpointName(job) + " is missing; remove "
+                    + progressPath + " and " + outputFile + " to start over"
+            );
+        } else if (Files.exists(outputFile)) {
+            final long committedBytes = Long.parseLong(progress.getProperty(PROGRESS_OUTPUT_BYTES));
+
+            try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+                if (channel.size() > committedBytes) {
+                    LOGGER.info("Cutting {} uncommitted bytes off {}", channel.size() - committedBytes, outputFile);
+                    channel.truncate(committedBytes);
+                    channel.force(false);
+                }
+            }
+        }
+
+        // Survey ids are positive, so every record of the first second
+        // comes after this one
+        return checkpoint.orElseGet(() -> new ProcessedRecord(BigInteger.valueOf(-1), toZonedDateTime(rangeStart)));
+    }
+
+    private RecordSink openSink(final SyncJob job, final Path outputPath, final boolean columnar) throws IOException {
+        if (columnar) {
+            // Every flush writes whole row groups
+            return new ColumnarFileWriter(
+                outputPath,
+                ColumnarFileWriter.fieldsOf(job.getGraphQlNodes()),
+                ColumnarCodec.DEFLATE,
+                columnarDictionarySize,
+                0,
+                Duration.ZERO,
+                true
+            );
+        }
+
+        // The whole batch fits in the writer's queue
+        return new BatchSink(() -> new RecordStreamWriter(
+            objectMapper,
+            outputPath,
+            Math.max(8192, pagesPerBatch * 1000),
+            0,
+            Duration.ZERO,
+            true,
+            true
+        ));
+    }
+
+    /**
+     * Persists a batch of pages and records the progress once it has been
+     * committed.
+     */
+    private void persist(final List<FeedbackPage> pages) {
+        final ProcessedRecord last =
+            recordProcessingService.processExportBatch(exportJob, pages, exportCheckpointName(exportJob));
+        if (last == null) {
+            return;
+        }
+
+        long batchRecords = 0;
+        for (final FeedbackPage page : pages) {
+            batchRecords += page.size();
+        }
+        records += batchRecords;
+        runRecords += batchRecords;
+
+        progress.setProperty(PROGRESS_RECORDS, Long.toString(records));
+        try {
+            progress.setProperty(PROGRESS_OUTPUT_BYTES, Long.toString(Files.size(outputFile)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        progress.setProperty(PROGRESS_SURVEY_ID, last.getSurveyId().toString());
+        progress.setProperty(PROGRESS_INITIAL_FINISH_DATE, Long.toString(last.getInitialFinishDate().toEpochSecond()));
+        try {
+            saveProgress(progress);
+        } catch (IOException e) {
+            // The export checkpoint is what a resumed export starts from
+            LOGGER.warn("Unable to write progress file {}: {}", progressPath, e.getMessage());
+        }
+
+        final long now = System.nanoTime();
+        if (now - lastReportNanos >= Duration.ofSeconds(progressIntervalSeconds).toNanos()) {
+            lastReportNanos = now;
+            reportProgress(last, now);
+        }
+    }
+
+    /**
+     * Logs the records exported, the share of the range covered and the
+     * time left.  The time left follows from the Query API's count of the
+     * records still to pull, or else from the share of the range covered.
+     */
+    private void reportProgress(final ProcessedRecord last, final long now) {
+        final double elapsedSeconds = (now - runStartNanos) / 1e9;
+        final double recordsPerSecond = runRecords / Math.max(elapsedSeconds, 1e-3);
+        final double covered = Math.min(1.0,
+            (double) (last.getInitialFinishDate().toEpochSecond() - rangeStart) / (rangeEnd - rangeStart));
+
+        final long remaining = exportJob.getBacklog().get();
+        final double secondsLeft = remaining >= 0
+            ? remaining / Math.max(recordsPerSecond, 1e-3)
+            : elapsedSeconds * (1 - covered) / Math.max(covered, 1e-6);
+
+        LOGGER.info(
+            "Exported {} records of job {} ({} of the range, up to {}), {} records/s, ETA {}",
+            records,
+            exportJob.getName(),
+            String.format("%.1f%%", covered * 100),
+            last.getInitialFinishDate(),
+            Math.round(recordsPerSecond),
+            Duration.ofSeconds(Math.round(secondsLeft))
+        );
+    }
+
+    /**
+     * Seeds the job's checkpoint at the end of the range, so the next poll
+     * starts there, and marks the export as completed.
+     */
+    private void complete(final SyncJob job) throws IOException {
+        final Optional<ProcessedRecord> previous = checkpointStore.find(job.getName());
+        if (previous.isPresent() && previous.get().getInitialFinishDate().toEpochSecond() < rangeStart) {
+            LOGGER.warn(
+                "Job {} was last checkpointed at {}, before the export's start; records in between are skipped",
+                job.getName(),
+                previous.get().getInitialFinishDate()
+            );
+        }
+
+        // Everything before the end of the range has been exported, which
+        // is everything up to the last survey of its last second; a later
+        // checkpoint is left alone
+        checkpointStore.save(
+            job.getName(),
+            new ProcessedRecord(BigInteger.valueOf(Long.MAX_VALUE), toZonedDateTime(rangeEnd - 1))
+        );
+        checkpointStore.delete(exportCheckpointName(job));
+
+        progress.setProperty(PROGRESS_COMPLETED, "true");
+        saveProgress(progress);
+
+        final double elapsedSeconds = (System.nanoTime() - runStartNanos) / 1e9;
+        LOGGER.info(
+            "Exported {} records of job {} in {} ({} records/s); the job's checkpoint is now {}",
+            records,
+            job.getName(),
+            Duration.ofMillis(Math.round(elapsedSeconds * 1000)),
+            Math.round(runRecords / Math.max(elapsedSeconds, 1e-3)),
+            checkpointStore.find(job.getName()).map(ProcessedRecord::getInitialFinishDate).orElse(null)
+        );
+    }
+
+    /**
+     * Replaces the progress file in one step, so it is never left half
+     * written.
+     */
+    private void saveProgress(final Properties properties) throws IOException {
+        final Path temporary = progressPath.resolveSibling(progressPath.getFileName() + ".tmp");
+
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "Bulk export progress");
+        }
+        Files.move(temporary, progressPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the checkpoint a job's export keeps; job names cannot contain
+     * a period, so it never clashes with a job's.
+     */
+    private static String exportCheckpointName(final SyncJob job) {
+        return job.getName() + ".export";
+    }
+
+    /**
+     * Parses a timestamp given as epoch seconds, an ISO-8601 instant or an
+     * ISO-8601 date (midnight UTC); also used by {@link PageLogReplayer}.
+     */
+    static long parseTimestamp(final String value) {
+        final String trimmed = value.trim();
+
+        if (trimmed.matches("-?\\d+")) {
+            return Long.parseLong(trimmed);
+        }
+        if (trimmed.length() == 10) {
+            return LocalDate.parse(trimmed).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        }
+        return ZonedDateTime.parse(trimmed).toEpochSecond();
+    }
+
+    private static ZonedDateTime toZonedDateTime(final long epochSecond) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneOffset.UTC);
+    }
+
+    /**
+     * Writes each batch's records as one gzip member of the output, so the
+     * output ends on a whole member after every committed batch and can be
+     * cut back to it and appended to when the export resumes.  Flushing
+     * ends the member, so the sink is written from one thread only.
+     */
+    private static final class BatchSink implements RecordSink {
+
+        private final Opener opener;
+        private RecordSink writer;
+
+        BatchSink(final Opener opener) {
+            this.opener = opener;
+        }
+
+        @Override
+        public void write(final Map<String, QueryApiResponse.NodeValuesWrapper> record) throws IOException {
+            if (writer == null) {
+                writer = opener.open();
+            }
+            writer.write(record);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            close();
+        }
+
+        @Override
+        public boolean isConcurrent() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } finally {
+                    writer = null;
+                }
+            }
+        }
+
+        @FunctionalInterface
+        private interface Opener {
+            RecordSink open() throws IOException;
+        }
+
+    }
+
+}
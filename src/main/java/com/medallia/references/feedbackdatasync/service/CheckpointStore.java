@@ -0,0 +1,100 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_CHECKPOINT_NAME;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SURVEYID;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_UPDATED_AT;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_CHECKPOINTS;
+
+/**
+ * Stores the last processed record of each extraction as a single row, so
+ * that finding the resume point costs the same no matter how many records
+ * have been extracted.
+ */
+@Component
+public class CheckpointStore {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Returns a stored checkpoint.
+     *
+     * @param name the checkpoint name
+     * @return the last processed record, if any
+     */
+    public Optional<ProcessedRecord> find(final String name) {
+        final List<ProcessedRecord> checkpoints = jdbcTemplate.query(
+            "SELECT " +
+            "  " + COL_SURVEYID + ", " +
+            "  " + COL_INITIAL_FINISH_DATE + " " +
+            "FROM " +
+            "  " + TABLE_CHECKPOINTS + " " +
+            "WHERE " +
+            "  " + COL_CHECKPOINT_NAME + " = ?",
+            (rs, rowNum) -> new ProcessedRecord(
+                new BigInteger(rs.getString(COL_SURVEYID)),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(rs.getLong(COL_INITIAL_FINISH_DATE)), ZoneOffset.UTC)
+            ),
+            name
+        );
+
+        return checkpoints.stream().findFirst();
+    }
+
+    /**
+     * Moves a checkpoint forward.  A checkpoint never moves backwards: the
+     * row is left alone if it is already at or past the given record.  Call
+     * this inside the transaction that persists the record.
+     *
+     * @param name the checkpoint name
+     * @param checkpoint the last processed record
+     */
+    public void save(final String name, final ProcessedRecord checkpoint) {
+        jdbcTemplate.update(
+            "INSERT INTO " + TABLE_CHECKPOINTS + " " +
+            "  (" + COL_CHECKPOINT_NAME + ", " + COL_SURVEYID + ", " +
+            "   " + COL_INITIAL_FINISH_DATE + ", " + COL_UPDATED_AT + ") " +
+            "VALUES " +
+            "  (?, ?, ?, strftime('%s', 'now')) " +
+            "ON CONFLICT (" + COL_CHECKPOINT_NAME + ") DO UPDATE SET " +
+            "  " + COL_SURVEYID + " = excluded." + COL_SURVEYID + ", " +
+            "  " + COL_INITIAL_FINISH_DATE + " = excluded." + COL_INITIAL_FINISH_DATE + ", " +
+            "  " + COL_UPDATED_AT + " = excluded." + COL_UPDATED_AT + " " +
+            "WHERE " +
+            "  excluded." + COL_INITIAL_FINISH_DATE + " > " + COL_INITIAL_FINISH_DATE + " " +
+            "  OR (excluded." + COL_INITIAL_FINISH_DATE + " = " + COL_INITIAL_FINISH_DATE + " " +
+            "      AND excluded." + COL_SURVEYID + " > " + COL_SURVEYID + ")",
+            name,
+            checkpoint.getSurveyId().longValueExact(),
+            checkpoint.getInitialFinishDate().toEpochSecond()
+        );
+    }
+
+    /**
+     * Removes a checkpoint, e.g. once the extraction it tracked has
+     * completed.
+     *
+     * @param name the checkpoint name
+     */
+    public void delete(final String name) {
+        jdbcTemplate.update(
+            "DELETE FROM " + TABLE_CHECKPOINTS + " WHERE " + COL_CHECKPOINT_NAME + " = ?",
+            name
+        );
+    }
+
+}
@@ -0,0 +1,440 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_JOB;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SURVEYID;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS_ARCHIVE;
+
+/**
+ * Finds the records of a page that a job has already persisted, e.g. after
+ * the start was reseeded or a page was pulled again, so that they are
+ * skipped instead of failing the page's insert or reaching the record sink
+ * twice.
+ *
+ * <p>Each job keeps the survey ids it persisted within a sliding window of
+ * initial finish dates, measured back from the latest one, in off-heap
+ * sets of one bucket of finish dates each ({@link SurveyIdSet}).  A
+ * record's initial finish date never changes, so a record is looked up in
+ * its own bucket only.  The window is loaded from the {@code records} table
+ * the first time a job's page is checked, and buckets that fall out of the
+ * window are dropped; if the sets outgrow their memory budget, the oldest
+ * buckets are dropped early and the window shrinks.  So are a bucket that
+ * outgrows the largest set and the buckets before it.  Dropped buckets
+ * release their memory right away.</p>
+ *
+ * <p>The budget applies to each job's window.  It defaults to an even share
+ * of half the JVM's direct memory limit ({@code -XX:MaxDirectMemorySize},
+ * which defaults to the maximum heap size), and a larger budget is capped
+ * to that share, as the sets could not be allocated past the limit.  An id
+ * takes at most 21.3 bytes, so a window of a hundred million ids takes up
+ * to about 2 GB.</p>
+ *
+ * <p>Records older than the window are looked up in the {@code records}
+ * and {@code records_archive} tables instead, with one query per batch of
+ * such records.  Records removed by the retention policy without being
+ * archived are not found there.</p>
+ */
+@Component
+public class DuplicateFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateFilter.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${medallia.dedup.window.sec:604800}")
+    private Long windowSeconds;
+
+    @Value("${medallia.dedup.bucket.sec:3600}")
+    private Long bucketSeconds;
+
+    @Value("${medallia.dedup.max.bytes:0}")
+    private Long maxBytes;
+
+    @Value("${medallia.persistence.batch.size:500}")
+    private Integer batchSize;
+
+    @Autowired
+    private SyncJobs syncJobs;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void postConstruct() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        // Half of the limit is left to the HTTP client's buffers
+        final long share = maxDirectMemory() / 2 / Math.max(1, syncJobs.getJobs().size());
+
+        if (maxBytes == null || maxBytes <= 0) {
+            maxBytes = share;
+        } else if (maxBytes > share) {
+            LOGGER.warn(
+                "medallia.dedup.max.bytes of {} bytes per job exceeds its share of the JVM's direct memory limit; "
+                    + "using {} bytes (raise -XX:MaxDirectMemorySize to keep more survey ids)",
+                maxBytes,
+                share
+            );
+            maxBytes = share;
+        }
+
+        LOGGER.info(
+            "Keeping up to {} bytes of survey ids per job to suppress duplicates, i.e. up to about {} million ids",
+            maxBytes,
+            Math.round(maxBytes / SurveyIdSet.MIN_BYTES_PER_ID / 1e6)
+        );
+    }
+
+    @PreDestroy
+    private void preDestroy() {
+        for (final Window window : windows.values()) {
+            synchronized (window) {
+                while (!window.buckets.isEmpty()) {
+                    drop(window);
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return windowSeconds > 0;
+    }
+
+    /**
+     * Finds the records of a page that the job has already persisted, and
+     * the repeats of a record earlier in the same page.  Call this inside
+     * the transaction that persists the page.
+     *
+     * @param job the job the page was pulled for
+     * @param page the page
+     * @return the duplicates, flagged by record index, or null if the page
+     *         has none
+     */
+    public boolean[] findDuplicates(final SyncJob job, final FeedbackPage page) {
+        if (!isEnabled() || page.isEmpty()) {
+            return null;
+        }
+
+        final Window window = windows.computeIfAbsent(job.getName(), name -> new Window());
+        boolean[] duplicates = null;
+        List<Integer> olderRows = Collections.emptyList();
+
+        // The window only holds committed pages, so a record the page
+        // repeats is caught here
+        final SurveyIdSet inPage = new SurveyIdSet();
+
+        try {
+            synchronized (window) {
+                if (!window.loaded) {
+                    load(job, window, page);
+                }
+
+                for (int row = 0; row < page.size(); row++) {
+                    if (!inPage.add(page.getSurveyId(row))) {
+                        if (duplicates == null) {
+                            duplicates = new boolean[page.size()];
+                        }
+                        duplicates[row] = true;
+                        continue;
+                    }
+
+                    final long initialFinishDate = page.getInitialFinishDate(row);
+
+                    if (initialFinishDate < window.exactFrom) {
+                        if (olderRows.isEmpty()) {
+                            olderRows = new ArrayList<>();
+                        }
+                        olderRows.add(row);
+                        continue;
+                    }
+
+                    final SurveyIdSet bucket = window.buckets.get(Math.floorDiv(initialFinishDate, bucketSeconds));
+                    if (bucket != null && bucket.contains(page.getSurveyId(row))) {
+                        if (duplicates == null) {
+                            duplicates = new boolean[page.size()];
+                        }
+                        duplicates[row] = true;
+                    }
+                }
+            }
+        } finally {
+            inPage.free();
+        }
+
+        if (!olderRows.isEmpty()) {
+            duplicates = findPersisted(job, page, olderRows, duplicates);
+        }
+        return duplicates;
+    }
+
+    /**
+     * Adds the records of a page to the job's window, once the page's
+     * transaction has committed.
+     *
+     * @param job the job the page was pulled for
+     * @param page the persisted records, without duplicates
+     */
+    public void addPersisted(final SyncJob job, final FeedbackPage page) {
+        if (!isEnabled() || page.isEmpty()) {
+            return;
+        }
+
+        final Window window = windows.computeIfAbsent(job.getName(), name -> new Window());
+
+        synchronized (window) {
+            // A window that was never loaded is loaded before the next check
+            if (!window.loaded) {
+                return;
+            }
+
+            for (int row = 0; row < page.size(); row++) {
+                add(job, window, page.getSurveyId(row), page.getInitialFinishDate(row));
+            }
+            evict(job, window);
+        }
+    }
+
+    /**
+     * Returns the off-heap memory that every job's window takes.
+     *
+     * @return the size of the survey id sets, in bytes
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (final Window window : windows.values()) {
+            synchronized (window) {
+                bytes += window.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Loads a job's window from the {@code records} table, ending at the
+     * latest initial finish date the job has persisted (or the page's, for
+     * a job without records).
+     */
+    private void load(final SyncJob job, final Window window, final FeedbackPage page) {
+        final Long latestPersisted = jdbcTemplate.queryForObject(
+            "SELECT MAX(" + COL_INITIAL_FINISH_DATE + ") FROM " + TABLE_RECORDS + " WHERE " + COL_JOB + " = ?",
+            Long.class,
+            job.getName()
+        );
+
+        window.latest = latestPersisted != null
+            ? latestPersisted
+            : page.getInitialFinishDate(page.size() - 1);
+        window.exactFrom = Math.floorDiv(window.latest - windowSeconds, bucketSeconds) * bucketSeconds;
+
+        final long[] loaded = new long[1];
+        jdbcTemplate.query(
+            "SELECT " +
+            "  " + COL_SURVEYID + ", " +
+            "  " + COL_INITIAL_FINISH_DATE + " " +
+            "FROM " +
+            "  " + TABLE_RECORDS + " " +
+            "WHERE " +
+            "  " + COL_JOB + " = ? " +
+            "  AND " + COL_INITIAL_FINISH_DATE + " >= ?",
+            (RowCallbackHandler) rs -> {
+                add(job, window, rs.getLong(1), rs.getLong(2));
+                loaded[0]++;
+            },
+            job.getName(),
+            window.exactFrom
+        );
+
+        window.loaded = true;
+        evict(job, window);
+
+        LOGGER.info(
+            "Loaded {} survey ids of job {} with an initial finish date from {} ({} bytes) to suppress duplicates",
+            loaded[0],
+            job.getName(),
+            window.exactFrom,
+            window.bytes
+        );
+    }
+
+    private void add(final SyncJob job, final Window window, final long surveyId, final long initialFinishDate) {
+        // Older records are looked up in the store
+        if (initialFinishDate < window.exactFrom) {
+            return;
+        }
+
+        final long key = Math.floorDiv(initialFinishDate, bucketSeconds);
+        SurveyIdSet bucket = window.buckets.get(key);
+        if (bucket == null) {
+            bucket = new SurveyIdSet();
+            window.buckets.put(key, bucket);
+            window.bytes += bucket.sizeInBytes();
+        }
+
+        // A set cannot grow past the largest direct buffer, so the bucket
+        // and the ones before it are looked up in the store from now on
+        if (bucket.isFull()) {
+            while (!window.buckets.isEmpty() && window.buckets.firstKey() <= key) {
+                drop(window);
+            }
+
+            LOGGER.warn(
+                "Survey ids of job {} outgrew the largest set in one bucket; records finished before {} are now looked up in the database",
+                job.getName(),
+                window.exactFrom
+            );
+            window.latest = Math.max(window.latest, initialFinishDate);
+            return;
+        }
+
+        final long bytes = bucket.sizeInBytes();
+        bucket.add(surveyId);
+        window.bytes += bucket.sizeInBytes() - bytes;
+        window.latest = Math.max(window.latest, initialFinishDate);
+    }
+
+    /**
+     * Drops the buckets that fell out of the window, and then the oldest
+     * buckets until the window fits its memory budget.  The latest bucket
+     * is always kept.
+     */
+    private void evict(final SyncJob job, final Window window) {
+        final long firstBucket = Math.floorDiv(window.latest - windowSeconds, bucketSeconds);
+
+        while (!window.buckets.isEmpty() && window.buckets.firstKey() < firstBucket) {
+            drop(window);
+        }
+        window.exactFrom = Math.max(window.exactFrom, firstBucket * bucketSeconds);
+
+        if (window.bytes > maxBytes && window.buckets.size() > 1) {
+            while (window.bytes > maxBytes && window.buckets.size() > 1) {
+                drop(window);
+            }
+
+            LOGGER.warn(
+                "Survey ids of job {} outgrew {} bytes; records finished before {} are now looked up in the database",
+                job.getName(),
+                maxBytes,
+                window.exactFrom
+            );
+        }
+    }
+
+    private void drop(final Window window) {
+        final Map.Entry<Long, SurveyIdSet> oldest = window.buckets.pollFirstEntry();
+        window.bytes -= oldest.getValue().sizeInBytes();
+        oldest.getValue().free();
+        window.exactFrom = Math.max(window.exactFrom, (oldest.getKey() + 1) * bucketSeconds);
+    }
+
+    /**
+     * Returns the JVM's limit on direct buffers: the
+     * {@code MaxDirectMemorySize} option, or the maximum heap size if it is
+     * not set.
+     */
+    private static long maxDirectMemory() {
+        try {
+            final long configured = Long.parseLong(
+                ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                    .getVMOption("MaxDirectMemorySize")
+                    .getValue()
+            );
+            if (configured > 0) {
+                return configured;
+            }
+        } catch (RuntimeException e) {
+            // Not a HotSpot JVM
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Looks records up in the {@code records} and {@code records_archive}
+     * tables, a batch at a time.
+     */
+    private boolean[] findPersisted(
+            final SyncJob job,
+            final FeedbackPage page,
+            final List<Integer> rows,
+            final boolean[] duplicates
+    ) {
+        final Set<Long> persisted = new HashSet<>();
+
+        for (int offset = 0; offset < rows.size(); offset += batchSize) {
+            final List<Integer> batch = rows.subList(offset, Math.min(rows.size(), offset + batchSize));
+            final String placeholders = String.join(", ", Collections.nCopies(batch.size(), "?"));
+
+            final Object[] args = new Object[2 * (batch.size() + 1)];
+            args[0] = job.getName();
+            args[batch.size() + 1] = job.getName();
+            for (int i = 0; i < batch.size(); i++) {
+                args[i + 1] = page.getSurveyId(batch.get(i));
+                args[batch.size() + i + 2] = page.getSurveyId(batch.get(i));
+            }
+
+            jdbcTemplate.query(
+                "SELECT " + COL_SURVEYID + " FROM " + TABLE_RECORDS + " " +
+                "WHERE " + COL_JOB + " = ? AND " + COL_SURVEYID + " IN (" + placeholders + ") " +
+                "UNION ALL " +
+                "SELECT " + COL_SURVEYID + " FROM " + TABLE_RECORDS_ARCHIVE + " " +
+                "WHERE " + COL_JOB + " = ? AND " + COL_SURVEYID + " IN (" + placeholders + ")",
+                (RowCallbackHandler) rs -> persisted.add(rs.getLong(1)),
+                args
+            );
+        }
+
+        if (persisted.isEmpty()) {
+            return duplicates;
+        }
+
+        final boolean[] found = duplicates != null ? duplicates : new boolean[page.size()];
+        for (final int row : rows) {
+            if (persisted.contains(page.getSurveyId(row))) {
+                found[row] = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * A job's survey ids by bucket of initial finish dates.  Records
+     * finished at or after {@code exactFrom} are in the window.
+     */
+    private static final class Window {
+
+        private final TreeMap<Long, SurveyIdSet> buckets = new TreeMap<>();
+        private boolean loaded;
+        private long exactFrom;
+        private long latest;
+        private long bytes;
+
+    }
+
+}
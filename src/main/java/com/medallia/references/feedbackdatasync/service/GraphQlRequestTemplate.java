@@ -0,0 +1,347 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+
+import reactor.core.publisher.Mono;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+
+/**
+ * A Query API request body compiled once per job.  The body is serialized
+ * at startup with placeholders for the only variables that change from page
+ * to page (the start survey id, the start timestamp and the end timestamp)
+ * and split around them, so a request is written straight into a buffer
+ * from the request's own (pooled) buffer factory, without building or
+ * serializing the query again.
+ *
+ * <p>With persisted queries enabled, the body names the query by its
+ * SHA-256 hash (an automatic persisted query) instead of carrying its text.
+ * Until the Query API has answered a request carrying both, or after it
+ * reports that it does not know the hash, the text is sent along to
+ * register it.</p>
+ */
+public class GraphQlRequestTemplate {
+
+    private static final String START_SURVEY_ID = "startSurveyId";
+    private static final String START_TIMESTAMP = "startTimestamp";
+    private static final String END_TIMESTAMP = "endTimestamp";
+
+    private static final byte QUOTE = '"';
+
+    private final ObjectMapper objectMapper;
+    private final String queryHash;
+
+    private final byte[][] querySegments;
+    private final byte[][] persistedSegments;
+    private final int querySegmentsLength;
+    private final int persistedSegmentsLength;
+
+    private volatile boolean persisted;
+
+    /**
+     * Compiles the request body of a query.
+     *
+     * @param objectMapper serializes the body
+     * @param query the GraphQL query
+     * @param variables the variables that are the same on every request
+     * @param persistedQueries whether to name the query by its hash once the
+     *                         Query API has registered it
+     * @throws JsonProcessingException if the body cannot be serialized
+     */
+    public GraphQlRequestTemplate(
+            final ObjectMapper objectMapper,
+            final String query,
+            final Map<String, Object> variables,
+            final boolean persistedQueries
+    ) throws JsonProcessingException {
+        this.objectMapper = objectMapper;
+        this.queryHash = persistedQueries
+            ? Hashing.sha256().hashString(query, StandardCharsets.UTF_8).toString()
+            : null;
+
+        this.querySegments = compile(query, variables);
+        this.querySegmentsLength = length(querySegments);
+
+        this.persistedSegments = persistedQueries ? compile(null, variables) : null;
+        this.persistedSegmentsLength = persistedQueries ? length(persistedSegments) : 0;
+    }
+
+    /**
+     * Returns the hash the query is persisted under.
+     *
+     * @return the hexadecimal SHA-256 hash of the query, or null if
+     *         persisted queries are disabled
+     */
+    public String getQueryHash() {
+        return queryHash;
+    }
+
+    /**
+     * Records that the Query API has answered a request, which registered
+     * the query if its text was sent along.
+     */
+    public void answered() {
+        if (queryHash != null) {
+            persisted = true;
+        }
+    }
+
+    /**
+     * Records that the Query API no longer knows the query's hash, so the
+     * next request carries its text again.
+     */
+    public void forgotten() {
+        persisted = false;
+    }
+
+    /**
+     * Creates the inserter that writes a request's body into the request,
+     * sized up front so the body goes out with a {@code Content-Length}.
+     *
+     * @param startSurveyId the survey id to start after
+     * @param startTimestamp the initial finish date to start from
+     * @param endTimestamp the initial finish date to stop before
+     * @return the body inserter
+     */
+    public BodyInserter<Void, ReactiveHttpOutputMessage> inserter(
+            final String startSurveyId,
+            final long startTimestamp,
+            final long endTimestamp
+    ) {
+        return (message, context) -> {
+            final boolean hashOnly = persisted;
+            final byte[] escapedSurveyId = escape(startSurveyId);
+            final int length = length(hashOnly, startSurveyId, escapedSurveyId, startTimestamp, endTimestamp);
+
+            message.getHeaders().setContentLength(length);
+            return message.writeWith(Mono.fromSupplier(() -> write(
+                message.bufferFactory(),
+                hashOnly,
+                startSurveyId,
+                escapedSurveyId,
+                startTimestamp,
+                endTimestamp,
+                length
+            )));
+        };
+    }
+
+    /**
+     * Writes a request's body into a new buffer.
+     *
+     * @param bufferFactory allocates the buffer
+     * @param startSurveyId the survey id to start after
+     * @param startTimestamp the initial finish date to start from
+     * @param endTimestamp the initial finish date to stop before
+     * @return the buffer, which the caller must release
+     */
+    public DataBuffer write(
+            final DataBufferFactory bufferFactory,
+            final String startSurveyId,
+            final long startTimestamp,
+            final long endTimestamp
+    ) {
+        final boolean hashOnly = persisted;
+        final byte[] escapedSurveyId = escape(startSurveyId);
+
+        return write(
+            bufferFactory,
+            hashOnly,
+            startSurveyId,
+            escapedSurveyId,
+            startTimestamp,
+            endTimestamp,
+            length(hashOnly, startSurveyId, escapedSurveyId, startTimestamp, endTimestamp)
+        );
+    }
+
+    /**
+     * Renders a request's body, e.g. for logging.
+     *
+     * @param startSurveyId the survey id to start after
+     * @param startTimestamp the initial finish date to start from
+     * @param endTimestamp the initial finish date to stop before
+     * @return the body
+     */
+    public String render(final String startSurveyId, final long startTimestamp, final long endTimestamp) {
+        final DataBuffer buffer = write(
+            DefaultDataBufferFactory.sharedInstance,
+            startSurveyId,
+            startTimestamp,
+            endTimestamp
+        );
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private DataBuffer write(
+            final DataBufferFactory bufferFactory,
+            final boolean hashOnly,
+            final String startSurveyId,
+            final byte[] escapedSurveyId,
+            final long startTimestamp,
+            final long endTimestamp,
+            final int length
+    ) {
+        final byte[][] segments = hashOnly ? persistedSegments : querySegments;
+        final DataBuffer buffer = bufferFactory.allocateBuffer(length);
+
+        buffer.write(segments[0]);
+        if (escapedSurveyId != null) {
+            buffer.write(escapedSurveyId);
+        } else {
+            buffer.write(QUOTE);
+            for (int i = 0; i < startSurveyId.length(); i++) {
+                buffer.write((byte) startSurveyId.charAt(i));
+            }
+            buffer.write(QUOTE);
+        }
+        buffer.write(segments[1]);
+        writeLong(buffer, startTimestamp);
+        buffer.write(segments[2]);
+        writeLong(buffer, endTimestamp);
+        buffer.write(segments[3]);
+
+        return buffer;
+    }
+
+    private int length(
+            final boolean hashOnly,
+            final String startSurveyId,
+            final byte[] escapedSurveyId,
+            final long startTimestamp,
+            final long endTimestamp
+    ) {
+        return (hashOnly ? persistedSegmentsLength : querySegmentsLength)
+            + (escapedSurveyId != null ? escapedSurveyId.length : startSurveyId.length() + 2)
+            + digits(startTimestamp)
+            + digits(endTimestamp);
+    }
+
+    /**
+     * Serializes the body with placeholders in the slots, and splits it
+     * around them.
+     */
+    private byte[][] compile(final String query, final Map<String, Object> variables) throws JsonProcessingException {
+        final Map<String, Object> slottedVariables = new LinkedHashMap<>(variables);
+        slottedVariables.put(START_SURVEY_ID, placeholder(START_SURVEY_ID));
+        slottedVariables.put(START_TIMESTAMP, placeholder(START_TIMESTAMP));
+        slottedVariables.put(END_TIMESTAMP, placeholder(END_TIMESTAMP));
+
+        final Map<String, Object> body = new LinkedHashMap<>();
+        if (query != null) {
+            body.put("query", query);
+        }
+        body.put("variables", slottedVariables);
+        if (queryHash != null) {
+            final Map<String, Object> persistedQuery = new LinkedHashMap<>();
+            persistedQuery.put("version", 1);
+            persistedQuery.put("sha256Hash", queryHash);
+            body.put("extensions", Collections.singletonMap("persistedQuery", persistedQuery));
+        }
+
+        final byte[] serialized = objectMapper.writeValueAsBytes(body);
+        final byte[][] segments = new byte[4][];
+
+        int from = 0;
+        int segment = 0;
+        for (final String slot : new String[] { START_SURVEY_ID, START_TIMESTAMP, END_TIMESTAMP }) {
+            final byte[] marker = objectMapper.writeValueAsBytes(placeholder(slot));
+            final int at = indexOf(serialized, marker, from);
+            if (at < 0) {
+                throw new IllegalStateException("No slot for " + slot + " in the request body");
+            }
+
+            segments[segment++] = Arrays.copyOfRange(serialized, from, at);
+            from = at + marker.length;
+        }
+        segments[segment] = Arrays.copyOfRange(serialized, from, serialized.length);
+
+        return segments;
+    }
+
+    private static String placeholder(final String slot) {
+        return "$$" + slot + "$$";
+    }
+
+    /**
+     * Escapes a survey id as a JSON string, unless it can be written as is.
+     *
+     * @return the quoted, escaped survey id, or null if it only has
+     *         characters that need no escaping
+     */
+    private byte[] escape(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\') {
+                try {
+                    return objectMapper.writeValueAsBytes(value);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException("Cannot serialize survey id " + value, e);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static void writeLong(final DataBuffer buffer, final long value) {
+        if (value < 0) {
+            buffer.write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.write((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private static int digits(final long value) {
+        if (value < 0) {
+            return Long.toString(value).length();
+        }
+
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int length(final byte[][] segments) {
+        int length = 0;
+        for (final byte[] segment : segments) {
+            length += segment.length;
+        }
+        return length;
+    }
+
+    private static int indexOf(final byte[] bytes, final byte[] target, final int from) {
+        outer:
+        for (int i = from; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+}
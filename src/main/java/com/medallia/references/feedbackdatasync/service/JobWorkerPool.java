@@ -0,0 +1,263 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+
+/**
+ * A bounded pool of workers shared by every extraction job.  Each job has
+ * its own queue of tasks; idle workers take the next task from the job
+ * queues in turn, skipping jobs that already run as many tasks as their
+ * concurrency limit allows.  A job with many shards therefore cannot crowd
+ * out the others.
+ *
+ * <p>The pool runs the blocking stages of the extraction pipelines, i.e.
+ * persistence; fetching and decoding pages holds none of its workers.
+ * Tasks must not wait on other tasks of the pool.</p>
+ *
+ * <p>On shutdown, waiting tasks are dropped and running ones are given up
+ * to {@code medallia.jobs.shutdown.timeout.msec} to finish, so that a page
+ * being persisted commits before the sinks and the database close.
+ * {@link SyncService} cancels the extraction pipelines and then shuts the
+ * pool down, while everything a page is persisted with is still open, so
+ * nothing is submitted to a pool that has shut down.</p>
+ */
+@Component
+public class JobWorkerPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobWorkerPool.class);
+
+    @Value("${medallia.jobs.workers:0}")
+    private Integer workerCount;
+
+    @Value("${medallia.jobs.shutdown.timeout.msec:30000}")
+    private Long shutdownTimeout;
+
+    @Autowired
+    private SyncJobs syncJobs;
+
+    private final Map<SyncJob, JobQueue> queues = new LinkedHashMap<>();
+    private final Map<SyncJob, Scheduler> schedulers = new LinkedHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private List<JobQueue> order;
+    private int nextQueue;
+    private boolean running = true;
+
+    @PostConstruct
+    private void postConstruct() {
+        int defaultWorkerCount = 0;
+
+        for (final SyncJob job : syncJobs.getJobs()) {
+            queues.put(job, new JobQueue(job.getMaxConcurrency()));
+            schedulers.put(job, Schedulers.fromExecutor(task -> submit(job, Executors.callable(task))));
+            defaultWorkerCount += job.getMaxConcurrency();
+        }
+
+        order = new ArrayList<>(queues.values());
+
+        final int count = workerCount != null && workerCount > 0 ? workerCount : defaultWorkerCount;
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setNameFormat("queryapi-worker-%d")
+            .setDaemon(true)
+            .build();
+
+        for (int i = 0; i < count; i++) {
+            final Thread worker = threadFactory.newThread(this::runWorker);
+            workers.add(worker);
+            worker.start();
+        }
+
+        LOGGER.info("Started {} workers for {} jobs", count, queues.size());
+    }
+
+    @PreDestroy
+    private void preDestroy() {
+        shutdown();
+    }
+
+    /**
+     * Drops the waiting tasks, waits for the running ones to finish (up to
+     * the shutdown timeout) and stops the workers.  Later calls do nothing.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+
+            for (final JobQueue queue : order) {
+                queue.tasks.forEach(task -> task.cancel(false));
+                queue.tasks.clear();
+            }
+
+            final long deadline = System.currentTimeMillis() + shutdownTimeout;
+            long remaining = shutdownTimeout;
+
+            while (isBusy() && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            if (isBusy()) {
+                LOGGER.warn("Interrupting tasks still running after {} ms", shutdownTimeout);
+            }
+        }
+
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Determines whether any task is being run.  Callers must hold the
+     * pool's lock.
+     */
+    private boolean isBusy() {
+        return order.stream().anyMatch(queue -> queue.running > 0);
+    }
+
+    /**
+     * Queues a task for a job.
+     *
+     * @param job the job the task belongs to
+     * @param task the task
+     * @param <T> the task's result type
+     * @return the task's pending result
+     */
+    public <T> Future<T> submit(final SyncJob job, final Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<>(task);
+
+        synchronized (this) {
+            if (!running) {
+                throw new RejectedExecutionException("Worker pool is shut down");
+            }
+
+            final JobQueue queue = queues.get(job);
+            if (queue == null) {
+                throw new IllegalArgumentException("Unknown job " + job.getName());
+            }
+
+            queue.tasks.add(future);
+            notifyAll();
+        }
+
+        return future;
+    }
+
+    /**
+     * Returns a Reactor scheduler that queues its work as tasks of a job.
+     *
+     * @param job the job the work belongs to
+     * @return the job's scheduler
+     */
+    public Scheduler scheduler(final SyncJob job) {
+        final Scheduler scheduler = schedulers.get(job);
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Unknown job " + job.getName());
+        }
+
+        return scheduler;
+    }
+
+    private void runWorker() {
+        while (true) {
+            JobQueue queue = null;
+            final FutureTask<?> task;
+
+            synchronized (this) {
+                while (running && (queue = nextRunnableQueue()) == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+
+                if (!running) {
+                    return;
+                }
+
+                task = queue.tasks.poll();
+                queue.running++;
+            }
+
+            try {
+                task.run();
+            } finally {
+                // A task interrupted by its cancellation must not leave the
+                // interrupt behind for the next one
+                Thread.interrupted();
+
+                synchronized (this) {
+                    queue.running--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the next job queue, round robin, that has a task waiting and is
+     * below its concurrency limit, and moves the turn past it.
+     */
+    private JobQueue nextRunnableQueue() {
+        for (int i = 0; i < order.size(); i++) {
+            final int index = (nextQueue + i) % order.size();
+            final JobQueue queue = order.get(index);
+
+            if (!queue.tasks.isEmpty() && queue.running < queue.limit) {
+                nextQueue = (index + 1) % order.size();
+                return queue;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * A job's waiting tasks and the number of its tasks being run.
+     */
+    private static class JobQueue {
+
+        private final int limit;
+        private final Deque<FutureTask<?>> tasks = new ArrayDeque<>();
+        private int running;
+
+        JobQueue(final int limit) {
+            this.limit = limit;
+        }
+
+    }
+
+}
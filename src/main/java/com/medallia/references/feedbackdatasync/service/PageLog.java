@@ -0,0 +1,217 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+
+/**
+ * An append-only log of the raw Query API responses of every job, kept on
+ * local disk so that pages can be replayed into a job's record sink without
+ * querying the API again (see {@code PageLogReplay}).  Each page is appended
+ * as soon as it has been read and decoded, before it is processed.
+ *
+ * <p>The log is a directory of memory-mapped segments of a fixed size
+ * ({@link PageLogSegment}); appending a page copies its body into the
+ * mapping, which the operating system writes back, so an append survives
+ * the process dying.  With {@code medallia.pagelog.fsync}, every append is
+ * also forced to the storage device.  Once the segments outgrow the
+ * retention size, the oldest ones are deleted.</p>
+ *
+ * <p>Only one process may append to a directory at a time.</p>
+ */
+@Component
+public class PageLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageLog.class);
+
+    @Value("${medallia.pagelog.enabled:false}")
+    private boolean enabled;
+
+    @Value("${medallia.pagelog.directory:pagelog}")
+    private String directory;
+
+    @Value("${medallia.pagelog.segment.bytes:67108864}")
+    private Integer segmentBytes;
+
+    @Value("${medallia.pagelog.retention.bytes:1073741824}")
+    private Long retentionBytes;
+
+    @Value("${medallia.pagelog.fsync:false}")
+    private boolean fsync;
+
+    /**
+     * The segments in the directory, oldest first; the last one is
+     * appended to.
+     */
+    private final Deque<Path> segments = new ArrayDeque<>();
+
+    private PageLogSegment active;
+    private long totalBytes;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the directory the segments are kept in.
+     *
+     * @return the log's directory
+     */
+    public Path getDirectory() {
+        return Paths.get(directory);
+    }
+
+    /**
+     * Appends a page's raw response body.  Empty pages are not logged.
+     *
+     * @param job the job the page was pulled for
+     * @param page the decoded page, whose first and last records index it
+     * @param body the raw response body
+     * @throws UncheckedIOException if a segment cannot be created
+     */
+    public synchronized void append(final SyncJob job, final FeedbackPage page, final byte[] body) {
+        if (page.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (active == null) {
+                openLastSegment();
+            }
+
+            if (active == null || !appendTo(active, job, page, body)) {
+                roll(PageLogSegment.capacityFor(job.getName(), body.length));
+                appendTo(active, job, page, body);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (fsync) {
+            active.force();
+        }
+    }
+
+    /**
+     * Returns the size of the segments on disk.
+     *
+     * @return the size of the log, in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        return totalBytes;
+    }
+
+    @PreDestroy
+    private synchronized void preDestroy() {
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    /**
+     * Lists a log directory's segments, oldest first.
+     *
+     * @param directory the log's directory
+     * @return the segment files
+     * @throws IOException if the directory cannot be listed
+     */
+    static List<Path> listSegments(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(file -> file.getFileName().toString().endsWith(PageLogSegment.EXTENSION))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private boolean appendTo(
+            final PageLogSegment segment,
+            final SyncJob job,
+            final FeedbackPage page,
+            final byte[] body
+    ) {
+        return segment.append(
+            job.getName(),
+            page.getProcessedRecord(0),
+            page.getProcessedRecord(page.size() - 1),
+            page.size(),
+            body
+        );
+    }
+
+    /**
+     * Picks up the segments a previous run left behind, and carries on
+     * appending to the last of them.
+     */
+    private void openLastSegment() throws IOException {
+        final Path logDirectory = getDirectory();
+        Files.createDirectories(logDirectory);
+
+        for (final Path segment : listSegments(logDirectory)) {
+            segments.addLast(segment);
+            totalBytes += Files.size(segment);
+        }
+
+        if (!segments.isEmpty()) {
+            try {
+                active = PageLogSegment.open(segments.getLast(), true);
+            } catch (IOException e) {
+                // A new segment is started after it
+                LOGGER.warn("Unable to append to page log segment {}: {}", segments.getLast(), e.getMessage());
+            }
+        }
+
+        LOGGER.info("Page log {} holds {} segments ({} bytes)", logDirectory, segments.size(), totalBytes);
+    }
+
+    /**
+     * Starts a new segment, big enough for at least the next page, and
+     * deletes the oldest segments beyond the retention size.
+     */
+    private void roll(final long minCapacity) throws IOException {
+        final long sequence = segments.isEmpty() ? 0 : PageLogSegment.sequenceOf(segments.getLast()) + 1;
+        final long capacity = Math.max(segmentBytes, minCapacity);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Page of " + minCapacity + " bytes does not fit a page log segment");
+        }
+
+        if (active != null) {
+            active.force();
+        }
+
+        active = PageLogSegment.create(getDirectory(), sequence, (int) capacity);
+        segments.addLast(active.getPath());
+        totalBytes += capacity;
+
+        while (retentionBytes > 0 && totalBytes > retentionBytes && segments.size() > 1) {
+            final Path oldest = segments.removeFirst();
+            final long size = Files.size(oldest);
+
+            Files.delete(oldest);
+            totalBytes -= size;
+            LOGGER.info("Deleted page log segment {} beyond the retention of {} bytes", oldest, retentionBytes);
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+import com.medallia.references.feedbackdatasync.sink.ColumnarCodec;
+import com.medallia.references.feedbackdatasync.sink.ColumnarFileWriter;
+import com.medallia.references.feedbackdatasync.sink.RecordSink;
+import com.medallia.references.feedbackdatasync.sink.RecordStreamWriter;
+
+/**
+ * Replays a job's pages in a range of initial finish dates from the
+ * {@link PageLog} into the job's record sink, e.g. after the sink failed
+ * or to fill a newly configured sink, without querying the API again.
+ * With {@code medallia.replay.output} the pages are replayed into a new
+ * file in the job's format instead, and the job's sink is not written.
+ *
+ * <p>The log's segments are indexed by the last record of each page, and
+ * the pages that overlap the range are decoded again and written in
+ * cursor order through {@link RecordProcessingService#replayPage}.  A
+ * record that was logged more than once, e.g. because its page was pulled
+ * again, is written once.  The records table and the job's checkpoint are
+ * left alone.  Pages that were never logged, or whose segment was deleted
+ * by the log's retention, cannot be replayed.</p>
+ *
+ * <p>Created by {@code PageLogReplay}, outside of the scheduled
+ * application.  The job's sink is the one the extractor writes, so the
+ * extractor must be stopped while a replay runs.</p>
+ */
+public class PageLogReplayer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageLogReplayer.class);
+
+    @Value("${medallia.replay.job:}")
+    private String jobName;
+
+    @Value("${medallia.replay.start}")
+    private String start;
+
+    @Value("${medallia.replay.end:}")
+    private String end;
+
+    @Value("${medallia.replay.output:}")
+    private String output;
+
+    @Value("${medallia.recordstream.columnar.dictionary.max.size:4096}")
+    private Integer columnarDictionarySize;
+
+    @Autowired
+    private SyncJobs syncJobs;
+
+    @Autowired
+    private PageLog pageLog;
+
+    @Autowired
+    private RecordProcessingService recordProcessingService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private byte[] body = new byte[0];
+
+    /**
+     * Runs the replay to completion.
+     *
+     * @return the number of records replayed
+     * @throws IOException if a segment cannot be read or a page decoded
+     */
+    public long replay() throws IOException {
+        final SyncJob job = findJob();
+
+        if (output == null || output.trim().isEmpty()) {
+            return replay(job, "its record sink");
+        }
+
+        final Path outputPath = Paths.get(output.trim());
+        if (Files.exists(outputPath)) {
+            throw new IllegalStateException("Replay output " + outputPath + " already exists");
+        }
+
+        try (RecordSink sink = openSink(job, outputPath)) {
+            return replay(
+                new SyncJob(
+                    job.getName(),
+                    job.getGraphQlFilter(),
+                    job.getGraphQlNodes(),
+                    job.getFieldSchema(),
+                    job.getDefaultStartSurveyId(),
+                    job.getDefaultStartTimestamp(),
+                    1,
+                    1,
+                    sink
+                ),
+                outputPath.toString()
+            );
+        }
+    }
+
+    private long replay(final SyncJob job, final String target) throws IOException {
+        // Survey ids are positive, so these come before every record of
+        // their second
+        final ProcessedRecord from = new ProcessedRecord(
+            BigInteger.valueOf(-1),
+            toZonedDateTime(BulkExporter.parseTimestamp(start))
+        );
+        final ProcessedRecord to = end == null || end.trim().isEmpty()
+            ? null
+            : new ProcessedRecord(BigInteger.valueOf(-1), toZonedDateTime(BulkExporter.parseTimestamp(end)));
+
+        final long startNanos = System.nanoTime();
+        final TreeMap<ProcessedRecord, PageLogSegment.Entry> pages = index(job, from, to);
+
+        LOGGER.info(
+            "Replaying {} logged pages of job {} from {} to {} into {}",
+            pages.size(),
+            job.getName(),
+            from.getInitialFinishDate(),
+            to != null ? to.getInitialFinishDate() : "the end of the log",
+            target
+        );
+
+        ProcessedRecord replayed = from;
+        ProcessedRecord first = null;
+        long records = 0;
+        long bytes = 0;
+
+        for (final PageLogSegment.Entry entry : pages.values()) {
+            final FeedbackPage page = decode(job, entry);
+            final boolean[] dropped = new boolean[page.size()];
+            int kept = 0;
+
+            for (int row = 0; row < page.size(); row++) {
+                final ProcessedRecord record = page.getProcessedRecord(row);
+                dropped[row] = record.compareTo(replayed) <= 0 || (to != null && record.compareTo(to) >= 0);
+
+                if (!dropped[row]) {
+                    replayed = record;
+                    kept++;
+                }
+            }
+
+            if (kept == 0) {
+                continue;
+            }
+
+            final FeedbackPage remaining = kept == page.size() ? page : page.withoutRows(dropped);
+            recordProcessingService.replayPage(job, remaining);
+
+            if (first == null) {
+                first = remaining.getProcessedRecord(0);
+            }
+            records += kept;
+            bytes += entry.getBodyLength();
+        }
+
+        final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        LOGGER.info(
+            "Replayed {} records of job {} ({} MB of pages) in {} ({} records/s), from survey {} at {} to survey {} at {}",
+            records,
+            job.getName(),
+            String.format("%.1f", bytes / 1e6),
+            Duration.ofMillis(Math.round(elapsedSeconds * 1000)),
+            Math.round(records / Math.max(elapsedSeconds, 1e-3)),
+            first != null ? first.getSurveyId() : null,
+            first != null ? first.getInitialFinishDate() : null,
+            records > 0 ? replayed.getSurveyId() : null,
+            records > 0 ? replayed.getInitialFinishDate() : null
+        );
+
+        return records;
+    }
+
+    private SyncJob findJob() {
+        if (jobName == null || jobName.trim().isEmpty()) {
+            return syncJobs.getDefaultJob();
+        }
+
+        return syncJobs.getJobs().stream()
+            .filter(job -> job.getName().equals(jobName.trim()))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Unknown job " + jobName));
+    }
+
+    /**
+     * Opens a new output file in the format of the job's sink, neither
+     * rotated nor compressed.
+     */
+    private RecordSink openSink(final SyncJob job, final Path outputPath) throws IOException {
+        if (job.getSink() instanceof ColumnarFileWriter) {
+            return new ColumnarFileWriter(
+                outputPath,
+                ColumnarFileWriter.fieldsOf(job.getGraphQlNodes()),
+                ColumnarCodec.DEFLATE,
+                columnarDictionarySize,
+                0,
+                Duration.ZERO,
+                true
+            );
+        }
+
+        return new RecordStreamWriter(
+            objectMapper,
+            outputPath,
+            8192,
+            0,
+            Duration.ZERO,
+            false,
+            true
+        );
+    }
+
+    /**
+     * Indexes the job's logged pages that overlap the range by their last
+     * record.  Of the pages that end on the same record, the one logged
+     * last is kept.
+     */
+    private TreeMap<ProcessedRecord, PageLogSegment.Entry> index(
+            final SyncJob job,
+            final ProcessedRecord from,
+            final ProcessedRecord to
+    ) throws IOException {
+        final TreeMap<ProcessedRecord, PageLogSegment.Entry> pages = new TreeMap<>();
+        final List<Path> segments = PageLog.listSegments(pageLog.getDirectory());
+
+        if (segments.isEmpty()) {
+            LOGGER.warn("Page log {} holds no segments", pageLog.getDirectory());
+        }
+
+        for (final Path path : segments) {
+            final PageLogSegment segment;
+            try {
+                segment = PageLogSegment.open(path, false);
+            } catch (IOException e) {
+                // Deleted by the log's retention since it was listed, or
+                // damaged
+                LOGGER.warn("Skipping page log segment {}: {}", path, e.getMessage());
+                continue;
+            }
+
+            segment.scan(entry -> {
+                if (entry.getJob().equals(job.getName())
+                        && entry.getLast().compareTo(from) > 0
+                        && (to == null || entry.getFirst().compareTo(to) < 0)) {
+                    pages.put(entry.getLast(), entry);
+                }
+            });
+        }
+
+        return pages;
+    }
+
+    private FeedbackPage decode(final SyncJob job, final PageLogSegment.Entry entry) throws IOException {
+        final ByteBuffer logged = entry.getSegment().body(entry);
+        if (body.length < logged.remaining()) {
+            body = new byte[logged.remaining()];
+        }
+        final int length = logged.remaining();
+        logged.get(body, 0, length);
+
+        final List<FeedbackPage> decoded = new ArrayList<>(1);
+        final QueryApiStreamDecoder decoder = new QueryApiStreamDecoder(objectMapper, job.getFieldSchema(), decoded::add, Integer.MAX_VALUE);
+        decoder.feed(body, 0, length);
+        decoder.finish();
+
+        return decoded.isEmpty() ? FeedbackPage.empty() : decoded.get(0);
+    }
+
+    private static ZonedDateTime toZonedDateTime(final long epochSecond) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneOffset.UTC);
+    }
+
+}
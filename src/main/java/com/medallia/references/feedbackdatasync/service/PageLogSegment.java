@@ -0,0 +1,347 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+
+/**
+ * One memory-mapped file of the {@link PageLog}.  A segment is created at
+ * its full size and filled with entries from the front; the first entry
+ * length of zero marks the end of what has been written.
+ *
+ * <p>The file starts with a magic number and format version.  Each entry
+ * is its length and a CRC-32 of the rest, followed by the time it was
+ * appended, the survey id and initial finish date of the page's first and
+ * last records, the page's record count, the job name and the raw response
+ * body.  An entry whose checksum does not match, e.g. one the process was
+ * writing when it died, ends the segment.</p>
+ *
+ * <p>A segment is not thread-safe.</p>
+ */
+final class PageLogSegment {
+
+    static final String EXTENSION = ".pagelog";
+
+    private static final long MAGIC = 0x5141504147454c47L; // "QAPAGELG"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+
+    /**
+     * The length and checksum of an entry.
+     */
+    private static final int ENTRY_PREFIX_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * The fixed part of an entry after its checksum, before the job name.
+     */
+    private static final int ENTRY_HEADER_BYTES = 5 * Long.BYTES + Integer.BYTES + Short.BYTES;
+
+    private final Path path;
+    private final long sequence;
+    private final MappedByteBuffer buffer;
+    private int position;
+
+    private PageLogSegment(final Path path, final long sequence, final MappedByteBuffer buffer) {
+        this.path = path;
+        this.sequence = sequence;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new, empty segment.
+     *
+     * @param directory the log's directory
+     * @param sequence the segment's number, which orders segments
+     * @param capacity the size of the file, in bytes
+     * @return the segment, mapped for appending
+     * @throws IOException if the file exists or cannot be created
+     */
+    static PageLogSegment create(final Path directory, final long sequence, final int capacity) throws IOException {
+        final Path path = directory.resolve(String.format("%020d", sequence) + EXTENSION);
+
+        try (FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final PageLogSegment segment = new PageLogSegment(path, sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+
+            segment.buffer.putLong(0, MAGIC);
+            segment.buffer.putInt(Long.BYTES, VERSION);
+            segment.position = FILE_HEADER_BYTES;
+            return segment;
+        }
+    }
+
+    /**
+     * Opens an existing segment and finds the end of its valid entries.
+     *
+     * @param path the segment file
+     * @param writable whether entries will be appended to it
+     * @return the segment
+     * @throws IOException if the file cannot be mapped or is not a segment
+     */
+    static PageLogSegment open(final Path path, final boolean writable) throws IOException {
+        try (FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(
+                writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                0,
+                channel.size()
+            );
+
+            if (buffer.capacity() < FILE_HEADER_BYTES || buffer.getLong(0) != MAGIC) {
+                throw new IOException(path + " is not a page log segment");
+            }
+            if (buffer.getInt(Long.BYTES) != VERSION) {
+                throw new IOException(path + " has unknown page log version " + buffer.getInt(Long.BYTES));
+            }
+
+            final PageLogSegment segment = new PageLogSegment(path, sequenceOf(path), buffer);
+            segment.scan(entry -> { });
+            return segment;
+        }
+    }
+
+    /**
+     * Returns the sequence number in a segment's file name.
+     *
+     * @param path the segment file
+     * @return the segment's number
+     */
+    static long sequenceOf(final Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    /**
+     * Returns the size of a segment that holds a single entry.
+     *
+     * @param job the job name
+     * @param bodyLength the length of the response body
+     * @return the smallest capacity the entry fits in
+     */
+    static long capacityFor(final String job, final int bodyLength) {
+        return FILE_HEADER_BYTES + entryLength(job, bodyLength) + Integer.BYTES;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Appends a page, unless it does not fit.
+     *
+     * @param job the job name
+     * @param first the page's first record
+     * @param last the page's last record
+     * @param records the page's record count
+     * @param body the raw response body
+     * @return whether the page was appended
+     */
+    boolean append(
+            final String job,
+            final ProcessedRecord first,
+            final ProcessedRecord last,
+            final int records,
+            final byte[] body
+    ) {
+        final byte[] name = job.getBytes(StandardCharsets.UTF_8);
+        final int length = entryLength(job, body.length);
+
+        // The entry is followed by the zero length that ends the segment
+        if ((long) position + length + Integer.BYTES > buffer.capacity()) {
+            return false;
+        }
+
+        final ByteBuffer entry = buffer.duplicate();
+        entry.position(position + ENTRY_PREFIX_BYTES);
+        entry.putLong(System.currentTimeMillis());
+        entry.putLong(first.getSurveyId().longValueExact());
+        entry.putLong(first.getInitialFinishDate().toEpochSecond());
+        entry.putLong(last.getSurveyId().longValueExact());
+        entry.putLong(last.getInitialFinishDate().toEpochSecond());
+        entry.putInt(records);
+        entry.putShort((short) name.length);
+        entry.put(name);
+        entry.put(body);
+
+        // The length goes in last, so a reader never sees a length without
+        // its entry; a torn entry fails its checksum
+        final CRC32 crc = new CRC32();
+        final ByteBuffer checked = buffer.duplicate();
+        checked.position(position + ENTRY_PREFIX_BYTES).limit(position + length);
+        crc.update(checked);
+
+        buffer.putInt(position + length, 0);
+        buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+        buffer.putInt(position, length);
+        position += length;
+        return true;
+    }
+
+    /**
+     * Forces the appended entries to the storage device.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Reads every valid entry, in the order they were appended, and moves
+     * the append position to the end of the last one.
+     *
+     * @param consumer receives each entry
+     */
+    void scan(final Consumer<Entry> consumer) {
+        int offset = FILE_HEADER_BYTES;
+
+        while (offset + ENTRY_PREFIX_BYTES <= buffer.capacity()) {
+            final int length = buffer.getInt(offset);
+            if (length < ENTRY_PREFIX_BYTES + ENTRY_HEADER_BYTES || (long) offset + length > buffer.capacity()) {
+                break;
+            }
+
+            final CRC32 crc = new CRC32();
+            final ByteBuffer checked = buffer.duplicate();
+            checked.position(offset + ENTRY_PREFIX_BYTES).limit(offset + length);
+            crc.update(checked);
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+
+            final ByteBuffer header = buffer.duplicate();
+            header.position(offset + ENTRY_PREFIX_BYTES);
+            final long appendedAt = header.getLong();
+            final ProcessedRecord first = toRecord(header.getLong(), header.getLong());
+            final ProcessedRecord last = toRecord(header.getLong(), header.getLong());
+            final int records = header.getInt();
+            final byte[] name = new byte[header.getShort()];
+            header.get(name);
+
+            consumer.accept(new Entry(
+                this,
+                new String(name, StandardCharsets.UTF_8),
+                first,
+                last,
+                records,
+                appendedAt,
+                header.position(),
+                offset + length - header.position()
+            ));
+
+            offset += length;
+        }
+
+        position = offset;
+    }
+
+    /**
+     * Returns an entry's raw response body.
+     *
+     * @param entry an entry of this segment
+     * @return a view of the body
+     */
+    ByteBuffer body(final Entry entry) {
+        final ByteBuffer body = buffer.duplicate();
+        body.position(entry.bodyOffset).limit(entry.bodyOffset + entry.bodyLength);
+        return body.slice();
+    }
+
+    private static int entryLength(final String job, final int bodyLength) {
+        return ENTRY_PREFIX_BYTES + ENTRY_HEADER_BYTES + job.getBytes(StandardCharsets.UTF_8).length + bodyLength;
+    }
+
+    private static ProcessedRecord toRecord(final long surveyId, final long initialFinishDate) {
+        return new ProcessedRecord(
+            BigInteger.valueOf(surveyId),
+            ZonedDateTime.ofInstant(Instant.ofEpochSecond(initialFinishDate), ZoneOffset.UTC)
+        );
+    }
+
+    /**
+     * A logged page, as indexed by its first and last records.
+     */
+    static final class Entry {
+
+        private final PageLogSegment segment;
+        private final String job;
+        private final ProcessedRecord first;
+        private final ProcessedRecord last;
+        private final int records;
+        private final long appendedAt;
+        private final int bodyOffset;
+        private final int bodyLength;
+
+        Entry(
+                final PageLogSegment segment,
+                final String job,
+                final ProcessedRecord first,
+                final ProcessedRecord last,
+                final int records,
+                final long appendedAt,
+                final int bodyOffset,
+                final int bodyLength
+        ) {
+            this.segment = segment;
+            this.job = job;
+            this.first = first;
+            this.last = last;
+            this.records = records;
+            this.appendedAt = appendedAt;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        PageLogSegment getSegment() {
+            return segment;
+        }
+
+        String getJob() {
+            return job;
+        }
+
+        ProcessedRecord getFirst() {
+            return first;
+        }
+
+        ProcessedRecord getLast() {
+            return last;
+        }
+
+        int getRecords() {
+            return records;
+        }
+
+        long getAppendedAt() {
+            return appendedAt;
+        }
+
+        int getBodyLength() {
+            return bodyLength;
+        }
+
+    }
+
+}
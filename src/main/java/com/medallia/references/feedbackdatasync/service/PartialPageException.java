@@ -0,0 +1,34 @@
+package com.medallia.references.feedbackdatasync.service;
+
+/**
+ * Thrown by {@link RecordLanes} when a record of a page could not be
+ * persisted.  Every record before the first one that was not persisted has
+ * been handed to the record sink, and flushed unless the calling thread
+ * wrote it, so that prefix of the page may still be committed.
+ */
+public class PartialPageException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int persistedRows;
+
+    /**
+     * Creates the exception.
+     *
+     * @param persistedRows the number of leading records that were persisted
+     * @param rows the number of records of the page
+     * @param cause the failure of the first record that failed
+     */
+    public PartialPageException(final int persistedRows, final int rows, final Throwable cause) {
+        super(
+            "Unable to persist a page past its first " + persistedRows + " of " + rows + " records: " + cause.getMessage(),
+            cause
+        );
+        this.persistedRows = persistedRows;
+    }
+
+    public int getPersistedRows() {
+        return persistedRows;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thrown when the Query API answers with GraphQL {@code errors}.  These
+ * describe a problem with the query itself, so the request is not retried,
+ * unless the API merely did not know a persisted query.
+ */
+public class QueryApiException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Object> errors;
+
+    public QueryApiException(final List<Object> errors) {
+        super("Query API returned errors: " + errors);
+        this.errors = errors;
+    }
+
+    public List<Object> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns whether the Query API did not know the hash of a persisted
+     * query, which it registers once the query's text is sent along.
+     *
+     * @return whether the query must be sent again in full
+     */
+    public boolean isPersistedQueryNotFound() {
+        for (final Object error : errors) {
+            if (!(error instanceof Map)) {
+                continue;
+            }
+
+            final Map<?, ?> fields = (Map<?, ?>) error;
+            final Object extensions = fields.get("extensions");
+            if ("PersistedQueryNotFound".equals(fields.get("message"))
+                    || (extensions instanceof Map
+                        && "PERSISTED_QUERY_NOT_FOUND".equals(((Map<?, ?>) extensions).get("code")))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.EOFException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.netty.handler.timeout.TimeoutException;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.PrematureCloseException;
+
+import com.fasterxml.jackson.core.io.JsonEOFException;
+import com.google.common.base.Throwables;
+import com.medallia.references.feedbackdatasync.metrics.SyncMetrics;
+
+/**
+ * Governs every request to the Query API: a token bucket shared by all
+ * concurrent requests keeps the request rate within the API quota, and a
+ * throttled response pauses every request until its {@code Retry-After}
+ * has passed.  It also classifies failures for the retry policy.
+ *
+ * <p>Requests wait for their turn on timers rather than on threads: the
+ * bucket hands out reservations, as Guava's bursty rate limiter does, and
+ * up to a second's worth of unused permits may be spent at once.</p>
+ */
+@Component
+public class QueryApiGovernor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryApiGovernor.class);
+
+    @Value("${medallia.queryapi.rate.limit.per.sec:0}")
+    private Double requestsPerSecond;
+
+    @Value("${medallia.queryapi.retry.after.max.msec:300000}")
+    private Long maxRetryAfter;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    private final AtomicLong pausedUntil = new AtomicLong();
+
+    private long permitIntervalNanos;
+    private double storedPermits;
+    private long nextFreePermitNanos;
+
+    @PostConstruct
+    private void postConstruct() {
+        if (requestsPerSecond > 0) {
+            permitIntervalNanos = (long) (1_000_000_000L / requestsPerSecond);
+            nextFreePermitNanos = System.nanoTime();
+            LOGGER.info("Query API requests limited to {} per second", requestsPerSecond);
+        }
+    }
+
+    /**
+     * Completes once a request may be sent: past any pause requested by a
+     * throttled response, and within the rate limit.  Nothing is reserved
+     * until the result is subscribed to.
+     *
+     * @return the permit to send one request
+     */
+    public Mono<Void> permit() {
+        return Mono.defer(() -> {
+            final long pause = pausedUntil.get() - System.currentTimeMillis();
+            if (pause > 0) {
+                // The pause may have been extended by the time it is over
+                return Mono.delay(Duration.ofMillis(pause)).then(permit());
+            }
+
+            final long wait = permitIntervalNanos > 0 ? reservePermit() : 0;
+            return wait > 0 ? Mono.delay(Duration.ofNanos(wait)).then() : Mono.empty();
+        });
+    }
+
+    /**
+     * Reserves the next permit of the token bucket.  Time the bucket sat
+     * unused is banked as permits, up to a second's worth.
+     *
+     * @return how long to wait before using the permit, in nanoseconds
+     */
+    private synchronized long reservePermit() {
+        final long now = System.nanoTime();
+
+        if (now > nextFreePermitNanos) {
+            storedPermits = Math.min(
+                requestsPerSecond,
+                storedPermits + (double) (now - nextFreePermitNanos) / permitIntervalNanos
+            );
+            nextFreePermitNanos = now;
+        }
+
+        final long wait = nextFreePermitNanos - now;
+        final double spentPermits = Math.min(1, storedPermits);
+
+        storedPermits -= spentPermits;
+        nextFreePermitNanos += (long) ((1 - spentPermits) * permitIntervalNanos);
+
+        return wait;
+    }
+
+    /**
+     * Holds back every request until the given time.
+     *
+     * @param delay how long to pause, from now
+     */
+    public void pause(final Duration delay) {
+        final long until = System.currentTimeMillis() + delay.toMillis();
+        pausedUntil.accumulateAndGet(until, Math::max);
+    }
+
+    /**
+     * Determines whether a failed request is worth retrying: throttling,
+     * server errors, timeouts, network failures and incomplete responses
+     * are; GraphQL errors and other client errors are not, except for an
+     * unknown persisted query, which is sent again in full.  Only failures
+     * of the request itself count: a page that fails to persist, e.g. on a
+     * busy database or a failed sink write, is not fetched again.
+     *
+     * @param failure the failure
+     * @return whether to retry
+     */
+    public boolean isRetryable(final Throwable failure) {
+        for (final Throwable cause : Throwables.getCausalChain(failure)) {
+            if (cause instanceof QueryApiException) {
+                return ((QueryApiException) cause).isPersistedQueryNotFound();
+            }
+
+            if (cause instanceof WebClientResponseException) {
+                final HttpStatus status = ((WebClientResponseException) cause).getStatusCode();
+                return status == HttpStatus.TOO_MANY_REQUESTS
+                    || status == HttpStatus.REQUEST_TIMEOUT
+                    || status.is5xxServerError();
+            }
+
+            if (cause instanceof WebClientRequestException
+                    || cause instanceof PrematureCloseException
+                    || cause instanceof TimeoutException
+                    || cause instanceof EOFException
+                    || cause instanceof JsonEOFException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Determines whether a failure is the API throttling us.
+     *
+     * @param failure the failure
+     * @return whether the failure is a {@code 429 Too Many Requests}
+     */
+    public boolean isThrottled(final Throwable failure) {
+        return findResponseException(failure)
+            .map(e -> e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS)
+            .orElse(false);
+    }
+
+    /**
+     * Returns the delay a throttled response asked for, and counts the
+     * throttling.
+     *
+     * @param failure the failure
+     * @return the {@code Retry-After} delay, capped, if the response had one
+     */
+    public Optional<Duration> getRetryAfter(final Throwable failure) {
+        final Optional<WebClientResponseException> response = findResponseException(failure)
+            .filter(e -> e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS);
+
+        if (!response.isPresent()) {
+            return Optional.empty();
+        }
+
+        syncMetrics.countThrottle();
+
+        final String retryAfter = response.get().getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return Optional.empty();
+        }
+
+        Duration delay;
+        try {
+            delay = Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                delay = Duration.between(
+                    ZonedDateTime.now(),
+                    ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                );
+            } catch (DateTimeParseException unparseable) {
+                LOGGER.warn("Ignoring unparseable Retry-After header: {}", retryAfter);
+                return Optional.empty();
+            }
+        }
+
+        if (delay.isNegative()) {
+            delay = Duration.ZERO;
+        }
+
+        return Optional.of(delay.toMillis() > maxRetryAfter ? Duration.ofMillis(maxRetryAfter) : delay);
+    }
+
+    private static Optional<WebClientResponseException> findResponseException(final Throwable failure) {
+        return Throwables.getCausalChain(failure).stream()
+            .filter(WebClientResponseException.class::isInstance)
+            .map(WebClientResponseException.class::cast)
+            .findFirst();
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.reactivestreams.Publisher;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import com.medallia.references.feedbackdatasync.metrics.SyncMetrics;
+
+/**
+ * Retries a failed Query API request, for use with
+ * {@link Mono#retryWhen(Retry)}.  Only the failures the
+ * {@link QueryApiGovernor} considers retryable are retried, and throttled
+ * attempts have their own, larger budget, so that waiting out the quota
+ * does not use up the attempts meant for errors.
+ *
+ * <p>A throttled response's {@code Retry-After} is honored, and pauses every
+ * other request through the governor as well; any other failure waits an
+ * exponentially growing, jittered delay.  The waits are timers, so no
+ * thread is held while backing off.</p>
+ */
+public class QueryApiRetry extends Retry {
+
+    private final QueryApiGovernor governor;
+    private final SyncMetrics syncMetrics;
+    private final int maxAttempts;
+    private final int maxThrottledAttempts;
+    private final long initialInterval;
+    private final double multiplier;
+    private final long maxInterval;
+
+    /**
+     * Creates the retry.
+     *
+     * @param governor classifies failures, reads {@code Retry-After} and
+     *                 pauses other requests
+     * @param syncMetrics counts every failed attempt
+     * @param maxAttempts the number of attempts allowed for failures other
+     *                    than throttling
+     * @param maxThrottledAttempts the number of throttled attempts allowed
+     * @param initialInterval the delay before the first retry, in
+     *                        milliseconds
+     * @param multiplier the factor the delay grows by with each retry
+     * @param maxInterval the longest delay, in milliseconds
+     */
+    public QueryApiRetry(
+            final QueryApiGovernor governor,
+            final SyncMetrics syncMetrics,
+            final int maxAttempts,
+            final int maxThrottledAttempts,
+            final long initialInterval,
+            final double multiplier,
+            final long maxInterval
+    ) {
+        this.governor = governor;
+        this.syncMetrics = syncMetrics;
+        this.maxAttempts = maxAttempts;
+        this.maxThrottledAttempts = maxThrottledAttempts;
+        this.initialInterval = initialInterval;
+        this.multiplier = multiplier;
+        this.maxInterval = maxInterval;
+    }
+
+    @Override
+    public Publisher<?> generateCompanion(final Flux<RetrySignal> retrySignals) {
+        // A companion is generated for every subscription, i.e. every
+        // request, so the counts are per request
+        final int[] throttledAttempts = new int[1];
+
+        return retrySignals.concatMap(signal -> {
+            final Throwable failure = signal.failure();
+
+            if (!governor.isRetryable(failure)) {
+                syncMetrics.countFailure();
+                return Mono.error(failure);
+            }
+
+            final boolean throttled = governor.isThrottled(failure);
+            if (throttled) {
+                throttledAttempts[0]++;
+            }
+
+            final long failedAttempts = signal.totalRetries() + 1;
+            final boolean canRetry = throttled
+                ? throttledAttempts[0] < maxThrottledAttempts
+                : failedAttempts - throttledAttempts[0] < maxAttempts;
+
+            if (!canRetry) {
+                syncMetrics.countFailure();
+                return Mono.error(failure);
+            }
+
+            syncMetrics.countRetry();
+            return Mono.delay(getBackOff(failure, signal.totalRetries()));
+        });
+    }
+
+    private Duration getBackOff(final Throwable failure, final long backOffs) {
+        final Optional<Duration> retryAfter = governor.getRetryAfter(failure);
+
+        if (retryAfter.isPresent()) {
+            governor.pause(retryAfter.get());
+            return retryAfter.get();
+        }
+
+        // Equal jitter: half the exponential delay plus a random share of the
+        // other half
+        final double exponential = Math.min(maxInterval, initialInterval * Math.pow(multiplier, backOffs));
+        return Duration.ofMillis((long) (exponential / 2 + ThreadLocalRandom.current().nextDouble(exponential / 2)));
+    }
+
+}
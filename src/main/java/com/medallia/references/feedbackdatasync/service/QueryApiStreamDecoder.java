@@ -0,0 +1,303 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+
+/**
+ * Incrementally decodes a Query API response as its bytes arrive.  Feedback
+ * nodes are read token by token straight into a {@link FeedbackPage}, which
+ * decodes the values of the job's declared fields as they are read, and is
+ * cut every {@code chunkSize} nodes.  The page-level values
+ * ({@code totalCount} and {@code errors}) are collected into a
+ * {@link QueryApiResponse} whose node list is left empty.
+ *
+ * <p>A response may carry its {@code errors} after its {@code data}, so the
+ * chunks are only handed to the consumer once the body has ended without
+ * errors; until then they are held decoded, which is far smaller than the
+ * body.</p>
+ *
+ * <p>Instances are single-use and not thread-safe.</p>
+ */
+public class QueryApiStreamDecoder {
+
+    private static final TypeReference<List<Object>> ERRORS_TYPE =
+        new TypeReference<List<Object>>() { };
+
+    private final ObjectMapper objectMapper;
+    private final Consumer<FeedbackPage> pageConsumer;
+    private final int chunkSize;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private final QueryApiResponse response = new QueryApiResponse();
+    private final FeedbackPage.Builder page;
+    private final List<FeedbackPage> chunks = new ArrayList<>();
+
+    private byte[] chunk = new byte[8192];
+
+    private TokenBuffer errorsCapture;
+    private int errorsDepth;
+
+    // Position inside the current node: 0 outside of a node, 1 in the node,
+    // 2 in a field's object, 3 in its values array
+    private int nodeDepth;
+    private int skipDepth;
+    private boolean valuesNext;
+
+    /**
+     * Creates a decoder for a single response that keeps every value raw.
+     *
+     * @param objectMapper the mapper whose factory creates the parser and
+     *                     which binds the errors
+     * @param pageConsumer receives the decoded nodes, a page at a time, once
+     *                     the body has ended without errors
+     * @param chunkSize the number of nodes per page handed to the consumer
+     * @throws IOException if the parser cannot be created
+     */
+    public QueryApiStreamDecoder(
+            final ObjectMapper objectMapper,
+            final Consumer<FeedbackPage> pageConsumer,
+            final int chunkSize
+    ) throws IOException {
+        this(objectMapper, FieldSchema.empty(), pageConsumer, chunkSize);
+    }
+
+    /**
+     * Creates a decoder for a single response.
+     *
+     * @param objectMapper the mapper whose factory creates the parser and
+     *                     which binds the errors
+     * @param schema the declared fields, whose values are decoded into their
+     *               types
+     * @param pageConsumer receives the decoded nodes, a page at a time, once
+     *                     the body has ended without errors
+     * @param chunkSize the number of nodes per page handed to the consumer
+     * @throws IOException if the parser cannot be created
+     */
+    public QueryApiStreamDecoder(
+            final ObjectMapper objectMapper,
+            final FieldSchema schema,
+            final Consumer<FeedbackPage> pageConsumer,
+            final int chunkSize
+    ) throws IOException {
+        this.objectMapper = objectMapper;
+        this.page = new FeedbackPage.Builder(schema);
+        this.pageConsumer = pageConsumer;
+        this.chunkSize = chunkSize;
+        this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+
+        final QueryApiResponse.DataWrapper data = new QueryApiResponse.DataWrapper();
+        data.setFeedback(new QueryApiResponse.FeedbackWrapper());
+        response.setData(data);
+    }
+
+    /**
+     * Feeds the next chunk of the response body and decodes every token it
+     * completes.  The buffer is not released.
+     *
+     * @param buffer the next chunk of the body
+     * @throws IOException if the body is not valid JSON
+     */
+    public void feed(final DataBuffer buffer) throws IOException {
+        final int length = buffer.readableByteCount();
+        if (chunk.length < length) {
+            chunk = new byte[Math.max(length, chunk.length * 2)];
+        }
+        buffer.read(chunk, 0, length);
+
+        feed(chunk, 0, length);
+    }
+
+    /**
+     * Feeds the next chunk of the response body and decodes every token it
+     * completes.  The array may be reused once this returns.
+     *
+     * @param bytes the array holding the chunk
+     * @param offset the offset of the chunk in the array
+     * @param length the number of bytes in the chunk
+     * @throws IOException if the body is not valid JSON
+     */
+    public void feed(final byte[] bytes, final int offset, final int length) throws IOException {
+        feeder.feedInput(bytes, offset, offset + length);
+        drain();
+    }
+
+    /**
+     * Signals the end of the body, and hands the decoded nodes to the
+     * consumer unless the response carries errors.
+     *
+     * @return the response, carrying {@code totalCount} and {@code errors}
+     * @throws IOException if the body ended before the JSON document did
+     */
+    public QueryApiResponse finish() throws IOException {
+        feeder.endOfInput();
+        drain();
+
+        if (errorsCapture != null || nodeDepth > 0 || parser.getParsingContext().getParent() != null) {
+            throw new EOFException("Query API response ended unexpectedly");
+        }
+
+        parser.close();
+
+        if (page.size() > 0) {
+            chunks.add(page.build());
+        }
+        if (response.getErrors() == null || response.getErrors().isEmpty()) {
+            chunks.forEach(pageConsumer);
+        }
+        chunks.clear();
+        return response;
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (errorsCapture != null) {
+                captureErrors(token);
+            } else if (nodeDepth > 0) {
+                decodeNode(token);
+            } else if (token == JsonToken.START_OBJECT && isAt(parser.getParsingContext().getParent(), "data", "feedback", "nodes")) {
+                page.startRow();
+                nodeDepth = 1;
+            } else if (token == JsonToken.START_ARRAY && isAt(parser.getParsingContext(), "errors")) {
+                errorsCapture = new TokenBuffer(parser);
+                errorsCapture.copyCurrentEvent(parser);
+                errorsDepth = 1;
+            } else if (token == JsonToken.VALUE_NUMBER_INT && isAt(parser.getParsingContext(), "data", "feedback", "totalCount")) {
+                response.getData().getFeedback().setTotalCount(parser.getLongValue());
+            }
+        }
+    }
+
+    private void captureErrors(final JsonToken token) throws IOException {
+        errorsCapture.copyCurrentEvent(parser);
+
+        if (token.isStructStart()) {
+            errorsDepth++;
+        } else if (token.isStructEnd() && --errorsDepth == 0) {
+            final JsonParser captured = errorsCapture.asParser(objectMapper);
+            errorsCapture = null;
+            response.setErrors(objectMapper.readValue(captured, ERRORS_TYPE));
+        }
+    }
+
+    /**
+     * Decodes one token of a node of the shape
+     * {@code {"field": {"values": ["..."]}, ...}} into the page.  Anything
+     * else found inside a node is skipped.
+     */
+    private void decodeNode(final JsonToken token) throws IOException {
+        if (skipDepth > 0) {
+            if (token.isStructStart()) {
+                skipDepth++;
+            } else if (token.isStructEnd()) {
+                skipDepth--;
+            }
+            return;
+        }
+
+        switch (nodeDepth) {
+            case 1:
+                if (token == JsonToken.FIELD_NAME) {
+                    page.startCell(page.column(parser.getCurrentName()));
+                } else if (token == JsonToken.START_OBJECT) {
+                    nodeDepth = 2;
+                } else if (token == JsonToken.END_OBJECT) {
+                    nodeDepth = 0;
+                    endRow();
+                } else {
+                    // A field that is not an object carries no values
+                    if (token == JsonToken.VALUE_NULL) {
+                        page.nullCell();
+                    }
+                    page.endCell();
+                    if (token.isStructStart()) {
+                        skipDepth = 1;
+                    }
+                }
+                break;
+
+            case 2:
+                if (token == JsonToken.FIELD_NAME) {
+                    valuesNext = "values".equals(parser.getCurrentName());
+                } else if (token == JsonToken.END_OBJECT) {
+                    nodeDepth = 1;
+                    page.endCell();
+                } else if (valuesNext && token == JsonToken.START_ARRAY) {
+                    nodeDepth = 3;
+                } else if (valuesNext && token == JsonToken.VALUE_NULL) {
+                    page.nullCell();
+                } else if (token.isStructStart()) {
+                    skipDepth = 1;
+                }
+                break;
+
+            default:
+                if (token == JsonToken.END_ARRAY) {
+                    nodeDepth = 2;
+                } else if (token.isScalarValue()) {
+                    page.addValue(token == JsonToken.VALUE_NULL ? null : parser.getText());
+                } else if (token.isStructStart()) {
+                    skipDepth = 1;
+                }
+                break;
+        }
+    }
+
+    private void endRow() throws IOException {
+        try {
+            page.endRow();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Query API node", e);
+        }
+
+        if (page.size() >= chunkSize) {
+            chunks.add(page.build());
+        }
+    }
+
+    /**
+     * Checks whether the given context sits at the given field path from the
+     * document root.  For a structure start token the path names the field
+     * that holds the new structure; for a scalar it names the scalar's field.
+     *
+     * @param context the context to check (may be null)
+     * @param path the field names from the root object down
+     * @return whether the context matches the path
+     */
+    private static boolean isAt(final JsonStreamContext context, final String... path) {
+        JsonStreamContext current = context;
+
+        // A structure start opens a new context whose name lives on its parent
+        if (current != null && current.getCurrentName() == null && !current.inRoot()) {
+            current = current.getParent();
+        }
+
+        for (int i = path.length - 1; i >= 0; i--) {
+            if (current == null || !current.inObject() || !path[i].equals(current.getCurrentName())) {
+                return false;
+            }
+            current = current.getParent();
+        }
+
+        return current != null && current.inRoot();
+    }
+
+}
@@ -0,0 +1,379 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+
+/**
+ * Persists the records of a page on several lanes at once, so that a
+ * CPU-bound {@link RecordProcessingService#persistRecord} override, e.g.
+ * one that transforms or enriches each record, uses more than one core.
+ * The thread that persists the page is always one of the lanes; the
+ * others run on a pool of their own, outside of the page's transaction.
+ *
+ * <p>The lanes take the page's records in chunks, in page order.  With
+ * {@code medallia.persistence.record.lanes.by.surveyid}, the records are
+ * instead split by survey id, and each lane persists its share in page
+ * order, so the records of one survey are never persisted concurrently or
+ * out of order.</p>
+ *
+ * <p>Each lane other than the calling thread flushes what it wrote once
+ * it is done.  If a record fails, the lanes stop, and the
+ * {@link PartialPageException} tells how many of the page's leading
+ * records were persisted before the first gap, up to which the page may
+ * still be checkpointed.  A lane that has not flushed yet when a record
+ * fails discards what it wrote, as does the calling thread unless all of
+ * its records lie within that prefix, so that little of what lies past
+ * the gap reaches the sink; what a lane flushed before the failure is
+ * delivered again when the rest of the page is pulled again.  With a
+ * single lane, the default, records are persisted on the calling thread
+ * alone.</p>
+ */
+@Component
+public class RecordLanes {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordLanes.class);
+
+    /**
+     * The number of records a lane takes at a time when records are not
+     * split by survey id.
+     */
+    private static final int CHUNK_ROWS = 16;
+
+    @Value("${medallia.persistence.record.lanes:1}")
+    private Integer laneCount;
+
+    @Value("${medallia.persistence.record.lanes.by.surveyid:false}")
+    private boolean bySurveyId;
+
+    private ExecutorService helpers;
+
+    @PostConstruct
+    private void postConstruct() {
+        if (laneCount == null || laneCount <= 0) {
+            laneCount = Runtime.getRuntime().availableProcessors();
+        }
+
+        if (laneCount > 1) {
+            helpers = Executors.newFixedThreadPool(
+                laneCount - 1,
+                new ThreadFactoryBuilder()
+                    .setNameFormat("queryapi-record-lane-%d")
+                    .setDaemon(true)
+                    .build()
+            );
+
+            LOGGER.info("Persisting records on {} lanes{}", laneCount, bySurveyId ? ", split by survey id" : "");
+        }
+    }
+
+    @PreDestroy
+    private void preDestroy() {
+        if (helpers != null) {
+            helpers.shutdownNow();
+        }
+    }
+
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * Persists every record of a page, and returns once no lane is still
+     * working on it.
+     *
+     * @param page the records to persist, in Query API order
+     * @param writer persists the record at a row of the page
+     * @param flusher makes the records the calling thread wrote durable; run
+     *                by every lane but the caller's once it is done, as the
+     *                caller flushes its own records before the page commits
+     * @param discarder drops the records the calling thread wrote since it
+     *                  last flushed; run by a lane whose records must not
+     *                  be flushed once a record has failed
+     * @throws PartialPageException if a record could not be persisted
+     */
+    public void persist(
+            final FeedbackPage page,
+            final IntConsumer writer,
+            final Runnable flusher,
+            final Runnable discarder
+    ) {
+        persist(page, laneCount, writer, flusher, discarder);
+    }
+
+    /**
+     * Persists every record of a page on at most the given number of lanes,
+     * and returns once no lane is still working on it.
+     *
+     * @param page the records to persist, in Query API order
+     * @param maxLanes the most lanes to use, including the calling thread;
+     *                 1 persists the page on the calling thread alone
+     * @param writer persists the record at a row of the page
+     * @param flusher makes the records the calling thread wrote durable
+     * @param discarder drops the records the calling thread wrote since it
+     *                  last flushed
+     * @throws PartialPageException if a record could not be persisted
+     */
+    public void persist(
+            final FeedbackPage page,
+            final int maxLanes,
+            final IntConsumer writer,
+            final Runnable flusher,
+            final Runnable discarder
+    ) {
+        if (page.isEmpty()) {
+            return;
+        }
+
+        final PageRun run = new PageRun(page, writer, flusher, discarder);
+        final int helperCount = Math.min(Math.min(laneCount, maxLanes), run.unitCount) - 1;
+
+        for (int i = 0; i < helperCount; i++) {
+            try {
+                helpers.execute(run::runHelper);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the calling thread takes the helpers' share
+                break;
+            }
+        }
+
+        run.runLane(true);
+        run.awaitHelpers();
+
+        final Throwable failure = run.failure.get();
+        if (failure != null) {
+            throw new PartialPageException(run.settleCaller(), page.size(), failure);
+        }
+    }
+
+    /**
+     * Mixes a survey id into a lane, as consecutive ids would otherwise
+     * follow each other around the lanes.
+     */
+    private int laneOf(final long surveyId) {
+        return Math.floorMod(Long.hashCode(surveyId * 0x9E3779B97F4A7C15L), laneCount);
+    }
+
+    /**
+     * The records of one page, split into units of work that the lanes
+     * claim in turn.
+     */
+    private final class PageRun {
+
+        private final FeedbackPage page;
+        private final IntConsumer writer;
+        private final Runnable flusher;
+        private final Runnable discarder;
+
+        /**
+         * The page's rows, grouped by unit, or null when the units are
+         * chunks of consecutive rows.
+         */
+        private final int[] rows;
+
+        /**
+         * Where each unit's rows start, followed by the end of the last.
+         */
+        private final int[] unitStarts;
+        private final int unitCount;
+
+        private final AtomicInteger nextUnit = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        /**
+         * Which rows were persisted, by helpers that have finished.
+         */
+        private final boolean[] persisted;
+
+        /**
+         * The rows the calling thread wrote, which it flushes only after
+         * the lanes are done.
+         */
+        private final int[] callerRows;
+        private int callerCount;
+
+        private int activeHelpers;
+
+        PageRun(final FeedbackPage page, final IntConsumer writer, final Runnable flusher, final Runnable discarder) {
+            this.page = page;
+            this.writer = writer;
+            this.flusher = flusher;
+            this.discarder = discarder;
+            this.persisted = new boolean[page.size()];
+            this.callerRows = new int[page.size()];
+
+            if (bySurveyId && laneCount > 1) {
+                // A counting sort by lane keeps each lane's rows in page order
+                final int[] lanes = new int[page.size()];
+                unitStarts = new int[laneCount + 1];
+
+                for (int row = 0; row < page.size(); row++) {
+                    lanes[row] = laneOf(page.getSurveyId(row));
+                    unitStarts[lanes[row] + 1]++;
+                }
+                for (int lane = 0; lane < laneCount; lane++) {
+                    unitStarts[lane + 1] += unitStarts[lane];
+                }
+
+                final int[] next = unitStarts.clone();
+                rows = new int[page.size()];
+                for (int row = 0; row < page.size(); row++) {
+                    rows[next[lanes[row]]++] = row;
+                }
+                unitCount = laneCount;
+            } else {
+                rows = null;
+                unitCount = (page.size() + CHUNK_ROWS - 1) / CHUNK_ROWS;
+                unitStarts = new int[unitCount + 1];
+                for (int unit = 0; unit <= unitCount; unit++) {
+                    unitStarts[unit] = Math.min(page.size(), unit * CHUNK_ROWS);
+                }
+            }
+        }
+
+        void runHelper() {
+            synchronized (this) {
+                activeHelpers++;
+            }
+
+            try {
+                runLane(false);
+            } finally {
+                synchronized (this) {
+                    activeHelpers--;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Claims units until none are left or a record has failed.  A
+         * helper then flushes and marks the rows it persisted, unless a
+         * record has failed by then, in which case it discards them.  The
+         * calling thread only records its rows, which are settled once the
+         * helpers are done.
+         */
+        void runLane(final boolean caller) {
+            final int[] written = caller ? callerRows : new int[page.size()];
+            int count = 0;
+
+            try {
+                int unit;
+                while (failure.get() == null && (unit = nextUnit.getAndIncrement()) < unitCount) {
+                    for (int i = unitStarts[unit]; i < unitStarts[unit + 1]; i++) {
+                        final int row = rows == null ? i : rows[i];
+
+                        if (failure.get() != null) {
+                            break;
+                        }
+                        writer.accept(row);
+                        written[count++] = row;
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+            }
+
+            if (caller) {
+                callerCount = count;
+                return;
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            if (failure.get() != null) {
+                // The rows before this lane's may be missing
+                discarder.run();
+                return;
+            }
+
+            try {
+                flusher.run();
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+                discarder.run();
+                return;
+            }
+
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    persisted[written[i]] = true;
+                }
+            }
+        }
+
+        /**
+         * Once a record has failed, decides whether the calling thread's
+         * rows are flushed with the page's prefix: they are kept only if
+         * none lies past it, and discarded otherwise.
+         *
+         * @return the number of leading rows that were persisted
+         */
+        synchronized int settleCaller() {
+            for (int i = 0; i < callerCount; i++) {
+                persisted[callerRows[i]] = true;
+            }
+
+            final int prefix = persistedPrefix();
+            for (int i = 0; i < callerCount; i++) {
+                if (callerRows[i] >= prefix) {
+                    discarder.run();
+
+                    for (int j = 0; j < callerCount; j++) {
+                        persisted[callerRows[j]] = false;
+                    }
+                    return persistedPrefix();
+                }
+            }
+
+            return prefix;
+        }
+
+        /**
+         * Waits until every helper that started on the page has finished.
+         * Helpers that start later find nothing left to claim.
+         */
+        synchronized void awaitHelpers() {
+            boolean interrupted = false;
+
+            while (activeHelpers > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // The helpers stop after their current record
+                    failure.compareAndSet(null, new IllegalStateException("Interrupted while persisting a page", e));
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized int persistedPrefix() {
+            int prefix = 0;
+            while (prefix < persisted.length && persisted[prefix]) {
+                prefix++;
+            }
+            return prefix;
+        }
+
+    }
+
+}
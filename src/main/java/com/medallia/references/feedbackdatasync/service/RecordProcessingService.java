@@ -1,173 +1,695 @@
 package com.medallia.references.feedbackdatasync.service;
 
-import java.math.BigInteger;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
-import java.time.ZoneId;
-import java.time.ZoneOffset;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
+import com.medallia.references.feedbackdatasync.metrics.SyncMetrics;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
 import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
 import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.model.Shard;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+import com.medallia.references.feedbackdatasync.sink.RecordSink;
 
 import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_JOB;
 import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SURVEYID;
 import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS;
-import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
-import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS_ARCHIVE;
 
 /**
  * Service that enables processing of records retrieved from the Medallia
- * Query API.
+ * Query API.  Records, checkpoints and record sinks are kept per job;
+ * the methods that take no job work on the default job.
  */
 @Component
 public class RecordProcessingService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RecordProcessingService.class);
 
-    private static final Logger RECORD_STREAM = LoggerFactory.getLogger("record-stream");
-
     @Autowired
-    private ObjectMapper objectMapper;
+    private SyncJobs syncJobs;
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
-    private final ReentrantReadWriteLock lastProcessedRecordLock = new ReentrantReadWriteLock();
-    private volatile ProcessedRecord lastProcessedRecord = null;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ShardStore shardStore;
+
+    @Autowired
+    private CheckpointStore checkpointStore;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    @Autowired
+    private DuplicateFilter duplicateFilter;
+
+    @Autowired
+    private RecordLanes recordLanes;
+
+    @Value("${medallia.persistence.batch.size:500}")
+    private Integer batchSize;
+
+    @Value("${medallia.persistence.records.retention.sec:0}")
+    private Long retentionSeconds;
+
+    @Value("${medallia.persistence.records.retention.archive:false}")
+    private boolean archiveOnRetention;
+
+    private final boolean legacyPersistRecord = overrides(getClass(), "persistRecord", Map.class);
+    private final boolean legacyGetLastProcessedRecord = overrides(getClass(), "getLastProcessedRecord");
 
     /**
-     * Performs a periodic poll of data from the Medallia Query API.
+     * Processes a single record.  This is a convenience wrapper that treats
+     * the record as a page of one.
      *
      * @param node the record to process
      */
     public void processRecord(final Map<String, QueryApiResponse.NodeValuesWrapper> node) {
-        final BigInteger surveyId = new BigInteger(node.get(SURVEY_ID).getValues().get(0));
+        processPage(FeedbackPage.fromNodes(Collections.singletonList(node)));
+    }
+
+    /**
+     * Processes a page of records for the default job.
+     *
+     * @param page the records to process, in Query API order
+     */
+    public void processPage(final FeedbackPage page) {
+        processPage(syncJobs.getDefaultJob(), page);
+    }
 
-        final ZonedDateTime finishDate = ZonedDateTime.ofInstant(
-            Instant.ofEpochSecond(Long.valueOf(node.get(FINISH_DATE).getValues().get(0))),
-            ZoneOffset.UTC
+    /**
+     * Processes a page of records retrieved from the Medallia Query API.  The
+     * whole page is persisted in a single transaction together with the
+     * job's checkpoint, and the job's last processed record only advances
+     * once that transaction has committed.  Records the job has already
+     * persisted are skipped (see {@link DuplicateFilter}).  If a record
+     * fails on one of several {@link RecordLanes}, the records before the
+     * first one that was not persisted are still committed.
+     *
+     * @param job the job the page was pulled for
+     * @param page the records to process, in Query API order
+     */
+    public void processPage(final SyncJob job, final FeedbackPage page) {
+        persistInTransaction(
+            job,
+            page,
+            record -> checkpointStore.save(job.getName(), record),
+            record -> advanceLastProcessedRecord(job, record)
         );
+    }
 
-        LOGGER.info(
-            "Processing survey {} (finishDate={}/{})",
-            surveyId,
-            finishDate,
-            finishDate.toEpochSecond()
+    /**
+     * Processes a page of records that belongs to a shard of a sharded
+     * extraction.  The shard's cursor is moved in the same transaction that
+     * persists the page; the last processed record is left alone, as it
+     * only advances once every earlier shard has completed.
+     *
+     * @param job the job the page was pulled for
+     * @param page the records to process, in Query API order
+     * @param shard the shard the page was pulled for
+     */
+    public void processPage(final SyncJob job, final FeedbackPage page, final Shard shard) {
+        persistInTransaction(
+            job,
+            page,
+            record -> shardStore.updateCursor(job.getName(), shard, record),
+            shard::setCursor
         );
+    }
 
-        persistRecord(node);
+    /**
+     * Processes a batch of pages of a bulk export.  The pages are persisted
+     * in a single transaction, which also moves the export's own
+     * checkpoint; the job's sink is flushed once for the whole batch, and
+     * records are not logged one by one.  The job's checkpoint is left
+     * alone until the export completes.
+     *
+     * @param job the job the pages were pulled for
+     * @param pages the pages to process, in Query API order
+     * @param checkpointName the export's checkpoint
+     * @return the batch's last record, or null if the batch was empty
+     */
+    public ProcessedRecord processExportBatch(
+            final SyncJob job,
+            final List<FeedbackPage> pages,
+            final String checkpointName
+    ) {
+        final FeedbackPage lastPage = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+        if (lastPage == null || lastPage.isEmpty()) {
+            return null;
+        }
 
-        lastProcessedRecordLock.writeLock().lock();
+        final ProcessedRecord checkpoint = lastPage.getProcessedRecord(lastPage.size() - 1);
 
-        try {
-            final boolean hasUpdate = lastProcessedRecord == null
-                || lastProcessedRecord.getSurveyId().compareTo(surveyId) < 0
-                || lastProcessedRecord.getInitialFinishDate().compareTo(finishDate) < 0;
+        final long[] checkpointStart = new long[1];
+        final List<FeedbackPage> persistedPages = new ArrayList<>(pages.size());
 
-            if (hasUpdate) {
-                lastProcessedRecord = new ProcessedRecord(surveyId, finishDate);
+        transactionTemplate.executeWithoutResult(status -> {
+            final long persistStart = System.nanoTime();
+            persistedPages.clear();
+            for (final FeedbackPage page : pages) {
+                final FeedbackPage persisted = withoutDuplicates(job, page);
+                persistPage(job, persisted);
+                persistedPages.add(persisted);
             }
-        } finally {
-            lastProcessedRecordLock.writeLock().unlock();
+            flushSink(job);
+
+            checkpointStart[0] = System.nanoTime();
+            syncMetrics.recordPersist(checkpointStart[0] - persistStart);
+
+            checkpointStore.save(checkpointName, checkpoint);
+        });
+
+        syncMetrics.recordCheckpoint(System.nanoTime() - checkpointStart[0]);
+        for (int i = 0; i < pages.size(); i++) {
+            countPersisted(job, pages.get(i), persistedPages.get(i));
+            reportFieldValues(job, pages.get(i));
         }
+
+        return checkpoint;
     }
 
     /**
-     * Persists the record.  By default, this involves seriailizing the record
-     * to a log stream.
+     * Writes a page replayed from the {@link PageLog} to the job's record
+     * sink.  Each record goes through {@link #persistRecord(SyncJob, Map)},
+     * but the records table, the duplicate filter and the checkpoint are
+     * left alone, as the page has been processed before.
      *
-     * @param node the record to process
+     * @param job the job the page was pulled for
+     * @param page the records to write, in Query API order
      */
-    protected void persistRecord(final Map<String, QueryApiResponse.NodeValuesWrapper> node) {
+    public void replayPage(final SyncJob job, final FeedbackPage page) {
+        final int maxLanes = job.getSink().isConcurrent() ? Integer.MAX_VALUE : 1;
+        recordLanes.persist(
+            page,
+            maxLanes,
+            row -> persistRecord(job, page.row(row)),
+            () -> flushSink(job),
+            () -> job.getSink().discard()
+        );
+        flushSink(job);
+    }
+
+    /**
+     * Persists a page in a single transaction.  If the page's records were
+     * only persisted up to a gap (see {@link PartialPageException}), that
+     * prefix is committed and checkpointed on its own, and the record's
+     * failure is then rethrown; the rest of the page is pulled again.
+     *
+     * @param job the job the page was pulled for
+     * @param page the records to persist, in Query API order
+     * @param checkpointWriter records the last persisted record within the
+     *                         transaction
+     * @param committed receives the last persisted record once the
+     *                  transaction has committed
+     */
+    private void persistInTransaction(
+            final SyncJob job,
+            final FeedbackPage page,
+            final Consumer<ProcessedRecord> checkpointWriter,
+            final Consumer<ProcessedRecord> committed
+    ) {
+        if (page == null || page.isEmpty()) {
+            return;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            for (int row = 0; row < page.size(); row++) {
+                LOGGER.debug(
+                    "Processing survey {} (finishDate={})",
+                    page.getSurveyId(row),
+                    page.getInitialFinishDate(row)
+                );
+            }
+        }
+
+        // Records within a page arrive in order, so the page's last record
+        // is its checkpoint
+        final ProcessedRecord checkpoint = page.getProcessedRecord(page.size() - 1);
+
+        final long[] checkpointStart = new long[1];
+        final FeedbackPage[] persisted = new FeedbackPage[1];
+        final PartialPageException[] partial = new PartialPageException[1];
+
         try {
-            RECORD_STREAM.info(objectMapper.writeValueAsString(node));
+            transactionTemplate.executeWithoutResult(status -> {
+                final long persistStart = System.nanoTime();
+                persisted[0] = withoutDuplicates(job, page);
+                partial[0] = null;
 
-            final BigInteger surveyId = new BigInteger(node.get(SURVEY_ID).getValues().get(0));
+                try {
+                    persistPage(job, persisted[0]);
+                } catch (PartialPageException e) {
+                    if (e.getPersistedRows() == 0) {
+                        Throwables.throwIfUnchecked(e.getCause());
+                        throw e;
+                    }
 
-            final ZonedDateTime finishDate = ZonedDateTime.ofInstant(
-                Instant.ofEpochSecond(Long.valueOf(node.get(FINISH_DATE).getValues().get(0))),
-                ZoneOffset.UTC
-            );
+                    partial[0] = e;
+                    persisted[0] = leadingRows(persisted[0], e.getPersistedRows());
+                    insertRecords(job, persisted[0]);
+                }
+                flushSink(job);
 
-            jdbcTemplate.execute(
-                "INSERT INTO " + TABLE_RECORDS + " " +
-                "  (" + COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE + ") " +
-                "VALUES " +
-                "  (" + surveyId.toString() + ", " + finishDate.toEpochSecond() + ")"
+                checkpointStart[0] = System.nanoTime();
+                syncMetrics.recordPersist(checkpointStart[0] - persistStart);
+
+                checkpointWriter.accept(partial[0] == null
+                    ? checkpoint
+                    : persisted[0].getProcessedRecord(persisted[0].size() - 1));
+            });
+        } catch (RuntimeException | Error e) {
+            // Records the page left buffered must not reach the next page's
+            // flush, as the page is pulled again
+            job.getSink().discard();
+            throw e;
+        }
+
+        // The checkpoint timing includes the commit
+        syncMetrics.recordCheckpoint(System.nanoTime() - checkpointStart[0]);
+
+        if (partial[0] != null) {
+            final ProcessedRecord last = persisted[0].getProcessedRecord(persisted[0].size() - 1);
+
+            duplicateFilter.addPersisted(job, persisted[0]);
+            syncMetrics.countRecords(persisted[0].size());
+            committed.accept(last);
+
+            LOGGER.warn(
+                "Committed {} records of a page of job {} up to survey {} before a record failed",
+                persisted[0].size(),
+                job.getName(),
+                last.getSurveyId()
             );
-        } catch (JsonProcessingException e) {
-            RECORD_STREAM.error("Unable to persist record: {}" + e.getMessage(), e);
-            LOGGER.error("Unable to persist record: {}" + e.getMessage(), e);
+            Throwables.throwIfUnchecked(partial[0].getCause());
+            throw partial[0];
         }
+
+        countPersisted(job, page, persisted[0]);
+        reportFieldValues(job, page);
+        committed.accept(checkpoint);
+
+        LOGGER.info(
+            "Persisted {} records of job {} up to survey {} (finishDate={})",
+            persisted[0].size(),
+            job.getName(),
+            checkpoint.getSurveyId(),
+            checkpoint.getInitialFinishDate()
+        );
     }
 
     /**
-     * Returns the last successfully-processed record.
+     * Returns the first records of a page.
      *
-     * @return the last successfully-processed record
+     * @param page the page
+     * @param rows the number of records to keep
+     * @return the page's leading records
      */
-    public Optional<ProcessedRecord> getLastProcessedRecord() {
-        lastProcessedRecordLock.readLock().lock();
+    private static FeedbackPage leadingRows(final FeedbackPage page, final int rows) {
+        final boolean[] dropped = new boolean[page.size()];
+        Arrays.fill(dropped, rows, page.size(), true);
+        return page.withoutRows(dropped);
+    }
+
+    /**
+     * Drops the records of a page that the job has already persisted, e.g.
+     * when a reseeded start or a retried page delivers them again; the page
+     * still moves the checkpoint past them.  This runs inside the page's
+     * transaction.
+     *
+     * @param job the job the page was pulled for
+     * @param page the records pulled
+     * @return the records to persist
+     */
+    private FeedbackPage withoutDuplicates(final SyncJob job, final FeedbackPage page) {
+        final boolean[] duplicates = duplicateFilter.findDuplicates(job, page);
+        if (duplicates == null) {
+            return page;
+        }
+
+        final FeedbackPage remaining = page.withoutRows(duplicates);
+        LOGGER.info(
+            "Skipping {} records of job {} that were already persisted or repeated in the page",
+            page.size() - remaining.size(),
+            job.getName()
+        );
+        return remaining;
+    }
+
+    /**
+     * Adds a committed page's records to the job's duplicate filter, and
+     * counts them and the duplicates that were skipped.
+     *
+     * @param job the job the page was pulled for
+     * @param page the records pulled
+     * @param persisted the records persisted
+     */
+    private void countPersisted(final SyncJob job, final FeedbackPage page, final FeedbackPage persisted) {
+        duplicateFilter.addPersisted(job, persisted);
+        syncMetrics.countRecords(persisted.size());
+        if (persisted.size() < page.size()) {
+            syncMetrics.countDuplicates(page.size() - persisted.size());
+        }
+    }
+
+    /**
+     * Counts a page's decoded and raw values, and reports the values of each
+     * declared field that did not decode into its type.  Such values are
+     * still persisted raw.
+     *
+     * @param job the job the page was pulled for
+     * @param page the page
+     */
+    private void reportFieldValues(final SyncJob job, final FeedbackPage page) {
+        syncMetrics.countFieldValues(job, page);
+
+        for (int column = 0; column < page.getColumnCount(); column++) {
+            if (page.getTypeErrorCount(column) > 0) {
+                LOGGER.warn(
+                    "{} values of field {} of job {} did not decode, e.g. {}",
+                    page.getTypeErrorCount(column),
+                    page.getField(column),
+                    job.getName(),
+                    page.getFirstTypeError(column)
+                );
+            }
+        }
+    }
+
+    /**
+     * Waits for every record written to the job's record sink to be on
+     * disk, so that a checkpoint never gets ahead of the sink.
+     *
+     * @param job the job
+     */
+    private void flushSink(final SyncJob job) {
         try {
-            if (lastProcessedRecord == null) {
-                // Seed our process' cache with the last version available
-                // in the database.  A local cache minimizes the need to
-                // query the database for each batch pulled.  However,
-                // other implementations for tracking this value are also
-                // acceptable.
+            job.getSink().flush();
+        } catch (IOException e) {
+            LOGGER.error("Unable to flush record sink: {}", e.getMessage(), e);
+            throw new UncheckedIOException(e);
+        }
+    }
 
-                LOGGER.info("Initializing last record from persistent storage");
+    /**
+     * Stores a new checkpoint outside of page processing, e.g. once a prefix
+     * of shards has completed, and moves the job's last processed record
+     * forward to it.
+     *
+     * @param job the job
+     * @param record the record up to which everything has been processed
+     */
+    public void saveCheckpoint(final SyncJob job, final ProcessedRecord record) {
+        checkpointStore.save(job.getName(), record);
+        advanceLastProcessedRecord(job, record);
+    }
 
-                final List<ProcessedRecord> records = jdbcTemplate.query(
+    /**
+     * Moves a job's last processed record forward to its stored checkpoint,
+     * which another instance sharing the database may have moved.
+     *
+     * @param job the job
+     * @return the last successfully-processed record
+     */
+    public Optional<ProcessedRecord> reloadLastProcessedRecord(final SyncJob job) {
+        checkpointStore.find(job.getName()).ifPresent(checkpoint -> advanceLastProcessedRecord(job, checkpoint));
+        return getLastProcessedRecord(job);
+    }
+
+    /**
+     * Applies the retention policy to a job's records: records whose
+     * initial finish date is older than the retention period, measured back
+     * from the job's checkpoint, are deleted or moved to the archive table.
+     *
+     * @param job the job
+     */
+    public void applyRetention(final SyncJob job) {
+        if (retentionSeconds <= 0) {
+            return;
+        }
+
+        final Optional<ProcessedRecord> checkpoint = getLastProcessedRecord(job);
+        if (!checkpoint.isPresent()) {
+            return;
+        }
+
+        final long cutoff = checkpoint.get().getInitialFinishDate().toEpochSecond() - retentionSeconds;
+
+        final Integer removed = transactionTemplate.execute(status -> {
+            if (archiveOnRetention) {
+                jdbcTemplate.update(
+                    "INSERT OR IGNORE INTO " + TABLE_RECORDS_ARCHIVE + " " +
+                    "  (" + COL_JOB + ", " + COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE + ") " +
                     "SELECT " +
-                    "  " + COL_SURVEYID + ", " +
-                    "  " + COL_INITIAL_FINISH_DATE + " " +
+                    "  " + COL_JOB + ", " + COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE + " " +
                     "FROM " +
                     "  " + TABLE_RECORDS + " " +
-                    "ORDER BY " +
-                    "  " + COL_INITIAL_FINISH_DATE + " DESC, " +
-                    "  " + COL_SURVEYID + " DESC " +
-                    "LIMIT 1",
-                    (rs, rowNum) -> new ProcessedRecord(
-                        new BigInteger(rs.getString(COL_SURVEYID)),
-                        ZonedDateTime.ofInstant(
-                            Instant.ofEpochSecond(Long.valueOf(rs.getString(COL_INITIAL_FINISH_DATE))),
-                            ZoneOffset.UTC
-                        )
-                    )
+                    "WHERE " +
+                    "  " + COL_JOB + " = ? " +
+                    "  AND " + COL_INITIAL_FINISH_DATE + " < ?",
+                    job.getName(),
+                    cutoff
                 );
+            }
 
-                if (records.size() > 0) {
-                    lastProcessedRecord = records.get(0);
+            return jdbcTemplate.update(
+                "DELETE FROM " + TABLE_RECORDS + " " +
+                "WHERE " + COL_JOB + " = ? AND " + COL_INITIAL_FINISH_DATE + " < ?",
+                job.getName(),
+                cutoff
+            );
+        });
 
-                    LOGGER.info(
-                        "Starting pull process at survey {} with timestamp {}",
-                        lastProcessedRecord.getSurveyId(),
-                        lastProcessedRecord.getInitialFinishDate()
-                    );
-                } else {
-                    LOGGER.info("No record in persistent storage found as initial starting point");
+        if (removed != null && removed > 0) {
+            LOGGER.info(
+                "{} {} records of job {} with an initial finish date before {}",
+                archiveOnRetention ? "Archived" : "Pruned",
+                removed,
+                job.getName(),
+                cutoff
+            );
+        }
+    }
+
+    /**
+     * Moves a job's last processed record forward to the given record.  This
+     * is a monotonic compare-and-set: if another thread has already
+     * published a later record, the given one is dropped.
+     *
+     * @param job the job
+     * @param record the record that has been durably processed
+     */
+    void advanceLastProcessedRecord(final SyncJob job, final ProcessedRecord record) {
+        job.advanceLastProcessedRecord(record);
+    }
+
+    /**
+     * Persists a page of records.  This runs inside the page's transaction.
+     * By default, each record is handed to
+     * {@link #persistRecord(SyncJob, Map)} as a map view over the page, on
+     * the {@link RecordLanes} unless the job's sink is not
+     * {@link RecordSink#isConcurrent() concurrent}, and the page is then
+     * written to the records table.  Override this to persist the page in
+     * bulk.
+     *
+     * @param job the job the page was pulled for
+     * @param page the records to persist, in Query API order
+     * @throws PartialPageException if a record could not be persisted; the
+     *         records table must not have been written yet
+     */
+    protected void persistPage(final SyncJob job, final FeedbackPage page) {
+        final int maxLanes = job.getSink().isConcurrent() ? Integer.MAX_VALUE : 1;
+        recordLanes.persist(
+            page,
+            maxLanes,
+            row -> persistRecord(job, page.row(row)),
+            () -> flushSink(job),
+            () -> job.getSink().discard()
+        );
+        insertRecords(job, page);
+    }
+
+    /**
+     * Writes a page's records to the records table through batched,
+     * prepared statements that read the page's primitive survey ids and
+     * finish dates.  This runs inside the page's transaction.
+     *
+     * @param job the job the page was pulled for
+     * @param page the persisted records
+     */
+    private void insertRecords(final SyncJob job, final FeedbackPage page) {
+        for (int offset = 0; offset < page.size(); offset += batchSize) {
+            final int batchStart = offset;
+            final int batchEnd = Math.min(page.size(), offset + batchSize);
+
+            jdbcTemplate.batchUpdate(
+                "INSERT INTO " + TABLE_RECORDS + " " +
+                "  (" + COL_JOB + ", " + COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE + ") " +
+                "VALUES " +
+                "  (?, ?, ?)",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                        ps.setString(1, job.getName());
+                        ps.setLong(2, page.getSurveyId(batchStart + i));
+                        ps.setLong(3, page.getInitialFinishDate(batchStart + i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return batchEnd - batchStart;
+                    }
                 }
+            );
+        }
+    }
+
+    /**
+     * Persists the record.  By default, this involves writing the record to
+     * the job's record sink (the record stream or a columnar file); the
+     * page's transaction waits for the sink to be flushed before it commits.
+     * Within {@link #persistPage(SyncJob, FeedbackPage)} the record is a
+     * {@link FeedbackPage.Row}, which both sinks read straight from the
+     * page.  With several {@link RecordLanes}, the records of a page are
+     * persisted concurrently, on threads that do not take part in the
+     * page's transaction, so an override must be thread-safe.
+     *
+     * @param job the job the record was pulled for
+     * @param node the record to process
+     */
+    protected void persistRecord(final SyncJob job, final Map<String, QueryApiResponse.NodeValuesWrapper> node) {
+        if (legacyPersistRecord) {
+            persistRecord(node);
+            return;
+        }
+
+        writeToSink(job, node);
+    }
+
+    /**
+     * Persists a record of the default job.  A subclass that still
+     * overrides this, rather than {@link #persistRecord(SyncJob, Map)}, has
+     * it called for the records of every job.
+     *
+     * @param node the record to process
+     * @deprecated override {@link #persistRecord(SyncJob, Map)}, which
+     *             tells which job the record was pulled for
+     */
+    @Deprecated
+    protected void persistRecord(final Map<String, QueryApiResponse.NodeValuesWrapper> node) {
+        writeToSink(syncJobs.getDefaultJob(), node);
+    }
+
+    private void writeToSink(final SyncJob job, final Map<String, QueryApiResponse.NodeValuesWrapper> node) {
+        try {
+            job.getSink().write(node);
+        } catch (IOException e) {
+            LOGGER.error("Unable to persist record: {}", e.getMessage(), e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the default job's last successfully-processed record.  A
+     * subclass that still overrides this, rather than
+     * {@link #getLastProcessedRecord(SyncJob)}, has it called for the
+     * default job.
+     *
+     * @return the last successfully-processed record
+     * @deprecated override {@link #getLastProcessedRecord(SyncJob)}, which
+     *             is called for every job
+     */
+    @Deprecated
+    public Optional<ProcessedRecord> getLastProcessedRecord() {
+        return loadLastProcessedRecord(syncJobs.getDefaultJob());
+    }
+
+    /**
+     * Returns a job's last successfully-processed record.
+     *
+     * @param job the job
+     * @return the last successfully-processed record
+     */
+    public Optional<ProcessedRecord> getLastProcessedRecord(final SyncJob job) {
+        if (legacyGetLastProcessedRecord && job == syncJobs.getDefaultJob()) {
+            return getLastProcessedRecord();
+        }
+
+        return loadLastProcessedRecord(job);
+    }
+
+    /**
+     * Whether a subclass overrides one of the methods that predate jobs,
+     * and which are then called in place of their successors.
+     */
+    private static boolean overrides(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+        for (Class<?> current = type; current != RecordProcessingService.class; current = current.getSuperclass()) {
+            try {
+                current.getDeclaredMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Not declared at this level
             }
+        }
+        return false;
+    }
+
+    private Optional<ProcessedRecord> loadLastProcessedRecord(final SyncJob job) {
+        final ProcessedRecord current = job.getLastProcessedRecord();
+        if (current != null) {
+            return Optional.of(current);
+        }
 
-            return Optional.ofNullable(lastProcessedRecord);
-        } finally {
-            lastProcessedRecordLock.readLock().unlock();
+        // Seed our process' cache with the checkpoint stored in the
+        // database.  A local cache minimizes the need to query the database
+        // for each batch pulled.  However, other implementations for
+        // tracking this value are also acceptable.  Seeding goes through the
+        // same monotonic update as page commits, so a concurrent commit or
+        // seed is never overwritten.
+
+        LOGGER.info("Initializing last record of job {} from persistent storage", job.getName());
+
+        final Optional<ProcessedRecord> checkpoint = checkpointStore.find(job.getName());
+
+        if (checkpoint.isPresent()) {
+            advanceLastProcessedRecord(job, checkpoint.get());
+
+            LOGGER.info(
+                "Starting pull process of job {} at survey {} with timestamp {}",
+                job.getName(),
+                checkpoint.get().getSurveyId(),
+                checkpoint.get().getInitialFinishDate()
+            );
+        } else {
+            LOGGER.info("No record in persistent storage found as initial starting point for job {}", job.getName());
         }
+
+        return Optional.ofNullable(job.getLastProcessedRecord());
     }
 
 }
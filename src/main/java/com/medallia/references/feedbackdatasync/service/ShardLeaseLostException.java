@@ -0,0 +1,17 @@
+package com.medallia.references.feedbackdatasync.service;
+
+/**
+ * Thrown when this instance no longer holds the lease on a shard it is
+ * extracting, as its lease expired and another instance took the shard
+ * over.  The page being persisted is rolled back, and the shard is left to
+ * its new owner.
+ */
+public class ShardLeaseLostException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ShardLeaseLostException(final String job, final int shardId, final String owner) {
+        super("Instance " + owner + " lost its lease on shard " + shardId + " of job " + job);
+    }
+
+}
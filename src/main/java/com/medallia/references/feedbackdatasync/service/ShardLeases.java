@@ -0,0 +1,153 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import com.medallia.references.feedbackdatasync.model.Shard;
+
+/**
+ * Lets several instances that share the database extract a job together.
+ * The job's pending range is planned into shards once, by whichever
+ * instance gets there first, and every instance then claims shards one at
+ * a time with an expiring lease (see {@link ShardStore}).  The lease is
+ * renewed while the shard is extracted; an instance that stops renewing,
+ * e.g. because it crashed, loses the shard to the next instance that looks
+ * for work, which resumes it from its cursor.
+ *
+ * <p>Each page moves the shard's cursor only while this instance still
+ * holds the lease, in the page's own transaction, so a page persisted by
+ * an instance that lost its lease is rolled back rather than extracted
+ * twice.</p>
+ */
+@Component
+public class ShardLeases {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardLeases.class);
+
+    @Value("${medallia.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${medallia.cluster.instance.id:}")
+    private String instanceId;
+
+    @Value("${medallia.cluster.lease.sec:30}")
+    private Long leaseSeconds;
+
+    @Autowired
+    private ShardStore shardStore;
+
+    @PostConstruct
+    private void postConstruct() {
+        if (instanceId == null || instanceId.trim().isEmpty()) {
+            // The process id and host, plus a random suffix in case a
+            // process is restarted under the same id
+            instanceId = ManagementFactory.getRuntimeMXBean().getName() + "-" +
+                Integer.toHexString(ThreadLocalRandom.current().nextInt());
+        }
+
+        if (enabled) {
+            LOGGER.info("Sharing extraction as instance {} with {} second leases", instanceId, leaseSeconds);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Claims the first incomplete shard of a job, in range order, that no
+     * other instance holds an unexpired lease on.
+     *
+     * @param job the job name
+     * @return the claimed shard, with its stored cursor, or null if every
+     *         incomplete shard is leased
+     */
+    public Shard claimNext(final String job) {
+        for (final Shard shard : shardStore.findAll(job)) {
+            if (!shard.isCompleted() &&
+                    shardStore.claim(job, shard, instanceId, System.currentTimeMillis(), leaseMillis())) {
+
+                LOGGER.info("Instance {} claimed shard {} of job {}", instanceId, shard.getShardId(), job);
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the extraction of a claimed shard while renewing its lease.  If
+     * the lease is lost, the extraction is cancelled and completes empty,
+     * as the shard now belongs to another instance.  If the extraction
+     * fails or is cancelled before the shard completes, the lease is given
+     * up, so that any instance may resume the shard right away.
+     *
+     * @param job the job name
+     * @param shard the claimed shard
+     * @param extraction the shard's extraction
+     * @return completes once the shard has been extracted or lost
+     */
+    public Mono<Void> withLease(final String job, final Shard shard, final Mono<Void> extraction) {
+        final Duration renewPeriod = Duration.ofMillis(leaseMillis() / 3);
+
+        final Mono<Void> renewals = Flux.interval(renewPeriod, Schedulers.boundedElastic())
+            .doOnNext(tick -> renew(job, shard))
+            .then();
+
+        return extraction.or(renewals)
+            .onErrorResume(ShardLeaseLostException.class, e -> {
+                LOGGER.warn("{}; leaving the shard to its new owner", e.getMessage());
+                return Mono.empty();
+            })
+            .doFinally(signal -> {
+                if (!shard.isCompleted() && shard.getOwner() != null) {
+                    Schedulers.boundedElastic().schedule(() -> release(job, shard));
+                }
+            });
+    }
+
+    private void renew(final String job, final Shard shard) {
+        final boolean renewed;
+        try {
+            renewed = shardStore.renew(job, shard, System.currentTimeMillis(), leaseMillis());
+        } catch (DataAccessException e) {
+            // The lease outlasts a few missed renewals
+            LOGGER.warn("Unable to renew lease on shard {} of job {}: {}", shard.getShardId(), job, e.getMessage());
+            return;
+        }
+
+        if (!renewed) {
+            throw new ShardLeaseLostException(job, shard.getShardId(), instanceId);
+        }
+    }
+
+    private void release(final String job, final Shard shard) {
+        try {
+            shardStore.release(job, shard);
+        } catch (DataAccessException e) {
+            // The lease then simply expires
+            LOGGER.warn("Unable to release shard {} of job {}: {}", shard.getShardId(), job, e.getMessage());
+        }
+    }
+
+    private long leaseMillis() {
+        return leaseSeconds * 1000;
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.model.Shard;
+
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_COMPLETED;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_JOB;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_LEASE_EXPIRES_AT;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_OWNER;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_RANGE_END;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_RANGE_START;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SHARD_ID;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SURVEYID;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_SHARDS;
+
+/**
+ * Stores the shards of each job's in-progress sharded extraction along with
+ * each shard's cursor, so that a restarted process resumes every shard where
+ * it stopped.
+ *
+ * <p>Instances that share the database coordinate through the same rows: an
+ * instance claims a shard with an expiring lease, renews the lease while it
+ * extracts the shard, and may take over a shard whose lease has expired.
+ * Each change of a leased shard is a single statement conditioned on the
+ * lease, so two instances never both win a shard, and an instance that lost
+ * its lease can no longer move the shard's cursor.</p>
+ */
+@Component
+public class ShardStore {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Returns the shards of a job's in-progress extraction, if any.
+     *
+     * @param job the job name
+     * @return the shards ordered by range
+     */
+    public List<Shard> findAll(final String job) {
+        return jdbcTemplate.query(
+            "SELECT " +
+            "  " + COL_SHARD_ID + ", " +
+            "  " + COL_RANGE_START + ", " +
+            "  " + COL_RANGE_END + ", " +
+            "  " + COL_SURVEYID + ", " +
+            "  " + COL_INITIAL_FINISH_DATE + ", " +
+            "  " + COL_COMPLETED + " " +
+            "FROM " +
+            "  " + TABLE_SHARDS + " " +
+            "WHERE " +
+            "  " + COL_JOB + " = ? " +
+            "ORDER BY " +
+            "  " + COL_RANGE_START + ", " +
+            "  " + COL_SHARD_ID,
+            (rs, rowNum) -> new Shard(
+                rs.getInt(COL_SHARD_ID),
+                toZonedDateTime(rs.getLong(COL_RANGE_START)),
+                toZonedDateTime(rs.getLong(COL_RANGE_END)),
+                new ProcessedRecord(
+                    new BigInteger(rs.getString(COL_SURVEYID)),
+                    toZonedDateTime(rs.getLong(COL_INITIAL_FINISH_DATE))
+                ),
+                rs.getInt(COL_COMPLETED) != 0
+            ),
+            job
+        );
+    }
+
+    /**
+     * Stores the shards of a job's new extraction in a single transaction.
+     *
+     * @param job the job name
+     * @param shards the shards to store
+     */
+    public void createAll(final String job, final List<Shard> shards) {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+            "INSERT INTO " + TABLE_SHARDS + " " +
+            "  (" + COL_JOB + ", " + COL_SHARD_ID + ", " + COL_RANGE_START + ", " + COL_RANGE_END + ", " +
+            "   " + COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE + ", " + COL_COMPLETED + ") " +
+            "VALUES " +
+            "  (?, ?, ?, ?, ?, ?, ?)",
+            shards,
+            shards.size(),
+            (ps, shard) -> {
+                ps.setString(1, job);
+                ps.setInt(2, shard.getShardId());
+                ps.setLong(3, shard.getRangeStart().toEpochSecond());
+                ps.setLong(4, shard.getRangeEnd().toEpochSecond());
+                ps.setLong(5, shard.getCursor().getSurveyId().longValueExact());
+                ps.setLong(6, shard.getCursor().getInitialFinishDate().toEpochSecond());
+                ps.setInt(7, shard.isCompleted() ? 1 : 0);
+            }
+        ));
+    }
+
+    /**
+     * Stores the shards of a job's new extraction, unless another instance
+     * has already stored shards for the job.  The shards are inserted by a
+     * single statement, so the job ends up with one instance's plan.
+     *
+     * @param job the job name
+     * @param shards the shards to store
+     * @return whether the shards were stored
+     */
+    public boolean createAllIfNone(final String job, final List<Shard> shards) {
+        final List<Object> args = new ArrayList<>(shards.size() * 7 + 1);
+        for (final Shard shard : shards) {
+            args.add(job);
+            args.add(shard.getShardId());
+            args.add(shard.getRangeStart().toEpochSecond());
+            args.add(shard.getRangeEnd().toEpochSecond());
+            args.add(shard.getCursor().getSurveyId().longValueExact());
+            args.add(shard.getCursor().getInitialFinishDate().toEpochSecond());
+            args.add(shard.isCompleted() ? 1 : 0);
+        }
+        args.add(job);
+
+        return jdbcTemplate.update(
+            "INSERT INTO " + TABLE_SHARDS + " " +
+            "  (" + COL_JOB + ", " + COL_SHARD_ID + ", " + COL_RANGE_START + ", " + COL_RANGE_END + ", " +
+            "   " + COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE + ", " + COL_COMPLETED + ") " +
+            "SELECT * FROM (" +
+            String.join(" UNION ALL ", Collections.nCopies(shards.size(), "SELECT ?, ?, ?, ?, ?, ?, ?")) +
+            ") " +
+            "WHERE NOT EXISTS (SELECT 1 FROM " + TABLE_SHARDS + " WHERE " + COL_JOB + " = ?)",
+            args.toArray()
+        ) > 0;
+    }
+
+    /**
+     * Claims an incomplete shard for an instance, unless another instance
+     * holds an unexpired lease on it.
+     *
+     * @param job the job name
+     * @param shard the shard, which records the owner if the claim succeeds
+     * @param owner the claiming instance
+     * @param nowMillis the current time, in epoch milliseconds
+     * @param leaseMillis how long the lease lasts unless it is renewed
+     * @return whether the instance now holds the shard's lease
+     */
+    public boolean claim(
+            final String job,
+            final Shard shard,
+            final String owner,
+            final long nowMillis,
+            final long leaseMillis
+    ) {
+        final boolean claimed = jdbcTemplate.update(
+            "UPDATE " + TABLE_SHARDS + " " +
+            "SET " +
+            "  " + COL_OWNER + " = ?, " +
+            "  " + COL_LEASE_EXPIRES_AT + " = ? " +
+            "WHERE " +
+            "  " + COL_JOB + " = ? " +
+            "  AND " + COL_SHARD_ID + " = ? " +
+            "  AND " + COL_COMPLETED + " = 0 " +
+            "  AND (" + COL_OWNER + " IS NULL OR " + COL_LEASE_EXPIRES_AT + " < ?)",
+            owner,
+            nowMillis + leaseMillis,
+            job,
+            shard.getShardId(),
+            nowMillis
+        ) > 0;
+
+        if (claimed) {
+            shard.setOwner(owner);
+        }
+        return claimed;
+    }
+
+    /**
+     * Extends the lease this instance holds on a shard.
+     *
+     * @param job the job name
+     * @param shard the leased shard
+     * @param nowMillis the current time, in epoch milliseconds
+     * @param leaseMillis how long the lease lasts from now
+     * @return whether the instance still held the lease
+     */
+    public boolean renew(final String job, final Shard shard, final long nowMillis, final long leaseMillis) {
+        return jdbcTemplate.update(
+            "UPDATE " + TABLE_SHARDS + " SET " + COL_LEASE_EXPIRES_AT + " = ? " +
+            "WHERE " + COL_JOB + " = ? AND " + COL_SHARD_ID + " = ? AND " + COL_OWNER + " = ?",
+            nowMillis + leaseMillis,
+            job,
+            shard.getShardId(),
+            shard.getOwner()
+        ) > 0;
+    }
+
+    /**
+     * Gives up the lease this instance holds on a shard, so that any
+     * instance may claim it right away.  The stored owner is cleared, but
+     * the given shard keeps its owner, so a page of it that is still being
+     * persisted no longer matches the stored owner and is rolled back.
+     *
+     * @param job the job name
+     * @param shard the leased shard
+     */
+    public void release(final String job, final Shard shard) {
+        jdbcTemplate.update(
+            "UPDATE " + TABLE_SHARDS + " " +
+            "SET " + COL_OWNER + " = NULL, " + COL_LEASE_EXPIRES_AT + " = 0 " +
+            "WHERE " + COL_JOB + " = ? AND " + COL_SHARD_ID + " = ? AND " + COL_OWNER + " = ?",
+            job,
+            shard.getShardId(),
+            shard.getOwner()
+        );
+    }
+
+    /**
+     * Moves a shard's cursor.  Call this inside the transaction that
+     * persists the page the cursor points into.
+     *
+     * @param job the job name
+     * @param shard the shard
+     * @param cursor the last record of the shard that has been persisted
+     * @throws ShardLeaseLostException if the shard is leased and another
+     *                                 instance has taken it over
+     */
+    public void updateCursor(final String job, final Shard shard, final ProcessedRecord cursor) {
+        final String owner = shard.getOwner();
+
+        final int updated = jdbcTemplate.update(
+            "UPDATE " + TABLE_SHARDS + " " +
+            "SET " +
+            "  " + COL_SURVEYID + " = ?, " +
+            "  " + COL_INITIAL_FINISH_DATE + " = ? " +
+            "WHERE " +
+            "  " + COL_JOB + " = ? " +
+            "  AND " + COL_SHARD_ID + " = ? " +
+            "  AND (? IS NULL OR " + COL_OWNER + " = ?)",
+            cursor.getSurveyId().longValueExact(),
+            cursor.getInitialFinishDate().toEpochSecond(),
+            job,
+            shard.getShardId(),
+            owner,
+            owner
+        );
+
+        if (owner != null && updated == 0) {
+            throw new ShardLeaseLostException(job, shard.getShardId(), owner);
+        }
+    }
+
+    /**
+     * Marks a shard as fully extracted, and gives up its lease.
+     *
+     * @param job the job name
+     * @param shard the shard
+     * @throws ShardLeaseLostException if the shard is leased and another
+     *                                 instance has taken it over
+     */
+    public void markCompleted(final String job, final Shard shard) {
+        final String owner = shard.getOwner();
+
+        final int updated = jdbcTemplate.update(
+            "UPDATE " + TABLE_SHARDS + " " +
+            "SET " + COL_COMPLETED + " = 1, " + COL_OWNER + " = NULL, " + COL_LEASE_EXPIRES_AT + " = 0 " +
+            "WHERE " + COL_JOB + " = ? AND " + COL_SHARD_ID + " = ? AND (? IS NULL OR " + COL_OWNER + " = ?)",
+            job,
+            shard.getShardId(),
+            owner,
+            owner
+        );
+
+        if (owner != null && updated == 0) {
+            throw new ShardLeaseLostException(job, shard.getShardId(), owner);
+        }
+        shard.setOwner(null);
+        shard.setCompleted(true);
+    }
+
+    /**
+     * Removes every shard of a job once the extraction they belong to has
+     * completed.
+     *
+     * @param job the job name
+     */
+    public void deleteAll(final String job) {
+        jdbcTemplate.update("DELETE FROM " + TABLE_SHARDS + " WHERE " + COL_JOB + " = ?", job);
+    }
+
+    /**
+     * Removes every shard of a job if all of them have completed; shards
+     * that another instance has planned since are left alone.
+     *
+     * @param job the job name
+     * @return whether the shards were removed
+     */
+    public boolean deleteAllIfCompleted(final String job) {
+        return jdbcTemplate.update(
+            "DELETE FROM " + TABLE_SHARDS + " " +
+            "WHERE " +
+            "  " + COL_JOB + " = ? " +
+            "  AND NOT EXISTS (" +
+            "    SELECT 1 FROM " + TABLE_SHARDS + " WHERE " + COL_JOB + " = ? AND " + COL_COMPLETED + " = 0" +
+            "  )",
+            job,
+            job
+        ) > 0;
+    }
+
+    private static ZonedDateTime toZonedDateTime(final long epochSecond) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneOffset.UTC);
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A set of survey ids kept off the heap: an open-addressing hash table of
+ * {@code long}s in a direct buffer, probed linearly.  Each id takes 8 bytes
+ * of a table that is at most three quarters full, and the garbage collector
+ * never scans it.  Survey id 0 marks an empty slot, so it is tracked on its
+ * own.  The set is not thread-safe.
+ *
+ * <p>As the table doubles once it is three quarters full, an id takes
+ * between 10.7 and 21.3 bytes.  A table is released as soon as it is
+ * replaced by a larger one or the set is {@link #free() freed}, rather than
+ * whenever the garbage collector gets to it, where the JVM allows it.</p>
+ *
+ * <p>A direct buffer holds at most {@code Integer.MAX_VALUE} bytes, so a
+ * table stops growing at {@link #MAX_CAPACITY} slots, and the set is
+ * {@link #isFull() full} at three quarters of that.</p>
+ */
+final class SurveyIdSet {
+
+    private static final int MIN_CAPACITY = 1024;
+
+    /**
+     * The most slots a table can have: the largest power of two whose
+     * table fits a direct buffer, i.e. 2^27 slots or 1 GB.
+     */
+    static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / Long.BYTES);
+
+    /**
+     * The smallest share of a table an id takes, at three quarters full.
+     */
+    static final double MIN_BYTES_PER_ID = Long.BYTES * 4 / 3.0;
+
+    /**
+     * Releases a direct buffer's memory, or null if the JVM does not allow
+     * it, in which case the garbage collector releases it.
+     */
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+            unsafe = null;
+        }
+
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private ByteBuffer table;
+    private LongBuffer slots;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    SurveyIdSet() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns whether the set holds a survey id.
+     *
+     * @param surveyId the survey id
+     * @return whether the id was added before
+     */
+    boolean contains(final long surveyId) {
+        if (surveyId == 0) {
+            return hasZero;
+        }
+
+        for (int slot = slotOf(surveyId); ; slot = (slot + 1) & mask) {
+            final long current = slots.get(slot);
+            if (current == surveyId) {
+                return true;
+            }
+            if (current == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds a survey id.
+     *
+     * @param surveyId the survey id
+     * @return whether the id was not in the set yet
+     * @throws IllegalStateException if the set is {@link #isFull() full}
+     */
+    boolean add(final long surveyId) {
+        if (surveyId == 0) {
+            final boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+
+        if ((size + 1) * 4L > (mask + 1) * 3L) {
+            if (mask + 1 >= MAX_CAPACITY) {
+                throw new IllegalStateException("Survey id set is full at " + size + " ids");
+            }
+            grow();
+        }
+
+        if (!insert(slots, mask, surveyId)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns whether the next id would need a table larger than
+     * {@link #MAX_CAPACITY}, so it cannot be added.
+     *
+     * @return whether the set is full
+     */
+    boolean isFull() {
+        return mask + 1 >= MAX_CAPACITY && (size + 1) * 4L > (mask + 1) * 3L;
+    }
+
+    int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    /**
+     * Returns the off-heap memory the set takes.
+     *
+     * @return the table's size in bytes
+     */
+    long sizeInBytes() {
+        return (mask + 1) * (long) Long.BYTES;
+    }
+
+    /**
+     * Releases the table.  The set must not be used afterwards.
+     */
+    void free() {
+        if (table != null) {
+            release(table);
+            table = null;
+            slots = null;
+        }
+    }
+
+    private void grow() {
+        final ByteBuffer previousTable = table;
+        final LongBuffer previous = slots;
+        final int previousCapacity = mask + 1;
+
+        allocate(previousCapacity * 2);
+        for (int slot = 0; slot < previousCapacity; slot++) {
+            final long surveyId = previous.get(slot);
+            if (surveyId != 0) {
+                insert(slots, mask, surveyId);
+            }
+        }
+        release(previousTable);
+    }
+
+    private void allocate(final int capacity) {
+        // A direct buffer is zeroed, i.e. empty
+        table = ByteBuffer.allocateDirect(Math.toIntExact(capacity * (long) Long.BYTES)).order(ByteOrder.nativeOrder());
+        slots = table.asLongBuffer();
+        mask = capacity - 1;
+    }
+
+    private static void release(final ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector
+        }
+    }
+
+    private int slotOf(final long surveyId) {
+        return (int) mix(surveyId) & mask;
+    }
+
+    private static boolean insert(final LongBuffer table, final int tableMask, final long surveyId) {
+        for (int slot = (int) mix(surveyId) & tableMask; ; slot = (slot + 1) & tableMask) {
+            final long current = table.get(slot);
+            if (current == surveyId) {
+                return false;
+            }
+            if (current == 0) {
+                table.put(slot, surveyId);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Spreads sequential survey ids over the table (the 64-bit finalizer of
+     * MurmurHash3).
+     */
+    private static long mix(final long surveyId) {
+        long hash = surveyId;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -1,49 +1,86 @@
 package com.medallia.references.feedbackdatasync.service;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
-import java.time.ZoneId;
 import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.retry.support.RetryTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.stereotype.Component;
-import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.client.WebClient;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
+import com.medallia.references.feedbackdatasync.metrics.SyncMetrics;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
 import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
 import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.model.Shard;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
 
 import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
 import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
 
 /**
  * Service that synchronizes data from Medallia's Query API on a continuous
- * basis.
+ * basis.  Polls are scheduled by the {@link AdaptivePollTrigger}; each poll
+ * extracts every configured job on the shared {@link JobWorkerPool}.
  */
 @Component
-public class SyncService {
+public class SyncService implements SchedulingConfigurer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SyncService.class);
 
     private static final int MAX_RECORDS_PER_REQUEST = 1000;
 
+    /**
+     * Response buffers read ahead of the decoder while streaming.
+     */
+    private static final int STREAMING_PREFETCH = 8;
+
     @Value("${medallia.queryapi.url}")
     private String queryApiUrl;
 
@@ -51,24 +88,26 @@ public class SyncService {
     private Integer requestedNumRecordsPerRequest;
     private int numRecordsPerRequest;
 
-    @Value("${medallia.queryapi.default.start.timestamp.epoch:}")
-    private String defaultStartTimestampString;
-    private ZonedDateTime defaultStartTimestamp;
-
-    @Value("${medallia.queryapi.default.start.surveyid:-1}")
-    private String defaultStartSurveyId;
-
     @Value("${medallia.queryapi.field.initialfinishdate.epoch}")
     private String initialFinishDateField;
 
     @Value("${medallia.queryapi.field.surveyid:a_surveyid}")
     private String surveyIdField;
 
-    @Value("${medallia.queryapi.graphql.filter:}")
-    private String graphQlFilter;
+    @Value("${medallia.queryapi.streaming.enabled:false}")
+    private boolean streamingEnabled;
 
-    @Value("${medallia.queryapi.graphql.nodes:}")
-    private String graphQlNodes;
+    @Value("${medallia.queryapi.streaming.chunk.size:100}")
+    private Integer streamingChunkSize;
+
+    @Value("${medallia.queryapi.prefetch.depth:-1}")
+    private Integer prefetchDepth;
+
+    @Value("${medallia.queryapi.persisted.queries:false}")
+    private boolean persistedQueries;
+
+    @Value("${medallia.queryapi.shards.min.range.sec:3600}")
+    private Long shardMinRangeSeconds;
 
     @Autowired
     private WebClient webClient;
@@ -76,19 +115,137 @@ public class SyncService {
     @Autowired
     private RecordProcessingService recordProcessingService;
 
+    @Autowired
+    private ShardStore shardStore;
+
+    @Autowired
+    private ShardLeases shardLeases;
+
     @Autowired
     private ObjectMapper objectMapper;
 
     @Autowired
-    private RetryTemplate retryTemplate;
+    private QueryApiRetry queryApiRetry;
+
+    @Autowired
+    private SyncMetrics syncMetrics;
+
+    @Autowired
+    private AdaptivePollTrigger pollTrigger;
 
-    private String query;
+    @Autowired
+    private QueryApiGovernor governor;
+
+    @Autowired
+    private SyncJobs syncJobs;
+
+    @Autowired
+    private JobWorkerPool workerPool;
+
+    @Autowired
+    private PageLog pageLog;
+
+    /**
+     * Request templates by job name, so a copy of a job (e.g. a bulk
+     * export's) finds its template too.
+     */
+    private final Map<String, GraphQlRequestTemplate> requestTemplates = new HashMap<>();
 
     private final Semaphore availableWorkers = new Semaphore(1, true);
 
+    private final AtomicLong polledRecords = new AtomicLong();
+
+    private volatile boolean stopping;
+    private volatile CompletableFuture<Void> currentPoll;
+
     @PostConstruct
     private void postConstruct() {
-        query = String.format(
+        final boolean isRequestedNumRecordsPerRequestValid =
+            requestedNumRecordsPerRequest == null ||
+            requestedNumRecordsPerRequest <= 0;
+
+        numRecordsPerRequest = Math.min(
+            MAX_RECORDS_PER_REQUEST,
+            isRequestedNumRecordsPerRequestValid
+                ? MAX_RECORDS_PER_REQUEST
+                : requestedNumRecordsPerRequest
+        );
+
+        LOGGER.info("Maximum records per request: {}", numRecordsPerRequest);
+
+        if (pageLog.isEnabled() && streamingEnabled) {
+            // A page is logged whole before any of it is processed
+            LOGGER.info("Pages are read whole rather than streamed, as the page log is enabled");
+            streamingEnabled = false;
+        }
+
+        if (prefetchDepth < 0) {
+            // Prefetched pages are decoded whole, which would undo the
+            // bounded memory of a streamed page
+            prefetchDepth = streamingEnabled ? 0 : 1;
+        } else if (prefetchDepth > 0 && streamingEnabled) {
+            LOGGER.warn(
+                "Prefetching {} pages: each streamed page is decoded whole before it is persisted",
+                prefetchDepth
+            );
+        }
+
+        syncJobs.getJobs().forEach(job -> requestTemplates.put(job.getName(), buildRequestTemplate(job)));
+    }
+
+    /**
+     * Stops polling, cancels the poll in flight and shuts the worker pool
+     * down.  Pages being persisted finish on the pool; nothing more is
+     * fetched or handed to it.  This runs before the database and the
+     * sinks close, which the pool's own shutdown would not wait for.
+     */
+    @PreDestroy
+    private void preDestroy() {
+        stopping = true;
+
+        final CompletableFuture<Void> poll = currentPoll;
+        if (poll != null && poll.cancel(true)) {
+            LOGGER.info("Cancelled the poll in flight for shutdown");
+        }
+        workerPool.shutdown();
+    }
+
+    /**
+     * Compiles a job's request body, with the variables that are the same
+     * on every request filled in.
+     *
+     * @param job the job
+     * @return the request body template
+     */
+    private GraphQlRequestTemplate buildRequestTemplate(final SyncJob job) {
+        final Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("initialFinishDateField", initialFinishDateField);
+        variables.put("numRecordsPerRequest", numRecordsPerRequest);
+        variables.put("surveyIdField", surveyIdField);
+
+        try {
+            final GraphQlRequestTemplate template =
+                new GraphQlRequestTemplate(objectMapper, buildQuery(job), variables, persistedQueries);
+
+            if (persistedQueries) {
+                LOGGER.info("Job {} sends its query as persisted query {}", job.getName(), template.getQueryHash());
+            }
+
+            return template;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates a job's GraphQL query, with its segmentation filters and
+     * custom fields.
+     *
+     * @param job the job
+     * @return the query
+     */
+    private String buildQuery(final SyncJob job) {
+        final String query = String.format(
             "query syncQuery(\n" +
             "    $endTimestamp: String!,\n" +
             "    $initialFinishDateField: ID!,\n" +
@@ -126,41 +283,90 @@ public class SyncService {
             "    }\n" +
             "  }\n" +
             "}",
-            graphQlFilter,
-            graphQlNodes
+            job.getGraphQlFilter(),
+            job.getGraphQlNodes()
         );
 
-        LOGGER.info("GraphQL template:\n{}", query);
+        LOGGER.info("GraphQL template for job {}:\n{}", job.getName(), query);
 
-        final boolean isRequestedNumRecordsPerRequestValid =
-            requestedNumRecordsPerRequest == null ||
-            requestedNumRecordsPerRequest <= 0;
+        return query;
+    }
 
-        numRecordsPerRequest = Math.min(
-            MAX_RECORDS_PER_REQUEST,
-            isRequestedNumRecordsPerRequestValid
-                ? MAX_RECORDS_PER_REQUEST
-                : requestedNumRecordsPerRequest
-        );
+    /**
+     * Schedules the polls through the adaptive trigger, which picks each
+     * poll's start from the outcome of the one before.
+     *
+     * @param taskRegistrar the registrar to schedule the polls with
+     */
+    @Override
+    public void configureTasks(final ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addTriggerTask(this::performScheduledPoll, pollTrigger);
+    }
 
-        LOGGER.info("Maximum records per request: {}", numRecordsPerRequest);
+    private void performScheduledPoll() {
+        if (stopping) {
+            return;
+        }
+
+        boolean succeeded = false;
+        polledRecords.set(0);
+
+        try {
+            performPoll();
+            succeeded = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (succeeded) {
+                pollTrigger.pollCompleted(getLargestBacklog(), getMostLaggingRecord(), polledRecords.get());
+            } else {
+                pollTrigger.pollFailed();
+            }
+        }
+    }
+
+    /**
+     * Returns the largest number of records any job still has to pull, as
+     * estimated from the {@code totalCount} of its last page.
+     *
+     * @return the largest backlog, or -1 if no job's backlog is known
+     */
+    private long getLargestBacklog() {
+        return syncJobs.getJobs().stream()
+            .mapToLong(job -> job.getBacklog().get())
+            .max()
+            .orElse(-1);
+    }
 
-        defaultStartTimestamp = defaultStartTimestampString != null && defaultStartTimestampString.length() > 0
-            ? ZonedDateTime.ofInstant(Instant.ofEpochSecond(Long.valueOf(defaultStartTimestampString)), ZoneOffset.UTC)
-            : ZonedDateTime.now();
+    /**
+     * Returns the last processed record of the job that is furthest behind,
+     * which decides whether the process is still catching up.
+     *
+     * @return the earliest last processed record of any job
+     */
+    private Optional<ProcessedRecord> getMostLaggingRecord() {
+        return syncJobs.getJobs().stream()
+            .map(recordProcessingService::getLastProcessedRecord)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .min(Comparator.naturalOrder());
     }
 
     /**
-     * Performs a periodic poll of data from the Medallia Query API.
+     * Performs a poll of data from the Medallia Query API for every job.  The
+     * pipelines of all jobs run at once, and the poll completes when every
+     * job has.  A failing job does not stop the others; its failure is
+     * reported once they have finished.
      *
-     * @throws JsonProcessingException if a serialization error occurs
-     */
-    @Scheduled(
-        initialDelayString = "${medallia.queryapi.poll.initialdelay.msec}",
-        fixedRateString = "${medallia.queryapi.poll.interval.msec}"
-    )
-    public void performPoll() throws JsonProcessingException {
-        final boolean canProcess = availableWorkers.tryAcquire();
+     * <p>No thread blocks on the network: requests, retries and the rate
+     * limit run on Reactor's threads, and only persistence runs on the
+     * {@link JobWorkerPool}.  The calling thread merely waits for the poll's
+     * outcome, which decides when the next poll runs.</p>
+     *
+     * @throws IOException if a request cannot be built or a response decoded
+     */
+    public void performPoll() throws IOException {
+        final boolean canProcess = !stopping && availableWorkers.tryAcquire();
         if (!canProcess) {
             LOGGER.warn("Prior process still running, skipping this invocation");
             return;
@@ -168,103 +374,879 @@ public class SyncService {
 
         try {
             LOGGER.info("Starting next scheduled pull");
-            performQuery(ZonedDateTime.now());
+
+            final ZonedDateTime endTimestamp = ZonedDateTime.now();
+
+            final List<Mono<Void>> extractions = new ArrayList<>();
+            final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+            for (final SyncJob job : syncJobs.getJobs()) {
+                try {
+                    extractions.add(extractJob(job, endTimestamp).onErrorResume(e -> {
+                        LOGGER.error("Job {} failed: {}", job.getName(), e.getMessage(), e);
+                        failures.addAll(Exceptions.unwrapMultiple(e));
+                        return Mono.empty();
+                    }));
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unable to start job {}: {}", job.getName(), e.getMessage(), e);
+                    failures.add(e);
+                }
+            }
+
+            final CompletableFuture<Void> poll = Mono.when(extractions).toFuture();
+            currentPoll = poll;
+
+            try {
+                if (stopping) {
+                    poll.cancel(true);
+                }
+                poll.get();
+            } catch (CancellationException e) {
+                LOGGER.info("Poll cancelled for shutdown");
+                return;
+            } catch (InterruptedException e) {
+                poll.cancel(true);
+                Thread.currentThread().interrupt();
+                if (stopping) {
+                    LOGGER.info("Poll cancelled for shutdown");
+                    return;
+                }
+                throw new InterruptedIOException("Interrupted while waiting for jobs");
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            } finally {
+                currentPoll = null;
+            }
+
+            Throwable failure = null;
+            synchronized (failures) {
+                for (final Throwable jobFailure : failures) {
+                    failure = addFailure(failure, jobFailure);
+                }
+            }
+
+            if (failure != null) {
+                Throwables.propagateIfPossible(failure, IOException.class);
+                throw new IOException("Unable to extract jobs", failure);
+            }
         } finally {
             availableWorkers.release();
         }
     }
 
     /**
-     * Queries a page of data from the Medallia Query API.
+     * Builds a job's extraction.  The shards of an interrupted run are always
+     * resumed, even if sharding has since been turned off; otherwise a job
+     * with several shards configured has its pending range split, and any
+     * other job is extracted as a whole.  At most the job's concurrency of
+     * shards are extracted at once; every shard runs to completion or
+     * failure, so that each one checkpoints as far as it can before a
+     * failure is reported.
+     *
+     * <p>When the extraction is shared with other instances, it is
+     * extracted through leased shards instead (see
+     * {@link #extractSharedJob(SyncJob, ZonedDateTime)}).</p>
      *
+     * @param job the job
      * @param endTimestamp the largest timestamp that should be pulled
-     * @throws JsonProcessingException if a serialization error occurs
+     * @return the extraction, which completes once the job has been
+     *         extracted and its shards and retention cleaned up
      */
-    private void performQuery(
-            final ZonedDateTime endTimestamp
-    ) throws JsonProcessingException {
-        LOGGER.info("Querying new records from Query API");
+    private Mono<Void> extractJob(final SyncJob job, final ZonedDateTime endTimestamp) {
+        if (shardLeases.isEnabled()) {
+            return extractSharedJob(job, endTimestamp);
+        }
+
+        List<Shard> shards = shardStore.findAll(job.getName());
+
+        if (!shards.isEmpty()) {
+            LOGGER.info("Resuming {} shards of an interrupted extraction of job {}", shards.size(), job.getName());
+        } else if (job.getShardCount() > 1) {
+            shards = planShards(job, endTimestamp);
+
+            if (shards.size() > 1) {
+                shardStore.createAll(job.getName(), shards);
+                LOGGER.info("Split pending range of job {} into {} shards", job.getName(), shards.size());
+            } else {
+                shards = Collections.emptyList();
+            }
+        }
+
+        final List<Shard> allShards = shards;
+        final Mono<Void> extraction = allShards.isEmpty()
+            ? performQuery(job, endTimestamp)
+            : Flux.fromIterable(allShards)
+                .filter(shard -> !shard.isCompleted())
+                .flatMapDelayError(shard -> extractShard(job, shard, () -> allShards), job.getMaxConcurrency(), 1)
+                .then();
+
+        return extraction.then(blocking(job, () -> completeExtraction(job, allShards)));
+    }
+
+    /**
+     * Finishes a job's successful extraction: its shards, if any, are
+     * removed and the retention policy is applied to its records.
+     *
+     * @param job the job
+     * @param shards the extraction's shards, or empty if it was not sharded
+     */
+    private void completeExtraction(final SyncJob job, final List<Shard> shards) {
+        if (!shards.isEmpty()) {
+            shardStore.deleteAll(job.getName());
+            LOGGER.info("All {} shards of job {} completed", shards.size(), job.getName());
+        }
+
+        recordProcessingService.applyRetention(job);
+    }
+
+    /**
+     * Builds a job's extraction shared with the other instances that use the
+     * same database (see {@link ShardLeases}).  Unless shards are stored
+     * already, the pending range is split into shards from the stored
+     * checkpoint, and the first instance to store its plan wins.  Up to the
+     * job's concurrency of lanes then claim and extract one shard after
+     * another, until every incomplete shard is leased.  The instance that
+     * finds every shard completed removes them and applies the retention
+     * policy; a shard left behind by a crashed instance is taken over by a
+     * later poll once its lease has expired.
+     *
+     * @param job the job
+     * @param endTimestamp the largest timestamp that should be pulled, if
+     *                     this instance plans the shards
+     * @return the extraction, which completes once no shard is left to
+     *         claim
+     */
+    private Mono<Void> extractSharedJob(final SyncJob job, final ZonedDateTime endTimestamp) {
+        final Mono<Void> plan = blocking(job, () -> {
+            if (!shardStore.findAll(job.getName()).isEmpty()) {
+                return;
+            }
+
+            recordProcessingService.reloadLastProcessedRecord(job);
+            final List<Shard> shards = planShards(job, endTimestamp);
+
+            if (shardStore.createAllIfNone(job.getName(), shards)) {
+                LOGGER.info(
+                    "Split pending range of job {} into {} shards to share as instance {}",
+                    job.getName(),
+                    shards.size(),
+                    shardLeases.getInstanceId()
+                );
+            }
+        });
+
+        final Mono<Void> lanes = Flux.range(0, job.getMaxConcurrency())
+            .flatMapDelayError(lane -> extractClaimedShards(job), job.getMaxConcurrency(), 1)
+            .then();
+
+        return plan
+            .then(lanes)
+            .then(blocking(job, () -> completeSharedExtraction(job)));
+    }
+
+    /**
+     * Claims and extracts a job's shards one at a time, as one lane of the
+     * job's shared extraction.
+     *
+     * @param job the job
+     * @return completes once every incomplete shard is leased
+     */
+    private Mono<Void> extractClaimedShards(final SyncJob job) {
+        return Mono.fromCallable(() -> shardLeases.claimNext(job.getName()))
+            .subscribeOn(workerPool.scheduler(job))
+            .flatMap(shard -> shardLeases.withLease(
+                    job.getName(),
+                    shard,
+                    extractShard(job, shard, () -> shardStore.findAll(job.getName()))
+                )
+                .then(Mono.defer(() -> extractClaimedShards(job)))
+            );
+    }
+
+    /**
+     * Finishes a job's shared extraction if every shard has completed, be it
+     * on this instance or another: the job's checkpoint is moved to the end
+     * of the last shard, the shards are removed and the retention policy is
+     * applied to the job's records.
+     *
+     * @param job the job
+     */
+    private void completeSharedExtraction(final SyncJob job) {
+        final List<Shard> shards = shardStore.findAll(job.getName());
+        if (shards.isEmpty() || !shards.stream().allMatch(Shard::isCompleted)) {
+            return;
+        }
+
+        // The instance that completed the last shard may not have seen
+        // every other shard completed yet
+        saveWatermark(job, shards);
+
+        if (shardStore.deleteAllIfCompleted(job.getName())) {
+            LOGGER.info("All {} shards of job {} completed", shards.size(), job.getName());
+            recordProcessingService.applyRetention(job);
+        }
+    }
+
+    private static Throwable addFailure(final Throwable failure, final Throwable next) {
+        if (failure == null) {
+            return next;
+        }
+
+        failure.addSuppressed(next);
+        return failure;
+    }
 
-        final Optional<ProcessedRecord> lastProcessedRecord =
-            recordProcessingService.getLastProcessedRecord();
+    /**
+     * Runs blocking work, such as persistence, as a task of the job on the
+     * worker pool.
+     *
+     * @param job the job the work belongs to
+     * @param work the work
+     * @return completes once the work has run
+     */
+    private Mono<Void> blocking(final SyncJob job, final Runnable work) {
+        return Mono.<Void>fromRunnable(work).subscribeOn(workerPool.scheduler(job));
+    }
 
-        final String graphQlBody = getGraphQl(
-            lastProcessedRecord,
-            defaultStartTimestamp,
+    /**
+     * Queries every page of a job's data from the Medallia Query API after
+     * its last processed record, up to the end timestamp.
+     *
+     * @param job the job
+     * @param endTimestamp the largest timestamp that should be pulled
+     * @return completes once every page has been persisted
+     */
+    private Mono<Void> performQuery(
+            final SyncJob job,
+            final ZonedDateTime endTimestamp
+    ) {
+        return extract(
+            job,
+            () -> recordProcessingService.getLastProcessedRecord(job),
+            page -> {
+                recordProcessingService.processPage(job, page);
+                polledRecords.addAndGet(page.size());
+            },
             endTimestamp
         );
+    }
+
+    /**
+     * Splits the range between a job's last processed record and the end
+     * timestamp into equal spans of the initial finish date.  The first
+     * shard starts at the last processed record; every other shard starts
+     * with the first record at its range start.
+     *
+     * @param job the job
+     * @param endTimestamp the largest timestamp that should be pulled
+     * @return the planned shards, or a single shard if the range is too
+     *         short to be worth splitting
+     */
+    private List<Shard> planShards(final SyncJob job, final ZonedDateTime endTimestamp) {
+        final ProcessedRecord start = recordProcessingService.getLastProcessedRecord(job)
+            .orElseGet(() -> new ProcessedRecord(
+                new BigInteger(job.getDefaultStartSurveyId()),
+                job.getDefaultStartTimestamp()
+            ));
+
+        final long startSecond = start.getInitialFinishDate().toEpochSecond();
+        final long span = endTimestamp.toEpochSecond() - startSecond;
+        final int count = (int) Math.max(1, Math.min(job.getShardCount(), span / shardMinRangeSeconds));
+
+        final List<Shard> shards = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final ZonedDateTime rangeStart = toZonedDateTime(startSecond + span * i / count);
+            final ZonedDateTime rangeEnd = toZonedDateTime(startSecond + span * (i + 1) / count);
+
+            shards.add(new Shard(
+                i,
+                rangeStart,
+                rangeEnd,
+                i == 0 ? start : new ProcessedRecord(BigInteger.ONE.negate(), rangeStart),
+                false
+            ));
+        }
+
+        return shards;
+    }
+
+    /**
+     * Extracts the rest of one shard and then moves the job's last processed
+     * record up to the end of the shards completed so far.
+     *
+     * @param job the job the shard belongs to
+     * @param shard the shard to extract
+     * @param shards supplies every shard of the extraction, ordered by range
+     * @return completes once the shard has been extracted
+     */
+    private Mono<Void> extractShard(final SyncJob job, final Shard shard, final Supplier<List<Shard>> shards) {
+        LOGGER.info(
+            "Extracting shard {} of job {} [{}, {}) from survey {}",
+            shard.getShardId(),
+            job.getName(),
+            shard.getRangeStart(),
+            shard.getRangeEnd(),
+            shard.getCursor().getSurveyId()
+        );
+
+        final Mono<Void> extraction = extract(
+            job,
+            () -> Optional.of(shard.getCursor()),
+            page -> {
+                recordProcessingService.processPage(job, page, shard);
+                polledRecords.addAndGet(page.size());
+            },
+            shard.getRangeEnd()
+        );
+
+        return extraction.then(blocking(job, () -> {
+            shardStore.markCompleted(job.getName(), shard);
+            saveWatermark(job, shards.get());
+        }));
+    }
+
+    /**
+     * Moves a job's checkpoint up to the end of the shards completed so far.
+     * Shards completing at once may save their watermarks in any order, as
+     * neither the stored checkpoint nor the last processed record ever moves
+     * back.
+     *
+     * @param job the job
+     * @param shards every shard of the extraction, ordered by range
+     */
+    private void saveWatermark(final SyncJob job, final List<Shard> shards) {
+        // Everything up to the cursor of the last shard in the completed
+        // prefix has been extracted; later shards may still have gaps
+        ProcessedRecord watermark = null;
+
+        for (final Shard candidate : shards) {
+            if (!candidate.isCompleted()) {
+                break;
+            }
+            watermark = candidate.getCursor();
+        }
+
+        if (watermark != null) {
+            recordProcessingService.saveCheckpoint(job, watermark);
+        }
+    }
+
+    /**
+     * Queries every page of data from the Medallia Query API after a cursor,
+     * up to the end timestamp.  When a prefetch depth is configured up to
+     * that many pages are fetched ahead of the page being persisted;
+     * otherwise each page is fetched and persisted in turn.  Either way,
+     * pages are persisted in order, one at a time, on the worker pool, and
+     * fetching waits for persistence to ask for more pages, so a slow sink
+     * slows down fetching instead of filling the heap.
+     *
+     * @param job the job
+     * @param checkpoint supplies the last record that has been persisted
+     * @param pageProcessor persists a page and moves the checkpoint
+     * @param endTimestamp the largest timestamp that should be pulled
+     * @return completes once every page has been persisted
+     */
+    private Mono<Void> extract(
+            final SyncJob job,
+            final Supplier<Optional<ProcessedRecord>> checkpoint,
+            final Consumer<FeedbackPage> pageProcessor,
+            final ZonedDateTime endTimestamp
+    ) {
+        final Scheduler scheduler = workerPool.scheduler(job);
+
+        if (prefetchDepth > 0) {
+            return Mono.fromCallable(checkpoint::get)
+                .subscribeOn(scheduler)
+                .flatMapMany(cursor -> fetchPages(job, cursor, endTimestamp))
+                .concatMap(page -> blocking(job, () -> pageProcessor.accept(page.page)), prefetchDepth)
+                .then();
+        }
+
+        return fetchAndProcessPage(job, checkpoint, pageProcessor, endTimestamp, scheduler)
+            .repeat()
+            .takeUntil(hasMorePages -> !hasMorePages)
+            .then();
+    }
+
+    /**
+     * Fetches one page after the checkpoint and persists it.  With streaming
+     * enabled the page's nodes are decoded while the response is still
+     * arriving, and persisted in chunks once it has ended without errors;
+     * the request is rebuilt on every attempt from the checkpoint.  Only
+     * failures of the request are retried: a chunk that fails to persist
+     * fails the page, and the next poll resumes after the last persisted
+     * chunk.
+     *
+     * @param job the job
+     * @param checkpoint supplies the last record that has been persisted
+     * @param pageProcessor persists a page and moves the checkpoint
+     * @param endTimestamp the largest timestamp that should be pulled
+     * @param scheduler the job's scheduler on the worker pool
+     * @return whether there are more pages to pull
+     */
+    private Mono<Boolean> fetchAndProcessPage(
+            final SyncJob job,
+            final Supplier<Optional<ProcessedRecord>> checkpoint,
+            final Consumer<FeedbackPage> pageProcessor,
+            final ZonedDateTime endTimestamp,
+            final Scheduler scheduler
+    ) {
+        return Mono.defer(() -> {
+            LOGGER.info("Querying new records of job {} from Query API", job.getName());
 
-        final QueryApiResponse response = retryTemplate.execute(arg0 -> {
-            final String bodyAsString = webClient
-                .post()
-                    .uri(queryApiUrl)
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .accept(MediaType.APPLICATION_JSON)
-                    .acceptCharset(Charset.forName("UTF-8"))
-                    .body(BodyInserters.fromValue(graphQlBody))
-                .retrieve()
-                    .toEntity(String.class)
-                    .block()
-                .getBody();
-
-            LOGGER.trace("GraphQL response:\n{}", bodyAsString);
-
-            return objectMapper.readValue(bodyAsString, QueryApiResponse.class);
+            final List<FeedbackPage> readPages = new ArrayList<>(1);
+
+            return Mono.fromCallable(() -> getGraphQl(job, checkpoint.get(), endTimestamp))
+                .subscribeOn(scheduler)
+                .flatMap(graphQlBody -> {
+                    if (streamingEnabled) {
+                        return streamPage(job, graphQlBody, scheduler, pageProcessor, streamingChunkSize);
+                    }
+
+                    readPages.clear();
+                    return readPage(job, graphQlBody, scheduler, readPages::add);
+                })
+                .transform(attempt -> trackPersistedQuery(job, attempt))
+                .retryWhen(queryApiRetry)
+                .map(response -> {
+                    // A page that was read whole is persisted outside of the
+                    // retry, as before
+                    readPages.forEach(pageProcessor);
+                    return isFullPage(job, response);
+                });
         });
+    }
+
+    /**
+     * Fetches a job's records after a cursor up to an end timestamp, outside
+     * of the scheduled polls (e.g. for a bulk export).  Pages are fetched on
+     * demand, so the caller's pace bounds how far fetching runs ahead.
+     *
+     * @param job the job, which supplies the query
+     * @param cursor the record after which to start
+     * @param endTimestamp the timestamp before which to stop
+     * @return the pages, in order, without empty pages
+     */
+    public Flux<FeedbackPage> fetchRange(
+            final SyncJob job,
+            final ProcessedRecord cursor,
+            final ZonedDateTime endTimestamp
+    ) {
+        return fetchPages(job, Optional.of(cursor), endTimestamp)
+            .map(fetched -> fetched.page)
+            .filter(page -> !page.isEmpty());
+    }
 
-        response.getData().getFeedback().getNodes().stream().forEach(node -> {
-            recordProcessingService.processRecord(node);
+    /**
+     * Fetches the pages after a cursor on demand: the next page is only
+     * requested once downstream has asked for it, and its cursor is the last
+     * record of the page before it.
+     *
+     * @param job the job
+     * @param cursor the last record that has been persisted
+     * @param endTimestamp the largest timestamp that should be pulled
+     * @return the fully decoded pages, in order
+     */
+    private Flux<FetchedPage> fetchPages(
+            final SyncJob job,
+            final Optional<ProcessedRecord> cursor,
+            final ZonedDateTime endTimestamp
+    ) {
+        return Flux.create(sink -> {
+            final PageFetcher fetcher = new PageFetcher(job, cursor, endTimestamp, sink);
+            sink.onRequest(requested -> fetcher.drain());
+            sink.onDispose(fetcher::dispose);
         });
+    }
+
+    /**
+     * Fetches and fully decodes one page, retrying failed attempts from the
+     * same cursor.  The page is decoded on Reactor's parallel scheduler, and
+     * appended to the page log, if enabled, on the job's worker pool.
+     *
+     * @param job the job
+     * @param cursor the record after which the page starts
+     * @param endTimestamp the largest timestamp that should be pulled
+     * @return the decoded page
+     */
+    private Mono<FetchedPage> fetchPage(
+            final SyncJob job,
+            final Optional<ProcessedRecord> cursor,
+            final ZonedDateTime endTimestamp
+    ) {
+        final List<FeedbackPage> decoded = new ArrayList<>(1);
+
+        return Mono.fromCallable(() -> getGraphQl(job, cursor, endTimestamp))
+            .flatMap(graphQlBody -> Mono.defer(() -> {
+                decoded.clear();
 
+                return streamingEnabled
+                    ? streamPage(job, graphQlBody, Schedulers.parallel(), decoded::add, Integer.MAX_VALUE)
+                    : readPage(job, graphQlBody, Schedulers.parallel(), decoded::add);
+            }).transform(attempt -> trackPersistedQuery(job, attempt)).retryWhen(queryApiRetry))
+            .map(response -> {
+                final FeedbackPage page = decoded.isEmpty() ? FeedbackPage.empty() : decoded.get(0);
+                return new FetchedPage(page, isFullPage(job, response) && !page.isEmpty());
+            });
+    }
+
+    /**
+     * Determines whether there are more pages to pull after this one.
+     *
+     * @param job the job the page was pulled for
+     * @param response the page's response
+     * @return whether another page should be pulled
+     */
+    private boolean isFullPage(final SyncJob job, final QueryApiResponse response) {
         final Long totalCount = response.getData().getFeedback().getTotalCount();
-        if (totalCount >= numRecordsPerRequest) {
+        syncMetrics.updateBacklog(job, totalCount, numRecordsPerRequest);
+
+        if (totalCount != null && totalCount >= numRecordsPerRequest) {
             LOGGER.info("Hit page max, pulling another page");
-            performQuery(endTimestamp);
-        } else {
-            LOGGER.info("No more records to pull for this job");
+            return true;
+        }
+
+        LOGGER.info("No more records to pull for job {}", job.getName());
+        return false;
+    }
+
+    /**
+     * Reads a whole page from the Medallia Query API into memory and decodes
+     * it into a single {@link FeedbackPage}, once the governor allows the
+     * request.  With the page log enabled, the page is appended to it on the
+     * job's worker pool once decoded, as appending may block on the disk,
+     * and consumed there.
+     *
+     * @param job the job, whose declared fields are decoded
+     * @param graphQlBody the GraphQL request body
+     * @param scheduler where the page is decoded and, unless it is logged,
+     *        consumed
+     * @param pageConsumer receives the decoded page, unless it has no nodes
+     * @return the page-level values of the response; fails with a
+     *         {@link QueryApiException} if the response carries GraphQL
+     *         errors
+     */
+    private Mono<QueryApiResponse> readPage(
+            final SyncJob job,
+            final BodyInserter<?, ? super ClientHttpRequest> graphQlBody,
+            final Scheduler scheduler,
+            final Consumer<FeedbackPage> pageConsumer
+    ) {
+        return governor.permit().then(Mono.defer(() -> {
+            final long requestStart = System.nanoTime();
+
+            return request(graphQlBody)
+                .bodyToMono(byte[].class)
+                .defaultIfEmpty(new byte[0])
+                .publishOn(scheduler)
+                .flatMap(body -> {
+                    final List<FeedbackPage> decoded = new ArrayList<>(1);
+
+                    return Mono.fromCallable(() -> decodePage(job, body, requestStart, decoded::add))
+                        .flatMap(response -> appendToPageLog(job, decoded, body).thenReturn(response))
+                        .doOnNext(response -> decoded.forEach(pageConsumer));
+                });
+        }));
+    }
+
+    /**
+     * Appends decoded pages to the page log on the job's worker pool, off
+     * the scheduler that decoded them.
+     *
+     * @param job the job the pages were pulled for
+     * @param pages the decoded pages
+     * @param body the raw response the pages were decoded from
+     * @return completes once the pages have been appended
+     */
+    private Mono<Void> appendToPageLog(final SyncJob job, final List<FeedbackPage> pages, final byte[] body) {
+        if (!pageLog.isEnabled() || pages.isEmpty()) {
+            return Mono.empty();
+        }
+        return blocking(job, () -> pages.forEach(page -> pageLog.append(job, page, body)));
+    }
+
+    private QueryApiResponse decodePage(
+            final SyncJob job,
+            final byte[] body,
+            final long requestStart,
+            final Consumer<FeedbackPage> pageConsumer
+    ) throws IOException {
+        final long decodeStart = System.nanoTime();
+        syncMetrics.recordHttp(decodeStart - requestStart);
+        syncMetrics.countBytes(body.length);
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("GraphQL response:\n{}", new String(body, StandardCharsets.UTF_8));
+        }
+
+        final QueryApiStreamDecoder decoder = new QueryApiStreamDecoder(objectMapper, job.getFieldSchema(), pageConsumer, Integer.MAX_VALUE);
+        decoder.feed(body, 0, body.length);
+        final QueryApiResponse response = checkErrors(decoder.finish());
+
+        syncMetrics.recordDecode(System.nanoTime() - decodeStart);
+        return response;
+    }
+
+    /**
+     * Streams a page from the Medallia Query API, once the governor allows
+     * the request.  Nodes are decoded as the response body arrives, so the
+     * body is never held in memory as a whole, and handed to the consumer
+     * in chunks once the body has ended without {@code errors}, which may
+     * follow the data.  Only a few buffers are requested ahead of the
+     * decoder, so a slow decoder holds back reading from the connection.
+     * The returned response carries the page's {@code totalCount} and
+     * {@code errors} but no nodes.
+     *
+     * @param job the job, whose declared fields are decoded
+     * @param graphQlBody the GraphQL request body
+     * @param scheduler where the nodes are decoded and consumed
+     * @param pageConsumer receives the decoded nodes a chunk at a time
+     * @param chunkSize the number of nodes per chunk
+     * @return the page-level values of the response; fails with a
+     *         {@link QueryApiException} if the response carries GraphQL
+     *         errors
+     */
+    private Mono<QueryApiResponse> streamPage(
+            final SyncJob job,
+            final BodyInserter<?, ? super ClientHttpRequest> graphQlBody,
+            final Scheduler scheduler,
+            final Consumer<FeedbackPage> pageConsumer,
+            final int chunkSize
+    ) {
+        return governor.permit().then(Mono.defer(() -> {
+            // Chunks are persisted once the body has ended; that time is left
+            // out of both the HTTP and decode timings
+            final long[] consumerNanos = new long[1];
+            final long[] feedNanos = new long[1];
+            final Consumer<FeedbackPage> timedConsumer = page -> {
+                final long consumerStart = System.nanoTime();
+                pageConsumer.accept(page);
+                consumerNanos[0] += System.nanoTime() - consumerStart;
+            };
+
+            final QueryApiStreamDecoder decoder;
+            try {
+                decoder = new QueryApiStreamDecoder(objectMapper, job.getFieldSchema(), timedConsumer, chunkSize);
+            } catch (IOException e) {
+                return Mono.error(e);
+            }
+
+            final long requestStart = System.nanoTime();
+
+            return request(graphQlBody)
+                .bodyToFlux(DataBuffer.class)
+                .publishOn(scheduler, STREAMING_PREFETCH)
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                .<Void>handle((buffer, sink) -> {
+                    final long feedStart = System.nanoTime();
+
+                    try {
+                        syncMetrics.countBytes(buffer.readableByteCount());
+                        decoder.feed(buffer);
+                    } catch (IOException e) {
+                        sink.error(e);
+                    } finally {
+                        DataBufferUtils.release(buffer);
+                        feedNanos[0] += System.nanoTime() - feedStart;
+                    }
+                })
+                .then(Mono.fromCallable(() -> {
+                    final long finishStart = System.nanoTime();
+                    final QueryApiResponse response = decoder.finish();
+                    final long end = System.nanoTime();
+                    feedNanos[0] += end - finishStart;
+
+                    syncMetrics.recordHttp(end - requestStart - feedNanos[0]);
+                    syncMetrics.recordDecode(feedNanos[0] - consumerNanos[0]);
+                    return checkErrors(response);
+                }));
+        }));
+    }
+
+    /**
+     * Fails on a response carrying GraphQL {@code errors}.  Such a response
+     * will not improve on a retry, so it is not retried.
+     *
+     * @param response the decoded response
+     * @return the response, if it has no errors
+     * @throws QueryApiException if it has errors
+     */
+    private static QueryApiResponse checkErrors(final QueryApiResponse response) throws QueryApiException {
+        if (response.getErrors() != null && !response.getErrors().isEmpty()) {
+            throw new QueryApiException(response.getErrors());
         }
+
+        return response;
+    }
+
+    /**
+     * Prepares a GraphQL request to the Medallia Query API.  The request is
+     * sent once its body is subscribed to.
+     *
+     * @param graphQlBody the GraphQL request body
+     * @return the pending response
+     */
+    private WebClient.ResponseSpec request(final BodyInserter<?, ? super ClientHttpRequest> graphQlBody) {
+        return webClient
+            .post()
+                .uri(queryApiUrl)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .accept(MediaType.APPLICATION_JSON)
+                .acceptCharset(Charset.forName("UTF-8"))
+                .body(graphQlBody)
+            .retrieve();
+    }
+
+    private static ZonedDateTime toZonedDateTime(final long epochSecond) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneOffset.UTC);
     }
 
     /**
-     * Creates the Query API request's GraphQL.
+     * Creates the Query API request's GraphQL for a job.
      *
+     * @param job the job, which supplies the request template and the start
+     *            to use if the last record couldn't be found
      * @param lastProcessedRecord the last record processed
-     * @param defaultStartTimestamp the timestamp to use for the start if the
-     *                              last record couldn't be found
      * @param endTimestamp the timestamp that marks the end of the range
-     * @return the GraphQL to send to the Medallia Query API
-     * @throws JsonProcessingException if serialization fails
+     * @return the GraphQL to send to the Medallia Query API, written into
+     *         the request when it is sent
      */
-    private String getGraphQl(
+    private BodyInserter<Void, ReactiveHttpOutputMessage> getGraphQl(
+            final SyncJob job,
             final Optional<ProcessedRecord> lastProcessedRecord,
-            final ZonedDateTime defaultStartTimestamp,
             final ZonedDateTime endTimestamp
-    ) throws JsonProcessingException {
-        final ZonedDateTime startTimestamp = lastProcessedRecord
+    ) {
+        final long startTimestamp = lastProcessedRecord
             .map(r -> r.getInitialFinishDate())
-            .orElse(defaultStartTimestamp);
+            .orElse(job.getDefaultStartTimestamp())
+            .toEpochSecond();
 
         final String surveyId = lastProcessedRecord
             .map(r -> r.getSurveyId().toString())
-            .orElse(defaultStartSurveyId);
+            .orElse(job.getDefaultStartSurveyId());
 
-        final Map<String, Object> variables = new HashMap<>();
-        variables.put("initialFinishDateField", initialFinishDateField);
-        variables.put("numRecordsPerRequest", numRecordsPerRequest);
-        variables.put("surveyIdField", surveyIdField);
-        variables.put("startSurveyId", surveyId);
-        variables.put("startTimestamp", startTimestamp.toEpochSecond());
-        variables.put("endTimestamp", endTimestamp.toEpochSecond());
+        final GraphQlRequestTemplate template = requestTemplates.get(job.getName());
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(
+                "GraphQL request:\n{}",
+                template.render(surveyId, startTimestamp, endTimestamp.toEpochSecond())
+            );
+        }
+
+        return template.inserter(surveyId, startTimestamp, endTimestamp.toEpochSecond());
+    }
+
+    /**
+     * Keeps track of whether the Query API knows a job's persisted query:
+     * it does once it has answered, and no longer does if it reports the
+     * query as not found, in which case the retry sends the query in full.
+     *
+     * @param job the job the request is for
+     * @param attempt the request attempt
+     * @return the attempt, tracked
+     */
+    private <T> Mono<T> trackPersistedQuery(final SyncJob job, final Mono<T> attempt) {
+        final GraphQlRequestTemplate template = requestTemplates.get(job.getName());
+
+        return attempt
+            .doOnSuccess(response -> template.answered())
+            .doOnError(QueryApiException.class, e -> {
+                if (e.isPersistedQueryNotFound()) {
+                    LOGGER.info("Query API does not know the persisted query of job {}; sending it in full", job.getName());
+                    template.forgotten();
+                }
+            });
+    }
+
+    /**
+     * Fetches a job's pages one at a time, each only once downstream has
+     * requested it.
+     */
+    private class PageFetcher {
+
+        private final SyncJob job;
+        private final ZonedDateTime endTimestamp;
+        private final FluxSink<FetchedPage> sink;
+
+        private Optional<ProcessedRecord> cursor;
+        private boolean fetching;
+        private boolean done;
+        private Disposable inFlight;
 
-        final Map<String, Object> graphQl = new HashMap<>();
-        graphQl.put("query", query);
-        graphQl.put("variables", variables);
+        PageFetcher(
+                final SyncJob job,
+                final Optional<ProcessedRecord> cursor,
+                final ZonedDateTime endTimestamp,
+                final FluxSink<FetchedPage> sink
+        ) {
+            this.job = job;
+            this.cursor = cursor;
+            this.endTimestamp = endTimestamp;
+            this.sink = sink;
+        }
+
+        /**
+         * Starts fetching the next page, unless a fetch is in flight, the
+         * last page has been fetched or no page has been requested.
+         */
+        synchronized void drain() {
+            if (fetching || done || sink.isCancelled() || sink.requestedFromDownstream() == 0) {
+                return;
+            }
+
+            fetching = true;
+            LOGGER.info("Querying new records of job {} from Query API", job.getName());
+
+            inFlight = fetchPage(job, cursor, endTimestamp).subscribe(this::fetched, sink::error);
+        }
+
+        synchronized void dispose() {
+            done = true;
+
+            if (inFlight != null) {
+                inFlight.dispose();
+            }
+        }
+
+        private void fetched(final FetchedPage page) {
+            final boolean lastPage;
+
+            synchronized (this) {
+                fetching = false;
+                lastPage = !page.hasMorePages;
+                done |= lastPage;
 
-        final String graphQlString = objectMapper.writeValueAsString(graphQl);
+                if (!lastPage) {
+                    cursor = Optional.of(page.page.getProcessedRecord(page.page.size() - 1));
+                }
+            }
 
-        LOGGER.trace("GraphQL request:\n{}", graphQlString);
+            sink.next(page);
+
+            if (lastPage) {
+                sink.complete();
+            } else {
+                drain();
+            }
+        }
+
+    }
+
+    /**
+     * A page that has been fetched ahead of processing.
+     */
+    private static class FetchedPage {
+
+        private final FeedbackPage page;
+        private final boolean hasMorePages;
+
+        FetchedPage(final FeedbackPage page, final boolean hasMorePages) {
+            this.page = page;
+            this.hasMorePages = hasMorePages;
+        }
 
-        return graphQlString;
     }
 
 }
@@ -0,0 +1,42 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+/**
+ * How the columns of a columnar row group are compressed.  A column is only
+ * stored compressed when that makes it smaller.
+ */
+public enum ColumnarCodec {
+
+    NONE(0),
+    DEFLATE(1);
+
+    private final int id;
+
+    ColumnarCodec(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * The codec's identifier in the file.
+     *
+     * @return the identifier
+     */
+    int getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the codec with an identifier read from a file.
+     *
+     * @param id the identifier
+     * @return the codec, or null if the identifier is unknown
+     */
+    static ColumnarCodec fromId(final int id) {
+        for (final ColumnarCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+}
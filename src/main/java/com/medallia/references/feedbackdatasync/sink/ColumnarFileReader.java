@@ -0,0 +1,355 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.CELL_ABSENT;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.CELL_NULL;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.CELL_VALUES;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ENCODING_DICTIONARY;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ENCODING_LONG_DELTA;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ENCODING_PLAIN;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.MAGIC;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ROW_GROUP_FRAMING;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ROW_GROUP_MARKER;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.VERSION;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.readString;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.readVarLong;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.readVarInt;
+
+/**
+ * Reads the files written by {@link ColumnarFileWriter} back, one row group
+ * (a Query API page) at a time.  Reading stops at the first incomplete or
+ * corrupt row group, e.g. one torn by a crash.  Files of every version up
+ * to the current one can be read.
+ */
+public class ColumnarFileReader implements Closeable {
+
+    private final FileChannel channel;
+    private final List<String> schema;
+    private final int version;
+
+    private long validLength;
+    private boolean truncated;
+
+    /**
+     * Opens a columnar file and reads its schema.
+     *
+     * @param file the file to read
+     * @throws IOException if the file cannot be read or is not a columnar
+     *                     file
+     */
+    public ColumnarFileReader(final Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            final ByteBuffer preamble = readAt(0, MAGIC.length + 5);
+            final byte[] magic = new byte[MAGIC.length];
+            if (preamble != null) {
+                preamble.get(magic);
+            }
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a columnar file: " + file);
+            }
+
+            this.version = preamble.get();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported columnar file version " + version + ": " + file);
+            }
+
+            final int headerLength = preamble.getInt();
+            final ByteBuffer header = headerLength < 0 ? null : readAt(preamble.capacity(), headerLength);
+            if (header == null) {
+                throw new IOException("Truncated columnar file header: " + file);
+            }
+
+            final int columnCount = readVarInt(header);
+            final List<String> columns = new ArrayList<>(columnCount);
+            for (int column = 0; column < columnCount; column++) {
+                columns.add(readString(header));
+            }
+
+            this.schema = Collections.unmodifiableList(columns);
+            this.validLength = preamble.capacity() + headerLength;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the columns of the file.
+     *
+     * @return the column names, starting with the survey id and initial
+     *         finish date
+     */
+    public List<String> getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Returns the version of the file's format.
+     *
+     * @return the version
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Reads the next row group.
+     *
+     * @return the row group's records, or null at the end of the file or at
+     *         an incomplete row group
+     * @throws IOException if the file cannot be read or a row group cannot
+     *                     be decoded
+     */
+    public FeedbackPage read() throws IOException {
+        final ByteBuffer payload = nextRowGroup();
+
+        try {
+            return payload == null ? null : decode(payload);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated row group", e);
+        }
+    }
+
+    /**
+     * Skips the next row group, checking its integrity.
+     *
+     * @return whether there was a complete row group to skip
+     * @throws IOException if the file cannot be read
+     */
+    public boolean skip() throws IOException {
+        return nextRowGroup() != null;
+    }
+
+    /**
+     * Returns the length of the file up to the end of the last complete row
+     * group read or skipped.
+     *
+     * @return the valid length in bytes
+     */
+    public long getValidLength() {
+        return this.validLength;
+    }
+
+    /**
+     * Returns whether reading stopped at an incomplete or corrupt row group
+     * rather than at the end of the file.
+     *
+     * @return whether the file has a torn tail
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer nextRowGroup() throws IOException {
+        if (truncated) {
+            return null;
+        }
+
+        final long size = channel.size();
+        if (validLength == size) {
+            return null;
+        }
+
+        final ByteBuffer frame = readAt(validLength, 8);
+        final int length = frame == null ? -1 : frame.getInt(4);
+        if (frame == null
+                || frame.getInt(0) != ROW_GROUP_MARKER
+                || length < 0
+                || validLength + ROW_GROUP_FRAMING + length > size) {
+            truncated = true;
+            return null;
+        }
+
+        final ByteBuffer payload = readAt(validLength + 8, length + 4);
+        final CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != payload.getInt(length)) {
+            truncated = true;
+            return null;
+        }
+
+        validLength += ROW_GROUP_FRAMING + length;
+        payload.limit(length);
+        return payload;
+    }
+
+    private FeedbackPage decode(final ByteBuffer payload) throws IOException {
+        final int rowCount = readVarInt(payload);
+        final int columnCount = readVarInt(payload);
+        if (columnCount != schema.size()) {
+            throw new IOException("Row group has " + columnCount + " columns, expected " + schema.size());
+        }
+
+        final int[][] counts = new int[columnCount][];
+        final String[][] values = new String[columnCount][];
+        final Inflater inflater = new Inflater(true);
+
+        try {
+            for (int column = 0; column < columnCount; column++) {
+                final ColumnarCodec codec = ColumnarCodec.fromId(payload.get());
+                final int rawLength = readVarInt(payload);
+                final int storedLength = readVarInt(payload);
+                if (codec == null || storedLength > payload.remaining()) {
+                    throw new IOException("Malformed column " + schema.get(column));
+                }
+
+                final ByteBuffer stored = ByteBuffer.wrap(
+                    payload.array(),
+                    payload.arrayOffset() + payload.position(),
+                    storedLength
+                ).slice();
+                payload.position(payload.position() + storedLength);
+
+                final ByteBuffer raw = codec == ColumnarCodec.DEFLATE
+                    ? inflate(inflater, stored, rawLength)
+                    : stored;
+
+                counts[column] = new int[rowCount];
+                int valueCount = 0;
+                for (int row = 0; row < rowCount; row++) {
+                    counts[column][row] = readVarInt(raw);
+                    if (counts[column][row] >= CELL_VALUES) {
+                        valueCount += counts[column][row] - CELL_VALUES;
+                    }
+                }
+
+                values[column] = decodeValues(raw, valueCount);
+            }
+        } finally {
+            inflater.end();
+        }
+
+        final FeedbackPage.Builder builder = new FeedbackPage.Builder();
+        final int[] builderColumns = new int[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            builderColumns[column] = builder.column(schema.get(column));
+        }
+
+        final int[] nextValues = new int[columnCount];
+        for (int row = 0; row < rowCount; row++) {
+            builder.startRow();
+
+            for (int column = 0; column < columnCount; column++) {
+                final int count = counts[column][row];
+                if (count == CELL_ABSENT) {
+                    continue;
+                }
+
+                builder.startCell(builderColumns[column]);
+                if (count == CELL_NULL) {
+                    builder.nullCell();
+                } else {
+                    for (int index = CELL_VALUES; index < count; index++) {
+                        builder.addValue(values[column][nextValues[column]++]);
+                    }
+                }
+                builder.endCell();
+            }
+
+            builder.endRow();
+        }
+
+        return builder.build();
+    }
+
+    private static String[] decodeValues(final ByteBuffer raw, final int valueCount) throws IOException {
+        final String[] values = new String[valueCount];
+        final int encoding = raw.get();
+
+        if (encoding == ENCODING_DICTIONARY) {
+            final String[] dictionary = new String[readVarInt(raw)];
+            for (int entry = 0; entry < dictionary.length; entry++) {
+                dictionary[entry] = readString(raw);
+            }
+            for (int index = 0; index < valueCount; index++) {
+                final int entry = readVarInt(raw);
+                if (entry > dictionary.length) {
+                    throw new IOException("Dictionary index out of range");
+                }
+                values[index] = entry == 0 ? null : dictionary[entry - 1];
+            }
+        } else if (encoding == ENCODING_PLAIN) {
+            for (int index = 0; index < valueCount; index++) {
+                values[index] = readString(raw);
+            }
+        } else if (encoding == ENCODING_LONG_DELTA) {
+            long value = 0;
+            for (int index = 0; index < valueCount; index++) {
+                final long zigzag = readVarLong(raw);
+                value += (zigzag >>> 1) ^ -(zigzag & 1);
+                values[index] = Long.toString(value);
+            }
+        } else {
+            throw new IOException("Unknown column encoding " + encoding);
+        }
+
+        return values;
+    }
+
+    private static ByteBuffer inflate(final Inflater inflater, final ByteBuffer stored, final int rawLength)
+            throws IOException {
+        final byte[] raw = new byte[rawLength];
+
+        inflater.reset();
+        inflater.setInput(stored.array(), stored.arrayOffset(), stored.remaining());
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                final int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException("Column inflated to " + length + " bytes, expected " + rawLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed column", e);
+        }
+
+        return ByteBuffer.wrap(raw);
+    }
+
+    /**
+     * Reads a range of the file into a heap buffer.
+     *
+     * @return the buffer, or null if the file ends before the range does
+     */
+    private ByteBuffer readAt(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,614 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.FieldType;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.CELL_ABSENT;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.CELL_NULL;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.CELL_VALUES;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ENCODING_DICTIONARY;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ENCODING_LONG_DELTA;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ENCODING_PLAIN;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.MAGIC;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ROW_GROUP_FRAMING;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.ROW_GROUP_MARKER;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.VERSION;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.writeString;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.writeVarInt;
+import static com.medallia.references.feedbackdatasync.sink.ColumnarFormat.writeVarLong;
+
+/**
+ * Writes records in a columnar file (see {@link ColumnarFormat}), one row
+ * group per Query API page.  The columns are the survey id, the initial
+ * finish date and the fields of the job's node projection; fields outside
+ * the schema are dropped.  Low-cardinality columns, which most Medallia
+ * option fields are, are dictionary-encoded, and each column is compressed
+ * on its own.  Columns of declared {@code long} and {@code epoch} fields
+ * are delta-encoded from the values the page already decoded, as long as
+ * every value reads exactly as its number.  Read the files back with
+ * {@link ColumnarFileReader}.
+ *
+ * <p>Records are buffered per thread, and {@link #flush()} encodes the
+ * calling thread's records as a row group, so concurrent shards never mix
+ * their pages.  Only appending the encoded group to the file is
+ * serialized.  The file is rotated once it reaches a size or age
+ * threshold.  On start, a row group torn by a crash is cut off the end of
+ * the file; its page was never checkpointed and is pulled again.</p>
+ */
+public class ColumnarFileWriter implements RecordSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColumnarFileWriter.class);
+
+    private static final Pattern NODE_ALIAS = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*)\\s*:\\s*fieldData\\b");
+
+    private final Path activeFile;
+    private final List<String> schema;
+    private final Map<String, Integer> schemaColumns = new HashMap<>();
+    private final ColumnarCodec codec;
+    private final int maxDictionarySize;
+    private final long rotateBytes;
+    private final Duration rotateInterval;
+    private final boolean fsync;
+
+    private final ThreadLocal<List<Map<String, QueryApiResponse.NodeValuesWrapper>>> pendingRecords =
+        ThreadLocal.withInitial(ArrayList::new);
+    private final Set<String> droppedFields = ConcurrentHashMap.newKeySet();
+
+    private FileChannel channel;
+    private ZonedDateTime openedAt;
+    private long bytesWritten;
+    private int rowGroups;
+    private volatile boolean closed;
+
+    /**
+     * Creates the writer, resuming the active file if it has the same
+     * schema and format version and rotating it out of the way otherwise.
+     *
+     * @param file the active output file
+     * @param fields the custom fields to keep, in column order; the survey
+     *               id and initial finish date always come first
+     * @param codec how each column is compressed
+     * @param maxDictionarySize the most distinct values a column of a row
+     *                          group may have to be dictionary-encoded, or 0
+     *                          to never use a dictionary
+     * @param rotateBytes rotate once the active file is this large, or 0 to
+     *                    never rotate on size
+     * @param rotateInterval rotate once the active file is this old, or zero
+     *                       to never rotate on age
+     * @param fsync whether {@link #flush()} forces the file to the device
+     * @throws IOException if the output file cannot be opened
+     */
+    public ColumnarFileWriter(
+            final Path file,
+            final List<String> fields,
+            final ColumnarCodec codec,
+            final int maxDictionarySize,
+            final long rotateBytes,
+            final Duration rotateInterval,
+            final boolean fsync
+    ) throws IOException {
+        final List<String> columns = new ArrayList<>(fields.size() + 2);
+        columns.add(SURVEY_ID);
+        columns.add(FINISH_DATE);
+        for (final String field : fields) {
+            if (!columns.contains(field)) {
+                columns.add(field);
+            }
+        }
+        for (int column = 0; column < columns.size(); column++) {
+            schemaColumns.put(columns.get(column), column);
+        }
+
+        this.activeFile = file;
+        this.schema = Collections.unmodifiableList(columns);
+        this.codec = codec;
+        this.maxDictionarySize = maxDictionarySize;
+        this.rotateBytes = rotateBytes;
+        this.rotateInterval = rotateInterval;
+        this.fsync = fsync;
+
+        synchronized (this) {
+            open();
+        }
+    }
+
+    /**
+     * Returns the aliases of the fields in a GraphQL node projection, e.g.
+     * {@code comment} for {@code comment: fieldData(fieldId: "q_comment")}.
+     *
+     * @param graphQlNodes the node projection
+     * @return the field aliases, in projection order
+     */
+    public static List<String> fieldsOf(final String graphQlNodes) {
+        final List<String> fields = new ArrayList<>();
+        final Matcher matcher = NODE_ALIAS.matcher(graphQlNodes);
+
+        while (matcher.find()) {
+            fields.add(matcher.group(1));
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the columns of the files this writer writes.
+     *
+     * @return the column names
+     */
+    public List<String> getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Buffers a record until the calling thread's next {@link #flush()}.
+     *
+     * @param record the record to write
+     * @throws IOException if the writer is closed
+     */
+    @Override
+    public void write(final Map<String, QueryApiResponse.NodeValuesWrapper> record) throws IOException {
+        checkOpen();
+        pendingRecords.get().add(record);
+    }
+
+    /**
+     * Writes the records the calling thread buffered as one row group and,
+     * if configured, forces them to the storage device.
+     *
+     * @throws IOException if the records could not be written
+     */
+    @Override
+    public void flush() throws IOException {
+        final List<Map<String, QueryApiResponse.NodeValuesWrapper>> records = pendingRecords.get();
+        if (records.isEmpty()) {
+            return;
+        }
+
+        final byte[] rowGroup;
+        try {
+            rowGroup = encodeRowGroup(records);
+        } finally {
+            records.clear();
+        }
+
+        synchronized (this) {
+            checkOpen();
+            appendRowGroup(rowGroup);
+
+            if (isRotationDue()) {
+                rotate();
+            }
+        }
+    }
+
+    /**
+     * Drops the records the calling thread buffered since its last
+     * {@link #flush()}, so they never reach a row group.
+     */
+    @Override
+    public void discard() {
+        pendingRecords.get().clear();
+    }
+
+    /**
+     * Closes the active file.  Records buffered without a flush are
+     * discarded.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        pendingRecords.remove();
+        channel.close();
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Columnar writer is closed");
+        }
+    }
+
+    private byte[] encodeRowGroup(final List<Map<String, QueryApiResponse.NodeValuesWrapper>> records) {
+        final int rowCount = records.size();
+        final int columnCount = schema.size();
+
+        final int[][] counts = new int[columnCount][rowCount];
+        final List<List<String>> values = new ArrayList<>(columnCount);
+        for (int column = 0; column < columnCount; column++) {
+            values.add(new ArrayList<>(rowCount));
+        }
+
+        // The decoded values of columns that may be delta-encoded; a column
+        // drops out at its first value that cannot be
+        final long[][] longValues = new long[columnCount][];
+        final boolean[] integral = new boolean[columnCount];
+        Arrays.fill(integral, true);
+
+        FeedbackPage lastPage = null;
+        int[] pageColumns = null;
+
+        for (int row = 0; row < rowCount; row++) {
+            final Map<String, QueryApiResponse.NodeValuesWrapper> record = records.get(row);
+
+            if (record instanceof FeedbackPage.Row) {
+                // Read the page's arrays directly instead of going through
+                // the map view
+                final FeedbackPage page = ((FeedbackPage.Row) record).getPage();
+                final int pageRow = ((FeedbackPage.Row) record).getRow();
+
+                if (page != lastPage) {
+                    lastPage = page;
+                    pageColumns = mapPageColumns(page);
+                }
+
+                for (int column = 0; column < columnCount; column++) {
+                    final int pageColumn = pageColumns[column];
+
+                    if (pageColumn < 0 || !page.hasField(pageRow, pageColumn)) {
+                        counts[column][row] = CELL_ABSENT;
+                    } else if (page.isNull(pageRow, pageColumn)) {
+                        counts[column][row] = CELL_NULL;
+                    } else {
+                        final int valueCount = page.getValueCount(pageRow, pageColumn);
+                        counts[column][row] = valueCount + CELL_VALUES;
+
+                        final List<String> columnValues = values.get(column);
+                        for (int index = 0; index < valueCount; index++) {
+                            final String value = page.getValue(pageRow, pageColumn, index);
+
+                            if (integral[column]) {
+                                integral[column] = isIntegral(page.getField(pageColumn))
+                                    && page.isDecoded(pageRow, pageColumn, index)
+                                    && isCanonical(value, page.getLong(pageRow, pageColumn, index));
+
+                                if (integral[column]) {
+                                    longValues[column] = append(
+                                        longValues[column],
+                                        columnValues.size(),
+                                        page.getLong(pageRow, pageColumn, index)
+                                    );
+                                }
+                            }
+                            columnValues.add(value);
+                        }
+                    }
+                }
+            } else {
+                Arrays.fill(integral, false);
+
+                for (final String field : record.keySet()) {
+                    dropIfUnknown(field);
+                }
+
+                for (int column = 0; column < columnCount; column++) {
+                    final String field = schema.get(column);
+                    final QueryApiResponse.NodeValuesWrapper cell = record.get(field);
+
+                    if (cell == null && !record.containsKey(field)) {
+                        counts[column][row] = CELL_ABSENT;
+                    } else if (cell == null || cell.getValues() == null) {
+                        counts[column][row] = CELL_NULL;
+                    } else {
+                        counts[column][row] = cell.getValues().size() + CELL_VALUES;
+                        values.get(column).addAll(cell.getValues());
+                    }
+                }
+            }
+        }
+
+        final ByteArrayOutputStream rowGroup = new ByteArrayOutputStream(64 * 1024);
+        final ByteArrayOutputStream columnBytes = new ByteArrayOutputStream(16 * 1024);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+        try {
+            writeVarInt(rowGroup, rowCount);
+            writeVarInt(rowGroup, columnCount);
+
+            for (int column = 0; column < columnCount; column++) {
+                columnBytes.reset();
+                encodeColumn(
+                    counts[column],
+                    values.get(column),
+                    integral[column] && !values.get(column).isEmpty() ? longValues[column] : null,
+                    columnBytes
+                );
+
+                final byte[] raw = columnBytes.toByteArray();
+                final byte[] compressed = codec == ColumnarCodec.DEFLATE ? deflate(deflater, raw) : null;
+                final boolean useCompressed = compressed != null && compressed.length < raw.length;
+                final byte[] stored = useCompressed ? compressed : raw;
+
+                rowGroup.write((useCompressed ? ColumnarCodec.DEFLATE : ColumnarCodec.NONE).getId());
+                writeVarInt(rowGroup, raw.length);
+                writeVarInt(rowGroup, stored.length);
+                rowGroup.write(stored, 0, stored.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return rowGroup.toByteArray();
+    }
+
+    /**
+     * Maps each schema column to the page's column for the same field, or -1
+     * if no record of the page has the field.
+     */
+    private int[] mapPageColumns(final FeedbackPage page) {
+        for (int pageColumn = 0; pageColumn < page.getColumnCount(); pageColumn++) {
+            dropIfUnknown(page.getColumnName(pageColumn));
+        }
+
+        final int[] pageColumns = new int[schema.size()];
+        for (int column = 0; column < pageColumns.length; column++) {
+            pageColumns[column] = page.getColumnIndex(schema.get(column));
+        }
+        return pageColumns;
+    }
+
+    private void dropIfUnknown(final String field) {
+        if (!schemaColumns.containsKey(field) && droppedFields.add(field)) {
+            LOGGER.warn("Field {} is not in the schema of {} and is dropped", field, activeFile);
+        }
+    }
+
+    private static boolean isIntegral(final FieldSchema.Field field) {
+        return field != null && (field.getType() == FieldType.LONG || field.getType() == FieldType.EPOCH);
+    }
+
+    /**
+     * Checks whether a raw value reads exactly as the number it decoded to,
+     * so a reader restores it from the number, without building the number's
+     * string.
+     */
+    private static boolean isCanonical(final String raw, final long value) {
+        if (value == 0) {
+            return raw.length() == 1 && raw.charAt(0) == '0';
+        }
+
+        int index = raw.length();
+        for (long remaining = value; remaining != 0; remaining /= 10) {
+            if (--index < 0 || raw.charAt(index) != '0' + Math.abs(remaining % 10)) {
+                return false;
+            }
+        }
+        return value < 0 ? index == 1 && raw.charAt(0) == '-' : index == 0;
+    }
+
+    private static long[] append(final long[] values, final int index, final long value) {
+        final long[] target = values == null || values.length == index
+            ? Arrays.copyOf(values == null ? new long[0] : values, Math.max(16, index * 2))
+            : values;
+        target[index] = value;
+        return target;
+    }
+
+    private void encodeColumn(
+            final int[] counts,
+            final List<String> values,
+            final long[] longValues,
+            final ByteArrayOutputStream out
+    ) {
+        for (final int count : counts) {
+            writeVarInt(out, count);
+        }
+
+        if (longValues != null) {
+            out.write(ENCODING_LONG_DELTA);
+            long previous = 0;
+            for (int index = 0; index < values.size(); index++) {
+                final long delta = longValues[index] - previous;
+                writeVarLong(out, (delta << 1) ^ (delta >> 63));
+                previous = longValues[index];
+            }
+            return;
+        }
+
+        // Use a dictionary when the column repeats a small set of values
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final List<String> entries = new ArrayList<>();
+        boolean useDictionary = maxDictionarySize > 0;
+
+        for (int index = 0; useDictionary && index < values.size(); index++) {
+            final String value = values.get(index);
+
+            if (value != null && !dictionary.containsKey(value)) {
+                dictionary.put(value, entries.size());
+                entries.add(value);
+                useDictionary = entries.size() <= maxDictionarySize;
+            }
+        }
+        useDictionary = useDictionary && entries.size() < values.size();
+
+        if (useDictionary) {
+            out.write(ENCODING_DICTIONARY);
+            writeVarInt(out, entries.size());
+            for (final String entry : entries) {
+                writeString(out, entry);
+            }
+            for (final String value : values) {
+                writeVarInt(out, value == null ? 0 : dictionary.get(value) + 1);
+            }
+        } else {
+            out.write(ENCODING_PLAIN);
+            for (final String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    private static byte[] deflate(final Deflater deflater, final byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+        final byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            final int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    private void appendRowGroup(final byte[] payload) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        final ByteBuffer frame = ByteBuffer.allocate(payload.length + ROW_GROUP_FRAMING);
+        frame.putInt(ROW_GROUP_MARKER);
+        frame.putInt(payload.length);
+        frame.put(payload);
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+
+        writeFully(frame);
+        if (fsync) {
+            channel.force(false);
+        }
+
+        bytesWritten += frame.limit();
+        rowGroups++;
+    }
+
+    private boolean isRotationDue() {
+        if (rowGroups == 0) {
+            return false;
+        }
+
+        return (rotateBytes > 0 && bytesWritten >= rotateBytes)
+            || (!rotateInterval.isZero() && openedAt.plus(rotateInterval).isBefore(ZonedDateTime.now()));
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+
+        final Path rotatedFile = RotatedFiles.rotate(activeFile, openedAt);
+        LOGGER.info("Rotated columnar file to {}", rotatedFile);
+
+        open();
+    }
+
+    private void open() throws IOException {
+        final Path parent = activeFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        if (Files.exists(activeFile) && Files.size(activeFile) > 0 && resume()) {
+            return;
+        }
+
+        channel = FileChannel.open(
+            activeFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        );
+
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeVarInt(header, schema.size());
+        for (final String column : schema) {
+            writeString(header, column);
+        }
+
+        final ByteBuffer frame = ByteBuffer.allocate(MAGIC.length + 5 + header.size());
+        frame.put(MAGIC);
+        frame.put((byte) VERSION);
+        frame.putInt(header.size());
+        frame.put(header.toByteArray());
+        frame.flip();
+        writeFully(frame);
+
+        openedAt = ZonedDateTime.now();
+        bytesWritten = frame.limit();
+        rowGroups = 0;
+    }
+
+    /**
+     * Appends to the existing active file if it has this writer's schema and
+     * format version, cutting off a torn row group at its end.  Otherwise
+     * the file is rotated out of the way.
+     *
+     * @return whether the existing file was resumed
+     */
+    private boolean resume() throws IOException {
+        long validLength = -1;
+        int existingRowGroups = 0;
+
+        try (ColumnarFileReader reader = new ColumnarFileReader(activeFile)) {
+            if (reader.getVersion() == VERSION && reader.getSchema().equals(schema)) {
+                while (reader.skip()) {
+                    existingRowGroups++;
+                }
+                validLength = reader.getValidLength();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read columnar file {}: {}", activeFile, e.getMessage());
+        }
+
+        if (validLength < 0) {
+            final ZonedDateTime modifiedAt = ZonedDateTime.ofInstant(
+                Files.getLastModifiedTime(activeFile).toInstant(),
+                ZoneId.systemDefault()
+            );
+            final Path rotatedFile = RotatedFiles.rotate(activeFile, modifiedAt);
+            LOGGER.info("Moved columnar file with a different schema or version to {}", rotatedFile);
+            return false;
+        }
+
+        channel = FileChannel.open(activeFile, StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            LOGGER.warn("Cutting a torn row group of {} bytes off {}", channel.size() - validLength, activeFile);
+            channel.truncate(validLength);
+            channel.force(false);
+        }
+        channel.position(validLength);
+
+        openedAt = ZonedDateTime.now();
+        bytesWritten = validLength;
+        rowGroups = existingRowGroups;
+        return true;
+    }
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
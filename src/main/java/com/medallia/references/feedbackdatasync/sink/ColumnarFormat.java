@@ -0,0 +1,125 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of the files written by {@link ColumnarFileWriter}.
+ *
+ * <p>A file starts with {@link #MAGIC}, a version byte and the length of
+ * the schema, followed by the schema: the number of columns and their names.
+ * Row groups follow, each framed by {@link #ROW_GROUP_MARKER}, the length of
+ * its payload, the payload and the CRC-32 of the payload, so a group torn by
+ * a crash can be told apart from a complete one.</p>
+ *
+ * <p>A row group's payload holds the number of rows and of columns, then
+ * each column in schema order: its codec, its uncompressed and stored
+ * lengths and its (possibly compressed) bytes.  Uncompressed, a column is a
+ * count per row ({@link #CELL_ABSENT}, {@link #CELL_NULL}, or the number of
+ * values plus {@link #CELL_VALUES}), then its encoding and every value of
+ * the column.  Dictionary-encoded columns hold the distinct values followed
+ * by an index per value; plain columns hold the values themselves.  Since
+ * version 2, a column of a declared {@code long} or {@code epoch} field
+ * whose values all decoded and read exactly as their numbers may be stored
+ * as the differences between consecutive values, zigzag-encoded.  Numbers
+ * are unsigned variable-length integers and strings are length-prefixed
+ * UTF-8, with a length of 0 standing for null.</p>
+ */
+final class ColumnarFormat {
+
+    static final byte[] MAGIC = { 'M', 'C', 'O', 'L' };
+    static final int VERSION = 2;
+
+    static final int ROW_GROUP_MARKER = 0x52475250;
+    static final int ROW_GROUP_FRAMING = 12;
+
+    static final int CELL_ABSENT = 0;
+    static final int CELL_NULL = 1;
+    static final int CELL_VALUES = 2;
+
+    static final int ENCODING_PLAIN = 0;
+    static final int ENCODING_DICTIONARY = 1;
+    static final int ENCODING_LONG_DELTA = 2;
+
+    private ColumnarFormat() {
+    }
+
+    static void writeVarInt(final ByteArrayOutputStream out, final int value) {
+        int remaining = value;
+        while ((remaining & ~0x7f) != 0) {
+            out.write((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    static int readVarInt(final ByteBuffer in) throws IOException {
+        try {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final byte b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated columnar data", e);
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    static void writeVarLong(final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0) {
+            out.write((int) (remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    static long readVarLong(final ByteBuffer in) throws IOException {
+        try {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = in.get();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated columnar data", e);
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    static void writeString(final ByteArrayOutputStream out, final String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static String readString(final ByteBuffer in) throws IOException {
+        final int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > in.remaining()) {
+            throw new IOException("Truncated columnar string");
+        }
+
+        final String value = new String(in.array(), in.arrayOffset() + in.position(), length - 1, StandardCharsets.UTF_8);
+        in.position(in.position() + length - 1);
+        return value;
+    }
+
+}
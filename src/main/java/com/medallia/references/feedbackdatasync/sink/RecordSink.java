@@ -0,0 +1,58 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+
+/**
+ * Where a job's records are written, one Query API page at a time.
+ *
+ * <p>{@link #write(Map)} may buffer records; {@link #flush()} is called
+ * once per page, from the thread that wrote the page's records, and must
+ * not return until those records are durable.</p>
+ */
+public interface RecordSink extends Closeable {
+
+    /**
+     * Writes a record, or buffers it until the next {@link #flush()}.
+     *
+     * @param record the record to write
+     * @throws IOException if the sink has failed or been closed
+     */
+    void write(Map<String, QueryApiResponse.NodeValuesWrapper> record) throws IOException;
+
+    /**
+     * Waits until every record the calling thread wrote so far has been
+     * written and, if configured, forced to the storage device.
+     *
+     * @throws IOException if the records could not be written
+     */
+    void flush() throws IOException;
+
+    /**
+     * Drops the records the calling thread wrote since its last
+     * {@link #flush()}, if the sink still buffers them, e.g. because a
+     * record of their page failed.  Records a sink has already handed on
+     * are delivered anyway, and written again when their page is pulled
+     * again.
+     */
+    default void discard() {
+        // Records are not buffered per thread
+    }
+
+    /**
+     * Whether several threads may write and flush records at once, each
+     * flushing only what it wrote, as the lanes of
+     * {@code medallia.persistence.record.lanes} do.  A sink that cannot
+     * has every page's records written by the thread that persists the
+     * page.
+     *
+     * @return true unless the sink must be written from one thread at a time
+     */
+    default boolean isConcurrent() {
+        return true;
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Throwables;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+
+/**
+ * Writes records as newline-delimited JSON.  Records are queued on a bounded
+ * ring buffer and serialized and written by a single background thread, so
+ * the caller only pays for the enqueue.  The file is rotated once it reaches
+ * a size or age threshold and may optionally be gzip-compressed.
+ *
+ * <p>{@link #flush()} waits until everything queued before it is on disk;
+ * call it before checkpointing a page.  Queued records cannot be
+ * {@link #discard() discarded}, so the records of a page that fails are
+ * still written, and again when the page is pulled again: the stream
+ * delivers each record at least once, and readers that need each record
+ * once dedupe by survey id.</p>
+ */
+public class RecordStreamWriter implements RecordSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordStreamWriter.class);
+
+    private static final long IDLE_POLL_MSEC = 1000;
+
+    private final ObjectWriter objectWriter;
+    private final Path activeFile;
+    private final long rotateBytes;
+    private final Duration rotateInterval;
+    private final boolean gzip;
+    private final boolean fsync;
+
+    private final BlockingQueue<Object> ringBuffer;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(4096);
+    private final Thread writerThread;
+
+    private volatile boolean running = true;
+    private volatile Throwable failure;
+
+    private FileOutputStream fileStream;
+    private OutputStream outputStream;
+    private ZonedDateTime openedAt;
+    private long bytesWritten;
+    private boolean dirty;
+
+    /**
+     * Creates the writer and starts its background thread.
+     *
+     * @param objectMapper the mapper used to serialize records; indentation
+     *                     is always turned off
+     * @param file the active output file
+     * @param ringBufferSize the number of records that may be queued before
+     *                       {@link #write(Object)} blocks
+     * @param rotateBytes rotate once this many uncompressed bytes have been
+     *                    written to the active file, or 0 to never rotate on
+     *                    size
+     * @param rotateInterval rotate once the active file is this old, or zero
+     *                       to never rotate on age
+     * @param gzip whether to gzip the output
+     * @param fsync whether {@link #flush()} forces the file to the device
+     * @throws IOException if the output file cannot be opened
+     */
+    public RecordStreamWriter(
+            final ObjectMapper objectMapper,
+            final Path file,
+            final int ringBufferSize,
+            final long rotateBytes,
+            final Duration rotateInterval,
+            final boolean gzip,
+            final boolean fsync
+    ) throws IOException {
+        this.objectWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        this.activeFile = gzip ? file.resolveSibling(file.getFileName() + ".gz") : file;
+        this.rotateBytes = rotateBytes;
+        this.rotateInterval = rotateInterval;
+        this.gzip = gzip;
+        this.fsync = fsync;
+        this.ringBuffer = new ArrayBlockingQueue<>(ringBufferSize);
+
+        open();
+
+        this.writerThread = new Thread(this::run, "record-stream-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a record to be written.  Blocks while the ring buffer is full.
+     *
+     * @param record the record to write
+     * @throws IOException if the writer has failed or been closed
+     */
+    public void write(final Object record) throws IOException {
+        enqueue(record);
+    }
+
+    @Override
+    public void write(final Map<String, QueryApiResponse.NodeValuesWrapper> record) throws IOException {
+        enqueue(record);
+    }
+
+    /**
+     * Waits until every record queued so far has been written and, if
+     * configured, forced to the storage device.
+     *
+     * @throws IOException if the records could not be written
+     */
+    @Override
+    public void flush() throws IOException {
+        final CompletableFuture<Void> flushed = new CompletableFuture<>();
+        enqueue(flushed);
+
+        try {
+            while (true) {
+                try {
+                    flushed.get(IDLE_POLL_MSEC, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    checkHealthy();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing the record stream");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException("Unable to flush the record stream", e.getCause());
+        }
+    }
+
+    /**
+     * Flushes everything that was queued, stops the background thread and
+     * closes the output file.
+     *
+     * @throws IOException if the final records could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+
+        try {
+            flush();
+        } finally {
+            running = false;
+            writerThread.interrupt();
+
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            closeOutput();
+        }
+    }
+
+    private void enqueue(final Object item) throws IOException {
+        checkHealthy();
+
+        try {
+            // Keep checking on the writer while the ring buffer is full, so a
+            // failed writer cannot block the caller forever
+            while (!ringBuffer.offer(item, IDLE_POLL_MSEC, TimeUnit.MILLISECONDS)) {
+                checkHealthy();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a record");
+        }
+    }
+
+    private void checkHealthy() throws IOException {
+        if (failure != null) {
+            throw new IOException("Record stream writer has failed", failure);
+        }
+        if (!running) {
+            throw new IOException("Record stream writer is closed");
+        }
+    }
+
+    private void run() {
+        while (running) {
+            final Object item;
+
+            try {
+                item = ringBuffer.poll(IDLE_POLL_MSEC, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            try {
+                if (item instanceof CompletableFuture) {
+                    flushOutput();
+                    ((CompletableFuture<?>) item).complete(null);
+                } else if (item != null) {
+                    writeRecord(item);
+                }
+
+                if (isRotationDue()) {
+                    rotate();
+                }
+            } catch (Throwable e) {
+                LOGGER.error("Unable to write to record stream {}", activeFile, e);
+                failure = e;
+
+                if (item instanceof CompletableFuture) {
+                    ((CompletableFuture<?>) item).completeExceptionally(e);
+                }
+                failPendingFlushes(e);
+                return;
+            }
+        }
+    }
+
+    private void writeRecord(final Object record) throws IOException {
+        recordBuffer.reset();
+        objectWriter.writeValue(recordBuffer, record);
+        recordBuffer.write('\n');
+        recordBuffer.writeTo(outputStream);
+
+        bytesWritten += recordBuffer.size();
+        dirty = true;
+    }
+
+    private void flushOutput() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        outputStream.flush();
+        if (fsync) {
+            fileStream.getChannel().force(false);
+        }
+        dirty = false;
+    }
+
+    private boolean isRotationDue() {
+        if (bytesWritten == 0) {
+            return false;
+        }
+
+        return (rotateBytes > 0 && bytesWritten >= rotateBytes)
+            || (!rotateInterval.isZero() && openedAt.plus(rotateInterval).isBefore(ZonedDateTime.now()));
+    }
+
+    private void rotate() throws IOException {
+        flushOutput();
+        closeOutput();
+
+        final Path rotatedFile = RotatedFiles.rotate(activeFile, openedAt);
+        LOGGER.info("Rotated record stream to {}", rotatedFile);
+
+        open();
+    }
+
+    private void open() throws IOException {
+        final Path parent = activeFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        // Appending to a gzip file adds a new gzip member, which every gzip
+        // reader treats as a continuation of the same stream
+        fileStream = new FileOutputStream(activeFile.toFile(), true);
+        final OutputStream buffered = new BufferedOutputStream(fileStream, 64 * 1024);
+        outputStream = gzip ? new GZIPOutputStream(buffered, 64 * 1024, true) : buffered;
+
+        openedAt = ZonedDateTime.now();
+        bytesWritten = 0;
+    }
+
+    private void closeOutput() throws IOException {
+        if (outputStream != null) {
+            outputStream.close();
+            outputStream = null;
+        }
+    }
+
+    private void failPendingFlushes(final Throwable e) {
+        Object item;
+        while ((item = ringBuffer.poll()) != null) {
+            if (item instanceof CompletableFuture) {
+                ((CompletableFuture<?>) item).completeExceptionally(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Moves a sink's active file out of the way on rotation.  The rotated file
+ * keeps the active file's name with the time it was opened inserted before
+ * the extensions, e.g. {@code record-stream.20210401-120000.log}.
+ */
+final class RotatedFiles {
+
+    private static final DateTimeFormatter ROTATION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private RotatedFiles() {
+    }
+
+    /**
+     * Renames the active file to its rotated name.
+     *
+     * @param activeFile the active file
+     * @param openedAt when the active file was opened
+     * @return the rotated file
+     * @throws IOException if the file cannot be moved
+     */
+    static Path rotate(final Path activeFile, final ZonedDateTime openedAt) throws IOException {
+        final String name = activeFile.getFileName().toString();
+        final int extension = name.indexOf('.');
+        final String baseName = extension < 0 ? name : name.substring(0, extension);
+        final String extensions = extension < 0 ? "" : name.substring(extension);
+        final String timestamp = "." + ROTATION_SUFFIX.format(openedAt);
+
+        // Several rotations can happen within the same second on size
+        Path rotatedFile = activeFile.resolveSibling(baseName + timestamp + extensions);
+        for (int sequence = 1; Files.exists(rotatedFile); sequence++) {
+            rotatedFile = activeFile.resolveSibling(baseName + timestamp + "-" + sequence + extensions);
+        }
+
+        Files.move(activeFile, rotatedFile);
+        return rotatedFile;
+    }
+
+}
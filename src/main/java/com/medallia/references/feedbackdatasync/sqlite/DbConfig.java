@@ -7,6 +7,8 @@ import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.zaxxer.hikari.HikariDataSource;
+
 /**
  * Initialize the SQLite database.
  */
@@ -14,20 +16,61 @@ import org.springframework.context.annotation.Configuration;
 public class DbConfig {
 
     /**
-     * Creates the DataSource to the SQLite database.
+     * Creates the DataSource to the SQLite database.  The journal and
+     * synchronous modes are connection-level SQLite pragmas, so they are
+     * handed to the driver as connection properties and applied to every
+     * pooled connection.
      *
      * @param url the DataSource URL
+     * @param journalMode the SQLite journal mode (e.g. WAL), or empty to use
+     *                    the driver default
+     * @param synchronous the SQLite synchronous mode (e.g. NORMAL), or empty
+     *                    to use the driver default
+     * @param busyTimeout how long a connection waits for another writer to
+     *                    release the database, in milliseconds
+     * @param transactionMode how transactions lock the database (e.g.
+     *                        IMMEDIATE), or empty to use IMMEDIATE in cluster
+     *                        mode and the driver default otherwise
+     * @param clusterEnabled whether several instances share the database
      * @return the instantiated DataSource
      */
     @Bean
 	public DataSource dataSource(
-            @Value("${spring.datasource.url}") final String url
+            @Value("${spring.datasource.url}") final String url,
+            @Value("${medallia.persistence.journal.mode:}") final String journalMode,
+            @Value("${medallia.persistence.synchronous:}") final String synchronous,
+            @Value("${medallia.persistence.busy.timeout.msec:30000}") final Integer busyTimeout,
+            @Value("${medallia.persistence.transaction.mode:}") final String transactionMode,
+            @Value("${medallia.cluster.enabled:false}") final boolean clusterEnabled
     ) {
-        final DataSourceBuilder dataSourceBuilder = DataSourceBuilder.create();
+        final DataSourceBuilder<HikariDataSource> dataSourceBuilder =
+            DataSourceBuilder.create().type(HikariDataSource.class);
         dataSourceBuilder.driverClassName("org.sqlite.JDBC");
         dataSourceBuilder.url(url);
 
-        return dataSourceBuilder.build();
+        final HikariDataSource dataSource = dataSourceBuilder.build();
+
+        if (journalMode != null && journalMode.length() > 0) {
+            dataSource.addDataSourceProperty("journal_mode", journalMode);
+        }
+
+        if (synchronous != null && synchronous.length() > 0) {
+            dataSource.addDataSourceProperty("synchronous", synchronous);
+        }
+
+        // Concurrent shards write through separate pooled connections
+        dataSource.addDataSourceProperty("busy_timeout", String.valueOf(busyTimeout));
+
+        // A transaction that reads before it writes would otherwise fail
+        // right away, rather than wait, if another instance started writing
+        // in between
+        if (transactionMode != null && transactionMode.length() > 0) {
+            dataSource.addDataSourceProperty("transaction_mode", transactionMode);
+        } else if (clusterEnabled) {
+            dataSource.addDataSourceProperty("transaction_mode", "IMMEDIATE");
+        }
+
+        return dataSource;
 	}
 
 }
@@ -1,6 +1,7 @@
 package com.medallia.references.feedbackdatasync.sqlite;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -11,24 +12,45 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_CHECKPOINT_NAME;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_COMPLETED;
 import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_JOB;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_LEASE_EXPIRES_AT;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_OWNER;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_RANGE_END;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_RANGE_START;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SHARD_ID;
 import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SURVEYID;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_UPDATED_AT;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.DEFAULT_CHECKPOINT;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.INDEX_RECORDS_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.INDEX_RECORDS_JOB_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_CHECKPOINTS;
 import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS_ARCHIVE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_SHARDS;
 
 /**
- * Initialize the SQLite database.
+ * Initialize the SQLite database.  The schema is versioned through SQLite's
+ * {@code user_version} pragma; each migration runs in its own transaction.
+ * Nothing depends on it, so it is never lazily initialized.
  */
 @Configuration
+@Lazy(false)
 public class DbInitializeConfig {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DbInitializeConfig.class);
 
+    private static final int SCHEMA_VERSION = 4;
+
     @Autowired
     private DataSource dataSource;
 
     /**
-     * Creates the table structure needed in the SQLite database.
+     * Creates or migrates the table structure needed in the SQLite database.
      */
     @PostConstruct
     public void initialize() {
@@ -36,12 +58,35 @@ public class DbInitializeConfig {
             final Connection connection = dataSource.getConnection();
             final Statement statement = connection.createStatement();
 
-            statement.executeUpdate(
-                "CREATE TABLE IF NOT EXISTS " + TABLE_RECORDS + " (" +
-                "  " + COL_SURVEYID + " INTEGER Primary key, " +
-                "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null" +
-                ")"
-            );
+            final int currentVersion = readUserVersion(statement);
+
+            for (int version = currentVersion + 1; version <= SCHEMA_VERSION; version++) {
+                LOGGER.info("Migrating database schema to version {}", version);
+
+                connection.setAutoCommit(false);
+                try {
+                    migrate(statement, version);
+                    statement.executeUpdate("PRAGMA user_version = " + version);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+
+                    // Another instance sharing the database may have run the
+                    // same migration first
+                    if (readUserVersion(statement) < version) {
+                        throw e;
+                    }
+                    LOGGER.info("Database schema version {} was migrated by another instance", version);
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+
+            final ResultSet journalMode = statement.executeQuery("PRAGMA journal_mode");
+            if (journalMode.next()) {
+                LOGGER.info("SQLite journal mode: {}", journalMode.getString(1));
+            }
+            journalMode.close();
 
             statement.close();
             connection.close();
@@ -51,4 +96,172 @@ public class DbInitializeConfig {
         }
     }
 
+    private static int readUserVersion(final Statement statement) throws SQLException {
+        try (ResultSet userVersion = statement.executeQuery("PRAGMA user_version")) {
+            return userVersion.next() ? userVersion.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Applies a single schema migration.
+     *
+     * @param statement the statement to run the migration with
+     * @param version the schema version to migrate to
+     * @throws SQLException if the migration fails
+     */
+    private void migrate(final Statement statement, final int version) throws SQLException {
+        switch (version) {
+            case 1:
+                // The schema before versioning: the original records table,
+                // and the shards table that sharded extraction added.  A
+                // database created before versioning has the records table,
+                // and the shards table too unless it predates sharding, so
+                // each is only created if missing
+                statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + TABLE_RECORDS + " (" +
+                    "  " + COL_SURVEYID + " INTEGER Primary key, " +
+                    "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null" +
+                    ")"
+                );
+
+                statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + TABLE_SHARDS + " (" +
+                    "  " + COL_SHARD_ID + " INTEGER Primary key, " +
+                    "  " + COL_RANGE_START + " INTEGER not null, " +
+                    "  " + COL_RANGE_END + " INTEGER not null, " +
+                    "  " + COL_SURVEYID + " INTEGER not null, " +
+                    "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null, " +
+                    "  " + COL_COMPLETED + " INTEGER not null default 0" +
+                    ")"
+                );
+                break;
+
+            case 2:
+                // One checkpoint row per extraction, so resuming no longer
+                // scans the records table
+                statement.executeUpdate(
+                    "CREATE TABLE " + TABLE_CHECKPOINTS + " (" +
+                    "  " + COL_CHECKPOINT_NAME + " TEXT Primary key, " +
+                    "  " + COL_SURVEYID + " INTEGER not null, " +
+                    "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null, " +
+                    "  " + COL_UPDATED_AT + " INTEGER not null" +
+                    ")"
+                );
+
+                // Seed the checkpoint once from the existing records
+                statement.executeUpdate(
+                    "INSERT INTO " + TABLE_CHECKPOINTS + " " +
+                    "  (" + COL_CHECKPOINT_NAME + ", " + COL_SURVEYID + ", " +
+                    "   " + COL_INITIAL_FINISH_DATE + ", " + COL_UPDATED_AT + ") " +
+                    "SELECT " +
+                    "  '" + DEFAULT_CHECKPOINT + "', " +
+                    "  " + COL_SURVEYID + ", " +
+                    "  " + COL_INITIAL_FINISH_DATE + ", " +
+                    "  strftime('%s', 'now') " +
+                    "FROM " +
+                    "  " + TABLE_RECORDS + " " +
+                    "ORDER BY " +
+                    "  " + COL_INITIAL_FINISH_DATE + " DESC, " +
+                    "  " + COL_SURVEYID + " DESC " +
+                    "LIMIT 1"
+                );
+
+                // Supports the retention policy's range deletes
+                statement.executeUpdate(
+                    "CREATE INDEX IF NOT EXISTS " + INDEX_RECORDS_INITIAL_FINISH_DATE + " " +
+                    "ON " + TABLE_RECORDS + " (" + COL_INITIAL_FINISH_DATE + ")"
+                );
+
+                statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + TABLE_RECORDS_ARCHIVE + " (" +
+                    "  " + COL_SURVEYID + " INTEGER Primary key, " +
+                    "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null" +
+                    ")"
+                );
+                break;
+
+            case 3:
+                // Several extraction jobs share the database: records and
+                // shards are keyed by job as well.  Existing rows belong to
+                // the default job, whose checkpoint is the existing one.
+                rebuildWithJob(statement, TABLE_RECORDS,
+                    "  " + COL_JOB + " TEXT not null, " +
+                    "  " + COL_SURVEYID + " INTEGER not null, " +
+                    "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null, " +
+                    "  Primary key (" + COL_JOB + ", " + COL_SURVEYID + ")",
+                    COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE
+                );
+
+                rebuildWithJob(statement, TABLE_RECORDS_ARCHIVE,
+                    "  " + COL_JOB + " TEXT not null, " +
+                    "  " + COL_SURVEYID + " INTEGER not null, " +
+                    "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null, " +
+                    "  Primary key (" + COL_JOB + ", " + COL_SURVEYID + ")",
+                    COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE
+                );
+
+                rebuildWithJob(statement, TABLE_SHARDS,
+                    "  " + COL_JOB + " TEXT not null, " +
+                    "  " + COL_SHARD_ID + " INTEGER not null, " +
+                    "  " + COL_RANGE_START + " INTEGER not null, " +
+                    "  " + COL_RANGE_END + " INTEGER not null, " +
+                    "  " + COL_SURVEYID + " INTEGER not null, " +
+                    "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null, " +
+                    "  " + COL_COMPLETED + " INTEGER not null default 0, " +
+                    "  Primary key (" + COL_JOB + ", " + COL_SHARD_ID + ")",
+                    COL_SHARD_ID + ", " + COL_RANGE_START + ", " + COL_RANGE_END + ", " +
+                    COL_SURVEYID + ", " + COL_INITIAL_FINISH_DATE + ", " + COL_COMPLETED
+                );
+
+                // The retention policy's range deletes now run per job
+                statement.executeUpdate(
+                    "CREATE INDEX " + INDEX_RECORDS_JOB_INITIAL_FINISH_DATE + " " +
+                    "ON " + TABLE_RECORDS + " (" + COL_JOB + ", " + COL_INITIAL_FINISH_DATE + ")"
+                );
+                break;
+
+            case 4:
+                // Instances sharing the database lease shards: the owner
+                // extracts a shard until its lease, in epoch milliseconds,
+                // expires
+                statement.executeUpdate("ALTER TABLE " + TABLE_SHARDS + " ADD COLUMN " + COL_OWNER + " TEXT");
+                statement.executeUpdate(
+                    "ALTER TABLE " + TABLE_SHARDS + " " +
+                    "ADD COLUMN " + COL_LEASE_EXPIRES_AT + " INTEGER not null default 0"
+                );
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown schema version " + version);
+        }
+    }
+
+    /**
+     * Rebuilds a table with a leading job column, as SQLite cannot change a
+     * table's primary key in place.  Existing rows are assigned to the
+     * default job; the table's indexes are dropped along with it.
+     *
+     * @param statement the statement to run the rebuild with
+     * @param table the table to rebuild
+     * @param columns the new table's column and key definitions
+     * @param copiedColumns the existing columns to copy
+     * @throws SQLException if the rebuild fails
+     */
+    private void rebuildWithJob(
+            final Statement statement,
+            final String table,
+            final String columns,
+            final String copiedColumns
+    ) throws SQLException {
+        statement.executeUpdate("CREATE TABLE " + table + "_v3 (" + columns + ")");
+
+        statement.executeUpdate(
+            "INSERT INTO " + table + "_v3 (" + COL_JOB + ", " + copiedColumns + ") " +
+            "SELECT '" + DEFAULT_CHECKPOINT + "', " + copiedColumns + " FROM " + table
+        );
+
+        statement.executeUpdate("DROP TABLE " + table);
+        statement.executeUpdate("ALTER TABLE " + table + "_v3 RENAME TO " + table);
+    }
+
 }
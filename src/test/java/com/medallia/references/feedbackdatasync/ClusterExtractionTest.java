@@ -0,0 +1,150 @@
+package com.medallia.references.feedbackdatasync;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.medallia.references.feedbackdatasync.benchmark.EndToEndHarness;
+import com.medallia.references.feedbackdatasync.benchmark.MockQueryApiServer;
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.service.CheckpointStore;
+
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs two instances of the application in one JVM, sharing one database,
+ * against a {@link MockQueryApiServer}, and stops one of them once it has
+ * persisted records.  The other must take over its leased shards once the
+ * leases expire and finish the dataset, with every record persisted and
+ * streamed exactly once.
+ */
+class ClusterExtractionTest {
+
+    private static final int INSTANCES = 2;
+
+    private static final long TIMEOUT_SECONDS = 120;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void survivingInstanceTakesOverAStoppedInstancesShards() throws IOException, InterruptedException {
+        final MockQueryApiServer.Options options = MockQueryApiServer.Options.parse(
+            "--records=3000",
+            "--width=5",
+            "--latency-msec=20"
+        );
+        final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+        try (MockQueryApiServer server = new MockQueryApiServer(options)) {
+            for (int instance = 0; instance < INSTANCES; instance++) {
+                final Map<String, String> properties = EndToEndHarness.properties(server, directory);
+                properties.put("medallia.cluster.enabled", "true");
+                properties.put("medallia.cluster.instance.id", "node-" + instance);
+                properties.put("medallia.cluster.lease.sec", "5");
+                properties.put("medallia.queryapi.shards", "8");
+                properties.put("medallia.queryapi.shards.min.range.sec", "60");
+                properties.put("medallia.queryapi.max.concurrency", "1");
+                properties.put("medallia.queryapi.num.records.per.request", "50");
+                properties.put("medallia.recordstream.file", directory.resolve("record-stream-" + instance + ".log").toString());
+                properties.put("logging.level.com.medallia.references.feedbackdatasync", "ERROR");
+                // Instances in one JVM share Reactor Netty's global event
+                // loops, which a stopped instance would otherwise shut down
+                // under the other
+                properties.put(
+                    "spring.autoconfigure.exclude",
+                    "org.springframework.boot.autoconfigure.web.reactive.function.client.ClientHttpConnectorAutoConfiguration"
+                );
+
+                contexts.add(new SpringApplication(Application.class)
+                    .run(EndToEndHarness.toArgs(properties, Collections.emptyList())));
+            }
+
+            final CheckpointStore checkpointStore = contexts.get(0).getBean(CheckpointStore.class);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+
+            // The checkpoint may also stop at the start of a later shard
+            // that turned out empty
+            final ProcessedRecord lastRecord = new ProcessedRecord(
+                BigInteger.valueOf(options.getRecords()),
+                ZonedDateTime.ofInstant(
+                    Instant.ofEpochSecond(options.getBaseEpochSecond() + (options.getRecords() - 1) / options.getRecordsPerSecond()),
+                    ZoneOffset.UTC
+                )
+            );
+
+            final ConfigurableApplicationContext stopping = contexts.get(INSTANCES - 1);
+            boolean stopped = false;
+            boolean completed = false;
+
+            while (!completed && System.nanoTime() < deadline) {
+                if (!stopped && count(stopping.getBean(MeterRegistry.class), "queryapi.records") > 0) {
+                    stopping.close();
+                    stopped = true;
+                }
+
+                final Optional<ProcessedRecord> checkpoint = checkpointStore.find("default");
+                completed = checkpoint.isPresent() && checkpoint.get().compareTo(lastRecord) >= 0;
+                if (!completed) {
+                    Thread.sleep(50);
+                }
+            }
+
+            assertTrue(completed, "the dataset was not extracted within " + TIMEOUT_SECONDS + " s");
+            assertTrue(stopped, "the second instance persisted nothing before the dataset was extracted");
+
+            final Long stored = contexts.get(0).getBean(JdbcTemplate.class)
+                .queryForObject("SELECT COUNT(*) FROM " + TABLE_RECORDS, Long.class);
+            assertEquals(options.getRecords(), stored.longValue(), "records stored");
+            assertEquals(options.getRecords(), streamedLines(directory), "records streamed");
+        } finally {
+            for (final ConfigurableApplicationContext context : contexts) {
+                if (context.isActive()) {
+                    context.close();
+                }
+            }
+        }
+    }
+
+    private static double count(final MeterRegistry registry, final String name) {
+        return registry.find(name).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private static long streamedLines(final Path directory) throws IOException {
+        long lines = 0;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().startsWith("record-stream-")) {
+                    try (Stream<String> fileLines = Files.lines(file)) {
+                        lines += fileLines.count();
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+}
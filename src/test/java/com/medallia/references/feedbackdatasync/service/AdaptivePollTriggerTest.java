@@ -0,0 +1,96 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.math.BigInteger;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the trigger catches up while the reported backlog or lag
+ * stays high, whatever the last poll extracted, and backs off once polls
+ * find nothing.
+ */
+class AdaptivePollTriggerTest {
+
+    private static final long BASE_INTERVAL = 1000;
+
+    private static final long MAX_INTERVAL = 8000;
+
+    private static final long CATCH_UP_BACKLOG = 10_000;
+
+    private final AdaptivePollTrigger trigger = new AdaptivePollTrigger();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(trigger, "initialDelay", 0L);
+        ReflectionTestUtils.setField(trigger, "baseInterval", BASE_INTERVAL);
+        ReflectionTestUtils.setField(trigger, "maxInterval", MAX_INTERVAL);
+        ReflectionTestUtils.setField(trigger, "backOffMultiplier", 2.0);
+        ReflectionTestUtils.setField(trigger, "jitter", 0.0);
+        ReflectionTestUtils.setField(trigger, "catchUpBacklog", CATCH_UP_BACKLOG);
+        ReflectionTestUtils.setField(trigger, "catchUpLagSeconds", 3600L);
+        ReflectionTestUtils.setField(trigger, "catchUpDelay", 0L);
+        ReflectionTestUtils.invokeMethod(trigger, "postConstruct");
+    }
+
+    @Test
+    void catchesUpWhileTheBacklogStaysHigh() {
+        // A short poll that still left a large backlog keeps catching up
+        trigger.pollCompleted(CATCH_UP_BACKLOG * 3, recent(), 50);
+        assertEquals(AdaptivePollTrigger.Mode.CATCH_UP, trigger.getMode());
+        assertEquals(0, trigger.getNextDelay());
+
+        trigger.pollCompleted(CATCH_UP_BACKLOG, recent(), 50);
+        assertEquals(AdaptivePollTrigger.Mode.CATCH_UP, trigger.getMode());
+
+        // A large poll that drained the range does not
+        trigger.pollCompleted(0, recent(), CATCH_UP_BACKLOG * 5);
+        assertEquals(AdaptivePollTrigger.Mode.STEADY, trigger.getMode());
+        assertEquals(BASE_INTERVAL, trigger.getNextDelay());
+    }
+
+    @Test
+    void catchesUpWhileLaggingWithABacklog() {
+        final Optional<ProcessedRecord> behind = Optional.of(record(ZonedDateTime.now().minusDays(1)));
+
+        trigger.pollCompleted(10, behind, 1000);
+        assertEquals(AdaptivePollTrigger.Mode.CATCH_UP, trigger.getMode());
+
+        // Without a backlog, the lag only grows with the wait
+        trigger.pollCompleted(0, behind, 0);
+        assertEquals(AdaptivePollTrigger.Mode.STEADY, trigger.getMode());
+
+        trigger.pollCompleted(-1, behind, 0);
+        assertEquals(AdaptivePollTrigger.Mode.STEADY, trigger.getMode());
+    }
+
+    @Test
+    void backsOffWhilePollsFindNothing() {
+        trigger.pollCompleted(0, recent(), 0);
+        assertEquals(2 * BASE_INTERVAL, trigger.getNextDelay());
+
+        trigger.pollCompleted(0, recent(), 0);
+        trigger.pollCompleted(0, recent(), 0);
+        trigger.pollCompleted(0, recent(), 0);
+        assertEquals(MAX_INTERVAL, trigger.getNextDelay());
+
+        trigger.pollCompleted(0, recent(), 1);
+        assertEquals(BASE_INTERVAL, trigger.getNextDelay());
+    }
+
+    private static Optional<ProcessedRecord> recent() {
+        return Optional.of(record(ZonedDateTime.now()));
+    }
+
+    private static ProcessedRecord record(final ZonedDateTime initialFinishDate) {
+        return new ProcessedRecord(BigInteger.ONE, initialFinishDate);
+    }
+
+}
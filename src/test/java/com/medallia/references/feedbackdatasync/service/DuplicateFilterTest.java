@@ -0,0 +1,141 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_INITIAL_FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_JOB;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.COL_SURVEYID;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS;
+import static com.medallia.references.feedbackdatasync.constants.DbConstants.TABLE_RECORDS_ARCHIVE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that a page's records are flagged when they were persisted by an
+ * earlier page, in the window or before it, or repeat a record earlier in
+ * the same page.
+ */
+class DuplicateFilterTest {
+
+    private static final long LATEST = 1_600_000_000L;
+
+    private static final long WINDOW_SECONDS = 3600;
+
+    private final SyncJob job = new SyncJob("test", "", "", FieldSchema.empty(), "0", null, 1, 1, null);
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private DuplicateFilter duplicateFilter;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new SingleConnectionDataSource("jdbc:sqlite::memory:", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        for (final String table : new String[] { TABLE_RECORDS, TABLE_RECORDS_ARCHIVE }) {
+            jdbcTemplate.execute(
+                "CREATE TABLE " + table + " (" +
+                "  " + COL_JOB + " TEXT not null, " +
+                "  " + COL_SURVEYID + " INTEGER not null, " +
+                "  " + COL_INITIAL_FINISH_DATE + " INTEGER not null, " +
+                "  PRIMARY KEY (" + COL_JOB + ", " + COL_SURVEYID + ")" +
+                ")"
+            );
+        }
+
+        duplicateFilter = new DuplicateFilter();
+        ReflectionTestUtils.setField(duplicateFilter, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(duplicateFilter, "windowSeconds", WINDOW_SECONDS);
+        ReflectionTestUtils.setField(duplicateFilter, "bucketSeconds", 60L);
+        ReflectionTestUtils.setField(duplicateFilter, "maxBytes", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(duplicateFilter, "batchSize", 500);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(duplicateFilter, "preDestroy");
+        dataSource.destroy();
+    }
+
+    @Test
+    void flagsRepeatsWithinAPage() {
+        // The repeat of the old record would only be found in the store
+        // once the page has committed
+        final long old = LATEST - 2 * WINDOW_SECONDS;
+        final FeedbackPage page = page(
+            new long[] { 9, 1, 2, 9, 1, 3 },
+            new long[] { old, LATEST, LATEST, old, LATEST, LATEST }
+        );
+
+        assertArrayEquals(
+            new boolean[] { false, false, false, true, true, false },
+            duplicateFilter.findDuplicates(job, page)
+        );
+    }
+
+    @Test
+    void flagsRecordsOfCommittedPages() {
+        final long old = LATEST - 2 * WINDOW_SECONDS;
+        insert(1, LATEST);
+        insert(2, old);
+
+        final FeedbackPage first = page(new long[] { 3, 4 }, new long[] { LATEST, LATEST });
+        assertNull(duplicateFilter.findDuplicates(job, first));
+        duplicateFilter.addPersisted(job, first);
+
+        final FeedbackPage second = page(new long[] { 1, 2, 3, 5 }, new long[] { LATEST, old, LATEST, LATEST });
+        assertArrayEquals(
+            new boolean[] { true, true, true, false },
+            duplicateFilter.findDuplicates(job, second)
+        );
+    }
+
+    private void insert(final long surveyId, final long initialFinishDate) {
+        jdbcTemplate.update(
+            "INSERT INTO " + TABLE_RECORDS + " VALUES (?, ?, ?)",
+            job.getName(),
+            surveyId,
+            initialFinishDate
+        );
+    }
+
+    private static FeedbackPage page(final long[] surveyIds, final long[] initialFinishDates) {
+        final List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes = new ArrayList<>(surveyIds.length);
+
+        for (int row = 0; row < surveyIds.length; row++) {
+            final Map<String, QueryApiResponse.NodeValuesWrapper> node = new LinkedHashMap<>();
+            node.put(SURVEY_ID, values(Long.toString(surveyIds[row])));
+            node.put(FINISH_DATE, values(Long.toString(initialFinishDates[row])));
+            nodes.add(node);
+        }
+
+        return FeedbackPage.fromNodes(nodes);
+    }
+
+    private static QueryApiResponse.NodeValuesWrapper values(final String value) {
+        final QueryApiResponse.NodeValuesWrapper wrapper = new QueryApiResponse.NodeValuesWrapper();
+        wrapper.setValues(Collections.singletonList(value));
+        return wrapper;
+    }
+
+}
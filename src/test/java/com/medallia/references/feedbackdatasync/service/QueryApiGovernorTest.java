@@ -0,0 +1,50 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that only failures of a Query API request are retried, and not a
+ * page that failed to persist.
+ */
+class QueryApiGovernorTest {
+
+    private final QueryApiGovernor governor = new QueryApiGovernor();
+
+    @Test
+    void retriesFailedRequests() {
+        assertTrue(governor.isRetryable(response(HttpStatus.TOO_MANY_REQUESTS)));
+        assertTrue(governor.isRetryable(response(HttpStatus.SERVICE_UNAVAILABLE)));
+        assertTrue(governor.isRetryable(new EOFException("Query API response ended unexpectedly")));
+
+        assertFalse(governor.isRetryable(response(HttpStatus.BAD_REQUEST)));
+    }
+
+    @Test
+    void doesNotRetryFailedPersistence() {
+        assertFalse(governor.isRetryable(new UncheckedIOException(new IOException("No space left on device"))));
+        assertFalse(governor.isRetryable(new TransientDataAccessResourceException("[SQLITE_BUSY] The database file is locked")));
+    }
+
+    private static WebClientResponseException response(final HttpStatus status) {
+        return WebClientResponseException.create(
+            status.value(),
+            status.getReasonPhrase(),
+            HttpHeaders.EMPTY,
+            new byte[0],
+            StandardCharsets.UTF_8
+        );
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a streamed response's nodes reach the consumer only once the
+ * body has ended without errors, wherever the errors come in the response.
+ */
+class QueryApiStreamDecoderTest {
+
+    private static final String NODES =
+        "{\"data\": {\"feedback\": {\"totalCount\": 5, \"nodes\": ["
+            + "{\"surveyId\": {\"values\": [\"1\"]}, \"finishDate\": {\"values\": [\"1600000001\"]}}, "
+            + "{\"surveyId\": {\"values\": [\"2\"]}, \"finishDate\": {\"values\": [\"1600000002\"]}}, "
+            + "{\"surveyId\": {\"values\": [\"3\"]}, \"finishDate\": {\"values\": [\"1600000003\"]}}, "
+            + "{\"surveyId\": {\"values\": [\"4\"]}, \"finishDate\": {\"values\": [\"1600000004\"]}}, "
+            + "{\"surveyId\": {\"values\": [\"5\"]}, \"finishDate\": {\"values\": [\"1600000005\"]}}"
+            + "]}}";
+
+    private static final String ERRORS = "\"errors\": [{\"message\": \"Query timed out\"}]";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void handsChunksOverOnceTheBodyEnds() throws IOException {
+        final List<FeedbackPage> chunks = new ArrayList<>();
+        final QueryApiResponse response = decode(NODES + "}", chunks);
+
+        assertTrue(response.getErrors() == null || response.getErrors().isEmpty());
+        assertEquals(5, response.getData().getFeedback().getTotalCount());
+        assertEquals(3, chunks.size());
+        assertEquals(1, chunks.get(0).getSurveyId(0));
+        assertEquals(5, chunks.get(2).getSurveyId(0));
+    }
+
+    @Test
+    void dropsNodesFollowedByErrors() throws IOException {
+        final List<FeedbackPage> chunks = new ArrayList<>();
+        final QueryApiResponse response = decode(NODES + ", " + ERRORS + "}", chunks);
+
+        assertEquals(1, response.getErrors().size());
+        assertTrue(chunks.isEmpty());
+    }
+
+    @Test
+    void dropsNodesPrecededByErrors() throws IOException {
+        final List<FeedbackPage> chunks = new ArrayList<>();
+        final QueryApiResponse response = decode("{" + ERRORS + ", " + NODES.substring(1) + "}", chunks);
+
+        assertEquals(1, response.getErrors().size());
+        assertTrue(chunks.isEmpty());
+    }
+
+    /**
+     * Feeds the body a few bytes at a time, checking that nothing reaches
+     * the consumer before the body ends.
+     */
+    private QueryApiResponse decode(final String body, final List<FeedbackPage> chunks) throws IOException {
+        final QueryApiStreamDecoder decoder = new QueryApiStreamDecoder(objectMapper, chunks::add, 2);
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        for (int offset = 0; offset < bytes.length; offset += 7) {
+            decoder.feed(bytes, offset, Math.min(7, bytes.length - offset));
+            assertTrue(chunks.isEmpty());
+        }
+        return decoder.finish();
+    }
+
+}
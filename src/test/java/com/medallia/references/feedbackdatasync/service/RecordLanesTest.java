@@ -0,0 +1,135 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a page whose record fails leaves nothing past its persisted
+ * prefix buffered in a sink that buffers per thread, such as the columnar
+ * writer, where it would otherwise be flushed with the next page.
+ */
+class RecordLanesTest {
+
+    private static final int ROWS = 200;
+
+    private static final int FAILING_ROW = 90;
+
+    private RecordLanes recordLanes;
+
+    /**
+     * Stands in for a sink that buffers each thread's records until it
+     * flushes.
+     */
+    private final ThreadLocal<List<Long>> pending = ThreadLocal.withInitial(ArrayList::new);
+    private final List<Long> flushed = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void tearDown() {
+        if (recordLanes != null) {
+            ReflectionTestUtils.invokeMethod(recordLanes, "preDestroy");
+        }
+    }
+
+    @Test
+    void failedChunksAreNotFlushedWithTheNextPage() {
+        assertFailedPageDoesNotLeak(false);
+    }
+
+    @Test
+    void failedSurveyLanesAreNotFlushedWithTheNextPage() {
+        assertFailedPageDoesNotLeak(true);
+    }
+
+    private void assertFailedPageDoesNotLeak(final boolean bySurveyId) {
+        recordLanes = lanes(4, bySurveyId);
+
+        final FeedbackPage failing = page(1);
+        final PartialPageException partial = assertThrows(
+            PartialPageException.class,
+            () -> persist(failing, row -> {
+                if (row == FAILING_ROW) {
+                    throw new IllegalStateException("Record " + row + " failed");
+                }
+                write(failing, row);
+            })
+        );
+        assertTrue(partial.getPersistedRows() <= FAILING_ROW);
+
+        // The page's own thread flushes the prefix before the page commits
+        flush();
+        final List<Long> afterFailure = new ArrayList<>(flushed);
+        for (int row = 0; row < partial.getPersistedRows(); row++) {
+            assertTrue(afterFailure.contains(failing.getSurveyId(row)), "Row " + row + " of the prefix was lost");
+        }
+
+        final FeedbackPage next = page(10_000);
+        persist(next, row -> write(next, row));
+        flush();
+
+        final List<Long> nextFlushed = new ArrayList<>(flushed.subList(afterFailure.size(), flushed.size()));
+        Collections.sort(nextFlushed);
+        final List<Long> expected = new ArrayList<>();
+        for (int row = 0; row < next.size(); row++) {
+            expected.add(next.getSurveyId(row));
+        }
+        assertEquals(expected, nextFlushed);
+    }
+
+    private void persist(final FeedbackPage page, final IntConsumer writer) {
+        recordLanes.persist(page, writer, this::flush, () -> pending.get().clear());
+    }
+
+    private void write(final FeedbackPage page, final int row) {
+        pending.get().add(page.getSurveyId(row));
+    }
+
+    private void flush() {
+        flushed.addAll(pending.get());
+        pending.get().clear();
+    }
+
+    private static RecordLanes lanes(final int laneCount, final boolean bySurveyId) {
+        final RecordLanes lanes = new RecordLanes();
+        ReflectionTestUtils.setField(lanes, "laneCount", laneCount);
+        ReflectionTestUtils.setField(lanes, "bySurveyId", bySurveyId);
+        ReflectionTestUtils.invokeMethod(lanes, "postConstruct");
+        return lanes;
+    }
+
+    private static FeedbackPage page(final long firstSurveyId) {
+        final List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes = new ArrayList<>(ROWS);
+
+        for (int row = 0; row < ROWS; row++) {
+            final Map<String, QueryApiResponse.NodeValuesWrapper> node = new LinkedHashMap<>();
+            node.put(SURVEY_ID, values(Long.toString(firstSurveyId + row)));
+            node.put(FINISH_DATE, values(Long.toString(1_600_000_000L + row)));
+            nodes.add(node);
+        }
+
+        return FeedbackPage.fromNodes(nodes);
+    }
+
+    private static QueryApiResponse.NodeValuesWrapper values(final String value) {
+        final QueryApiResponse.NodeValuesWrapper wrapper = new QueryApiResponse.NodeValuesWrapper();
+        wrapper.setValues(Collections.singletonList(value));
+        return wrapper;
+    }
+
+}
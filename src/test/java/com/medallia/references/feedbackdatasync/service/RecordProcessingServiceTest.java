@@ -0,0 +1,146 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Checks that a job's last processed record only ever moves forward, however
+ * the pages that publish it race each other.
+ */
+class RecordProcessingServiceTest {
+
+    private static final int WRITERS = 4;
+
+    private static final int RECORDS_PER_WRITER = 20_000;
+
+    private final RecordProcessingService recordProcessingService = new RecordProcessingService();
+
+    @Test
+    void advanceIgnoresEarlierRecords() {
+        final SyncJob job = job();
+
+        recordProcessingService.advanceLastProcessedRecord(job, record(2, 100));
+        recordProcessingService.advanceLastProcessedRecord(job, record(1, 100));
+        assertEquals(record(2, 100), job.getLastProcessedRecord());
+
+        // An earlier finish date loses even with a higher survey id
+        recordProcessingService.advanceLastProcessedRecord(job, record(9, 99));
+        assertEquals(record(2, 100), job.getLastProcessedRecord());
+
+        recordProcessingService.advanceLastProcessedRecord(job, record(1, 101));
+        assertEquals(record(1, 101), job.getLastProcessedRecord());
+    }
+
+    @Test
+    void concurrentOutOfOrderAdvancesStayMonotonic() throws Exception {
+        final SyncJob job = job();
+        assertNull(job.getLastProcessedRecord());
+
+        // Each writer publishes its own share of the records in a shuffled
+        // order, so the writers keep overtaking each other
+        final List<List<ProcessedRecord>> shares = new ArrayList<>();
+        final Random random = new Random(7);
+        ProcessedRecord latest = null;
+
+        for (int writer = 0; writer < WRITERS; writer++) {
+            final List<ProcessedRecord> share = new ArrayList<>(RECORDS_PER_WRITER);
+            for (int i = 0; i < RECORDS_PER_WRITER; i++) {
+                final int surveyId = i * WRITERS + writer;
+                share.add(record(surveyId, 1_600_000_000L + surveyId / 10));
+            }
+            Collections.shuffle(share, random);
+            shares.add(share);
+
+            for (final ProcessedRecord record : share) {
+                if (latest == null || record.compareTo(latest) > 0) {
+                    latest = record;
+                }
+            }
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+
+        try {
+            final Future<Integer> reader = executor.submit(() -> {
+                start.await();
+                ProcessedRecord previous = null;
+                int reads = 0;
+
+                while (writing.get()) {
+                    final ProcessedRecord current = job.getLastProcessedRecord();
+                    if (previous != null && current.compareTo(previous) < 0) {
+                        fail("Went back from " + describe(previous) + " to " + describe(current));
+                    }
+                    previous = current;
+                    reads++;
+                }
+                return reads;
+            });
+
+            final List<Future<?>> writers = new ArrayList<>();
+            for (final List<ProcessedRecord> share : shares) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (final ProcessedRecord record : share) {
+                        recordProcessingService.advanceLastProcessedRecord(job, record);
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (final Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+
+            assertTrue(reader.get(60, TimeUnit.SECONDS) > 0);
+        } finally {
+            writing.set(false);
+            executor.shutdownNow();
+        }
+
+        assertEquals(latest, job.getLastProcessedRecord());
+    }
+
+    private static SyncJob job() {
+        return new SyncJob("test", "", "", FieldSchema.empty(), "0", null, 1, 1, null);
+    }
+
+    private static ProcessedRecord record(final long surveyId, final long initialFinishDate) {
+        return new ProcessedRecord(
+            BigInteger.valueOf(surveyId),
+            ZonedDateTime.ofInstant(Instant.ofEpochSecond(initialFinishDate), ZoneOffset.UTC)
+        );
+    }
+
+    private static String describe(final ProcessedRecord record) {
+        return "survey " + record.getSurveyId() + " at " + record.getInitialFinishDate();
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.medallia.references.feedbackdatasync.service;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a survey id set keeps its ids as it grows, and that its
+ * tables are released as soon as they are replaced or the set is freed.
+ */
+class SurveyIdSetTest {
+
+    private static final int IDS = 200_000;
+
+    @Test
+    void keepsIdsAcrossGrowth() {
+        final SurveyIdSet set = new SurveyIdSet();
+
+        try {
+            for (long surveyId = 0; surveyId < IDS; surveyId++) {
+                assertTrue(set.add(surveyId * 7));
+            }
+            assertFalse(set.add(7));
+
+            assertEquals(IDS, set.size());
+            for (long surveyId = 0; surveyId < IDS; surveyId++) {
+                assertTrue(set.contains(surveyId * 7));
+                assertFalse(set.contains(surveyId * 7 + 1));
+            }
+        } finally {
+            set.free();
+        }
+    }
+
+    @Test
+    void releasesTablesWithoutWaitingForTheCollector() {
+        final long before = directMemoryUsed();
+        final SurveyIdSet set = new SurveyIdSet();
+
+        for (long surveyId = 1; surveyId <= IDS; surveyId++) {
+            set.add(surveyId);
+        }
+
+        // Only the current table is still allocated
+        assertEquals(set.sizeInBytes(), directMemoryUsed() - before);
+
+        set.free();
+        assertEquals(0, directMemoryUsed() - before);
+    }
+
+    @Test
+    void largestTableFitsADirectBuffer() {
+        assertTrue((long) SurveyIdSet.MAX_CAPACITY * Long.BYTES <= Integer.MAX_VALUE);
+        assertTrue(2L * SurveyIdSet.MAX_CAPACITY * Long.BYTES > Integer.MAX_VALUE);
+    }
+
+    private static long directMemoryUsed() {
+        for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        throw new IllegalStateException("No direct buffer pool");
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.medallia.references.feedbackdatasync.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.medallia.references.feedbackdatasync.benchmark.SyntheticPages;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that pages written to a columnar file, with and without
+ * compression and a field schema, read back cell for cell, and that a row
+ * group torn by a crash is cut off when the writer reopens the file.
+ */
+class ColumnarFileWriterTest {
+
+    private static final int RECORDS = 1000;
+
+    private static final int[] WIDTHS = { 0, 5, 20, 50 };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(ColumnarCodec.class)
+    void pagesReadBackIntact(final ColumnarCodec codec) throws IOException {
+        for (final int width : WIDTHS) {
+            verifyRoundTrip(directory.resolve("check-" + width + ".col"), width, codec);
+        }
+    }
+
+    /**
+     * Writes pages, including one with an unknown field, typed pages (one
+     * with a number that does not read as itself) and one made of plain
+     * maps, reads them back and compares them cell for cell; then tears the
+     * last row group and checks the writer cuts it off.
+     */
+    private void verifyRoundTrip(final Path file, final int width, final ColumnarCodec codec) throws IOException {
+        final List<String> fields = fields(width);
+
+        final List<FeedbackPage> pages = new ArrayList<>();
+        pages.add(SyntheticPages.page(objectMapper, RECORDS, width, 1_000_000L, 1_600_000_000L));
+        pages.add(SyntheticPages.page(objectMapper, 1, width, 2_000_000L, 1_600_100_000L));
+        pages.add(SyntheticPages.page(objectMapper, 300, width + 1, 3_000_000L, 1_600_200_000L));
+
+        final FieldSchema schema = SyntheticPages.fieldSchema(width);
+        pages.add(SyntheticPages.page(objectMapper, SyntheticPages.nodes(RECORDS, width, 5_000_000L, 1_600_250_000L), schema));
+        final List<Map<String, QueryApiResponse.NodeValuesWrapper>> padded =
+            SyntheticPages.nodes(20, width, 6_000_000L, 1_600_260_000L);
+        if (width > 0) {
+            padded.get(7).get(SyntheticPages.fieldName(0)).setValues(Collections.singletonList("007"));
+        }
+        pages.add(SyntheticPages.page(objectMapper, padded, schema));
+
+        final List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes =
+            SyntheticPages.nodes(50, width, 4_000_000L, 1_600_300_000L);
+
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(file, fields, codec, 16, 0, Duration.ZERO, true)) {
+            for (final FeedbackPage page : pages) {
+                writeAll(writer, page);
+            }
+
+            for (final Map<String, QueryApiResponse.NodeValuesWrapper> node : nodes) {
+                writer.write(node);
+            }
+            writer.flush();
+        }
+        pages.add(FeedbackPage.fromNodes(nodes));
+
+        try (ColumnarFileReader reader = new ColumnarFileReader(file)) {
+            assertEquals(writerSchema(fields), reader.getSchema());
+
+            for (final FeedbackPage expected : pages) {
+                final FeedbackPage actual = reader.read();
+                assertNotNull(actual, "missing row group");
+                assertSame(expected, actual, fields);
+            }
+            assertNull(reader.read(), "unexpected data after the last row group");
+            assertFalse(reader.isTruncated());
+        }
+
+        // Tear the last row group as a crash during a write would
+        final long intactLength;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            intactLength = channel.size();
+            channel.write(ByteBuffer.wrap(new byte[] { 0x52, 0x47, 0x52, 0x50, 0, 0, 1 }), intactLength);
+        }
+        new ColumnarFileWriter(file, fields, codec, 16, 0, Duration.ZERO, false).close();
+        assertEquals(intactLength, Files.size(file), "torn row group was not cut off");
+    }
+
+    private static void writeAll(final ColumnarFileWriter writer, final FeedbackPage page) throws IOException {
+        for (int row = 0; row < page.size(); row++) {
+            writer.write(page.row(row));
+        }
+        writer.flush();
+    }
+
+    private static List<String> fields(final int width) {
+        final List<String> fields = new ArrayList<>(width);
+        for (int field = 0; field < width; field++) {
+            fields.add(SyntheticPages.fieldName(field));
+        }
+        return fields;
+    }
+
+    private static List<String> writerSchema(final List<String> fields) {
+        final List<String> schema = new ArrayList<>();
+        schema.add(SURVEY_ID);
+        schema.add(FINISH_DATE);
+        schema.addAll(fields);
+        return schema;
+    }
+
+    private static void assertSame(final FeedbackPage expected, final FeedbackPage actual, final List<String> fields) {
+        assertEquals(expected.size(), actual.size(), "row count");
+
+        for (final String field : writerSchema(fields)) {
+            final int expectedColumn = expected.getColumnIndex(field);
+            final int actualColumn = actual.getColumnIndex(field);
+
+            for (int row = 0; row < expected.size(); row++) {
+                final boolean present = expectedColumn >= 0 && expected.hasField(row, expectedColumn);
+                assertEquals(present, actualColumn >= 0 && actual.hasField(row, actualColumn), field + " presence");
+                if (!present) {
+                    continue;
+                }
+
+                assertEquals(expected.isNull(row, expectedColumn), actual.isNull(row, actualColumn), field + " null");
+                assertEquals(
+                    expected.getValueCount(row, expectedColumn),
+                    actual.getValueCount(row, actualColumn),
+                    field + " value count"
+                );
+                for (int index = 0; index < expected.getValueCount(row, expectedColumn); index++) {
+                    assertEquals(
+                        expected.getValue(row, expectedColumn, index),
+                        actual.getValue(row, actualColumn, index),
+                        field + " value"
+                    );
+                }
+            }
+        }
+
+        // Fields outside the schema are dropped
+        for (int column = 0; column < actual.getColumnCount(); column++) {
+            assertTrue(writerSchema(fields).contains(actual.getColumnName(column)), "unexpected " + actual.getColumnName(column));
+        }
+    }
+
+}
@@ -0,0 +1,442 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.medallia.references.feedbackdatasync.Application;
+import com.medallia.references.feedbackdatasync.BulkExport;
+import com.medallia.references.feedbackdatasync.model.ProcessedRecord;
+import com.medallia.references.feedbackdatasync.model.SyncJob;
+import com.medallia.references.feedbackdatasync.model.SyncJobs;
+import com.medallia.references.feedbackdatasync.service.PageLogReplayer;
+import com.medallia.references.feedbackdatasync.service.RecordProcessingService;
+
+/**
+ * Runs the real application against a {@link MockQueryApiServer} until it
+ * has extracted the whole synthetic dataset, then reports throughput, page
+ * latency and peak heap.
+ *
+ * <p>Arguments understood by the mock server (e.g. {@code --records},
+ * {@code --width}, {@code --latency-msec}, {@code --error-rate},
+ * {@code --throttle-rate}, {@code --comment-bytes}) configure the dataset;
+ * {@code --timeout-sec} bounds the run; every other {@code --name=value}
+ * argument is passed to the application, e.g.
+ * {@code --medallia.queryapi.prefetch.depth=2}.</p>
+ *
+ * <p>With {@code --export=true}, the dataset is pulled by a one-shot
+ * {@link BulkExport} instead of the scheduled polls, which then also checks
+ * that the export seeded the job's checkpoint past the dataset.</p>
+ *
+ * <p>With {@code --replay=true}, the application appends every page to
+ * its page log while it extracts the dataset, and a
+ * {@link PageLogReplayer} then replays the whole log into a second record
+ * stream, which is checked to hold every record once.</p>
+ *
+ * <p>With {@code --typed=true}, the custom fields are declared with their
+ * types through {@code medallia.queryapi.graphql.fields} instead of being
+ * requested raw, so their values are decoded as pages are parsed.  The
+ * report counts the decoded, mistyped and raw values either way.</p>
+ *
+ * <p>Page latency is the time between consecutive page requests as seen by
+ * the server, i.e. one page's whole fetch, decode and persist cycle.</p>
+ */
+public final class EndToEndHarness {
+
+    private static final String TIMEOUT_OPTION = "--timeout-sec=";
+    private static final String EXPORT_OPTION = "--export=";
+    private static final String TYPED_OPTION = "--typed=";
+    private static final String REPLAY_OPTION = "--replay=";
+
+    private EndToEndHarness() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final MockQueryApiServer.Options options = MockQueryApiServer.Options.parse(args);
+
+        long timeoutSeconds = 600;
+        boolean export = false;
+        boolean typed = false;
+        boolean replay = false;
+        final List<String> applicationArgs = new ArrayList<>();
+
+        for (final String arg : args) {
+            if (arg.startsWith(TIMEOUT_OPTION)) {
+                timeoutSeconds = Long.parseLong(arg.substring(TIMEOUT_OPTION.length()));
+            } else if (arg.startsWith(EXPORT_OPTION)) {
+                export = Boolean.parseBoolean(arg.substring(EXPORT_OPTION.length()));
+            } else if (arg.startsWith(TYPED_OPTION)) {
+                typed = Boolean.parseBoolean(arg.substring(TYPED_OPTION.length()));
+            } else if (arg.startsWith(REPLAY_OPTION)) {
+                replay = Boolean.parseBoolean(arg.substring(REPLAY_OPTION.length()));
+            } else if (!MockQueryApiServer.Options.isOption(arg)) {
+                applicationArgs.add(arg);
+            }
+        }
+
+        final Path directory = Files.createTempDirectory("end-to-end-harness");
+        final HeapSampler heapSampler = new HeapSampler();
+
+        try (MockQueryApiServer server = new MockQueryApiServer(options)) {
+            if (typed) {
+                applicationArgs.add(0, "--medallia.queryapi.graphql.nodes=");
+                applicationArgs.add(0, "--medallia.queryapi.graphql.fields=" + fieldSchema(options));
+            }
+
+            if (export) {
+                export(server, directory, applicationArgs, heapSampler);
+                return;
+            }
+
+            final Map<String, String> properties = properties(server, directory);
+            if (replay) {
+                properties.put("medallia.pagelog.enabled", "true");
+            }
+
+            final SpringApplication application = new SpringApplication(Application.class);
+
+            heapSampler.start();
+            final long start = System.nanoTime();
+
+            final ConfigurableApplicationContext context = application.run(toArgs(properties, applicationArgs));
+
+            final long ready = System.nanoTime();
+            final boolean completed;
+
+            try {
+                completed = awaitCompletion(
+                    context.getBean(RecordProcessingService.class),
+                    context.getBean(SyncJobs.class).getDefaultJob(),
+                    options.getRecords(),
+                    start + TimeUnit.SECONDS.toNanos(timeoutSeconds)
+                );
+            } finally {
+                heapSampler.stop();
+            }
+
+            final long end = System.nanoTime();
+            final String fieldValues = fieldValues(context.getBean(MeterRegistry.class));
+            context.close();
+
+            report(server, completed, ready - start, end - Math.max(start, server.getFirstPageNanos()), heapSampler.peak());
+            System.out.printf("  Field values:  %s%n", fieldValues);
+
+            if (replay) {
+                replay(server, directory, applicationArgs);
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Exports the dataset with {@link BulkExport}, then starts the
+     * application to check that its first poll finds nothing left to pull.
+     */
+    private static void export(
+            final MockQueryApiServer server,
+            final Path directory,
+            final List<String> applicationArgs,
+            final HeapSampler heapSampler
+    ) throws InterruptedException {
+        final Map<String, String> properties = properties(server, directory);
+        properties.put("medallia.export.start", Long.toString(server.getOptions().getBaseEpochSecond() - 1));
+        properties.put("medallia.export.output", directory.resolve("export.ndjson").toString());
+        properties.put("logging.level.com.medallia.references.feedbackdatasync.service.BulkExporter", "INFO");
+
+        heapSampler.start();
+        final long start = System.nanoTime();
+        final int status;
+        try {
+            status = BulkExport.run(toArgs(properties, applicationArgs));
+        } finally {
+            heapSampler.stop();
+        }
+        final long end = System.nanoTime();
+
+        final long pagesServed = server.getPagesServed();
+        final ConfigurableApplicationContext context = new SpringApplication(Application.class)
+            .run(toArgs(properties(server, directory), applicationArgs));
+        final Optional<ProcessedRecord> checkpoint = context.getBean(RecordProcessingService.class)
+            .getLastProcessedRecord(context.getBean(SyncJobs.class).getDefaultJob());
+        final boolean completed = status == 0
+            && checkpoint.isPresent()
+            && checkpoint.get().getSurveyId().longValue() >= server.getOptions().getRecords();
+        context.close();
+
+        report(
+            server,
+            completed,
+            Math.max(0, server.getFirstPageNanos() - start),
+            end - Math.max(start, server.getFirstPageNanos()),
+            heapSampler.peak()
+        );
+        System.out.printf(
+            "  Export:        exit status %d, %d pages, checkpoint %s%n",
+            status,
+            pagesServed,
+            checkpoint.map(record -> record.getSurveyId() + " at " + record.getInitialFinishDate()).orElse("none")
+        );
+    }
+
+    /**
+     * Replays the page log the extraction left behind into a second record
+     * stream, and checks it against the first.
+     */
+    private static void replay(
+            final MockQueryApiServer server,
+            final Path directory,
+            final List<String> applicationArgs
+    ) throws IOException {
+        final Path replayed = directory.resolve("replay-stream.log");
+        final Map<String, String> properties = properties(server, directory);
+        properties.put("medallia.scheduling.enabled", "false");
+        properties.put("medallia.recordstream.file", replayed.toString());
+        properties.put("medallia.replay.start", Long.toString(server.getOptions().getBaseEpochSecond() - 1));
+
+        final ConfigurableApplicationContext context = new SpringApplication(Application.class)
+            .run(toArgs(properties, applicationArgs));
+        final long records;
+        final long start;
+        try {
+            final PageLogReplayer replayer = context.getAutowireCapableBeanFactory().createBean(PageLogReplayer.class);
+            start = System.nanoTime();
+            records = replayer.replay();
+        } finally {
+            context.close();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        final long extracted = lines(directory.resolve("record-stream.log"));
+        final long replayedLines = lines(replayed);
+        final long distinct;
+        try (Stream<String> lines = Files.lines(replayed)) {
+            distinct = lines.distinct().count();
+        }
+
+        System.out.printf(
+            "  Replay:        %d records in %.2f s (%.0f records/s), %d lines, %d distinct (%s)%n",
+            records,
+            seconds,
+            records / seconds,
+            replayedLines,
+            distinct,
+            replayedLines == extracted && distinct == replayedLines ? "matches the extraction" : "MISMATCH with " + extracted + " extracted"
+        );
+    }
+
+    private static long lines(final Path file) throws IOException {
+        try (Stream<String> lines = Files.lines(file)) {
+            return lines.count();
+        }
+    }
+
+    /**
+     * Returns the application properties that point it at the mock server,
+     * with its database and record stream in the given directory.
+     */
+    public static Map<String, String> properties(final MockQueryApiServer server, final Path directory) {
+        final MockQueryApiServer.Options options = server.getOptions();
+
+        final StringBuilder nodes = new StringBuilder();
+        for (int field = 0; field < options.getWidth(); field++) {
+            nodes.append(SyntheticPages.fieldName(field))
+                .append(": fieldData(fieldId: \"q_field_").append(field).append("\") { values }\n");
+        }
+
+        final Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("spring.main.web-application-type", "none");
+        properties.put("spring.security.oauth2.client.registration.medallia.client-id", "harness");
+        properties.put("spring.security.oauth2.client.registration.medallia.client-secret", "harness");
+        properties.put("spring.security.oauth2.client.registration.medallia.authorization-grant-type", "client_credentials");
+        properties.put("spring.security.oauth2.client.provider.medallia.token-uri", server.getTokenUrl());
+        properties.put("medallia.queryapi.url", server.getQueryUrl());
+        properties.put("medallia.queryapi.default.start.surveyid", "-1");
+        properties.put("medallia.queryapi.default.start.timestamp.epoch", Long.toString(options.getBaseEpochSecond() - 1));
+        properties.put("medallia.queryapi.field.initialfinishdate.epoch", "k_initialfinishdate_epoch_int");
+        properties.put("medallia.queryapi.graphql.nodes", nodes.toString());
+        properties.put("medallia.queryapi.poll.initialdelay.msec", "0");
+        properties.put("medallia.queryapi.poll.interval.msec", "1000");
+        properties.put("medallia.metrics.log.interval.sec", "0");
+        properties.put("spring.datasource.url", "jdbc:sqlite:" + directory.resolve("harness.db"));
+        properties.put("medallia.recordstream.file", directory.resolve("record-stream.log").toString());
+        properties.put("medallia.pagelog.directory", directory.resolve("pagelog").toString());
+        properties.put("logging.level.com.medallia.references.feedbackdatasync", "WARN");
+        properties.put("logging.level.com.medallia.references.feedbackdatasync.service.SyncService", "WARN");
+        return properties;
+    }
+
+    /**
+     * Declares the mock server's custom fields with the types of their
+     * values.
+     */
+    private static String fieldSchema(final MockQueryApiServer.Options options) {
+        final List<String> fields = new ArrayList<>();
+
+        for (int field = 0; field < options.getWidth(); field++) {
+            final String type;
+            if (field == 0 && options.getCommentBytes() > 0) {
+                type = "string";
+            } else if (field % 3 == 0) {
+                type = "long";
+            } else {
+                type = "enum";
+            }
+            fields.add(SyntheticPages.fieldName(field) + "=q_field_" + field + ":" + type);
+        }
+        return String.join(",", fields);
+    }
+
+    private static String fieldValues(final MeterRegistry registry) {
+        return String.format(
+            "%.0f decoded, %.0f type errors, %.0f raw",
+            count(registry, "queryapi.fields.decoded"),
+            count(registry, "queryapi.fields.type.errors"),
+            count(registry, "queryapi.fields.raw")
+        );
+    }
+
+    private static double count(final MeterRegistry registry, final String name) {
+        return registry.find(name).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    /**
+     * Merges the harness' properties with the caller's arguments, which
+     * win; a property given twice on the command line would otherwise be
+     * read as a list.
+     */
+    public static String[] toArgs(final Map<String, String> properties, final List<String> applicationArgs) {
+        final Map<String, String> merged = new LinkedHashMap<>(properties);
+        final List<String> others = new ArrayList<>();
+
+        for (final String arg : applicationArgs) {
+            final int equals = arg.indexOf('=');
+            if (arg.startsWith("--") && equals > 2) {
+                merged.put(arg.substring(2, equals), arg.substring(equals + 1));
+            } else {
+                others.add(arg);
+            }
+        }
+
+        final List<String> args = new ArrayList<>();
+        merged.forEach((name, value) -> args.add("--" + name + "=" + value));
+        args.addAll(others);
+        return args.toArray(new String[0]);
+    }
+
+    private static boolean awaitCompletion(
+            final RecordProcessingService recordProcessingService,
+            final SyncJob job,
+            final long records,
+            final long deadlineNanos
+    ) throws InterruptedException {
+        while (System.nanoTime() < deadlineNanos) {
+            final Optional<ProcessedRecord> last = recordProcessingService.getLastProcessedRecord(job);
+            if (last.isPresent() && last.get().getSurveyId().longValue() >= records) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private static void report(
+            final MockQueryApiServer server,
+            final boolean completed,
+            final long startupNanos,
+            final long extractionNanos,
+            final long peakHeapBytes
+    ) {
+        final MockQueryApiServer.Options options = server.getOptions();
+        final long[] intervals = server.getSortedPageIntervalNanos();
+        final double seconds = extractionNanos / 1e9;
+
+        System.out.println();
+        System.out.println("End-to-end results" + (completed ? "" : " (TIMED OUT before the dataset was extracted)"));
+        System.out.printf("  Records:       %d (width %d)%n", options.getRecords(), options.getWidth());
+        System.out.printf("  Startup:       %.2f s%n", startupNanos / 1e9);
+        System.out.printf("  Extraction:    %.2f s%n", seconds);
+        // Pages served again after a failure are not counted twice
+        final long records = completed ? options.getRecords() : server.getRecordsServed();
+        System.out.printf("  Throughput:    %.0f records/s%n", records / seconds);
+        System.out.printf("  Bytes served:  %.1f MB (%.1f KB of requests)%n", server.getBytesServed() / 1e6, server.getRequestBytes() / 1e3);
+        System.out.printf(
+            "  Pages:         %d (p50 %.1f ms, p99 %.1f ms)%n",
+            server.getPagesServed(),
+            percentile(intervals, 0.50) / 1e6,
+            percentile(intervals, 0.99) / 1e6
+        );
+        System.out.printf("  Injected:      %d errors, %d throttles%n", server.getErrorsInjected(), server.getThrottlesInjected());
+        System.out.printf("  Connections:   %d (%d tokens issued)%n", server.getQueryConnections(), server.getTokensIssued());
+        System.out.printf("  Peak heap:     %.1f MB%n", peakHeapBytes / 1e6);
+    }
+
+    private static double percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public static void deleteRecursively(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * Samples the used heap in the background and keeps the largest value.
+     */
+    private static final class HeapSampler {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peak = new AtomicLong();
+        private volatile boolean running;
+        private Thread thread;
+
+        void start() {
+            running = true;
+            thread = new Thread(() -> {
+                while (running) {
+                    peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "heap-sampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        long peak() {
+            return peak.get();
+        }
+
+    }
+
+}
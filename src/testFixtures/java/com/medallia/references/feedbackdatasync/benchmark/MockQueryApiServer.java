@@ -0,0 +1,603 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+
+/**
+ * A local stand-in for the Medallia Query API and its OAuth2 token
+ * endpoint.  It serves a synthetic dataset ordered by initial finish date
+ * and survey id, and honors the cursor and end-timestamp variables of the
+ * application's query template the way the real API does; the rest of the
+ * query (its business filters and node projection) is ignored, and every
+ * record carries the survey id, the initial finish date and
+ * {@code width} custom fields.
+ *
+ * <p>Record {@code i} has survey id {@code i + 1} and an initial finish
+ * date of {@code baseEpochSecond + i / recordsPerSecond}.  Latency, server
+ * errors and throttling can be injected per request.  Pages are gzipped
+ * for clients that accept it when {@code --gzip=true}, and access tokens
+ * expire after {@code --token-ttl-sec}.  With
+ * {@code --persisted-queries=true}, a request that names its query by an
+ * unregistered hash is answered with {@code PersistedQueryNotFound}.</p>
+ *
+ * <p>Run it stand-alone to point the real application at it:</p>
+ *
+ * <pre>
+ * java -cp ... MockQueryApiServer --port=8089 --records=100000 --width=20
+ * </pre>
+ */
+public class MockQueryApiServer implements Closeable {
+
+    private static final TypeReference<Map<String, Object>> REQUEST_TYPE =
+        new TypeReference<Map<String, Object>>() { };
+
+    private static final byte[] PERSISTED_QUERY_NOT_FOUND = (
+        "{\"errors\":[{\"message\":\"PersistedQueryNotFound\","
+            + "\"extensions\":{\"code\":\"PERSISTED_QUERY_NOT_FOUND\"}}]}"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private final Options options;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final List<Long> pageIntervalNanos = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong firstRequestNanos = new AtomicLong();
+    private final AtomicLong firstPageNanos = new AtomicLong();
+    private final AtomicLong lastPageNanos = new AtomicLong();
+    private final AtomicLong pagesServed = new AtomicLong();
+    private final AtomicLong recordsServed = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong errorsInjected = new AtomicLong();
+    private final AtomicLong throttlesInjected = new AtomicLong();
+    private final AtomicLong tokensIssued = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final Set<Object> persistedQueries = ConcurrentHashMap.newKeySet();
+    private final Set<InetSocketAddress> queryConnections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts the server.
+     *
+     * @param options the dataset and fault-injection settings
+     * @throws IOException if the port cannot be bound
+     */
+    public MockQueryApiServer(final Options options) throws IOException {
+        this.options = options;
+        this.executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("mock-query-api-%d")
+                .setDaemon(true)
+                .build()
+        );
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", options.port), 64);
+        this.server.createContext("/oauth/token", this::handleToken);
+        this.server.createContext("/query", this::handleQuery);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Options options = Options.parse(args);
+        final MockQueryApiServer server = new MockQueryApiServer(options);
+
+        System.out.println("Mock Query API listening on " + server.getQueryUrl());
+        System.out.println("Token endpoint: " + server.getTokenUrl());
+        System.out.println("Default start timestamp: " + (options.baseEpochSecond - 1));
+    }
+
+    public String getQueryUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/query";
+    }
+
+    public String getTokenUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/oauth/token";
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns when the first page was served.
+     *
+     * @return the {@link System#nanoTime()} of the first page, or 0
+     */
+    /**
+     * Returns when the first query request since the last
+     * {@link #resetFirstRequest()} arrived, before it was read or served.
+     */
+    public long getFirstRequestNanos() {
+        return firstRequestNanos.get();
+    }
+
+    public void resetFirstRequest() {
+        firstRequestNanos.set(0);
+    }
+
+    public long getFirstPageNanos() {
+        return firstPageNanos.get();
+    }
+
+    public long getPagesServed() {
+        return pagesServed.get();
+    }
+
+    public long getRecordsServed() {
+        return recordsServed.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getErrorsInjected() {
+        return errorsInjected.get();
+    }
+
+    public long getThrottlesInjected() {
+        return throttlesInjected.get();
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    public long getTokensIssued() {
+        return tokensIssued.get();
+    }
+
+    /**
+     * Returns the number of connections Query API requests arrived on,
+     * which shows whether clients keep their connections alive.
+     *
+     * @return the number of distinct client connections
+     */
+    public int getQueryConnections() {
+        return queryConnections.size();
+    }
+
+    /**
+     * Returns the time between consecutive successful page requests, which
+     * is the whole fetch/decode/persist cycle of a page as the client sees
+     * it.
+     *
+     * @return the intervals in nanoseconds, sorted
+     */
+    public long[] getSortedPageIntervalNanos() {
+        final long[] intervals;
+        synchronized (pageIntervalNanos) {
+            intervals = pageIntervalNanos.stream().mapToLong(Long::longValue).toArray();
+        }
+        Arrays.sort(intervals);
+        return intervals;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleToken(final HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+
+        final byte[] body = (
+            "{\"access_token\":\"mock-token-" + tokensIssued.incrementAndGet() + "\","
+                + "\"token_type\":\"Bearer\",\"expires_in\":" + options.tokenTtlSec + "}"
+        ).getBytes(StandardCharsets.UTF_8);
+
+        writeJson(exchange, body);
+    }
+
+    private void handleQuery(final HttpExchange exchange) throws IOException {
+        firstRequestNanos.compareAndSet(0, System.nanoTime());
+
+        try {
+            // Read the whole body first; an unread remainder makes the server
+            // drop the connection instead of keeping it alive
+            final Map<String, Object> request;
+            try (InputStream in = exchange.getRequestBody()) {
+                final byte[] body = in.readAllBytes();
+                requestBytes.addAndGet(body.length);
+                request = objectMapper.readValue(body, REQUEST_TYPE);
+            }
+            queryConnections.add(exchange.getRemoteAddress());
+
+            sleep(options.latencyMsec);
+
+            final double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < options.throttleRate) {
+                throttlesInjected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(429, -1);
+                return;
+            }
+            if (roll < options.throttleRate + options.errorRate) {
+                errorsInjected.incrementAndGet();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            if (options.persistedQueries && !knowsQuery(request)) {
+                writeJson(exchange, PERSISTED_QUERY_NOT_FOUND);
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> variables = (Map<String, Object>) request.get("variables");
+
+            final long startTimestamp = Long.parseLong(String.valueOf(variables.get("startTimestamp")));
+            final long startSurveyId = Long.parseLong(String.valueOf(variables.get("startSurveyId")));
+            final long endTimestamp = Long.parseLong(String.valueOf(variables.get("endTimestamp")));
+            final int first = Integer.parseInt(String.valueOf(variables.get("numRecordsPerRequest")));
+
+            // Records are ordered by finish date and then survey id, which is
+            // simply their index
+            final long startIndex = firstIndex(i -> finishDate(i) > startTimestamp
+                || (finishDate(i) == startTimestamp && surveyId(i) > startSurveyId));
+            final long endIndex = firstIndex(i -> finishDate(i) >= endTimestamp);
+            final long totalCount = Math.max(0, endIndex - startIndex);
+            final long pageEnd = Math.min(endIndex, startIndex + first);
+
+            final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            final boolean gzip = options.gzip && acceptEncoding != null && acceptEncoding.contains("gzip");
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, 0);
+
+            // Count the bytes on the wire, i.e. after compression
+            final CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody());
+            final OutputStream body = gzip ? new GZIPOutputStream(out, 8192) : out;
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body, JsonEncoding.UTF8)) {
+                writePage(generator, totalCount, startIndex, pageEnd);
+            }
+
+            recordPage(Math.max(0, pageEnd - startIndex), out.count);
+        } catch (RuntimeException e) {
+            exchange.sendResponseHeaders(400, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Registers a request's automatic persisted query if it carries the
+     * query's text, and returns whether the query is known.
+     */
+    private boolean knowsQuery(final Map<String, Object> request) {
+        final Object extensions = request.get("extensions");
+        final Object persistedQuery = extensions instanceof Map ? ((Map<?, ?>) extensions).get("persistedQuery") : null;
+        if (!(persistedQuery instanceof Map)) {
+            return request.get("query") != null;
+        }
+
+        final Object hash = ((Map<?, ?>) persistedQuery).get("sha256Hash");
+        if (request.get("query") != null) {
+            persistedQueries.add(hash);
+            return true;
+        }
+        return persistedQueries.contains(hash);
+    }
+
+    private static void writeJson(final HttpExchange exchange, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void writePage(
+            final JsonGenerator generator,
+            final long totalCount,
+            final long startIndex,
+            final long pageEnd
+    ) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("data");
+        generator.writeObjectFieldStart("feedback");
+        generator.writeNumberField("totalCount", totalCount);
+        generator.writeArrayFieldStart("nodes");
+
+        for (long i = startIndex; i < pageEnd; i++) {
+            final Random random = new Random(i);
+
+            generator.writeStartObject();
+            writeValues(generator, SURVEY_ID, Long.toString(surveyId(i)));
+            writeValues(generator, FINISH_DATE, Long.toString(finishDate(i)));
+
+            for (int field = 0; field < options.width; field++) {
+                final String value;
+                if (field == 0 && options.commentBytes > 0) {
+                    value = comment(random, options.commentBytes);
+                } else if (field % 3 == 0) {
+                    value = Integer.toString(random.nextInt(11));
+                } else {
+                    value = "opt_" + random.nextInt(6);
+                }
+                writeValues(generator, SyntheticPages.fieldName(field), value);
+            }
+
+            generator.writeEndObject();
+        }
+
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private static void writeValues(final JsonGenerator generator, final String name, final String value) throws IOException {
+        generator.writeObjectFieldStart(name);
+        generator.writeArrayFieldStart("values");
+        generator.writeString(value);
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static String comment(final Random random, final int length) {
+        final char[] comment = new char[length];
+        for (int i = 0; i < length; i++) {
+            comment[i] = i % 7 == 6 ? ' ' : (char) ('a' + random.nextInt(26));
+        }
+        return new String(comment);
+    }
+
+    private void recordPage(final long records, final long bytes) {
+        final long now = System.nanoTime();
+        final long previous = lastPageNanos.getAndSet(now);
+        if (previous != 0) {
+            pageIntervalNanos.add(now - previous);
+        } else {
+            firstPageNanos.compareAndSet(0, now);
+        }
+
+        pagesServed.incrementAndGet();
+        recordsServed.addAndGet(records);
+        bytesServed.addAndGet(bytes);
+    }
+
+    private long surveyId(final long index) {
+        return index + 1;
+    }
+
+    private long finishDate(final long index) {
+        return options.baseEpochSecond + index / options.recordsPerSecond;
+    }
+
+    /**
+     * Returns the first record index in {@code [0, records]} for which a
+     * predicate that is monotonic over the ordering holds.
+     */
+    private long firstIndex(final LongPredicate predicate) {
+        long low = 0;
+        long high = options.records;
+
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (predicate.test(middle)) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return low;
+    }
+
+    private static void sleep(final long msec) {
+        if (msec <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(msec);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        try (InputStream body = in) {
+            final byte[] buffer = new byte[4096];
+            while (body.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+    }
+
+    /**
+     * The dataset and fault-injection settings, parsed from
+     * {@code --name=value} arguments.
+     */
+    public static final class Options {
+
+        private static final Set<String> NAMES = new HashSet<>(Arrays.asList(
+            "port",
+            "records",
+            "width",
+            "records-per-second",
+            "comment-bytes",
+            "latency-msec",
+            "error-rate",
+            "throttle-rate",
+            "gzip",
+            "token-ttl-sec",
+            "persisted-queries"
+        ));
+
+        private int port = 0;
+        private long records = 100_000;
+        private int width = 20;
+        private int recordsPerSecond = 3;
+        private int commentBytes = 0;
+        private long latencyMsec = 0;
+        private double errorRate = 0;
+        private double throttleRate = 0;
+        private boolean gzip = false;
+        private long tokenTtlSec = 3600;
+        private boolean persistedQueries = false;
+        private long baseEpochSecond;
+
+        /**
+         * Parses the options this server understands; anything else is
+         * left for the caller.
+         *
+         * @param args the command line arguments
+         * @return the options
+         */
+        public static Options parse(final String... args) {
+            final Options options = new Options();
+
+            for (final String arg : args) {
+                if (!isOption(arg)) {
+                    continue;
+                }
+
+                final int equals = arg.indexOf('=');
+                final String name = arg.substring(2, equals);
+                final String value = arg.substring(equals + 1);
+
+                switch (name) {
+                    case "port":
+                        options.port = Integer.parseInt(value);
+                        break;
+                    case "records":
+                        options.records = Long.parseLong(value);
+                        break;
+                    case "width":
+                        options.width = Integer.parseInt(value);
+                        break;
+                    case "records-per-second":
+                        options.recordsPerSecond = Integer.parseInt(value);
+                        break;
+                    case "comment-bytes":
+                        options.commentBytes = Integer.parseInt(value);
+                        break;
+                    case "latency-msec":
+                        options.latencyMsec = Long.parseLong(value);
+                        break;
+                    case "error-rate":
+                        options.errorRate = Double.parseDouble(value);
+                        break;
+                    case "throttle-rate":
+                        options.throttleRate = Double.parseDouble(value);
+                        break;
+                    case "gzip":
+                        options.gzip = Boolean.parseBoolean(value);
+                        break;
+                    case "token-ttl-sec":
+                        options.tokenTtlSec = Long.parseLong(value);
+                        break;
+                    case "persisted-queries":
+                        options.persistedQueries = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            // The whole dataset lies in the past, ending an hour ago
+            options.baseEpochSecond = System.currentTimeMillis() / 1000
+                - options.records / options.recordsPerSecond
+                - 3600;
+
+            return options;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public long getBaseEpochSecond() {
+            return baseEpochSecond;
+        }
+
+        public int getCommentBytes() {
+            return commentBytes;
+        }
+
+        public long getLatencyMsec() {
+            return latencyMsec;
+        }
+
+        public int getRecordsPerSecond() {
+            return recordsPerSecond;
+        }
+
+        /**
+         * Returns whether an argument is one of this server's options.
+         *
+         * @param arg a command line argument
+         * @return whether the argument is a {@code --name=value} option of
+         *         this server
+         */
+        public static boolean isOption(final String arg) {
+            final int equals = arg.indexOf('=');
+            return arg.startsWith("--") && equals > 2 && NAMES.contains(arg.substring(2, equals));
+        }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.medallia.references.feedbackdatasync.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.medallia.references.feedbackdatasync.model.FeedbackPage;
+import com.medallia.references.feedbackdatasync.model.FieldSchema;
+import com.medallia.references.feedbackdatasync.model.QueryApiResponse;
+import com.medallia.references.feedbackdatasync.service.QueryApiStreamDecoder;
+
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.FINISH_DATE;
+import static com.medallia.references.feedbackdatasync.constants.GraphQlConstants.SURVEY_ID;
+
+/**
+ * Generates synthetic Query API pages.  Besides the survey id and initial
+ * finish date, every record has {@code width} custom fields whose values
+ * mimic a typical program: mostly short option codes and numbers, with a
+ * free-text comment every tenth field and an occasional multi-valued field.
+ * The same arguments always produce the same page.
+ */
+public final class SyntheticPages {
+
+    private static final String[] WORDS = {
+        "service", "friendly", "wait", "store", "staff", "price", "clean",
+        "checkout", "quick", "helpful", "again", "recommend", "never", "great"
+    };
+
+    private SyntheticPages() {
+    }
+
+    /**
+     * Returns the alias of a custom field.
+     *
+     * @param field the field index
+     * @return the alias used in the node projection
+     */
+    public static String fieldName(final int field) {
+        return String.format("field%02d", field);
+    }
+
+    /**
+     * Declares the custom fields of the pages with the types of their
+     * values: comments as strings, the multi-valued fields as numbers, the
+     * other numeric fields as single numbers and the option codes as enums.
+     *
+     * @param width the number of custom fields per record
+     * @return the field schema
+     */
+    public static FieldSchema fieldSchema(final int width) {
+        final StringBuilder schema = new StringBuilder();
+
+        for (int field = 0; field < width; field++) {
+            final String type;
+            if (field % 10 == 9) {
+                type = "string";
+            } else if (field % 10 == 7) {
+                type = "long[]";
+            } else if (field % 3 == 0) {
+                type = "long";
+            } else {
+                type = "enum";
+            }
+
+            schema.append(fieldName(field)).append("=q_field_").append(field).append(':').append(type).append(',');
+        }
+        return FieldSchema.parse(schema.toString());
+    }
+
+    /**
+     * Generates the records of a page.
+     *
+     * @param records the number of records
+     * @param width the number of custom fields per record
+     * @param firstSurveyId the survey id of the first record; the rest
+     *                      follow consecutively
+     * @param firstFinishDate the initial finish date of the first record, in
+     *                        epoch seconds
+     * @return the records in Query API order
+     */
+    public static List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes(
+            final int records,
+            final int width,
+            final long firstSurveyId,
+            final long firstFinishDate
+    ) {
+        final Random random = new Random(firstSurveyId * 31 + width);
+        final List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes = new ArrayList<>(records);
+
+        for (int i = 0; i < records; i++) {
+            final Map<String, QueryApiResponse.NodeValuesWrapper> node = new LinkedHashMap<>();
+            node.put(SURVEY_ID, values(Long.toString(firstSurveyId + i)));
+            node.put(FINISH_DATE, values(Long.toString(firstFinishDate + i / 3)));
+
+            for (int field = 0; field < width; field++) {
+                node.put(fieldName(field), fieldValues(random, field));
+            }
+
+            nodes.add(node);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Generates the JSON body of a Query API response.
+     *
+     * @param objectMapper the mapper used to serialize the response
+     * @param records the number of records
+     * @param width the number of custom fields per record
+     * @param firstSurveyId the survey id of the first record
+     * @param firstFinishDate the initial finish date of the first record
+     * @param totalCount the {@code totalCount} to report
+     * @return the response body
+     */
+    public static byte[] responseBody(
+            final ObjectMapper objectMapper,
+            final int records,
+            final int width,
+            final long firstSurveyId,
+            final long firstFinishDate,
+            final long totalCount
+    ) {
+        return responseBody(objectMapper, nodes(records, width, firstSurveyId, firstFinishDate), totalCount);
+    }
+
+    /**
+     * Generates the JSON body of a Query API response of the given records.
+     *
+     * @param objectMapper the mapper used to serialize the response
+     * @param nodes the records
+     * @param totalCount the {@code totalCount} to report
+     * @return the response body
+     */
+    public static byte[] responseBody(
+            final ObjectMapper objectMapper,
+            final List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes,
+            final long totalCount
+    ) {
+        final QueryApiResponse.FeedbackWrapper feedback = new QueryApiResponse.FeedbackWrapper();
+        feedback.setTotalCount(totalCount);
+        feedback.setNodes(nodes);
+
+        final QueryApiResponse.DataWrapper data = new QueryApiResponse.DataWrapper();
+        data.setFeedback(feedback);
+
+        final QueryApiResponse response = new QueryApiResponse();
+        response.setData(data);
+
+        try {
+            return objectMapper.writer()
+                .without(SerializationFeature.INDENT_OUTPUT)
+                .writeValueAsString(response)
+                .getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generates a page in the compact form the pipeline persists.
+     *
+     * @param objectMapper the mapper used by the decoder
+     * @param records the number of records
+     * @param width the number of custom fields per record
+     * @param firstSurveyId the survey id of the first record
+     * @param firstFinishDate the initial finish date of the first record
+     * @return the page
+     */
+    public static FeedbackPage page(
+            final ObjectMapper objectMapper,
+            final int records,
+            final int width,
+            final long firstSurveyId,
+            final long firstFinishDate
+    ) {
+        return page(objectMapper, nodes(records, width, firstSurveyId, firstFinishDate), FieldSchema.empty());
+    }
+
+    /**
+     * Decodes records into the compact form the pipeline persists, as the
+     * pipeline would for a job with the given field schema.
+     *
+     * @param objectMapper the mapper used by the decoder
+     * @param nodes the records
+     * @param schema the declared fields
+     * @return the page
+     */
+    public static FeedbackPage page(
+            final ObjectMapper objectMapper,
+            final List<Map<String, QueryApiResponse.NodeValuesWrapper>> nodes,
+            final FieldSchema schema
+    ) {
+        final byte[] body = responseBody(objectMapper, nodes, nodes.size());
+        final List<FeedbackPage> pages = new ArrayList<>(1);
+
+        try {
+            final QueryApiStreamDecoder decoder =
+                new QueryApiStreamDecoder(objectMapper, schema, pages::add, Integer.MAX_VALUE);
+            decoder.feed(body, 0, body.length);
+            decoder.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return pages.isEmpty() ? FeedbackPage.empty() : pages.get(0);
+    }
+
+    private static QueryApiResponse.NodeValuesWrapper fieldValues(final Random random, final int field) {
+        if (field % 10 == 9) {
+            final StringBuilder comment = new StringBuilder();
+            final int words = 5 + random.nextInt(40);
+
+            for (int i = 0; i < words; i++) {
+                if (i > 0) {
+                    comment.append(' ');
+                }
+                comment.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+
+            return values(comment.toString());
+        }
+
+        if (field % 10 == 7) {
+            final List<String> options = new ArrayList<>();
+            final int count = random.nextInt(4);
+
+            for (int i = 0; i < count; i++) {
+                options.add(Integer.toString(random.nextInt(20)));
+            }
+
+            final QueryApiResponse.NodeValuesWrapper wrapper = new QueryApiResponse.NodeValuesWrapper();
+            wrapper.setValues(options);
+            return wrapper;
+        }
+
+        if (field % 3 == 0) {
+            return values(Integer.toString(random.nextInt(11)));
+        }
+
+        return random.nextInt(8) == 0 ? nullValues() : values("opt_" + random.nextInt(6));
+    }
+
+    private static QueryApiResponse.NodeValuesWrapper values(final String value) {
+        final QueryApiResponse.NodeValuesWrapper wrapper = new QueryApiResponse.NodeValuesWrapper();
+        wrapper.setValues(Collections.singletonList(value));
+        return wrapper;
+    }
+
+    private static QueryApiResponse.NodeValuesWrapper nullValues() {
+        return new QueryApiResponse.NodeValuesWrapper();
+    }
+
+}